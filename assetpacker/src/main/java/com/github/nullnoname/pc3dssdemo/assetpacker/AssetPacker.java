@@ -0,0 +1,215 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.assetpacker;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.github.nullnoname.pc3dssdemo.audio.AssetPack;
+
+/**
+ * Build-time packer of the asset pack (see {@link AssetPack}): writes every sound of a directory into one file,
+ * with the index sorted by name hash and the data of each sound aligned to a page.
+ * <pre>
+ * AssetPacker [--page-size bytes] assetDir output.pack
+ * </pre>
+ * Sounds are the files with an audio extension (wav, ogg, spx, mod, xm, s3m, mid, midi), named by their path under the directory
+ * with '/' separators, the same as their asset path. Other files are left out.
+ * @author NullNoname
+ */
+public class AssetPacker {
+	public static void main(String[] args) throws Exception {
+		int pageSize = AssetPack.DEFAULT_PAGE_SIZE;
+		List<String> paths = new ArrayList<String>();
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].equals("--page-size") && i + 1 < args.length) pageSize = Integer.parseInt(args[++i]);
+			else if(args[i].startsWith("--")) paths.add(null);
+			else paths.add(args[i]);
+		}
+		if(paths.size() != 2 || paths.contains(null) || pageSize <= 0) {
+			System.err.println("Usage: AssetPacker [--page-size bytes] assetDir output.pack");
+			System.exit(2);
+		}
+
+		File output = new File(paths.get(1));
+		File parent = output.getAbsoluteFile().getParentFile();
+		if(!parent.isDirectory() && !parent.mkdirs()) throw new IOException("Cannot create " + parent);
+		List<Entry> entries = pack(new File(paths.get(0)), output, pageSize);
+
+		long dataBytes = 0;
+		for(Entry entry : entries) {
+			System.out.println(String.format("%10d %8d %-6s %s", entry.offset, entry.file.length(), AssetPack.getFormatName(entry.format), entry.name));
+			dataBytes += entry.file.length();
+		}
+		System.out.println(String.format("%d sounds, %d bytes of data in a %d byte pack (%d byte pages): %s",
+				entries.size(), dataBytes, output.length(), pageSize, output.getPath()));
+	}
+
+	/**
+	 * Write a pack
+	 * @param dir Directory of the sounds
+	 * @param output Pack file
+	 * @param pageSize Alignment of the data
+	 * @return Entries in index order
+	 * @throws IOException If a file cannot be read or the pack cannot be written
+	 */
+	public static List<Entry> pack(File dir, File output, int pageSize) throws IOException {
+		if(!dir.isDirectory()) throw new IOException("Not a directory: " + dir);
+		List<Entry> entries = new ArrayList<Entry>();
+		collect(dir, "", entries);
+		Collections.sort(entries, new Comparator<Entry>() {
+			public int compare(Entry a, Entry b) {
+				return (a.hash < b.hash) ? -1 : (a.hash > b.hash) ? 1 : a.name.compareTo(b.name);
+			}
+		});
+
+		// Name table
+		int namesOffset = AssetPack.HEADER_SIZE + entries.size() * AssetPack.ENTRY_SIZE;
+		int namesLength = 0;
+		for(Entry entry : entries) {
+			entry.nameBytes = entry.name.getBytes("UTF-8");
+			entry.nameOffset = namesLength;
+			namesLength += entry.nameBytes.length;
+		}
+
+		// Data, each on a page boundary
+		long offset = align((long)namesOffset + namesLength, pageSize);
+		for(Entry entry : entries) {
+			if(entry.file.length() > Integer.MAX_VALUE) throw new IOException("Too large: " + entry.file);
+			entry.offset = offset;
+			offset = align(offset + entry.file.length(), pageSize);
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output), 65536));
+		try {
+			out.writeInt(AssetPack.MAGIC);
+			out.writeInt(AssetPack.VERSION);
+			out.writeInt(pageSize);
+			out.writeInt(entries.size());
+			out.writeInt(namesOffset);
+			out.writeInt(namesLength);
+			for(Entry entry : entries) {
+				out.writeLong(entry.hash);
+				out.writeLong(entry.offset);
+				out.writeInt((int)entry.file.length());
+				out.writeInt(entry.format);
+				out.writeInt(entry.nameOffset);
+				out.writeInt(entry.nameBytes.length);
+			}
+			for(Entry entry : entries) {
+				out.write(entry.nameBytes);
+			}
+
+			byte[] buffer = new byte[65536];
+			for(Entry entry : entries) {
+				pad(out, entry.offset);
+				InputStream in = new FileInputStream(entry.file);
+				try {
+					int n;
+					while((n = in.read(buffer)) > 0) out.write(buffer, 0, n);
+				} finally {
+					in.close();
+				}
+			}
+			pad(out, offset);
+		} finally {
+			out.close();
+		}
+		return entries;
+	}
+
+	/**
+	 * Find the sounds of a directory and its subdirectories
+	 * @param dir Directory
+	 * @param prefix Asset path of the directory ("" or ending with '/')
+	 * @param entries Found sounds
+	 */
+	private static void collect(File dir, String prefix, List<Entry> entries) {
+		File[] files = dir.listFiles();
+		if(files == null) return;
+		for(File file : files) {
+			String name = prefix + file.getName();
+			if(file.isDirectory()) {
+				collect(file, name + "/", entries);
+			} else if(AssetPack.getFormat(name) != AssetPack.FORMAT_UNKNOWN) {
+				Entry entry = new Entry();
+				entry.name = name;
+				entry.file = file;
+				entry.hash = AssetPack.hash(name);
+				entry.format = AssetPack.getFormat(name);
+				entries.add(entry);
+			}
+		}
+	}
+
+	/**
+	 * Write zeros up to a position
+	 * @param out Output
+	 * @param position Position
+	 * @throws IOException If writing failed
+	 */
+	private static void pad(DataOutputStream out, long position) throws IOException {
+		while(out.size() < position) out.write(0);
+	}
+
+	/**
+	 * @param value Value
+	 * @param alignment Alignment
+	 * @return Value rounded up to a multiple of the alignment
+	 */
+	private static long align(long value, int alignment) {
+		return (value + alignment - 1) / alignment * alignment;
+	}
+
+	/**
+	 * One sound of the pack
+	 */
+	public static class Entry {
+		/** Asset path */
+		public String name;
+		/** Source file */
+		public File file;
+		/** Name hash */
+		public long hash;
+		/** Format code */
+		public int format;
+		/** Offset of the data in the pack */
+		public long offset;
+		/** Name in UTF-8, and its offset in the name table */
+		byte[] nameBytes;
+		int nameOffset;
+	}
+}
@@ -0,0 +1,297 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.benchmark;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import paulscode.sound.FileDescriptorWrapper;
+import paulscode.sound.FileInputProvider;
+import paulscode.sound.FilenameURL;
+import paulscode.sound.SoundSystemConfig;
+
+import com.github.nullnoname.pc3dssdemo.assetpacker.AssetPacker;
+import com.github.nullnoname.pc3dssdemo.audio.AssetPack;
+
+/**
+ * Checks the asset pack and compares opening sounds from it with opening loose files.
+ * <ul>
+ * <li>The assets are packed into a temporary file: every entry must be found by name, page-aligned, and hold the bytes of its file.</li>
+ * <li>Every sound with a codec is decoded from the loose file and from the pack; the PCM must be the same.</li>
+ * <li>A set of small generated sounds (the size of a large game's sound effects) is opened in random order through both providers:
+ * lookup, length, stream and header read (the stream path), and lookup, descriptor and start offset (the descriptor path).</li>
+ * </ul>
+ * The files are in the OS cache for both, so the open times are the cost of the lookups and system calls, not of the disk.
+ * <pre>
+ * AssetPackCheck [--sounds N] [--opens N]
+ * </pre>
+ * @author NullNoname
+ */
+public class AssetPackCheck {
+	/** Size of the generated sounds (PCM bytes after the WAV header) */
+	private static final int GENERATED_DATA_SIZE = 2048;
+	/** Bytes read from each opened stream */
+	private static final int HEADER_READ = 44;
+
+	public static void main(String[] args) throws Exception {
+		int sounds = 2000, opens = 20000;
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].equals("--sounds") && i + 1 < args.length) sounds = Integer.parseInt(args[++i]);
+			else if(args[i].equals("--opens") && i + 1 < args.length) opens = Integer.parseInt(args[++i]);
+			else {
+				System.err.println("Usage: AssetPackCheck [--sounds N] [--opens N]");
+				System.exit(2);
+			}
+		}
+
+		HeadlessEnvironment.init();
+		File assetDir = HeadlessEnvironment.getAssetDir();
+		FileInputProvider loose = SoundSystemConfig.getFileInputProvider();
+		boolean ok = true;
+
+		// The pack of the demo's assets
+		File packFile = File.createTempFile("assets", ".pack");
+		packFile.deleteOnExit();
+		List<AssetPacker.Entry> entries = AssetPacker.pack(assetDir, packFile, AssetPack.DEFAULT_PAGE_SIZE);
+		LocalPackFileInputProvider packed = LocalPackFileInputProvider.open(packFile, loose);
+		AssetPack pack = packed.getPack();
+		System.out.println(String.format("Packed %d sounds into %d bytes (%d bytes of index and names)", pack.size(), packFile.length(),
+				pack.getOffset(0)));
+		for(AssetPacker.Entry entry : entries) {
+			int index = pack.find(entry.name);
+			if(index < 0) {
+				System.out.println(entry.name + ": not found");
+				ok = false;
+			} else if(pack.getOffset(index) % AssetPack.DEFAULT_PAGE_SIZE != 0) {
+				System.out.println(entry.name + ": not page-aligned");
+				ok = false;
+			} else if(!pack.slice(index).equals(ByteBuffer.wrap(readFile(entry.file)))) {
+				System.out.println(entry.name + ": bytes differ");
+				ok = false;
+			}
+		}
+		if(pack.find("missing.ogg") >= 0) {
+			System.out.println("missing.ogg: found");
+			ok = false;
+		}
+
+		// Decoding from the pack
+		System.out.println(String.format("%-16s %-18s %-34s %s", "File", "Codec", "Loose MD5", "Pack"));
+		for(AssetPacker.Entry entry : entries) {
+			if(SoundSystemConfig.getCodec(entry.name) == null) continue;
+			FilenameURL filenameURL = HeadlessEnvironment.createFilenameURL(entry.name);
+			SoundSystemConfig.setFileInputProvider(loose);
+			OfflineRenderer.Result fromLoose = OfflineRenderer.render(filenameURL, PcmSink.NULL);
+			SoundSystemConfig.setFileInputProvider(packed);
+			OfflineRenderer.Result fromPack = OfflineRenderer.render(filenameURL, PcmSink.NULL);
+			boolean same = fromLoose.md5.equals(fromPack.md5);
+			System.out.println(String.format("%-16s %-18s %-34s %s", entry.name, fromLoose.codec, fromLoose.md5, same ? "same" : fromPack.md5));
+			ok &= same;
+		}
+		SoundSystemConfig.setFileInputProvider(loose);
+
+		// Open cost with many sounds
+		File soundDir = createSounds(sounds);
+		File soundPackFile = new File(soundDir.getParentFile(), soundDir.getName() + ".pack");
+		soundPackFile.deleteOnExit();
+		long begin = System.nanoTime();
+		AssetPacker.pack(soundDir, soundPackFile, AssetPack.DEFAULT_PAGE_SIZE);
+		long packNanos = System.nanoTime() - begin;
+		FileInputProvider soundLoose = new LocalAssetFileInputProvider(soundDir);
+		begin = System.nanoTime();
+		LocalPackFileInputProvider soundPacked = LocalPackFileInputProvider.open(soundPackFile, soundLoose);
+		long mapNanos = System.nanoTime() - begin;
+		System.out.println(String.format("%d generated sounds: packed in %dms, mapped and indexed in %.2fms", sounds, packNanos / 1000000,
+				mapNanos / 1e6));
+
+		FilenameURL[] urls = new FilenameURL[opens];
+		Random random = new Random(1);
+		for(int i = 0; i < opens; i++) {
+			String name = soundName(random.nextInt(sounds));
+			urls[i] = new FilenameURL(LocalAssetFileInputProvider.createAssetURL(name), name);
+		}
+		for(int round = 0; round < 3; round++) {
+			// The first rounds warm up the JIT and the OS cache
+			boolean last = (round == 2);
+			double looseStream = openStreams(soundLoose, urls), packStream = openStreams(soundPacked, urls);
+			double looseFd = openDescriptors(soundLoose, urls), packFd = openDescriptors(soundPacked, urls);
+			if(last) {
+				System.out.println(String.format("Stream path:     loose %7.2fus/open, pack %7.2fus/open (%.1fx)", looseStream, packStream,
+						looseStream / packStream));
+				System.out.println(String.format("Descriptor path: loose %7.2fus/open, pack %7.2fus/open (%.1fx)", looseFd, packFd,
+						looseFd / packFd));
+			}
+		}
+		deleteSounds(soundDir, sounds);
+
+		System.out.println(ok ? "OK" : "FAILED");
+		if(!ok) System.exit(1);
+	}
+
+	/**
+	 * Open every URL through the stream path, the way codecs without descriptor support do
+	 * @param provider Provider
+	 * @param urls URLs
+	 * @return Microseconds per open
+	 * @throws IOException If a sound cannot be read
+	 */
+	private static double openStreams(FileInputProvider provider, FilenameURL[] urls) throws IOException {
+		byte[] header = new byte[HEADER_READ];
+		long begin = System.nanoTime();
+		for(FilenameURL url : urls) {
+			if(provider.getContentLength(url) <= HEADER_READ) throw new IOException(url.getFilename() + ": bad length");
+			InputStream in = provider.openStream(url);
+			try {
+				int done = 0;
+				while(done < HEADER_READ) {
+					int n = in.read(header, done, HEADER_READ - done);
+					if(n <= 0) throw new IOException(url.getFilename() + ": short read");
+					done += n;
+				}
+			} finally {
+				in.close();
+			}
+			if(header[0] != 'R') throw new IOException(url.getFilename() + ": not a WAV file");
+		}
+		return (System.nanoTime() - begin) / 1000.0 / urls.length;
+	}
+
+	/**
+	 * Open every URL through the descriptor path, the way CodecWavChannel and MediaPlayer do
+	 * @param provider Provider
+	 * @param urls URLs
+	 * @return Microseconds per open
+	 * @throws IOException If a sound cannot be opened
+	 */
+	private static double openDescriptors(FileInputProvider provider, FilenameURL[] urls) throws IOException {
+		long begin = System.nanoTime();
+		long sum = 0;
+		for(FilenameURL url : urls) {
+			FileDescriptorWrapper fd = provider.openFileDescriptorWrapper(url);
+			try {
+				if(!fd.getFileDescriptor().valid()) throw new IOException(url.getFilename() + ": invalid descriptor");
+				sum += provider.getContentStartOffset(url) + provider.getContentLength(url);
+			} finally {
+				fd.close();
+			}
+		}
+		if(sum <= 0) throw new IOException("No content");
+		return (System.nanoTime() - begin) / 1000.0 / urls.length;
+	}
+
+	/**
+	 * @param index Sound number
+	 * @return Asset path of a generated sound (spread over subdirectories, like a game's sounds)
+	 */
+	private static String soundName(int index) {
+		return "sfx" + (index % 16) + "/sound" + index + ".wav";
+	}
+
+	/**
+	 * Write the generated sounds into a new temporary directory
+	 * @param count Number of sounds
+	 * @return Directory
+	 * @throws IOException If a file cannot be written
+	 */
+	private static File createSounds(int count) throws IOException {
+		File dir = File.createTempFile("sounds", "");
+		if(!dir.delete() || !dir.mkdir()) throw new IOException("Cannot create " + dir);
+		byte[] data = new byte[GENERATED_DATA_SIZE];
+		for(int i = 0; i < count; i++) {
+			File file = new File(dir, soundName(i));
+			if(!file.getParentFile().isDirectory() && !file.getParentFile().mkdir()) throw new IOException("Cannot create " + file.getParentFile());
+			for(int j = 0; j < data.length; j += 2) {
+				short sample = (short)(Math.sin((i + 1) * j * 0.001) * 8000);
+				data[j] = (byte)sample;
+				data[j + 1] = (byte)(sample >> 8);
+			}
+			DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+			try {
+				out.writeBytes("RIFF");
+				out.writeInt(Integer.reverseBytes(36 + data.length));
+				out.writeBytes("WAVEfmt ");
+				out.writeInt(Integer.reverseBytes(16));
+				out.writeShort(Short.reverseBytes((short)1));
+				out.writeShort(Short.reverseBytes((short)1));
+				out.writeInt(Integer.reverseBytes(22050));
+				out.writeInt(Integer.reverseBytes(44100));
+				out.writeShort(Short.reverseBytes((short)2));
+				out.writeShort(Short.reverseBytes((short)16));
+				out.writeBytes("data");
+				out.writeInt(Integer.reverseBytes(data.length));
+				out.write(data);
+			} finally {
+				out.close();
+			}
+		}
+		return dir;
+	}
+
+	/**
+	 * Delete the generated sounds and their directory
+	 * @param dir Directory
+	 * @param count Number of sounds
+	 */
+	private static void deleteSounds(File dir, int count) {
+		for(int i = 0; i < count; i++) {
+			new File(dir, soundName(i)).delete();
+		}
+		for(int i = 0; i < 16; i++) {
+			new File(dir, "sfx" + i).delete();
+		}
+		dir.delete();
+	}
+
+	/**
+	 * @param file File
+	 * @return Contents
+	 * @throws IOException If the file cannot be read
+	 */
+	private static byte[] readFile(File file) throws IOException {
+		byte[] data = new byte[(int)file.length()];
+		FileInputStream in = new FileInputStream(file);
+		try {
+			int done = 0;
+			while(done < data.length) {
+				int n = in.read(data, done, data.length - done);
+				if(n <= 0) throw new IOException(file + ": short read");
+				done += n;
+			}
+		} finally {
+			in.close();
+		}
+		return data;
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.benchmark;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.github.nullnoname.pc3dssdemo.audio.AudioEventRing;
+
+/**
+ * Measures the cost of recording an audio event (alone and from several threads at once) and of dumping the ring into a
+ * memory-mapped file, the way CrashHandler does on a crash. Exits with status 1 if recording or dumping allocates
+ * (more than the JIT does, under a byte per event), or if the dump does not end with the last event recorded.
+ * <pre>
+ * AudioEventRingCheck [--threads N]
+ * </pre>
+ * @author NullNoname
+ */
+public class AudioEventRingCheck {
+	/** Number of events kept (same as MainActivity) */
+	private static final int CAPACITY = 1024;
+
+	/** Events recorded by each thread */
+	private static final int EVENTS = 2000000;
+
+	/** Size of the mapped dump file (same as CrashHandler) */
+	private static final int DUMP_SIZE = 256 * 1024;
+
+	/** Thread allocation counter of HotSpot */
+	private static final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+	public static void main(String[] args) throws Exception {
+		int threads = 4;
+		if(args.length >= 2 && args[0].equals("--threads")) threads = Integer.parseInt(args[1]);
+
+		final AudioEventRing ring = new AudioEventRing(CAPACITY);
+		final String[] texts = {"swansong.ogg", "bm.xm", "Stream health: buffer 8192 bytes x 8 (371ms), played 12000ms, underruns 0"};
+		boolean ok = true;
+
+		// One thread: time and allocation per event
+		record(ring, texts, EVENTS);	// Warm-up
+		long threadId = Thread.currentThread().getId();
+		long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+		long begin = System.nanoTime();
+		record(ring, texts, EVENTS);
+		long nanos = System.nanoTime() - begin;
+		long allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+		System.out.println(String.format("1 thread: %.1fns/event, %d bytes allocated for %d events", nanos / (double)EVENTS, allocated, EVENTS));
+		if(allocated > 1024) ok = false;
+
+		// Several threads at once
+		Thread[] workers = new Thread[threads];
+		for(int i = 0; i < threads; i++) {
+			workers[i] = new Thread() {
+				@Override
+				public void run() {
+					record(ring, texts, EVENTS);
+				}
+			};
+		}
+		begin = System.nanoTime();
+		for(Thread worker : workers) worker.start();
+		for(Thread worker : workers) worker.join();
+		nanos = System.nanoTime() - begin;
+		System.out.println(String.format("%d threads: %.1fns/event per thread", threads, nanos / (double)EVENTS));
+
+		// Dump into a mapped file
+		ring.record(AudioEventRing.TYPE_STOP, "last.ogg", 1234, 0);
+		File file = File.createTempFile("audioevents", ".log");
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(DUMP_SIZE);
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, DUMP_SIZE);
+			ring.dump(ByteBuffer.allocate(DUMP_SIZE), System.currentTimeMillis());	// Warm-up
+			allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+			begin = System.nanoTime();
+			int count = ring.dump(buffer, System.currentTimeMillis());
+			nanos = System.nanoTime() - begin;
+			allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+			System.out.println(String.format("Dump: %d events, %d bytes in %.2fms, %d bytes allocated", count, buffer.position(), nanos / 1e6, allocated));
+			if(allocated > CAPACITY || count != Math.min(CAPACITY, ring.getCount())) ok = false;
+
+			byte[] data = new byte[buffer.position()];
+			buffer.flip();
+			buffer.get(data);
+			String text = new String(data, "US-ASCII");
+			String last = text.substring(text.lastIndexOf('\n', text.length() - 2) + 1).trim();
+			System.out.println("Last event: " + last);
+			if(!last.endsWith("stop last.ogg resume=1234")) ok = false;
+		} finally {
+			raf.close();
+			file.delete();
+		}
+
+		System.out.println(ok ? "OK" : "FAILED");
+		if(!ok) System.exit(1);
+	}
+
+	/**
+	 * Record events of every type
+	 * @param ring Ring
+	 * @param texts Texts of the events
+	 * @param events Number of events
+	 */
+	private static void record(AudioEventRing ring, String[] texts, int events) {
+		for(int i = 0; i < events; i++) {
+			ring.record(i % 6, texts[i % texts.length], i, i >> 3);
+		}
+	}
+}
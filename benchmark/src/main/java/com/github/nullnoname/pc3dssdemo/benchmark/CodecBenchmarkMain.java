@@ -0,0 +1,98 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.benchmark;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs CodecDecodeBenchmark with the GC profiler and prints MB/s, ns per frame and allocation rate per codec.
+ * Extra arguments are passed to JMH (e.g. "-p asset=bm.xm").
+ * @author NullNoname
+ */
+public class CodecBenchmarkMain {
+	public static void main(String[] args) throws Exception {
+		HeadlessEnvironment.init();
+
+		Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.include(CodecDecodeBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.jvmArgsAppend("-D" + HeadlessEnvironment.PROPERTY_ASSETS + "=" + HeadlessEnvironment.getAssetDir().getAbsolutePath())
+				.build();
+
+		Collection<RunResult> results = new Runner(options).run();
+
+		System.out.println();
+		System.out.println(String.format("%-14s %-12s %10s %12s %14s %12s",
+				"Asset", "Codec", "MB/s", "ns/frame", "Alloc MB/s", "Alloc B/frame"));
+		for(RunResult r : results) {
+			String asset = r.getParams().getParam("asset");
+			Map<String, ?> secondary = r.getSecondaryResults();
+
+			double bytesPerSec = getScore(secondary, "bytes");
+			double framesPerSec = getScore(secondary, "frames");
+			double allocMBPerSec = getScore(secondary, "gc.alloc.rate");
+			double allocBytesPerOp = getScore(secondary, "gc.alloc.rate.norm");
+			double opsPerSec = r.getPrimaryResult().getScore();
+			double framesPerOp = (opsPerSec > 0) ? (framesPerSec / opsPerSec) : Double.NaN;
+
+			System.out.println(String.format("%-14s %-12s %10.2f %12.1f %14.2f %12.2f",
+					asset, CodecDecoder.getCodecName(asset),
+					bytesPerSec / (1024 * 1024),
+					(framesPerSec > 0) ? (1e9 / framesPerSec) : Double.NaN,
+					allocMBPerSec,
+					allocBytesPerOp / framesPerOp));
+		}
+	}
+
+	/**
+	 * Get a secondary result score by its label, ignoring the profiler prefix JMH adds
+	 * @param results Secondary results
+	 * @param label Label (without prefix)
+	 * @return Score, or NaN if not found
+	 */
+	private static double getScore(Map<String, ?> results, String label) {
+		for(Map.Entry<String, ?> e : results.entrySet()) {
+			String key = e.getKey();
+			int start = 0;
+			while(start < key.length() && !Character.isLetter(key.charAt(start))) start++;
+			if(key.substring(start).equals(label)) {
+				return ((Result<?>)e.getValue()).getScore();
+			}
+		}
+		return Double.NaN;
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decode throughput of every codec registered in MainActivity.initSoundSystem().
+ * One operation is a full decode of one asset; "bytes" and "frames" are reported as rates.
+ * @author NullNoname
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecDecodeBenchmark {
+	/** Asset to decode */
+	@Param({"swansong.ogg", "bm.xm", "fables.spx", "gamestart.wav"})
+	public String asset;
+
+	/** Decoder */
+	private CodecDecoder decoder;
+
+	/**
+	 * Decoded bytes and frames, reported by JMH as per-second rates
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class DecodeCounters {
+		/** Decoded bytes */
+		public long bytes;
+		/** Decoded frames */
+		public long frames;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			bytes = 0;
+			frames = 0;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		HeadlessEnvironment.init();
+		decoder = new CodecDecoder();
+	}
+
+	@Benchmark
+	public long decode(DecodeCounters counters) {
+		long result = decoder.decode(asset);
+		counters.bytes += decoder.bytes;
+		counters.frames += decoder.frames;
+		return result;
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.benchmark;
+
+import com.github.nullnoname.pc3dssdemo.audio.ParallelDecodeCodec;
+import com.github.nullnoname.pc3dssdemo.audio.PcmBufferPool;
+import com.github.nullnoname.pc3dssdemo.audio.PcmCachingCodec;
+
+import paulscode.sound.FilenameURL;
+import paulscode.sound.ICodec;
+import paulscode.sound.PAudioFormat;
+import paulscode.sound.SoundBuffer;
+import paulscode.sound.SoundSystemConfig;
+
+/**
+ * Decodes a whole asset with the codec registered for it, the same way a streaming source would
+ * @author NullNoname
+ */
+public class CodecDecoder {
+	/** Decoded bytes of the last decode() call */
+	public long bytes;
+	/** Decoded frames of the last decode() call */
+	public long frames;
+
+	/**
+	 * Get the name of the codec class used for a file
+	 * @param filename Asset filename
+	 * @return Simple class name of the codec
+	 */
+	public static String getCodecName(String filename) {
+		ICodec codec = SoundSystemConfig.getCodec(filename);
+		if(codec instanceof ParallelDecodeCodec) codec = ParallelDecodeCodec.createDecoder(filename);
+		if(codec instanceof PcmCachingCodec) codec = ((PcmCachingCodec)codec).getWrappedCodec();
+		return (codec == null) ? "(none)" : codec.getClass().getSimpleName();
+	}
+
+	/**
+	 * Decode an asset from the beginning to the end with ICodec.read()
+	 * @param filename Asset filename
+	 * @return Number of decoded bytes
+	 */
+	public long decode(String filename) {
+		ICodec codec = SoundSystemConfig.getCodec(filename);
+		if(codec == null) throw new IllegalArgumentException("No codec for " + filename);
+		return decode(codec, HeadlessEnvironment.createFilenameURL(filename));
+	}
+
+	/**
+	 * Decode a file from the beginning to the end with ICodec.read()
+	 * @param codec Codec to use
+	 * @param filenameURL File to decode
+	 * @return Number of decoded bytes
+	 */
+	public long decode(ICodec codec, FilenameURL filenameURL) {
+		bytes = 0;
+		frames = 0;
+
+		// LibraryAudioTrack wants reversed byte order
+		codec.reverseByteOrder(true);
+		if(!codec.initialize(filenameURL)) {
+			codec.cleanup();
+			throw new IllegalStateException("Codec " + codec.getClass().getSimpleName() + " failed to initialize " + filenameURL.getFilename());
+		}
+
+		try {
+			PAudioFormat format = codec.getAudioFormat();
+			int frameSize = format.getChannels() * ((format.getSampleSizeInBits() + 7) / 8);
+
+			while(!codec.endOfStream()) {
+				SoundBuffer buffer = codec.read();
+				if(buffer == null) break;
+				if(buffer.audioData != null) {
+					bytes += buffer.audioData.length;
+					// Give the array back like MonitoredChannelAudioTrack does after writing it
+					PcmBufferPool.recycle(buffer.audioData);
+				}
+			}
+			frames = bytes / frameSize;
+		} finally {
+			codec.cleanup();
+		}
+
+		return bytes;
+	}
+}
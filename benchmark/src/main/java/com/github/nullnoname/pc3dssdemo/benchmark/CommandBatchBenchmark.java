@@ -0,0 +1,313 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.benchmark;
+
+import java.lang.management.ManagementFactory;
+
+import com.github.nullnoname.pc3dssdemo.audio.BatchSoundSystem;
+import com.github.nullnoname.pc3dssdemo.audio.CommandBatch;
+
+import paulscode.sound.CommandObject;
+import paulscode.sound.Library;
+import paulscode.sound.SoundSystem;
+import paulscode.sound.SoundSystemConfig;
+import paulscode.sound.SoundSystemException;
+
+/**
+ * Compares bursts of play/stop/volume/position commands sent one at a time through the SoundSystem methods with the
+ * same bursts sent as one {@link CommandBatch}. Both run on a silent Library, so only the cost of queueing,
+ * waking the command thread and running the commands is measured. Each burst is run before the next one is sent,
+ * like taps on the demo's buttons. Prints the submit time and the heap allocation per command, the time until the
+ * command thread has run a burst, and how many passes it needed.
+ * Exits with status 1 if the batches cost more per command than the single commands.
+ * <pre>
+ * CommandBatchBenchmark [--burst N] [--bursts N]
+ * </pre>
+ * @author NullNoname
+ */
+public class CommandBatchBenchmark {
+	/** Number of sources the commands are sent to */
+	private static final int SOURCES = 8;
+
+	/** Number of measured rounds of each mode (the best one is printed) */
+	private static final int ROUNDS = 5;
+
+	/** Thread allocation counter of HotSpot */
+	private static final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+	/** Source names */
+	private static final String[] sourcenames = new String[SOURCES];
+
+	/** Result of a round */
+	private static class Result {
+		/** Submit time per command (in nanoseconds) */
+		double submitNanos;
+		/** Time from the start of a burst until the command thread has run it (in nanoseconds) */
+		double burstNanos;
+		/** Bytes allocated by the submitting thread per command */
+		double allocated;
+		/** Command thread passes which ran at least one command, per burst */
+		double passes;
+
+		@Override
+		public String toString() {
+			return String.format("submit %5.0fns/command, %5.1f bytes/command, burst run after %6.1fus in %4.2f passes",
+					submitNanos, allocated, burstNanos / 1e3, passes);
+		}
+	}
+
+	/**
+	 * Counts the commands the command thread has run
+	 */
+	private static class Counter {
+		/** Commands run */
+		volatile long processed;
+		/** Passes which ran at least one command */
+		volatile int passes;
+
+		/**
+		 * Called before a pass (under SoundSystemConfig.THREAD_SYNC)
+		 * @param queued Number of commands in the queue
+		 */
+		void pass(int queued) {
+			if(queued == 0) return;
+			processed += queued;
+			passes++;
+		}
+
+		/**
+		 * Wait until the command thread has run a number of commands
+		 * @param count Number of commands
+		 */
+		void await(long count) {
+			while(processed < count) Thread.yield();
+		}
+	}
+
+	/**
+	 * Library which does nothing. Sources of the base Library never get a channel, and Source.stop() complains about it.
+	 */
+	public static class SilentLibrary extends Library {
+		public SilentLibrary() throws SoundSystemException {
+			super();
+		}
+
+		@Override
+		public void stop(String sourcename) {
+		}
+	}
+
+	/**
+	 * SoundSystem which counts the commands run by its command thread
+	 */
+	private static class CountingSoundSystem extends SoundSystem {
+		/** Command counter (null while the super constructor runs the command thread) */
+		volatile Counter counter;
+
+		CountingSoundSystem() throws SoundSystemException {
+			super(SilentLibrary.class);
+			counter = new Counter();
+		}
+
+		@Override
+		public boolean CommandQueue(CommandObject newCommand) {
+			if(newCommand != null) return super.CommandQueue(newCommand);
+			synchronized(SoundSystemConfig.THREAD_SYNC) {
+				Counter c = counter;
+				if(c != null) c.pass((commandQueue != null) ? commandQueue.size() : 0);
+				return super.CommandQueue(null);
+			}
+		}
+	}
+
+	/**
+	 * BatchSoundSystem which counts the commands run by its command thread
+	 */
+	private static class CountingBatchSoundSystem extends BatchSoundSystem {
+		/** Command counter (null while the super constructor runs the command thread) */
+		volatile Counter counter;
+
+		CountingBatchSoundSystem() throws SoundSystemException {
+			super(SilentLibrary.class);
+			counter = new Counter();
+		}
+
+		@Override
+		public boolean CommandQueue(CommandObject newCommand) {
+			if(newCommand != null) return super.CommandQueue(newCommand);
+			synchronized(SoundSystemConfig.THREAD_SYNC) {
+				Counter c = counter;
+				if(c != null) c.pass((commandQueue != null) ? commandQueue.size() : 0);
+				return super.CommandQueue(null);
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int burst = 8;
+		int bursts = 5000;
+		for(int i = 0; i + 1 < args.length; i += 2) {
+			if(args[i].equals("--burst")) burst = Integer.parseInt(args[i + 1]);
+			else if(args[i].equals("--bursts")) bursts = Integer.parseInt(args[i + 1]);
+		}
+
+		HeadlessEnvironment.init();
+		for(int i = 0; i < SOURCES; i++) sourcenames[i] = "source" + i;
+
+		CountingSoundSystem single = new CountingSoundSystem();
+		CountingBatchSoundSystem batched = new CountingBatchSoundSystem();
+		CommandBatch batch = batched.newBatch();
+		long singleSent = createSources(single, single.counter);
+		long batchSent = createSources(batched, batched.counter);
+
+		System.out.println("Bursts of " + burst + " commands (play, volume, position, stop), " + bursts + " bursts per round");
+
+		// Warm-up
+		singleSent += runSingle(single, burst, bursts, singleSent, new Result());
+		batchSent += runBatch(batched, batch, burst, bursts, batchSent, new Result());
+
+		Result bestSingle = null, bestBatch = null;
+		for(int round = 0; round < ROUNDS; round++) {
+			Result r = new Result();
+			singleSent += runSingle(single, burst, bursts, singleSent, r);
+			if(bestSingle == null || r.submitNanos < bestSingle.submitNanos) bestSingle = r;
+
+			r = new Result();
+			batchSent += runBatch(batched, batch, burst, bursts, batchSent, r);
+			if(bestBatch == null || r.submitNanos < bestBatch.submitNanos) bestBatch = r;
+		}
+		System.out.println("Single commands: " + bestSingle);
+		System.out.println("Command batches: " + bestBatch);
+		System.out.println(batched.getStats());
+
+		single.cleanup();
+		batched.cleanup();
+
+		boolean ok = bestBatch.submitNanos < bestSingle.submitNanos && bestBatch.allocated < bestSingle.allocated;
+		System.out.println(ok ? "OK" : "FAILED");
+		if(!ok) System.exit(1);
+	}
+
+	/**
+	 * Create the sources the commands are sent to
+	 * @param s SoundSystem
+	 * @param counter Command counter of the SoundSystem
+	 * @return Number of commands sent
+	 */
+	private static long createSources(SoundSystem s, Counter counter) {
+		for(int i = 0; i < SOURCES; i++) {
+			s.newSource(false, sourcenames[i], "silence.wav", false, 0, 0, 0, SoundSystemConfig.ATTENUATION_NONE, 0);
+		}
+		counter.await(SOURCES);
+		return SOURCES;
+	}
+
+	/**
+	 * Send the commands one at a time
+	 * @param s SoundSystem
+	 * @param burst Commands in a burst
+	 * @param bursts Number of bursts
+	 * @param sent Commands sent before this round
+	 * @param result Result of this round
+	 * @return Number of commands sent
+	 */
+	private static long runSingle(CountingSoundSystem s, int burst, int bursts, long sent, Result result) {
+		int passes = s.counter.passes;
+		long threadId = Thread.currentThread().getId();
+		long submitNanos = 0, burstNanos = 0, allocated = 0;
+		for(int b = 0; b < bursts; b++) {
+			long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+			long t = System.nanoTime();
+			for(int i = 0; i < burst; i++) {
+				String sourcename = sourcenames[i % SOURCES];
+				switch(i & 3) {
+				case 0: s.play(sourcename); break;
+				case 1: s.setVolume(sourcename, (b & 7) / 8f); break;
+				case 2: s.setPosition(sourcename, b & 3, 0, 0); break;
+				default: s.stop(sourcename); break;
+				}
+			}
+			long t2 = System.nanoTime();
+			allocated += threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+			sent += burst;
+			s.counter.await(sent);
+			submitNanos += t2 - t;
+			burstNanos += System.nanoTime() - t;
+		}
+		setResult(result, submitNanos, burstNanos, allocated, burst, bursts, s.counter.passes - passes);
+		return (long)burst * bursts;
+	}
+
+	/**
+	 * Send the commands as one batch per burst
+	 * @param s SoundSystem
+	 * @param batch Batch
+	 * @param burst Commands in a burst
+	 * @param bursts Number of bursts
+	 * @param sent Commands sent before this round
+	 * @param result Result of this round
+	 * @return Number of commands sent
+	 */
+	private static long runBatch(CountingBatchSoundSystem s, CommandBatch batch, int burst, int bursts, long sent, Result result) {
+		int passes = s.counter.passes;
+		long threadId = Thread.currentThread().getId();
+		long submitNanos = 0, burstNanos = 0, allocated = 0;
+		for(int b = 0; b < bursts; b++) {
+			long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+			long t = System.nanoTime();
+			for(int i = 0; i < burst; i++) {
+				String sourcename = sourcenames[i % SOURCES];
+				switch(i & 3) {
+				case 0: batch.play(sourcename); break;
+				case 1: batch.setVolume(sourcename, (b & 7) / 8f); break;
+				case 2: batch.setPosition(sourcename, b & 3, 0, 0); break;
+				default: batch.stop(sourcename); break;
+				}
+			}
+			batch.submit();
+			long t2 = System.nanoTime();
+			allocated += threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+			sent += burst;
+			s.counter.await(sent);
+			submitNanos += t2 - t;
+			burstNanos += System.nanoTime() - t;
+		}
+		setResult(result, submitNanos, burstNanos, allocated, burst, bursts, s.counter.passes - passes);
+		return (long)burst * bursts;
+	}
+
+	/**
+	 * Fill in the result of a round
+	 */
+	private static void setResult(Result result, long submitNanos, long burstNanos, long allocated, int burst, int bursts, int passes) {
+		long count = (long)burst * bursts;
+		result.submitNanos = submitNanos / (double)count;
+		result.burstNanos = burstNanos / (double)bursts;
+		result.allocated = allocated / (double)count;
+		result.passes = passes / (double)bursts;
+	}
+}
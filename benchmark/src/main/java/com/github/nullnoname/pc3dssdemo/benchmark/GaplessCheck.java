@@ -0,0 +1,186 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import com.github.nullnoname.pc3dssdemo.audio.PcmBufferPool;
+import com.github.nullnoname.pc3dssdemo.audio.Playlist;
+import com.github.nullnoname.pc3dssdemo.audio.PlaylistCodec;
+
+import paulscode.sound.ICodec;
+import paulscode.sound.SoundBuffer;
+import paulscode.sound.SoundSystemConfig;
+
+/**
+ * Checks the gapless playlist codec and measures its transitions.
+ * First, a playlist of files in the same format must give exactly the files one after another (no sample added or lost),
+ * and a crossfade must shorten it by exactly the crossfade length.
+ * Then a playlist of files in different formats is read at a multiple of real time, like the stream thread would,
+ * and each transition is compared with the time a new stream needs before its first buffer (codec init + first read).
+ * Run with --speed N to change the playback speed (default 16).
+ * @author NullNoname
+ */
+public class GaplessCheck {
+	/** Files in the same format (44.1kHz stereo) */
+	private static final String[] SAME_FORMAT = {"gamestart.ogg", "gamestart.wav", "gamestart.ogg"};
+
+	/** Files in different formats */
+	private static final String[] MIXED_FORMAT = {"gamestart.ogg", "fables.spx", "bm.xm", "gamestart.wav"};
+
+	/** Crossfade length of the check */
+	private static final int CROSSFADE_MILLIS = 500;
+
+	public static void main(String[] args) throws Exception {
+		HeadlessEnvironment.init();
+		int speed = 16;
+		int i = Arrays.asList(args).indexOf("--speed");
+		if(i >= 0 && i + 1 < args.length) speed = Integer.parseInt(args[i + 1]);
+
+		boolean ok = true;
+
+		// Splice: the playlist is the files one after another
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		for(String file : SAME_FORMAT) {
+			expected.write(decode(file));
+		}
+		byte[] spliced = readPlaylist(createPlaylist("splice", SAME_FORMAT, 0), 0);
+		boolean identical = Arrays.equals(expected.toByteArray(), spliced);
+		System.out.println("Splice: " + spliced.length / 4 + " frames, expected " + expected.size() / 4 + (identical ? ", identical" : ", DIFFERENT"));
+		ok &= identical;
+
+		// Crossfade: each transition overlaps by the crossfade length
+		int crossfadeFrames = 44100 * CROSSFADE_MILLIS / 1000;
+		byte[] crossfaded = readPlaylist(createPlaylist("crossfade", SAME_FORMAT, CROSSFADE_MILLIS), 0);
+		int expectedFrames = expected.size() / 4 - crossfadeFrames * (SAME_FORMAT.length - 1);
+		System.out.println("Crossfade " + CROSSFADE_MILLIS + "ms: " + crossfaded.length / 4 + " frames, expected " + expectedFrames);
+		ok &= (crossfaded.length / 4 == expectedFrames);
+
+		// Transitions between different formats, read at the speed of playback
+		for(String file : MIXED_FORMAT) {
+			firstBuffer(file);
+		}
+		Playlist playlist = createPlaylist("mixed", MIXED_FORMAT, 0);
+		readPlaylist(playlist, speed);
+		System.out.println("Mixed formats at " + speed + "x real time:");
+		System.out.println(playlist.getReport());
+		for(int j = 1; j < MIXED_FORMAT.length; j++) {
+			System.out.println(String.format("New stream for '%s' (no look-ahead): %.2fms before the first buffer",
+					MIXED_FORMAT[j], firstBuffer(MIXED_FORMAT[j]) / 1e6));
+		}
+
+		if(!ok) System.exit(1);
+	}
+
+	/**
+	 * Create and register a playlist
+	 * @param name Playlist name
+	 * @param files Asset filenames
+	 * @param crossfadeMillis Crossfade length
+	 * @return Playlist
+	 */
+	private static Playlist createPlaylist(String name, String[] files, int crossfadeMillis) {
+		Playlist playlist = new Playlist(name);
+		for(String file : files) {
+			playlist.add(file, HeadlessEnvironment.createFilenameURL(file).getURL());
+		}
+		playlist.setCrossfadeMillis(crossfadeMillis);
+		Playlist.register(playlist);
+		return playlist;
+	}
+
+	/**
+	 * Read a whole playlist through PlaylistCodec, like a streaming source
+	 * @param playlist Playlist
+	 * @param speed Multiple of real time to read at (0 for as fast as possible)
+	 * @return PCM
+	 */
+	private static byte[] readPlaylist(Playlist playlist, int speed) throws InterruptedException {
+		ICodec codec = SoundSystemConfig.getCodec(playlist.getIdentifier());
+		if(!(codec instanceof PlaylistCodec)) throw new IllegalStateException("PlaylistCodec is not registered");
+		codec.reverseByteOrder(true);
+		if(!codec.initialize(HeadlessEnvironment.createFilenameURL(playlist.getIdentifier()))) {
+			throw new IllegalStateException("Cannot initialize " + playlist.getIdentifier());
+		}
+		int bytesPerSecond = (int)codec.getAudioFormat().getSampleRate() * codec.getAudioFormat().getFrameSize();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			SoundBuffer buffer;
+			while((buffer = codec.read()) != null) {
+				out.write(buffer.audioData, 0, buffer.audioData.length);
+				PcmBufferPool.recycle(buffer.audioData);
+				if(speed > 0) Thread.sleep(buffer.audioData.length * 1000L / bytesPerSecond / speed);
+			}
+		} finally {
+			codec.cleanup();
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decode a whole file with its own codec
+	 * @param file Asset filename
+	 * @return PCM
+	 */
+	private static byte[] decode(String file) {
+		ICodec codec = SoundSystemConfig.getCodec(file);
+		codec.reverseByteOrder(true);
+		if(!codec.initialize(HeadlessEnvironment.createFilenameURL(file))) throw new IllegalStateException("Cannot initialize " + file);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			while(!codec.endOfStream()) {
+				SoundBuffer buffer = codec.read();
+				if(buffer == null) break;
+				out.write(buffer.audioData, 0, buffer.audioData.length);
+			}
+		} finally {
+			codec.cleanup();
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Initialize a new codec and read the first buffer, like a new stream does
+	 * @param file Asset filename
+	 * @return Time in nanoseconds
+	 */
+	private static long firstBuffer(String file) {
+		long begin = System.nanoTime();
+		ICodec codec = SoundSystemConfig.getCodec(file);
+		codec.reverseByteOrder(true);
+		if(!codec.initialize(HeadlessEnvironment.createFilenameURL(file))) throw new IllegalStateException("Cannot initialize " + file);
+		try {
+			SoundBuffer buffer = codec.read();
+			if(buffer != null) PcmBufferPool.recycle(buffer.audioData);
+		} finally {
+			codec.cleanup();
+		}
+		return System.nanoTime() - begin;
+	}
+}
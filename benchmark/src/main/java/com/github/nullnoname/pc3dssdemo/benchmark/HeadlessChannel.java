@@ -0,0 +1,396 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.benchmark;
+
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import paulscode.sound.Channel;
+import paulscode.sound.PAudioFormat;
+import paulscode.sound.SoundBuffer;
+import paulscode.sound.SoundSystemConfig;
+
+/**
+ * Channel of {@link HeadlessLibrary}. Nothing is heard, but the PCM is taken at the speed of a device:
+ * a streaming channel has a buffer of the configured size and writing blocks while it is full, like AudioTrack.write()
+ * in the stream mode. A normal channel plays for the length of its sound.
+ * Underruns (a playing stream running out of PCM) are counted.
+ * @author NullNoname
+ */
+public class HeadlessChannel extends Channel {
+	/** Length of the minimum buffer of the simulated device in milliseconds (AudioTrack.getMinBufferSize()) */
+	private static final int MIN_BUFFER_MILLIS = 40;
+
+	/** Stream buffer size in bytes (0 to use the minimum buffer size times the multiplier) */
+	private static volatile int defaultStreamBufferSize;
+
+	/** Multiplier of the minimum buffer size */
+	private static volatile int defaultStreamBufferSizeMultiplier = 8;
+
+	/** Underruns of all channels */
+	private static final AtomicLong underruns = new AtomicLong();
+
+	/** Stream buffers waiting to be written (streaming channels) */
+	private final LinkedList<byte[]> streamBuffers = new LinkedList<byte[]>();
+
+	/** Format of the PCM */
+	private PAudioFormat format;
+
+	/** Bytes per second of the PCM */
+	private long bytesPerSecond;
+
+	/** Bytes per frame of the PCM */
+	private int frameSize;
+
+	/** Size of the device buffer in bytes (streaming channels) */
+	private long capacity;
+
+	/** Length of the attached sound in bytes (normal channels) */
+	private long soundLength;
+
+	/** true to loop the attached sound */
+	private boolean looping;
+
+	/** Bytes written to the device (streaming channels) */
+	private long written;
+
+	/** true while the device is playing */
+	private boolean devicePlaying;
+
+	/** Play position in bytes at playTime */
+	private long playPosition;
+
+	/** Time the device started playing from playPosition (System.nanoTime()) */
+	private long playTime;
+
+	/** true while the channel holds a device buffer (false after close() or an idle release, until the next sound) */
+	private boolean deviceOpen;
+
+	public HeadlessChannel(int type) {
+		super(type);
+		libraryType = HeadlessLibrary.class;
+	}
+
+	/**
+	 * @param size Stream buffer size in bytes (0 to use the minimum buffer size times the multiplier)
+	 */
+	public static void setDefaultStreamBufferSize(int size) {
+		defaultStreamBufferSize = size;
+	}
+
+	/**
+	 * @param multiplier Multiplier of the minimum buffer size
+	 */
+	public static void setDefaultStreamBufferSizeMultiplier(int multiplier) {
+		defaultStreamBufferSizeMultiplier = multiplier;
+	}
+
+	/**
+	 * @return Underruns of all channels
+	 */
+	public static long getUnderruns() {
+		return underruns.get();
+	}
+
+	/**
+	 * Attach a sound (normal channels)
+	 * @param buffer Sound
+	 * @return true if attached
+	 */
+	public synchronized boolean attachBuffer(SoundBuffer buffer) {
+		if(errorCheck(channelType != SoundSystemConfig.TYPE_NORMAL, "Buffers may only be attached to non-streaming sources"))
+			return false;
+		if(errorCheck(buffer == null || buffer.audioData == null || buffer.audioFormat == null, "Buffer missing in method 'attachBuffer'"))
+			return false;
+		setFormat(buffer.audioFormat);
+		soundLength = buffer.audioData.length;
+		devicePlaying = false;
+		playPosition = 0;
+		deviceOpen = true;
+		return true;
+	}
+
+	/**
+	 * Start a new stream (streaming channels)
+	 * @param audioFormat Format of the stream
+	 * @return true if started
+	 */
+	public synchronized boolean resetStream(PAudioFormat audioFormat) {
+		if(errorCheck(audioFormat == null, "AudioFormat null in method 'resetStream'"))
+			return false;
+		setFormat(audioFormat);
+		long minBufferSize = bytesPerSecond * MIN_BUFFER_MILLIS / 1000;
+		capacity = (defaultStreamBufferSize == 0) ? minBufferSize * defaultStreamBufferSizeMultiplier : defaultStreamBufferSize;
+		streamBuffers.clear();
+		written = 0;
+		devicePlaying = false;
+		playPosition = 0;
+		deviceOpen = true;
+		return true;
+	}
+
+	/**
+	 * @param audioFormat Format of the PCM
+	 */
+	private void setFormat(PAudioFormat audioFormat) {
+		format = audioFormat;
+		frameSize = Math.max(1, audioFormat.getChannels() * audioFormat.getSampleSizeInBits() / 8);
+		bytesPerSecond = (long)audioFormat.getSampleRate() * frameSize;
+	}
+
+	/**
+	 * @param value true to loop the attached sound
+	 */
+	public void setLooping(boolean value) {
+		looping = value;
+	}
+
+	@Override
+	public void setAudioFormat(PAudioFormat audioFormat) {
+		resetStream(audioFormat);
+	}
+
+	@Override
+	public boolean preLoadBuffers(LinkedList<byte[]> bufferList) {
+		if(errorCheck(channelType != SoundSystemConfig.TYPE_STREAMING, "Buffers may only be queued for streaming sources."))
+			return false;
+		if(errorCheck(format == null, "AudioFormat null in method 'preLoadBuffers'."))
+			return false;
+		synchronized(this) {
+			startDevice();
+			if(bufferList.isEmpty()) return true;
+			streamBuffers.addAll(bufferList.subList(1, bufferList.size()));
+		}
+		write(bufferList.getFirst());
+		return true;
+	}
+
+	@Override
+	public boolean queueBuffer(byte[] buffer) {
+		if(errorCheck(channelType != SoundSystemConfig.TYPE_STREAMING, "Buffers may only be queued for streaming sources."))
+			return false;
+		if(errorCheck(format == null, "AudioFormat null in method 'queueBuffer'"))
+			return false;
+		synchronized(this) {
+			streamBuffers.add(buffer);
+		}
+		processBuffer();
+		return true;
+	}
+
+	@Override
+	public boolean processBuffer() {
+		if(errorCheck(channelType != SoundSystemConfig.TYPE_STREAMING, "Buffers are only processed for streaming sources."))
+			return false;
+		byte[] buffer;
+		synchronized(this) {
+			if(format == null || streamBuffers.isEmpty()) return false;
+			buffer = streamBuffers.removeFirst();
+			if(!devicePlaying) startDevice();
+		}
+		write(buffer);
+		return true;
+	}
+
+	@Override
+	public int feedRawAudioData(byte[] buffer) {
+		if(errorCheck(channelType != SoundSystemConfig.TYPE_STREAMING, "Raw audio data can only be processed by streaming sources."))
+			return -1;
+		synchronized(this) {
+			streamBuffers.add(buffer);
+		}
+		return buffersProcessed();
+	}
+
+	@Override
+	public int buffersProcessed() {
+		// Same as the AudioTrack channel: the blocking write does the pacing
+		return (channelType == SoundSystemConfig.TYPE_STREAMING && format != null) ? 1 : 0;
+	}
+
+	/**
+	 * Write PCM to the device, waiting while its buffer is full
+	 * @param data PCM
+	 */
+	private void write(byte[] data) {
+		long wait;
+		synchronized(this) {
+			long position = getRawPosition();
+			if(devicePlaying && position > written) {
+				// The device ran out of PCM and waited for more
+				underruns.incrementAndGet();
+				playPosition = written;
+				playTime = System.nanoTime();
+			}
+			written += data.length;
+			wait = getWaitNanos();
+		}
+		while(wait > 0) {
+			try {
+				Thread.sleep(wait / 1000000L, (int)(wait % 1000000L));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			synchronized(this) {
+				wait = getWaitNanos();
+			}
+		}
+	}
+
+	/**
+	 * @return Nanoseconds until the device buffer has room for everything written (0 if not playing)
+	 */
+	private long getWaitNanos() {
+		if(!devicePlaying) return 0;
+		long excess = written - getPosition() - capacity;
+		return (excess <= 0) ? 0 : excess * 1000000000L / bytesPerSecond;
+	}
+
+	/**
+	 * @return Play position in bytes if the device had never run out of PCM
+	 */
+	private long getRawPosition() {
+		if(!devicePlaying) return playPosition;
+		long elapsed = System.nanoTime() - playTime;
+		long position = playPosition + elapsed * bytesPerSecond / 1000000000L;
+		return position - (position % frameSize);
+	}
+
+	/**
+	 * @return Play position in bytes
+	 */
+	private long getPosition() {
+		long position = getRawPosition();
+		if(channelType == SoundSystemConfig.TYPE_STREAMING) return Math.min(position, written);
+		return looping ? position : Math.min(position, soundLength);
+	}
+
+	/**
+	 * Start the device from the current position
+	 */
+	private void startDevice() {
+		playPosition = getPosition();
+		playTime = System.nanoTime();
+		devicePlaying = true;
+	}
+
+	@Override
+	public synchronized void flush() {
+		if(channelType != SoundSystemConfig.TYPE_STREAMING) return;
+		streamBuffers.clear();
+		devicePlaying = false;
+		written = 0;
+		playPosition = 0;
+	}
+
+	@Override
+	public void close() {
+		flush();
+		synchronized(this) {
+			devicePlaying = false;
+			playPosition = 0;
+			deviceOpen = false;
+		}
+	}
+
+	@Override
+	public synchronized void play() {
+		if(format == null) return;
+		deviceOpen = true;
+		if(channelType == SoundSystemConfig.TYPE_NORMAL) playPosition = 0;
+		if(!devicePlaying) startDevice();
+	}
+
+	@Override
+	public synchronized void pause() {
+		if(!devicePlaying) return;
+		playPosition = getPosition();
+		devicePlaying = false;
+	}
+
+	@Override
+	public synchronized void stop() {
+		devicePlaying = false;
+		playPosition = 0;
+		if(channelType == SoundSystemConfig.TYPE_STREAMING) written = 0;
+	}
+
+	@Override
+	public synchronized void rewind() {
+		if(channelType == SoundSystemConfig.TYPE_NORMAL) {
+			playPosition = 0;
+			playTime = System.nanoTime();
+		}
+	}
+
+	@Override
+	public synchronized float millisecondsPlayed() {
+		if(format == null) return -1;
+		long position = getPosition();
+		if(channelType == SoundSystemConfig.TYPE_NORMAL && looping && soundLength > 0) position %= soundLength;
+		return position * 1000f / bytesPerSecond;
+	}
+
+	@Override
+	public synchronized boolean playing() {
+		if(!devicePlaying || format == null) return false;
+		if(channelType == SoundSystemConfig.TYPE_STREAMING) return !streamBuffers.isEmpty();
+		return looping || getPosition() < soundLength;
+	}
+
+	/**
+	 * @return true if the channel is playing something audible or holds a paused source
+	 */
+	public boolean isBusy() {
+		return (attachedSource != null && attachedSource.paused()) || playing();
+	}
+
+	/**
+	 * Give back the device buffer if the channel is not in use (idle mode, like MonitoredChannelAudioTrack.releaseIdle())
+	 * @return true if a device buffer has been released
+	 */
+	public synchronized boolean releaseIdle() {
+		if(!deviceOpen || isBusy()) return false;
+		close();
+		return true;
+	}
+
+	@Override
+	public void cleanup() {
+		close();
+		synchronized(this) {
+			format = null;
+		}
+		super.cleanup();
+	}
+
+	@Override
+	public String getClassName() {
+		return "HeadlessChannel";
+	}
+}
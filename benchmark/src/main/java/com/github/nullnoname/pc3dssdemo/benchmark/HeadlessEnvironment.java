@@ -0,0 +1,99 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.benchmark;
+
+import java.io.File;
+
+import com.github.nullnoname.pc3dssdemo.audio.CodecRegistry;
+import com.github.nullnoname.pc3dssdemo.audio.PcmBufferPool;
+
+import paulscode.sound.FilenameURL;
+import paulscode.sound.SoundSystemConfig;
+import paulscode.sound.SoundSystemException;
+import paulscode.sound.SoundSystemLogger;
+
+/**
+ * Sets up SoundSystemConfig the same way MainActivity.initSoundSystem() does, but without a device
+ * @author NullNoname
+ */
+public class HeadlessEnvironment {
+	/** System property which points to the assets directory */
+	public static final String PROPERTY_ASSETS = "pc3dssdemo.assets";
+
+	/** Asset directory in use */
+	private static File assetDir;
+
+	/**
+	 * Initialize SoundSystemConfig (logger, file input provider, codecs and the PCM buffer pool)
+	 * @throws SoundSystemException If a codec cannot be registered
+	 */
+	public static synchronized void init() throws SoundSystemException {
+		if(assetDir != null) return;
+
+		assetDir = new File(System.getProperty(PROPERTY_ASSETS, "assets"));
+		if(!assetDir.isDirectory()) {
+			throw new IllegalStateException("Asset directory not found: " + assetDir.getAbsolutePath() +
+					" (set -D" + PROPERTY_ASSETS + "=<path>)");
+		}
+
+		SoundSystemConfig.setLogger(new QuietSoundSystemLogger());
+		SoundSystemConfig.setFileInputProvider(new LocalAssetFileInputProvider(assetDir));
+		// MIDI has no MediaPlayer here, so it is always rendered by MidiSynthCodec
+		CodecRegistry.registerMidiSynth();
+		PcmBufferPool.setDefaultPool(new PcmBufferPool(SoundSystemConfig.getStreamingBufferSize(), 8));
+	}
+
+	/**
+	 * Get the asset directory
+	 * @return Asset directory (null if not initialized)
+	 */
+	public static File getAssetDir() {
+		return assetDir;
+	}
+
+	/**
+	 * Create a FilenameURL which points to an asset, like MainActivity does
+	 * @param filename Asset filename
+	 * @return FilenameURL
+	 */
+	public static FilenameURL createFilenameURL(String filename) {
+		return new FilenameURL(LocalAssetFileInputProvider.createAssetURL(filename), filename);
+	}
+
+	/**
+	 * Logger which only prints errors, so the measurements are not disturbed by console output
+	 */
+	private static class QuietSoundSystemLogger extends SoundSystemLogger {
+		@Override
+		public void message(String message, int indent) {
+		}
+
+		@Override
+		public void importantMessage(String message, int indent) {
+		}
+	}
+}
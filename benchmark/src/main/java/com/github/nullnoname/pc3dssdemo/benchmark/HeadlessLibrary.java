@@ -0,0 +1,194 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.benchmark;
+
+import java.util.HashMap;
+import java.util.List;
+
+import com.github.nullnoname.pc3dssdemo.audio.ChannelStats;
+import com.github.nullnoname.pc3dssdemo.audio.IdleManager;
+import com.github.nullnoname.pc3dssdemo.audio.IdleReleasable;
+
+import paulscode.sound.Channel;
+import paulscode.sound.CommandThread;
+import paulscode.sound.FilenameURL;
+import paulscode.sound.ICodec;
+import paulscode.sound.Library;
+import paulscode.sound.PAudioFormat;
+import paulscode.sound.SoundBuffer;
+import paulscode.sound.SoundSystemConfig;
+import paulscode.sound.SoundSystemException;
+import paulscode.sound.Source;
+import paulscode.sound.StreamThread;
+
+/**
+ * Stand-in for the AudioTrack library on a plain JVM. Sounds are loaded and streams are decoded by the registered codecs
+ * as on the device, and {@link HeadlessChannel} takes the PCM at the speed of a device, so the stream thread,
+ * the command thread and the channel allocation work under the same timing. Nothing is heard.
+ * Play requests which find every channel busy are counted in {@link ChannelStats}.
+ * The device buffers of the channels which are not in use are released in the idle mode, as in MonitoredLibraryAudioTrack.
+ * @author NullNoname
+ */
+public class HeadlessLibrary extends Library implements IdleReleasable {
+	public HeadlessLibrary() throws SoundSystemException {
+		super();
+
+		// Named as in MonitoredLibraryAudioTrack, for the wakeup counts of IdleManager
+		if(Thread.currentThread() instanceof CommandThread) Thread.currentThread().setName(IdleManager.COMMAND_THREAD_NAME);
+		streamThread.kill();
+		streamThread.interrupt();
+		streamThread = new StreamThread();
+		streamThread.setName(IdleManager.STREAM_THREAD_NAME);
+		streamThread.start();
+	}
+
+	@Override
+	protected Channel createChannel(int type) {
+		return new HeadlessChannel(type);
+	}
+
+	@Override
+	public boolean loadSound(FilenameURL filenameURL) {
+		if(bufferMap == null) bufferMap = new HashMap<String, SoundBuffer>();
+		if(errorCheck(filenameURL == null, "Filename/URL not specified in method 'loadSound'"))
+			return false;
+		if(bufferMap.get(filenameURL.getFilename()) != null)
+			return true;
+
+		ICodec codec = SoundSystemConfig.getCodec(filenameURL.getFilename());
+		if(errorCheck(codec == null, "No codec found for file '" + filenameURL.getFilename() + "' in method 'loadSound'"))
+			return false;
+		codec.initialize(filenameURL);
+		SoundBuffer buffer = codec.readAll();
+		codec.cleanup();
+		if(buffer == null) {
+			errorMessage("Sound buffer null in method 'loadSound'");
+			return false;
+		}
+		bufferMap.put(filenameURL.getFilename(), buffer);
+		return true;
+	}
+
+	@Override
+	public boolean loadSound(SoundBuffer buffer, String identifier) {
+		if(bufferMap == null) bufferMap = new HashMap<String, SoundBuffer>();
+		if(errorCheck(identifier == null, "Identifier not specified in method 'loadSound'"))
+			return false;
+		if(bufferMap.get(identifier) != null)
+			return true;
+		if(buffer == null) {
+			errorMessage("Sound buffer null in method 'loadSound'");
+			return false;
+		}
+		bufferMap.put(identifier, buffer);
+		return true;
+	}
+
+	@Override
+	public void newSource(boolean priority, boolean toStream, boolean toLoop, String sourcename, FilenameURL filenameURL,
+			float x, float y, float z, int attModel, float distOrRoll)
+	{
+		createSource(priority, toStream, toLoop, sourcename, filenameURL, x, y, z, attModel, distOrRoll, false);
+	}
+
+	@Override
+	public void quickPlay(boolean priority, boolean toStream, boolean toLoop, String sourcename, FilenameURL filenameURL,
+			float x, float y, float z, int attModel, float distOrRoll, boolean temporary)
+	{
+		createSource(priority, toStream, toLoop, sourcename, filenameURL, x, y, z, attModel, distOrRoll, temporary);
+	}
+
+	@Override
+	public void rawDataStream(PAudioFormat audioFormat, boolean priority, String sourcename, float x, float y, float z,
+			int attModel, float distOrRoll)
+	{
+		sourceMap.put(sourcename, new HeadlessSource(audioFormat, priority, sourcename, x, y, z, attModel, distOrRoll));
+	}
+
+	/**
+	 * Create a source, loading its sound first if it is not a stream
+	 */
+	private void createSource(boolean priority, boolean toStream, boolean toLoop, String sourcename, FilenameURL filenameURL,
+			float x, float y, float z, int attModel, float distOrRoll, boolean temporary)
+	{
+		SoundBuffer buffer = null;
+		if(!toStream) {
+			if(!loadSound(filenameURL)) {
+				errorMessage("Source '" + sourcename + "' was not created because an error occurred while loading " + filenameURL.getFilename());
+				return;
+			}
+			buffer = bufferMap.get(filenameURL.getFilename());
+		}
+		sourceMap.put(sourcename, new HeadlessSource(priority, toStream, toLoop, sourcename, filenameURL, buffer,
+				x, y, z, attModel, distOrRoll, temporary));
+	}
+
+	@Override
+	public void play(Source source) {
+		boolean free = ChannelStats.hasFreeChannel(source, (source != null && source.toStream) ? streamingChannels : normalChannels);
+		super.play(source);
+		ChannelStats.played(source, free);
+	}
+
+	public boolean isOutputBusy() {
+		return isBusy(normalChannels) || isBusy(streamingChannels);
+	}
+
+	public int releaseIdleResources() {
+		return releaseIdle(normalChannels) + releaseIdle(streamingChannels);
+	}
+
+	/**
+	 * @param channels Channels
+	 * @return true if any of the channels is in use
+	 */
+	private static boolean isBusy(List<Channel> channels) {
+		if(channels == null) return false;
+		for(Channel channel : channels) {
+			if(channel instanceof HeadlessChannel && ((HeadlessChannel)channel).isBusy()) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param channels Channels
+	 * @return Number of device buffers released
+	 */
+	private static int releaseIdle(List<Channel> channels) {
+		if(channels == null) return 0;
+		int count = 0;
+		for(Channel channel : channels) {
+			if(channel instanceof HeadlessChannel && ((HeadlessChannel)channel).releaseIdle()) count++;
+		}
+		return count;
+	}
+
+	@Override
+	public String getClassName() {
+		return "HeadlessLibrary";
+	}
+}
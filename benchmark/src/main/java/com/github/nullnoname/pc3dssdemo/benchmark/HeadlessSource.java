@@ -0,0 +1,127 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.benchmark;
+
+import java.util.LinkedList;
+
+import paulscode.sound.Channel;
+import paulscode.sound.FilenameURL;
+import paulscode.sound.PAudioFormat;
+import paulscode.sound.SoundBuffer;
+import paulscode.sound.SoundSystemConfig;
+import paulscode.sound.Source;
+
+/**
+ * Source of {@link HeadlessLibrary}. Plays like the AudioTrack library's source, without the gain, pan and pitch.
+ * @author NullNoname
+ */
+public class HeadlessSource extends Source {
+	public HeadlessSource(boolean priority, boolean toStream, boolean toLoop, String sourcename, FilenameURL filenameURL,
+			SoundBuffer soundBuffer, float x, float y, float z, int attModel, float distOrRoll, boolean temporary)
+	{
+		super(priority, toStream, toLoop, sourcename, filenameURL, soundBuffer, x, y, z, attModel, distOrRoll, temporary);
+		libraryType = HeadlessLibrary.class;
+	}
+
+	public HeadlessSource(PAudioFormat audioFormat, boolean priority, String sourcename, float x, float y, float z, int attModel, float distOrRoll) {
+		super(audioFormat, priority, sourcename, x, y, z, attModel, distOrRoll);
+		libraryType = HeadlessLibrary.class;
+	}
+
+	@Override
+	public void play(Channel c) {
+		if(!active()) {
+			if(toLoop) toPlay = true;
+			return;
+		}
+		if(c == null) {
+			errorMessage("Unable to play source, because channel was null");
+			return;
+		}
+
+		boolean newChannel = (channel != c) || (channel != null && channel.attachedSource != this);
+		boolean wasPaused = paused();
+		boolean wasStopped = stopped();
+
+		super.play(c);
+		HeadlessChannel headlessChannel = (HeadlessChannel)channel;
+
+		if(newChannel) {
+			headlessChannel.setLooping(toLoop);
+			if(!toStream) {
+				if(soundBuffer == null) {
+					errorMessage("No sound buffer to play");
+					return;
+				}
+				headlessChannel.attachBuffer(soundBuffer);
+			}
+		}
+
+		if(wasStopped || !playing()) {
+			if(toStream && !wasPaused) preLoad = true;
+			channel.play();
+		}
+	}
+
+	@Override
+	public boolean preLoad() {
+		if(codec == null) return false;
+
+		boolean noNextBuffers;
+		synchronized(soundSequenceLock) {
+			noNextBuffers = (nextBuffers == null || nextBuffers.isEmpty());
+		}
+
+		LinkedList<byte[]> preLoadBuffers = new LinkedList<byte[]>();
+		if(nextCodec != null && !noNextBuffers) {
+			codec = nextCodec;
+			nextCodec = null;
+			synchronized(soundSequenceLock) {
+				while(!nextBuffers.isEmpty()) {
+					SoundBuffer buffer = nextBuffers.remove(0);
+					if(buffer != null && buffer.audioData != null) preLoadBuffers.add(buffer.audioData);
+				}
+			}
+		} else {
+			codec.initialize(filenameURL);
+			for(int i = 0; i < SoundSystemConfig.getNumberStreamingBuffers(); i++) {
+				SoundBuffer buffer = codec.read();
+				if(buffer == null || buffer.audioData == null) break;
+				preLoadBuffers.add(buffer.audioData);
+			}
+			((HeadlessChannel)channel).resetStream(codec.getAudioFormat());
+		}
+		channel.preLoadBuffers(preLoadBuffers);
+		preLoad = false;
+		return true;
+	}
+
+	@Override
+	public String getClassName() {
+		return "HeadlessSource";
+	}
+}
@@ -0,0 +1,252 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.github.nullnoname.pc3dssdemo.audio.AudioCommandExecutor;
+import com.github.nullnoname.pc3dssdemo.audio.BatchSoundSystem;
+import com.github.nullnoname.pc3dssdemo.audio.IdleManager;
+import com.github.nullnoname.pc3dssdemo.audio.ThreadWakeups;
+
+import paulscode.sound.SoundSystemConfig;
+
+/**
+ * Checks the idle mode of the audio output on a stand-in output library.
+ * The wakeups of the audio threads (the threads started with the SoundSystem and the audio command executor) are counted
+ * while a song plays, after it has stopped, and once the output is idle; an idle output must not wake them up.
+ * Then a sound effect is played again and again, from the active state and from the idle state, and the time until it plays is compared.
+ * <pre>
+ * IdleCheck [--seconds N] [--quiet-seconds N] [--trials N]
+ * </pre>
+ * @author NullNoname
+ */
+public class IdleCheck {
+	/** Song played in the active phase */
+	private static final String SONG = "swansong.ogg";
+	/** Sound effect of the resume trials */
+	private static final String EFFECT = "gamestart.wav";
+	/** Most wakeups per minute of the audio threads allowed while idle */
+	private static final float MAX_IDLE_WAKEUPS_PER_MINUTE = 2;
+	/** Wait after the output becomes idle before its wakeups are counted, in milliseconds */
+	private static final long SETTLE_MILLIS = 500;
+	/** Longest time a play may take to start, in milliseconds */
+	private static final long MAX_START_MILLIS = 1000;
+
+	public static void main(String[] args) throws Exception {
+		float seconds = 5, quietSeconds = 1;
+		int trials = 5;
+		for(int i = 0; i + 1 < args.length; i += 2) {
+			if(args[i].equals("--seconds")) seconds = Float.parseFloat(args[i + 1]);
+			else if(args[i].equals("--quiet-seconds")) quietSeconds = Float.parseFloat(args[i + 1]);
+			else if(args[i].equals("--trials")) trials = Integer.parseInt(args[i + 1]);
+		}
+		if(!ThreadWakeups.isSupported()) {
+			System.out.println("Thread wakeups cannot be counted on this system (no /proc/self/task)");
+			System.exit(1);
+		}
+
+		HeadlessEnvironment.init();
+		Map<Integer, Long> before = ThreadWakeups.readByThread();
+		final AudioCommandExecutor executor = new AudioCommandExecutor("AudioCommand", 32);
+		final BatchSoundSystem soundSystem = new BatchSoundSystem(HeadlessLibrary.class);
+		final IdleManager idleManager = new IdleManager(executor, new IdleManager.Target() {
+			public boolean isBusy() {
+				return soundSystem.isBusy();
+			}
+
+			public int releaseIdleResources() {
+				return soundSystem.releaseIdleResources();
+			}
+		});
+		final long quietMillis = (long)(quietSeconds * 1000);
+		idleManager.setQuietMillis(quietMillis);
+		idleManager.setThreadNames("AudioCommand", IdleManager.COMMAND_THREAD_NAME, IdleManager.STREAM_THREAD_NAME);
+		soundSystem.newSource(false, EFFECT, LocalAssetFileInputProvider.createAssetURL(EFFECT), EFFECT, false, 0, 0, 0,
+				SoundSystemConfig.ATTENUATION_NONE, 0);
+		Thread.sleep(100);
+
+		// The audio threads are the ones started since
+		List<Integer> audioThreads = new ArrayList<Integer>();
+		for(Integer tid : ThreadWakeups.readByThread().keySet()) {
+			if(!before.containsKey(tid)) audioThreads.add(tid);
+		}
+		StringBuilder names = new StringBuilder();
+		for(Integer tid : audioThreads) {
+			names.append((names.length() == 0) ? "" : ", ").append(ThreadWakeups.getName(tid));
+		}
+		System.out.println("Audio threads: " + names);
+		boolean ok = true;
+
+		// Playing
+		executor.submit("play", new Runnable() {
+			public void run() {
+				idleManager.wake();
+				soundSystem.backgroundMusic(SONG, LocalAssetFileInputProvider.createAssetURL(SONG), SONG, false);
+			}
+		});
+		Thread.sleep(500);
+		float playing = measure(audioThreads, (long)(seconds * 1000));
+		executor.submit("stop", new Runnable() {
+			public void run() {
+				soundSystem.stop(SONG);
+			}
+		});
+
+		// Stopped, but not idle yet
+		Thread.sleep(100);
+		float stopped = measure(audioThreads, quietMillis * 2 / 3);
+
+		// Idle
+		if(!awaitIdle(idleManager, quietMillis * 3)) {
+			System.out.println("The output did not become idle");
+			System.exit(1);
+		}
+		// The threads finish the switch to idle (the worker returns from the quiet task) before the count starts
+		Thread.sleep(SETTLE_MILLIS);
+		float idle = measure(audioThreads, (long)(seconds * 1000));
+		// The idle manager counts the same threads by name, from the moment the output became idle
+		float counted = idleManager.getWakeupsPerMinute(IdleManager.STATE_IDLE);
+		System.out.println(String.format("Audio thread wakeups: %.0f/min playing, %.0f/min stopped, %.1f/min idle (%.1f/min counted by the idle manager)",
+				playing, stopped, idle, counted));
+		if(idle > MAX_IDLE_WAKEUPS_PER_MINUTE || counted > MAX_IDLE_WAKEUPS_PER_MINUTE) {
+			System.out.println("The audio threads woke up while idle");
+			ok = false;
+		}
+
+		// Resume latency: from active, then from idle
+		long[] activeNanos = new long[trials], resumeNanos = new long[trials];
+		for(int i = 0; i < trials; i++) {
+			activeNanos[i] = playEffect(executor, soundSystem, idleManager);
+			if(idleManager.isIdle()) {
+				System.out.println("The output became idle while playing");
+				ok = false;
+			}
+			Thread.sleep(200);
+		}
+		for(int i = 0; i < trials; i++) {
+			while(soundSystem.isBusy()) Thread.sleep(50);
+			if(!awaitIdle(idleManager, quietMillis * 3)) {
+				System.out.println("The output did not become idle");
+				System.exit(1);
+			}
+			resumeNanos[i] = playEffect(executor, soundSystem, idleManager);
+		}
+		System.out.println(String.format("Play to start of '%s': %s from active, %s from idle", EFFECT, describe(activeNanos), describe(resumeNanos)));
+		for(long nanos : resumeNanos) {
+			if(nanos < 0 || nanos > MAX_START_MILLIS * 1000000L) {
+				System.out.println("A play from idle did not start within " + MAX_START_MILLIS + "ms");
+				ok = false;
+				break;
+			}
+		}
+
+		System.out.println(idleManager.getStats());
+		executor.shutdown();
+		soundSystem.cleanup();
+		System.out.println(ok ? "OK" : "FAILED");
+		if(!ok) System.exit(1);
+	}
+
+	/**
+	 * Count the wakeups of some threads over a period
+	 * @param tids Thread ids
+	 * @param millis Period in milliseconds
+	 * @return Wakeups per minute
+	 * @throws InterruptedException If interrupted
+	 */
+	private static float measure(List<Integer> tids, long millis) throws InterruptedException {
+		long begin = System.nanoTime();
+		long first = sum(tids);
+		Thread.sleep(millis);
+		long last = sum(tids);
+		return (last - first) * 60e9f / (System.nanoTime() - begin);
+	}
+
+	/**
+	 * @param tids Thread ids
+	 * @return Total wakeups of the threads which still exist
+	 */
+	private static long sum(List<Integer> tids) {
+		Map<Integer, Long> counts = ThreadWakeups.readByThread();
+		long total = 0;
+		for(Integer tid : tids) {
+			Long count = counts.get(tid);
+			if(count != null) total += count;
+		}
+		return total;
+	}
+
+	/**
+	 * Wait until the output is idle
+	 * @param idleManager Idle manager
+	 * @param timeoutMillis Maximum wait
+	 * @return true if idle
+	 * @throws InterruptedException If interrupted
+	 */
+	private static boolean awaitIdle(IdleManager idleManager, long timeoutMillis) throws InterruptedException {
+		long end = System.currentTimeMillis() + timeoutMillis;
+		while(!idleManager.isIdle() && System.currentTimeMillis() < end) Thread.sleep(10);
+		return idleManager.isIdle();
+	}
+
+	/**
+	 * Play the sound effect through the executor like the demo does, and wait until it plays
+	 * @return Nanoseconds from the submission until it plays, or -1 if it did not start in time
+	 * @throws InterruptedException If interrupted
+	 */
+	private static long playEffect(AudioCommandExecutor executor, final BatchSoundSystem soundSystem, final IdleManager idleManager)
+			throws InterruptedException
+	{
+		long begin = System.nanoTime();
+		executor.submit("effect", new Runnable() {
+			public void run() {
+				idleManager.wake();
+				soundSystem.play(EFFECT);
+			}
+		});
+		long timeout = begin + MAX_START_MILLIS * 1000000L;
+		while(!soundSystem.playing(EFFECT)) {
+			if(System.nanoTime() > timeout) return -1;
+			Thread.yield();
+		}
+		return System.nanoTime() - begin;
+	}
+
+	/**
+	 * @param nanos Times in nanoseconds (-1 for a failure)
+	 * @return Median and maximum in milliseconds
+	 */
+	private static String describe(long[] nanos) {
+		long[] sorted = nanos.clone();
+		Arrays.sort(sorted);
+		return String.format("median %.2fms max %.2fms", sorted[sorted.length / 2] / 1e6, sorted[sorted.length - 1] / 1e6);
+	}
+}
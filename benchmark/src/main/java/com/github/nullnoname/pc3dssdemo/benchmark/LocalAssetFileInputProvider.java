@@ -0,0 +1,115 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import paulscode.sound.DefaultFileInputProvider;
+import paulscode.sound.FileDescriptorWrapper;
+import paulscode.sound.FilenameURL;
+
+/**
+ * Desktop stand-in for AssetFileInputProvider.
+ * "file:///android_asset/" URLs are resolved against a local directory (usually the assets directory of the app).
+ * @author NullNoname
+ */
+public class LocalAssetFileInputProvider extends DefaultFileInputProvider {
+	/** Asset prefix when creating a URL (same as AssetFileInputProvider) */
+	public static final String URL_ASSET_PREFIX = "file:///android_asset/";
+	/** Asset path prefix when comparing (same as AssetFileInputProvider) */
+	public static final String URL_PATH_ASSET_PREFIX = "/android_asset/";
+
+	/**
+	 * Create a new asset URL
+	 * @param path File path
+	 * @return Asset URL
+	 * @throws IllegalArgumentException If the created URL is invalid
+	 */
+	public static URL createAssetURL(String path) {
+		try {
+			return new URL(URL_ASSET_PREFIX+path);
+		} catch (MalformedURLException e) {
+			throw new IllegalArgumentException("Invalid URL", e);
+		}
+	}
+
+	/** Local directory which replaces the asset directory */
+	private File assetDir;
+
+	/**
+	 * Constructor
+	 * @param assetDir Local directory which replaces the asset directory
+	 */
+	public LocalAssetFileInputProvider(File assetDir) {
+		this.assetDir = assetDir;
+	}
+
+	/**
+	 * Get the local file of an asset URL
+	 * @param filenameURL FilenameURL
+	 * @return Local file, or null if it is not an asset URL
+	 */
+	public File getLocalFile(FilenameURL filenameURL) {
+		URL url = filenameURL.getURL();
+		if(url == null || !url.getPath().startsWith(URL_PATH_ASSET_PREFIX)) return null;
+		return new File(assetDir, url.getPath().substring(URL_PATH_ASSET_PREFIX.length()));
+	}
+
+	@Override
+	public InputStream openStream(FilenameURL filenameURL) throws IOException {
+		File file = getLocalFile(filenameURL);
+		if(file != null) {
+			return new BufferedInputStream(new FileInputStream(file));
+		}
+		return super.openStream(filenameURL);
+	}
+
+	@Override
+	public int getContentLength(FilenameURL filenameURL) {
+		File file = getLocalFile(filenameURL);
+		if(file != null) {
+			return file.isFile() ? (int)file.length() : -1;
+		}
+		return super.getContentLength(filenameURL);
+	}
+
+	@Override
+	public FileDescriptorWrapper openFileDescriptorWrapper(FilenameURL filenameURL) throws IOException {
+		File file = getLocalFile(filenameURL);
+		if(file != null) {
+			FileInputStream fin = new FileInputStream(file);
+			return new FileDescriptorWrapper(fin, fin.getFD());
+		}
+		return super.openFileDescriptorWrapper(filenameURL);
+	}
+}
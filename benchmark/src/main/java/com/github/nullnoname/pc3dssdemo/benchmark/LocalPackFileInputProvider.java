@@ -0,0 +1,85 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import paulscode.sound.FileDescriptorWrapper;
+import paulscode.sound.FileInputProvider;
+
+import com.github.nullnoname.pc3dssdemo.audio.AssetPack;
+import com.github.nullnoname.pc3dssdemo.audio.PackFileInputProvider;
+
+/**
+ * Desktop stand-in for AssetPackFileInputProvider: serves the sounds of a pack file on the local disk.
+ * @author NullNoname
+ */
+public class LocalPackFileInputProvider extends PackFileInputProvider {
+	/**
+	 * Map a pack file
+	 * @param packFile Pack file
+	 * @param fallback Provider of everything which is not in the pack
+	 * @return Provider
+	 * @throws IOException If the pack cannot be read or is invalid
+	 */
+	public static LocalPackFileInputProvider open(File packFile, FileInputProvider fallback) throws IOException {
+		FileInputStream in = new FileInputStream(packFile);
+		try {
+			AssetPack pack = AssetPack.map(in.getChannel(), 0, packFile.length());
+			return new LocalPackFileInputProvider(packFile, pack, fallback);
+		} finally {
+			in.close();
+		}
+	}
+
+	/** Pack file */
+	private final File packFile;
+
+	/**
+	 * Constructor
+	 * @param packFile Pack file
+	 * @param pack Pack mapped from the file
+	 * @param fallback Provider of everything which is not in the pack
+	 */
+	public LocalPackFileInputProvider(File packFile, AssetPack pack, FileInputProvider fallback) {
+		super(pack, fallback);
+		this.packFile = packFile;
+	}
+
+	@Override
+	protected FileDescriptorWrapper openPackFileDescriptor() throws IOException {
+		FileInputStream fin = new FileInputStream(packFile);
+		return new FileDescriptorWrapper(fin, fin.getFD());
+	}
+
+	@Override
+	protected long getPackStartOffset() {
+		return 0;
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.benchmark;
+
+import java.io.InputStream;
+
+import com.github.nullnoname.pc3dssdemo.audio.LatencyHistogram;
+import com.github.nullnoname.pc3dssdemo.audio.MidiSequence;
+import com.github.nullnoname.pc3dssdemo.audio.MidiSynth;
+
+import paulscode.sound.FilenameURL;
+
+/**
+ * Measures the render time of MidiSynth per block, for a range of block sizes and polyphony limits.
+ * Smaller blocks lower the latency of the MIDI events but cost more per frame; the block time must stay well below the block duration
+ * (the budget) or the stream underruns. The load limit is off, so every configuration renders the same notes.
+ * <pre>
+ * MidiSynthBenchmark [--rate Hz] [file]
+ * </pre>
+ * @author NullNoname
+ */
+public class MidiSynthBenchmark {
+	/** Block sizes in frames */
+	private static final int[] BLOCK_FRAMES = {64, 128, 256, 512, 1024};
+	/** Polyphony limits */
+	private static final int[] POLYPHONY = {8, 16, 32, 64};
+
+	public static void main(String[] args) throws Exception {
+		int sampleRate = 48000;
+		String filename = "mz_331_3.mid";
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].equals("--rate") && i + 1 < args.length) sampleRate = Integer.parseInt(args[++i]);
+			else filename = args[i];
+		}
+
+		HeadlessEnvironment.init();
+		MidiSequence sequence;
+		InputStream in = new FilenameURL(LocalAssetFileInputProvider.createAssetURL(filename), filename).openStream();
+		try {
+			sequence = MidiSequence.load(in);
+		} finally {
+			in.close();
+		}
+		System.out.println(filename + ": " + sequence.size() + " events, " + sequence.getLength() / 1000 + "ms, rendered at " + sampleRate + "Hz");
+
+		// Warm up
+		render(sequence, sampleRate, 256, 32);
+
+		System.out.println(String.format("%6s %5s %9s %10s %10s %10s %8s %5s %7s",
+				"Block", "Poly", "RTF", "Mean", "p99", "Max", "Budget", "Peak", "Stolen"));
+		for(int blockFrames : BLOCK_FRAMES) {
+			for(int polyphony : POLYPHONY) {
+				long begin = System.nanoTime();
+				MidiSynth synth = render(sequence, sampleRate, blockFrames, polyphony);
+				long elapsed = System.nanoTime() - begin;
+				LatencyHistogram times = synth.getRenderTimes();
+				double budget = synth.getBlockNanos();
+				System.out.println(String.format("%6d %5d %8.1fx %8.3fms %8.3fms %8.3fms %7.1f%% %5d %7d",
+						blockFrames, polyphony, sequence.getLength() * 1000.0 / elapsed,
+						times.getMean() / 1e6, times.getValueAtPercentile(99) / 1e6, times.getMax() / 1e6,
+						times.getValueAtPercentile(99) * 100 / budget, synth.getPeakVoices(), synth.getStolenVoices()));
+			}
+		}
+		System.out.println("(Budget: p99 block time as a percentage of the block duration)");
+	}
+
+	/**
+	 * Render a whole sequence
+	 * @param sequence MIDI sequence
+	 * @param sampleRate Sample rate
+	 * @param blockFrames Frames per block
+	 * @param polyphony Maximum number of voices
+	 * @return Synthesizer with the statistics of the render
+	 */
+	private static MidiSynth render(MidiSequence sequence, int sampleRate, int blockFrames, int polyphony) {
+		MidiSynth synth = new MidiSynth(sampleRate, blockFrames, polyphony);
+		synth.setSequence(sequence);
+		short[] buffer = new short[blockFrames * 16 * 2];
+		while(!synth.isFinished()) {
+			synth.render(buffer, 0, blockFrames * 16);
+		}
+		return synth;
+	}
+}
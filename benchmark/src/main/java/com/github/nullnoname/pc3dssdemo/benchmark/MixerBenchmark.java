@@ -0,0 +1,137 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.nullnoname.pc3dssdemo.audio.SoftwareMixer;
+
+import paulscode.sound.ICodec;
+import paulscode.sound.SoundBuffer;
+import paulscode.sound.SoundSystemConfig;
+
+/**
+ * Measures the software mixer with many overlapping sound effect voices.
+ * One operation mixes one output block; the time per block divided by the block duration
+ * (about 10.7ms for 512 frames at 48kHz) is the CPU load of the mixer.
+ * The voices play gamestart.ogg (44.1kHz, so they are resampled) looped, with different gain, pan and pitch.
+ * @author NullNoname
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MixerBenchmark {
+	/** Output sample rate */
+	private static final int SAMPLE_RATE = 48000;
+
+	/** Frames per mixed block */
+	private static final int BLOCK_FRAMES = 512;
+
+	/** Sound effect played by the voices */
+	private static final String SOUND = "gamestart.ogg";
+
+	/** Number of playing voices */
+	@Param({"1", "8", "32", "64"})
+	public int voices;
+
+	/** Mixer */
+	private SoftwareMixer mixer;
+
+	/** Output block */
+	private short[] block;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		HeadlessEnvironment.init();
+		SoundBuffer sound = decodeAll(SOUND);
+
+		mixer = new SoftwareMixer(SAMPLE_RATE);
+		block = new short[BLOCK_FRAMES * SoftwareMixer.OUTPUT_CHANNELS];
+		for(int i = 0; i < voices; i++) {
+			SoftwareMixer.Voice voice = mixer.createVoice();
+			voice.setData(sound.audioData, sound.audioFormat.getSampleRate(), sound.audioFormat.getChannels(), sound.audioFormat.getSampleSizeInBits());
+			voice.setLooping(true);
+			voice.setGain(1f / voices);
+			voice.setPan((i % 5) * 0.5f - 1f);
+			voice.setPitch(1f + (i % 4) * 0.1f);
+			voice.play();
+		}
+	}
+
+	@Benchmark
+	public int mix() {
+		return mixer.mix(block, BLOCK_FRAMES);
+	}
+
+	/**
+	 * Decode a whole asset like LibraryAudioTrack.loadSound() does
+	 * @param filename Asset filename
+	 * @return Decoded sound
+	 */
+	static SoundBuffer decodeAll(String filename) {
+		ICodec codec = SoundSystemConfig.getCodec(filename);
+		codec.reverseByteOrder(true);
+		if(!codec.initialize(HeadlessEnvironment.createFilenameURL(filename))) {
+			throw new IllegalStateException("Cannot initialize " + filename);
+		}
+		try {
+			return codec.readAll();
+		} finally {
+			codec.cleanup();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		HeadlessEnvironment.init();
+		new Runner(new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.include(MixerBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.jvmArgsAppend("-D" + HeadlessEnvironment.PROPERTY_ASSETS + "=" + HeadlessEnvironment.getAssetDir().getAbsolutePath())
+				.build()).run();
+	}
+}
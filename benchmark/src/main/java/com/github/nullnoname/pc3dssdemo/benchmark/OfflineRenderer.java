@@ -0,0 +1,297 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.nullnoname.pc3dssdemo.audio.CodecRegistry;
+import com.github.nullnoname.pc3dssdemo.audio.PcmBufferPool;
+
+import paulscode.sound.FilenameURL;
+import paulscode.sound.ICodec;
+import paulscode.sound.PAudioFormat;
+import paulscode.sound.SoundBuffer;
+import paulscode.sound.SoundSystemConfig;
+
+/**
+ * Offline render mode: decodes files with the codecs registered in MainActivity.initSoundSystem(), the way a streaming source reads them
+ * (MIDI files with MidiSynthCodec, as in the software MIDI mode of the app), and writes the PCM to WAV files (or nowhere) as fast as the CPU allows.
+ * Prints the real-time factor of each file, and an MD5 of its PCM which can be compared with a checksum file for regression checks.
+ * <pre>
+ * OfflineRenderer [--out dir] [--raw | --null] [--parallel] [--verify checksums.txt] [--write-checksums checksums.txt] [files...]
+ * </pre>
+ * With --parallel, the files are decoded through ParallelDecodeCodec as in the parallel decode mode of the app.
+ * Files are asset names (e.g. bm.xm) or paths; without files every asset of the demo is rendered.
+ * @author NullNoname
+ */
+public class OfflineRenderer {
+	/** Files rendered when none is given (the songs and sound effects of the demo) */
+	private static final String[] DEFAULT_FILES = {"swansong.ogg", "bm.xm", "fables.spx", "mz_331_3.mid", "gamestart.ogg", "gamestart.wav"};
+
+	/** CPU time of the render thread */
+	private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+	public static void main(String[] args) throws Exception {
+		File outDir = new File("render");
+		boolean raw = false, discard = false, parallel = false;
+		File verify = null, writeChecksums = null;
+		List<String> files = new ArrayList<String>();
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].equals("--out") && i + 1 < args.length) outDir = new File(args[++i]);
+			else if(args[i].equals("--raw")) raw = true;
+			else if(args[i].equals("--null")) discard = true;
+			else if(args[i].equals("--parallel")) parallel = true;
+			else if(args[i].equals("--verify") && i + 1 < args.length) verify = new File(args[++i]);
+			else if(args[i].equals("--write-checksums") && i + 1 < args.length) writeChecksums = new File(args[++i]);
+			else if(args[i].startsWith("--")) {
+				System.err.println("Usage: OfflineRenderer [--out dir] [--raw | --null] [--parallel] [--verify checksums.txt] [--write-checksums checksums.txt] [files...]");
+				System.exit(2);
+			}
+			else files.add(args[i]);
+		}
+		if(files.isEmpty()) {
+			for(String file : DEFAULT_FILES) files.add(file);
+		}
+
+		HeadlessEnvironment.init();
+		CodecRegistry.setParallelDecode(parallel);
+		if(!discard && !outDir.isDirectory() && !outDir.mkdirs()) throw new IOException("Cannot create " + outDir);
+
+		Map<String, String> checksums = new LinkedHashMap<String, String>();
+		System.out.println(String.format("%-16s %-18s %-26s %9s %9s %9s  %s", "File", "Codec", "Format", "Length", "Render", "RTF", "MD5"));
+		for(String file : files) {
+			FilenameURL filenameURL = createFilenameURL(file);
+			String filename = filenameURL.getFilename();
+			if(SoundSystemConfig.getCodec(filename) == null) {
+				System.out.println(String.format("%-16s skipped: no codec", filename));
+				continue;
+			}
+
+			PcmSink sink = discard ? PcmSink.NULL : new WavFileSink(new File(outDir, filename + (raw ? ".pcm" : ".wav")), !raw);
+			Result result = render(filenameURL, sink);
+			checksums.put(filename, result.md5);
+			System.out.println(String.format("%-16s %-18s %-26s %8.2fs %7.0fms %8.1fx  %s", filename, result.codec, formatToString(result.format),
+					result.getSeconds(), result.nanos / 1e6, result.getRealTimeFactor(), result.md5));
+		}
+
+		if(writeChecksums != null) {
+			writeChecksums(writeChecksums, checksums);
+			System.out.println("Checksums written to " + writeChecksums);
+		}
+		if(verify != null && !verifyChecksums(verify, checksums)) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Create the FilenameURL of a command line argument
+	 * @param file Asset name or path
+	 * @return FilenameURL
+	 */
+	private static FilenameURL createFilenameURL(String file) throws IOException {
+		File f = new File(file);
+		if(f.isFile() && !new File(HeadlessEnvironment.getAssetDir(), file).isFile()) {
+			return new FilenameURL(f.toURI().toURL(), f.getName());
+		}
+		return HeadlessEnvironment.createFilenameURL(file);
+	}
+
+	/**
+	 * Decode a file from the beginning to the end into a sink, like a streaming source would
+	 * @param filenameURL File
+	 * @param sink Output
+	 * @return Result
+	 * @throws IOException If writing failed
+	 */
+	public static Result render(FilenameURL filenameURL, PcmSink sink) throws IOException {
+		String filename = filenameURL.getFilename();
+		ICodec codec = SoundSystemConfig.getCodec(filename);
+		if(codec == null) throw new IllegalArgumentException("No codec for " + filename);
+
+		MessageDigest md5 = createMD5();
+		long begin = System.nanoTime();
+		long cpuBegin = threadBean.getCurrentThreadCpuTime();
+
+		// LibraryAudioTrack wants reversed byte order
+		codec.reverseByteOrder(true);
+		if(!codec.initialize(filenameURL)) {
+			codec.cleanup();
+			throw new IllegalStateException("Codec " + codec.getClass().getSimpleName() + " failed to initialize " + filename);
+		}
+
+		Result result = new Result();
+		result.codec = CodecDecoder.getCodecName(filename);
+		try {
+			result.format = codec.getAudioFormat();
+			sink.open(result.format);
+			while(!codec.endOfStream()) {
+				SoundBuffer buffer = codec.read();
+				if(buffer == null) break;
+				if(buffer.audioData != null) {
+					md5.update(buffer.audioData);
+					sink.write(buffer.audioData, 0, buffer.audioData.length);
+					result.bytes += buffer.audioData.length;
+					PcmBufferPool.recycle(buffer.audioData);
+				}
+			}
+			sink.close();
+		} finally {
+			codec.cleanup();
+		}
+
+		result.nanos = System.nanoTime() - begin;
+		result.cpuNanos = threadBean.getCurrentThreadCpuTime() - cpuBegin;
+		result.md5 = toHex(md5.digest());
+		return result;
+	}
+
+	/**
+	 * Compare the checksums with a checksum file
+	 * @param file Checksum file ("md5  filename" lines, as written by --write-checksums)
+	 * @param checksums Checksums of this run
+	 * @return true if every rendered file matches
+	 * @throws IOException If the file cannot be read
+	 */
+	private static boolean verifyChecksums(File file, Map<String, String> checksums) throws IOException {
+		Map<String, String> reference = new LinkedHashMap<String, String>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while((line = in.readLine()) != null) {
+				String[] fields = line.trim().split("\\s+", 2);
+				if(fields.length == 2 && !line.startsWith("#")) reference.put(fields[1], fields[0]);
+			}
+		} finally {
+			in.close();
+		}
+
+		boolean ok = true;
+		for(Map.Entry<String, String> e : checksums.entrySet()) {
+			String expected = reference.get(e.getKey());
+			if(expected == null) {
+				System.out.println(e.getKey() + ": no reference checksum");
+			} else if(!expected.equalsIgnoreCase(e.getValue())) {
+				System.out.println(e.getKey() + ": MISMATCH (expected " + expected + ")");
+				ok = false;
+			}
+		}
+		System.out.println(ok ? "Checksums OK" : "Checksums FAILED");
+		return ok;
+	}
+
+	/**
+	 * Write a checksum file
+	 * @param file Checksum file
+	 * @param checksums Checksums
+	 * @throws IOException If writing failed
+	 */
+	private static void writeChecksums(File file, Map<String, String> checksums) throws IOException {
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			out.write("# MD5 of the PCM rendered by OfflineRenderer (regenerate with --write-checksums when a codec changes on purpose)\n");
+			for(Map.Entry<String, String> e : checksums.entrySet()) {
+				out.write(e.getValue() + "  " + e.getKey() + "\n");
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @return New MD5 digest
+	 */
+	private static MessageDigest createMD5() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @param bytes Bytes
+	 * @return Lower case hex string
+	 */
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder();
+		for(byte b : bytes) sb.append(String.format("%02x", b & 0xFF));
+		return sb.toString();
+	}
+
+	/**
+	 * @param format Format
+	 * @return Short description (e.g. "44100Hz 16bit stereo")
+	 */
+	private static String formatToString(PAudioFormat format) {
+		return (int)format.getSampleRate() + "Hz " + format.getSampleSizeInBits() + "bit " + ((format.getChannels() == 1) ? "mono" : format.getChannels() + "ch");
+	}
+
+	/**
+	 * Result of one render
+	 */
+	public static class Result {
+		/** Name of the codec which decoded the file */
+		public String codec;
+		/** Format of the PCM */
+		public PAudioFormat format;
+		/** Number of PCM bytes */
+		public long bytes;
+		/** Wall clock and CPU time of the render */
+		public long nanos, cpuNanos;
+		/** MD5 of the PCM (lower case hex) */
+		public String md5;
+
+		/**
+		 * @return Length of the PCM in seconds
+		 */
+		public double getSeconds() {
+			return bytes / (double)format.getFrameSize() / format.getSampleRate();
+		}
+
+		/**
+		 * @return Seconds of audio rendered per second of wall clock time
+		 */
+		public double getRealTimeFactor() {
+			return getSeconds() / (nanos / 1e9);
+		}
+	}
+}
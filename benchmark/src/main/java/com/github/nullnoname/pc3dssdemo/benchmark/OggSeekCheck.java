@@ -0,0 +1,176 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.github.nullnoname.pc3dssdemo.audio.OggPageReader;
+import com.github.nullnoname.pc3dssdemo.audio.PcmBufferPool;
+import com.github.nullnoname.pc3dssdemo.audio.PooledCodecJOrbis;
+
+import paulscode.sound.FilenameURL;
+import paulscode.sound.SoundBuffer;
+
+/**
+ * Checks the page reader of PooledCodecJOrbis.
+ * A full decode must keep the read window at the size of one page (not the size of the file),
+ * and every seek must give the PCM of the full decode at the target position. Seeks can only be as exact as the granule positions
+ * in the file, which some encoders write one frame off, so a seek one frame off is counted but not failed.
+ * Prints the time and the bytes read per seek.
+ * <pre>
+ * OggSeekCheck [--seeks N] [file]
+ * </pre>
+ * @author NullNoname
+ */
+public class OggSeekCheck {
+	/** Frames compared after each seek */
+	private static final int COMPARE_FRAMES = 8192;
+
+	public static void main(String[] args) throws Exception {
+		String filename = "swansong.ogg";
+		int seeks = 50;
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].equals("--seeks") && i + 1 < args.length) seeks = Integer.parseInt(args[++i]);
+			else filename = args[i];
+		}
+
+		HeadlessEnvironment.init();
+		FilenameURL filenameURL = new FilenameURL(LocalAssetFileInputProvider.createAssetURL(filename), filename);
+		boolean ok = true;
+
+		// Full decode: the reference PCM, and the largest read window
+		PooledCodecJOrbis codec = new PooledCodecJOrbis();
+		if(!codec.initialize(filenameURL) || !codec.isSeekable()) {
+			System.out.println(filename + ": cannot be read with the page reader");
+			System.exit(1);
+		}
+		OggPageReader reader = codec.getPageReader();
+		int frameSize = codec.getAudioFormat().getChannels() * 2;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int maxWindow = 0;
+		long begin = System.nanoTime();
+		while(!codec.endOfStream()) {
+			SoundBuffer buffer = codec.read();
+			if(buffer == null) break;
+			out.write(buffer.audioData);
+			PcmBufferPool.recycle(buffer.audioData);
+			maxWindow = Math.max(maxWindow, reader.getWindowSize());
+		}
+		long decodeNanos = System.nanoTime() - begin;
+		long fileSize = reader.getEnd() - reader.getStart();
+		byte[] reference = out.toByteArray();
+		long totalFrames = reference.length / frameSize;
+		System.out.println(String.format("%s: %d frames, %d bytes, decoded in %dms, read window at most %d bytes (%.2f%% of the file)",
+				filename, totalFrames, fileSize, decodeNanos / 1000000, maxWindow, maxWindow * 100.0 / fileSize));
+		if(reader.getBytesRead() != fileSize) {
+			System.out.println("Read " + reader.getBytesRead() + " bytes instead of " + fileSize);
+			ok = false;
+		}
+
+		// Seeks: the edges, then random positions
+		List<Long> targets = new ArrayList<Long>();
+		targets.add(0L);
+		targets.add(1L);
+		targets.add(4096L);
+		targets.add(totalFrames / 2);
+		targets.add(totalFrames - COMPARE_FRAMES);
+		targets.add(totalFrames - 1);
+		Random random = new Random(1);
+		for(int i = 0; i < seeks; i++) {
+			targets.add((long)(random.nextDouble() * totalFrames));
+		}
+
+		int exact = 0, oneOff = 0;
+		long totalNanos = 0, maxNanos = 0, totalBytes = 0;
+		for(long target : targets) {
+			long bytesBefore = reader.getBytesRead();
+			long t0 = System.nanoTime();
+			boolean seeked = codec.seek(target);
+			byte[] pcm = readFrames(codec, COMPARE_FRAMES, frameSize);
+			long nanos = System.nanoTime() - t0;
+			totalNanos += nanos;
+			maxNanos = Math.max(maxNanos, nanos);
+			totalBytes += reader.getBytesRead() - bytesBefore;
+
+			if(seeked && matches(reference, target, pcm, frameSize)) {
+				exact++;
+			} else if(seeked && (matches(reference, target - 1, pcm, frameSize) || matches(reference, target + 1, pcm, frameSize))) {
+				oneOff++;
+			} else {
+				System.out.println("Seek to frame " + target + ": " + (seeked ? "PCM differs" : "failed"));
+				ok = false;
+			}
+		}
+		codec.cleanup();
+
+		System.out.println(String.format("Seeks: %d/%d exact, %d one frame off, mean %.2fms, max %.2fms (with the first %d frames), %.1fKB read per seek",
+				exact, targets.size(), oneOff, totalNanos / 1e6 / targets.size(), maxNanos / 1e6, COMPARE_FRAMES, totalBytes / 1024.0 / targets.size()));
+		System.out.println(ok ? "OK" : "FAILED");
+		if(!ok) System.exit(1);
+	}
+
+	/**
+	 * Read frames from the current position
+	 * @param codec Codec
+	 * @param frames Number of frames wanted
+	 * @param frameSize Bytes per frame
+	 * @return PCM (shorter at the end of the stream)
+	 */
+	private static byte[] readFrames(PooledCodecJOrbis codec, int frames, int frameSize) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		while(out.size() < frames * frameSize && !codec.endOfStream()) {
+			SoundBuffer buffer = codec.read();
+			if(buffer == null) break;
+			out.write(buffer.audioData, 0, Math.min(buffer.audioData.length, frames * frameSize - out.size()));
+			PcmBufferPool.recycle(buffer.audioData);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Check if PCM read after a seek is the reference PCM at a position
+	 * @param reference Reference PCM
+	 * @param frame Frame position in the reference
+	 * @param pcm PCM read after the seek
+	 * @param frameSize Bytes per frame
+	 * @return true if the PCM is the reference from the position, up to the end of one of them
+	 */
+	private static boolean matches(byte[] reference, long frame, byte[] pcm, int frameSize) {
+		if(frame < 0) return false;
+		int offset = (int)(frame * frameSize);
+		int length = Math.min(pcm.length, reference.length - offset);
+		if(length <= 0 || (length < pcm.length)) return false;
+		if(pcm.length < COMPARE_FRAMES * frameSize && offset + pcm.length != reference.length) return false;
+		for(int i = 0; i < length; i++) {
+			if(reference[offset + i] != pcm[i]) return false;
+		}
+		return true;
+	}
+}
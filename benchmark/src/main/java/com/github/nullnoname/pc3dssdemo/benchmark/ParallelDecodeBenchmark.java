@@ -0,0 +1,121 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.benchmark;
+
+import com.github.nullnoname.pc3dssdemo.audio.ParallelDecodeCodec;
+import com.github.nullnoname.pc3dssdemo.audio.PcmBufferPool;
+
+import paulscode.sound.ICodec;
+import paulscode.sound.PAudioFormat;
+import paulscode.sound.SoundBuffer;
+
+/**
+ * Measures how decoding 1 to N concurrent streams scales with ParallelDecodeCodec.
+ * One thread reads the streams round robin like the stream thread does, first with the codecs running on that thread,
+ * then through ParallelDecodeCodec. Each stream is read for the same length of audio, from initialize() to cleanup().
+ * <pre>
+ * ParallelDecodeBenchmark [--streams N] [--threads N] [--seconds S]
+ * </pre>
+ * @author NullNoname
+ */
+public class ParallelDecodeBenchmark {
+	/** Files played at once (repeated for more streams) */
+	private static final String[] FILES = {"swansong.ogg", "fables.spx", "bm.xm"};
+
+	public static void main(String[] args) throws Exception {
+		int maxStreams = 8;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int seconds = 20;
+		for(int i = 0; i + 1 < args.length; i++) {
+			if(args[i].equals("--streams")) maxStreams = Integer.parseInt(args[++i]);
+			else if(args[i].equals("--threads")) threads = Integer.parseInt(args[++i]);
+			else if(args[i].equals("--seconds")) seconds = Integer.parseInt(args[++i]);
+		}
+
+		HeadlessEnvironment.init();
+		ParallelDecodeCodec.setDefaultThreads(threads);
+		System.out.println("Cores: " + Runtime.getRuntime().availableProcessors() + ", decode workers: " + threads + ", " + seconds + "s of audio per stream");
+		System.out.println(String.format("%7s %12s %12s %9s", "Streams", "Serial", "Parallel", "Speedup"));
+
+		// Warm up both paths
+		measure(FILES.length, false, seconds);
+		measure(FILES.length, true, seconds);
+
+		for(int n = 1; n <= maxStreams; n++) {
+			double serial = measure(n, false, seconds);
+			double parallel = measure(n, true, seconds);
+			System.out.println(String.format("%7d %10.1fx %10.1fx %8.2fx", n, serial, parallel, parallel / serial));
+		}
+		System.out.println("(seconds of audio decoded per second)");
+		System.out.println(ParallelDecodeCodec.getStats());
+	}
+
+	/**
+	 * Read n streams round robin
+	 * @param n Number of streams
+	 * @param parallel true to decode through ParallelDecodeCodec
+	 * @param seconds Seconds of audio read from each stream
+	 * @return Seconds of audio decoded per second of wall clock time
+	 */
+	private static double measure(int n, boolean parallel, int seconds) {
+		ICodec[] codecs = new ICodec[n];
+		long[] limits = new long[n];
+		// The workers start decoding in initialize(), so it is timed as well
+		long begin = System.nanoTime();
+		for(int i = 0; i < n; i++) {
+			String file = FILES[i % FILES.length];
+			codecs[i] = parallel ? new ParallelDecodeCodec() : ParallelDecodeCodec.createDecoder(file);
+			codecs[i].reverseByteOrder(true);
+			if(!codecs[i].initialize(HeadlessEnvironment.createFilenameURL(file))) throw new IllegalStateException("Cannot initialize " + file);
+			PAudioFormat format = codecs[i].getAudioFormat();
+			limits[i] = (long)(format.getSampleRate() * format.getFrameSize()) * seconds;
+		}
+
+		double audioSeconds = 0;
+		int active = n;
+		while(active > 0) {
+			active = 0;
+			for(int i = 0; i < n; i++) {
+				if(codecs[i] == null) continue;
+				SoundBuffer buffer = codecs[i].read();
+				if(buffer != null) {
+					PAudioFormat format = codecs[i].getAudioFormat();
+					limits[i] -= buffer.audioData.length;
+					audioSeconds += buffer.audioData.length / (double)format.getFrameSize() / format.getSampleRate();
+					PcmBufferPool.recycle(buffer.audioData);
+				}
+				if(buffer == null || codecs[i].endOfStream() || limits[i] <= 0) {
+					codecs[i].cleanup();
+					codecs[i] = null;
+				} else {
+					active++;
+				}
+			}
+		}
+		return audioSeconds / ((System.nanoTime() - begin) / 1e9);
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.benchmark;
+
+import java.io.IOException;
+
+import paulscode.sound.PAudioFormat;
+
+/**
+ * Output of the offline renderer, in place of the AudioTrack
+ * @author NullNoname
+ */
+public interface PcmSink {
+	/**
+	 * Start a new output
+	 * @param format Format of the PCM (16-bit data is little endian, as the AudioTrack library gets it)
+	 * @throws IOException If the output cannot be created
+	 */
+	void open(PAudioFormat format) throws IOException;
+
+	/**
+	 * Write PCM
+	 * @param data PCM
+	 * @param offset Offset in data
+	 * @param length Length in bytes
+	 * @throws IOException If writing failed
+	 */
+	void write(byte[] data, int offset, int length) throws IOException;
+
+	/**
+	 * Finish the output
+	 * @throws IOException If writing failed
+	 */
+	void close() throws IOException;
+
+	/**
+	 * Sink which discards everything, to measure the decoding alone
+	 */
+	public static final PcmSink NULL = new PcmSink() {
+		public void open(PAudioFormat format) {
+		}
+
+		public void write(byte[] data, int offset, int length) {
+		}
+
+		public void close() {
+		}
+	};
+}
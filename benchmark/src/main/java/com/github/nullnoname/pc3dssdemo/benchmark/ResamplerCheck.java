@@ -0,0 +1,342 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import com.github.nullnoname.pc3dssdemo.audio.CodecRegistry;
+import com.github.nullnoname.pc3dssdemo.audio.OutputNegotiator;
+import com.github.nullnoname.pc3dssdemo.audio.PcmBufferPool;
+import com.github.nullnoname.pc3dssdemo.audio.PcmConverter;
+import com.github.nullnoname.pc3dssdemo.audio.PolyphaseResampler;
+import com.github.nullnoname.pc3dssdemo.audio.ResamplingCodec;
+
+import paulscode.sound.ICodec;
+import paulscode.sound.PAudioFormat;
+import paulscode.sound.SoundBuffer;
+import paulscode.sound.SoundSystemConfig;
+
+/**
+ * Checks the resampler of the native output mode (PolyphaseResampler through ResamplingCodec).
+ * Prints the signal-to-noise ratio of sine tones converted from the asset rates to 48000Hz, next to the linear interpolation
+ * of PcmConverter, the level of a tone above the output Nyquist frequency after downsampling (aliasing), and the conversion speed.
+ * Then plays every asset through the registered codecs with the output negotiated at 48000Hz, and measures the heap allocation
+ * per stream buffer and the stream length.
+ * Exits with status 1 if the 1kHz tone is below {@link #MIN_SNR_DB}, the converted length or the buffer-by-buffer conversion
+ * differs from the expected one, or ResamplingCodec allocates more than {@link #MAX_BYTES_PER_BUFFER} per buffer.
+ * @author NullNoname
+ */
+public class ResamplerCheck {
+	/** Native rate of the check */
+	private static final int OUTPUT_RATE = 48000;
+
+	/** Minimum signal-to-noise ratio of a 1kHz tone */
+	public static final double MIN_SNR_DB = 80;
+
+	/** Allowed allocation per buffer (the SoundBuffer wrapper the library needs, plus some slack) */
+	public static final long MAX_BYTES_PER_BUFFER = 256;
+
+	/** Amplitude of the test tones */
+	private static final double AMPLITUDE = 16384;
+
+	/** Length of the test tones in seconds */
+	private static final int TONE_SECONDS = 2;
+
+	/** Output frames skipped at both ends of a tone (the filter starts and ends on silence) */
+	private static final int EDGE_FRAMES = PolyphaseResampler.TAPS * 8;
+
+	/** Decoders which allocate more per buffer are not pooled, and what ResamplingCodec adds cannot be told apart */
+	private static final long MAX_DECODER_BYTES_PER_BUFFER = 4096;
+
+	/** Thread allocation counter of HotSpot */
+	private static final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+	public static void main(String[] args) throws Exception {
+		HeadlessEnvironment.init();
+		boolean ok = true;
+
+		System.out.println("Signal-to-noise ratio of sine tones converted to " + OUTPUT_RATE + "Hz (dB):");
+		System.out.println(String.format("%-8s %7s %10s %10s", "From", "Tone", "Linear", "Polyphase"));
+		int[][] tones = {{44100, 1000}, {44100, 5000}, {44100, 10000}, {44100, 15000}, {22050, 1000}, {22050, 8000}, {16000, 1000}, {8000, 1000}, {8000, 3000}};
+		for(int[] tone : tones) {
+			double linear = measureSnr(tone[0], tone[1], false);
+			double polyphase = measureSnr(tone[0], tone[1], true);
+			boolean toneOk = (tone[1] != 1000) || (polyphase >= MIN_SNR_DB);
+			ok &= toneOk;
+			System.out.println(String.format("%-8d %6dHz %10.1f %10.1f%s", tone[0], tone[1], linear, polyphase, toneOk ? "" : " < " + MIN_SNR_DB));
+		}
+
+		System.out.println();
+		System.out.println("Level of tones above the Nyquist frequency after downsampling 48000Hz to 44100Hz (dB, lower is better):");
+		for(int frequency : new int[] {22500, 23500}) {
+			System.out.println(String.format("%6dHz: linear %6.1f, polyphase %6.1f", frequency,
+					measureAliasing(frequency, false), measureAliasing(frequency, true)));
+		}
+
+		System.out.println();
+		ok &= checkChunks(44100, 2);
+		ok &= checkChunks(8000, 1);
+		measureSpeed();
+
+		System.out.println();
+		System.out.println("Assets through the registered codecs, output negotiated at " + OUTPUT_RATE + "Hz:");
+		CodecRegistry.setNativeOutput(OUTPUT_RATE, 0);
+		try {
+			for(String filename : new String[] {"swansong.ogg", "gamestart.ogg", "fables.spx", "gamestart.wav", "bm.xm"}) {
+				ok &= checkCodec(filename);
+			}
+			System.out.println(OutputNegotiator.getStats());
+		} finally {
+			CodecRegistry.setNativeOutput(0, 0);
+		}
+
+		System.out.println(ok ? "OK" : "FAILED");
+		if(!ok) System.exit(1);
+	}
+
+	/**
+	 * Convert a tone to OUTPUT_RATE and compare it with the ideal tone
+	 * @param inRate Input rate
+	 * @param frequency Tone frequency
+	 * @param polyphase true for PolyphaseResampler, false for PcmConverter
+	 * @return Signal-to-noise ratio in dB
+	 */
+	private static double measureSnr(int inRate, int frequency, boolean polyphase) {
+		short[] out = convert(createTone(inRate, frequency, inRate * TONE_SECONDS), inRate, OUTPUT_RATE, polyphase);
+		double signal = 0, noise = 0;
+		for(int i = EDGE_FRAMES; i < out.length - EDGE_FRAMES; i++) {
+			double ideal = AMPLITUDE * Math.sin(2 * Math.PI * frequency * i / OUTPUT_RATE);
+			signal += ideal * ideal;
+			noise += (out[i] - ideal) * (out[i] - ideal);
+		}
+		return 10 * Math.log10(signal / noise);
+	}
+
+	/**
+	 * Convert a tone above the Nyquist frequency of 44100Hz from 48000Hz to 44100Hz
+	 * @param frequency Tone frequency
+	 * @param polyphase true for PolyphaseResampler, false for PcmConverter
+	 * @return Output level relative to the input in dB
+	 */
+	private static double measureAliasing(int frequency, boolean polyphase) {
+		short[] out = convert(createTone(48000, frequency, 48000 * TONE_SECONDS), 48000, 44100, polyphase);
+		double sum = 0;
+		int count = 0;
+		for(int i = EDGE_FRAMES; i < out.length - EDGE_FRAMES; i++) {
+			sum += (double)out[i] * out[i];
+			count++;
+		}
+		return 10 * Math.log10(Math.max(sum / count, 1e-3) / (AMPLITUDE * AMPLITUDE / 2));
+	}
+
+	/**
+	 * Check that a signal converted in buffers of random sizes is the same as converted at once,
+	 * and that the output length is the input length at the output rate, rounded up
+	 * @param inRate Input rate
+	 * @param channels Input channels
+	 * @return true if both match
+	 */
+	private static boolean checkChunks(int inRate, int channels) {
+		Random random = new Random(inRate);
+		int frames = inRate * 3 + random.nextInt(inRate);
+		byte[] data = new byte[frames * channels * 2];
+		for(int i = 0; i < data.length; i += 2) {
+			int sample = (int)(AMPLITUDE * Math.sin(i * 0.01)) + random.nextInt(2048) - 1024;
+			data[i] = (byte)sample;
+			data[i + 1] = (byte)(sample >> 8);
+		}
+		PAudioFormat format = new PAudioFormat(inRate, 16, channels, true, false);
+
+		PolyphaseResampler whole = new PolyphaseResampler(format, OUTPUT_RATE, 2);
+		byte[] expected = new byte[whole.getMaxOutputBytes(data.length) + whole.getMaxFlushBytes()];
+		int expectedLength = whole.convert(data, data.length, expected, 0);
+		expectedLength += whole.flush(expected, expectedLength);
+
+		PolyphaseResampler chunked = new PolyphaseResampler(format, OUTPUT_RATE, 2);
+		byte[] chunk = new byte[8192];
+		byte[] actual = new byte[expected.length];
+		int actualLength = 0;
+		for(int p = 0; p < data.length; ) {
+			int length = Math.min(data.length - p, (1 + random.nextInt(chunk.length / 4)) * channels * 2);
+			System.arraycopy(data, p, chunk, 0, length);
+			actualLength += chunked.convert(chunk, length, actual, actualLength);
+			p += length;
+		}
+		actualLength += chunked.flush(actual, actualLength);
+
+		// Exactly the input length at the output rate, rounded up
+		long lengthFrames = ((long)frames * OUTPUT_RATE + inRate - 1) / inRate;
+		boolean same = (actualLength == expectedLength);
+		for(int i = 0; same && i < expectedLength; i++) {
+			same = (actual[i] == expected[i]);
+		}
+		boolean lengthOk = (expectedLength / 4 == lengthFrames);
+		System.out.println(String.format("%dHz %dch, %d frames: %d output frames (expected %d), buffer by buffer %s", inRate, channels, frames,
+				expectedLength / 4, lengthFrames, same ? "identical" : "DIFFERENT"));
+		return same && lengthOk;
+	}
+
+	/**
+	 * Measure the conversion speed of 44100Hz stereo to OUTPUT_RATE
+	 */
+	private static void measureSpeed() {
+		int frames = 44100 * 10;
+		byte[] data = new byte[frames * 4];
+		short[] tone = createTone(44100, 1000, frames);
+		for(int i = 0; i < frames; i++) {
+			data[i * 4] = data[i * 4 + 2] = (byte)tone[i];
+			data[i * 4 + 1] = data[i * 4 + 3] = (byte)(tone[i] >> 8);
+		}
+		PAudioFormat format = new PAudioFormat(44100, 16, 2, true, false);
+		PolyphaseResampler resampler = new PolyphaseResampler(format, OUTPUT_RATE, 2);
+		byte[] out = new byte[resampler.getMaxOutputBytes(16384)];
+		long best = Long.MAX_VALUE;
+		for(int round = 0; round < 5; round++) {
+			resampler.reset();
+			long begin = System.nanoTime();
+			for(int p = 0; p < data.length; p += 16384) {
+				resampler.convert(data, Math.min(16384, data.length - p), out, 0);
+			}
+			best = Math.min(best, System.nanoTime() - begin);
+		}
+		System.out.println(String.format("44100Hz stereo to %dHz: %.1fx real time (%.1fns per output frame)", OUTPUT_RATE,
+				10e9 / best, (double)best / ((long)frames * OUTPUT_RATE / 44100)));
+	}
+
+	/**
+	 * Play a file through its decoder and through its registered codec, and check the allocation and the length of the converted stream.
+	 * The allocation of the registered codec minus the allocation of the decoder is what the conversion adds.
+	 * @param filename Asset filename
+	 * @return false if the allocation limit was exceeded or the length is wrong
+	 */
+	private static boolean checkCodec(String filename) {
+		long[] decoded = play(CodecRegistry.createDecoder(filename), filename);
+		ICodec codec = SoundSystemConfig.getCodec(filename);
+		long[] converted = play(codec, filename);
+		int decoderRate = (int)decoded[3], outputRate = (int)converted[3];
+
+		// Exactly the decoded length at the output rate, rounded up (an extra frame would be a glitch at every loop)
+		long expectedFrames = (decodedFrames(decoded) * outputRate + decoderRate - 1) / decoderRate;
+		boolean decoderPooled = (decoded[2] / decoded[1] <= MAX_DECODER_BYTES_PER_BUFFER);
+		long perBuffer = Math.max(0, converted[2] - decoded[2]) / converted[1];
+
+		boolean allocationOk = !(codec instanceof ResamplingCodec) || !decoderPooled || (perBuffer <= MAX_BYTES_PER_BUFFER);
+		boolean ok = allocationOk && (decodedFrames(converted) == expectedFrames) && (outputRate == OUTPUT_RATE);
+		System.out.println(String.format("%-14s %-16s %5dHz -> %5dHz, %8d frames (expected %d), %s (%d buffers)%s",
+				filename, codec.getClass().getSimpleName(), decoderRate, outputRate, decodedFrames(converted), expectedFrames,
+				decoderPooled ? perBuffer + " bytes/buffer added" : "decoder allocates " + decoded[2] / decoded[1] + " bytes/buffer",
+				converted[1], ok ? "" : " FAILED"));
+		return ok;
+	}
+
+	/**
+	 * @param result Result of play()
+	 * @return Number of frames
+	 */
+	private static long decodedFrames(long[] result) {
+		return result[0];
+	}
+
+	/**
+	 * Read a stream to the end, giving the buffers back to the pool like MonitoredChannelAudioTrack does
+	 * @param codec Codec
+	 * @param filename Asset filename
+	 * @return Frames, buffers, bytes allocated by read(), sample rate
+	 */
+	private static long[] play(ICodec codec, String filename) {
+		codec.reverseByteOrder(true);
+		if(!codec.initialize(HeadlessEnvironment.createFilenameURL(filename))) {
+			throw new IllegalStateException(codec.getClass().getSimpleName() + " failed to initialize " + filename);
+		}
+		try {
+			long threadId = Thread.currentThread().getId();
+			long frames = 0, buffers = 0, allocated = 0;
+			while(!codec.endOfStream()) {
+				long before = threadBean.getThreadAllocatedBytes(threadId);
+				SoundBuffer buffer = codec.read();
+				allocated += threadBean.getThreadAllocatedBytes(threadId) - before;
+				if(buffer == null) break;
+				frames += buffer.audioData.length / buffer.audioFormat.getFrameSize();
+				buffers++;
+				PcmBufferPool.recycle(buffer.audioData);
+			}
+			return new long[] {frames, Math.max(1, buffers), allocated, (long)codec.getAudioFormat().getSampleRate()};
+		} finally {
+			codec.cleanup();
+		}
+	}
+
+	/**
+	 * Create a 16-bit mono tone
+	 * @param rate Sample rate
+	 * @param frequency Frequency
+	 * @param frames Length
+	 * @return Samples
+	 */
+	private static short[] createTone(int rate, int frequency, int frames) {
+		short[] tone = new short[frames];
+		for(int i = 0; i < frames; i++) {
+			tone[i] = (short)Math.round(AMPLITUDE * Math.sin(2 * Math.PI * frequency * i / rate));
+		}
+		return tone;
+	}
+
+	/**
+	 * Convert a mono tone
+	 * @param tone Samples
+	 * @param inRate Input rate
+	 * @param outRate Output rate
+	 * @param polyphase true for PolyphaseResampler, false for PcmConverter
+	 * @return Output samples (mono)
+	 */
+	private static short[] convert(short[] tone, int inRate, int outRate, boolean polyphase) {
+		byte[] data = new byte[tone.length * 2];
+		for(int i = 0; i < tone.length; i++) {
+			data[i * 2] = (byte)tone[i];
+			data[i * 2 + 1] = (byte)(tone[i] >> 8);
+		}
+		PAudioFormat format = new PAudioFormat(inRate, 16, 1, true, false);
+		if(polyphase) {
+			PolyphaseResampler resampler = new PolyphaseResampler(format, outRate, 1);
+			byte[] out = new byte[resampler.getMaxOutputBytes(data.length) + resampler.getMaxFlushBytes()];
+			int n = resampler.convert(data, data.length, out, 0);
+			n += resampler.flush(out, n);
+			short[] samples = new short[n / 2];
+			for(int i = 0; i < samples.length; i++) {
+				samples[i] = (short)((out[i * 2] & 0xFF) | (out[i * 2 + 1] << 8));
+			}
+			return samples;
+		}
+		PcmConverter converter = new PcmConverter(format, outRate, 1);
+		short[] out = new short[converter.getMaxOutputSamples(data.length)];
+		int n = converter.convert(data, data.length, out, 0);
+		short[] samples = new short[n];
+		System.arraycopy(out, 0, samples, 0, n);
+		return samples;
+	}
+}
@@ -0,0 +1,235 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import com.github.nullnoname.pc3dssdemo.audio.PcmBufferPool;
+import com.github.nullnoname.pc3dssdemo.audio.PcmCachingCodec;
+import com.github.nullnoname.pc3dssdemo.audio.PcmDiskCache;
+import com.github.nullnoname.pc3dssdemo.audio.SeekIndex;
+import com.github.nullnoname.pc3dssdemo.audio.StreamResume;
+
+import paulscode.sound.FilenameURL;
+import paulscode.sound.ICodec;
+import paulscode.sound.SoundBuffer;
+import paulscode.sound.SoundSystemConfig;
+
+/**
+ * Checks resuming streams at a position and measures the seek latency of each format.
+ * Every file is opened through its registered codec with a start position set in StreamResume, like MainActivity does
+ * when a stopped song is played again, and the PCM from there is compared with a full decode. This runs three times:
+ * cold (no seek index and no PCM cache), indexed (after a full decode has built the seek index) and cached (after a full decode
+ * has filled the PCM disk cache). Ogg seeks without a checkpoint can only be as exact as the granule positions in the file,
+ * so a resume one frame off is counted but not failed.
+ * <pre>
+ * ResumeSeekCheck [--resumes N] [files...]
+ * </pre>
+ * @author NullNoname
+ */
+public class ResumeSeekCheck {
+	/** Files checked by default (one of each seekable format) */
+	private static final String[] DEFAULT_FILES = {"swansong.ogg", "gamestart.ogg", "bm.xm", "fables.spx"};
+
+	/** Names of the runs */
+	private static final String[] RUN_NAMES = {"cold", "indexed", "cached"};
+
+	/** Frames compared after each resume */
+	private static final int COMPARE_FRAMES = 8192;
+
+	/** Size limit of the temporary PCM disk cache */
+	private static final long CACHE_SIZE = 256 * 1024 * 1024;
+
+	public static void main(String[] args) throws Exception {
+		String[] filenames = DEFAULT_FILES;
+		int resumes = 20;
+		int first = 0;
+		if(args.length >= 2 && args[0].equals("--resumes")) {
+			resumes = Integer.parseInt(args[1]);
+			first = 2;
+		}
+		if(args.length > first) {
+			filenames = new String[args.length - first];
+			System.arraycopy(args, first, filenames, 0, filenames.length);
+		}
+
+		HeadlessEnvironment.init();
+		PcmCachingCodec.setDefaultCache(null);
+		File cacheDir = createTempDir();
+		boolean ok = true;
+
+		// Full decodes: the reference PCM
+		SoundBuffer[] references = new SoundBuffer[filenames.length];
+		for(int i = 0; i < filenames.length; i++) {
+			references[i] = decodeAll(filenames[i]);
+			if(references[i] == null) {
+				System.out.println(filenames[i] + ": cannot be decoded");
+				System.exit(1);
+			}
+		}
+
+		for(int run = 0; run < RUN_NAMES.length; run++) {
+			SeekIndex.clear();
+			if(run == 2) PcmCachingCodec.setDefaultCache(new PcmDiskCache(cacheDir, CACHE_SIZE));
+			if(run > 0) {
+				// Build the seek index or fill the cache
+				for(String filename : filenames) decodeAll(filename);
+			}
+			StreamResume.resetStats();
+
+			System.out.println("***** " + RUN_NAMES[run] + " *****");
+			for(int i = 0; i < filenames.length; i++) {
+				byte[] reference = references[i].audioData;
+				int frameSize = references[i].audioFormat.getFrameSize();
+				float rate = references[i].audioFormat.getSampleRate();
+				long durationMillis = (long)(reference.length / frameSize / (double)rate * 1000);
+
+				Random random = new Random(1);
+				int exact = 0, oneOff = 0;
+				long totalNanos = 0, maxNanos = 0;
+				for(int j = 0; j < resumes; j++) {
+					long millis = (j == 0) ? 1 : (long)(random.nextDouble() * durationMillis);
+					if(run == 0) SeekIndex.clear();
+
+					long begin = System.nanoTime();
+					byte[] pcm = resume(filenames[i], millis, COMPARE_FRAMES * frameSize);
+					long nanos = System.nanoTime() - begin;
+					totalNanos += nanos;
+					maxNanos = Math.max(maxNanos, nanos);
+
+					long frame = (long)(millis * (double)rate / 1000);
+					if(pcm != null && matches(reference, frame, pcm, frameSize)) {
+						exact++;
+					} else if(pcm != null && (matches(reference, frame - 1, pcm, frameSize) || matches(reference, frame + 1, pcm, frameSize))) {
+						oneOff++;
+					} else {
+						System.out.println(filenames[i] + ": resume at " + millis + "ms: " + (pcm != null ? "PCM differs" : "failed"));
+						ok = false;
+					}
+				}
+				System.out.println(String.format("%s: %d/%d exact, %d one frame off, open to first %d frames mean %.2fms, max %.2fms",
+						filenames[i], exact, resumes, oneOff, COMPARE_FRAMES, totalNanos / 1e6 / resumes, maxNanos / 1e6));
+			}
+			System.out.print(StreamResume.getStats());
+		}
+
+		PcmCachingCodec.setDefaultCache(null);
+		deleteDir(cacheDir);
+		System.out.println(ok ? "OK" : "FAILED");
+		if(!ok) System.exit(1);
+	}
+
+	/**
+	 * Decode a whole file with its registered codec
+	 * @param filename Asset filename
+	 * @return PCM and its format, or null if the file cannot be decoded
+	 * @throws IOException Never (ByteArrayOutputStream)
+	 */
+	private static SoundBuffer decodeAll(String filename) throws IOException {
+		ICodec codec = SoundSystemConfig.getCodec(filename);
+		if(codec == null || !codec.initialize(HeadlessEnvironment.createFilenameURL(filename))) return null;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		while(!codec.endOfStream()) {
+			SoundBuffer buffer = codec.read();
+			if(buffer == null) break;
+			out.write(buffer.audioData);
+			PcmBufferPool.recycle(buffer.audioData);
+		}
+		SoundBuffer result = new SoundBuffer(out.toByteArray(), codec.getAudioFormat());
+		codec.cleanup();
+		return result;
+	}
+
+	/**
+	 * Open a file at a start position and read from there
+	 * @param filename Asset filename
+	 * @param millis Start position in milliseconds
+	 * @param length Bytes wanted
+	 * @return PCM (shorter at the end of the stream), or null if the file cannot be opened
+	 */
+	private static byte[] resume(String filename, long millis, int length) {
+		FilenameURL filenameURL = HeadlessEnvironment.createFilenameURL(filename);
+		StreamResume.setStartMillis(filename, millis);
+		ICodec codec = SoundSystemConfig.getCodec(filename);
+		if(!codec.initialize(filenameURL)) return null;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		while(out.size() < length && !codec.endOfStream()) {
+			SoundBuffer buffer = codec.read();
+			if(buffer == null) break;
+			out.write(buffer.audioData, 0, Math.min(buffer.audioData.length, length - out.size()));
+			PcmBufferPool.recycle(buffer.audioData);
+		}
+		codec.cleanup();
+		return out.toByteArray();
+	}
+
+	/**
+	 * Check if PCM read after a resume is the reference PCM at a position
+	 * @param reference Reference PCM
+	 * @param frame Frame position in the reference
+	 * @param pcm PCM read after the resume
+	 * @param frameSize Bytes per frame
+	 * @return true if the PCM is the reference from the position, up to the end of one of them
+	 */
+	private static boolean matches(byte[] reference, long frame, byte[] pcm, int frameSize) {
+		if(frame < 0) return false;
+		int offset = (int)(frame * frameSize);
+		int length = Math.min(pcm.length, reference.length - offset);
+		if(length <= 0 || (length < pcm.length)) return false;
+		if(pcm.length < COMPARE_FRAMES * frameSize && offset + pcm.length != reference.length) return false;
+		for(int i = 0; i < length; i++) {
+			if(reference[offset + i] != pcm[i]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Create an empty temporary directory
+	 * @return Directory
+	 * @throws IOException If the directory cannot be created
+	 */
+	private static File createTempDir() throws IOException {
+		File dir = File.createTempFile("resumeseek", "");
+		if(!dir.delete() || !dir.mkdir()) throw new IOException("Cannot create " + dir.getPath());
+		return dir;
+	}
+
+	/**
+	 * Delete a directory and the files in it
+	 * @param dir Directory
+	 */
+	private static void deleteDir(File dir) {
+		File[] files = dir.listFiles();
+		if(files != null) {
+			for(File file : files) file.delete();
+		}
+		dir.delete();
+	}
+}
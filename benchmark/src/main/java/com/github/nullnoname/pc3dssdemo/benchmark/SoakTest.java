@@ -0,0 +1,155 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.benchmark;
+
+import com.github.nullnoname.pc3dssdemo.audio.AudioCommandExecutor;
+import com.github.nullnoname.pc3dssdemo.audio.BatchSoundSystem;
+import com.github.nullnoname.pc3dssdemo.audio.CommandBatch;
+import com.github.nullnoname.pc3dssdemo.audio.LoadGenerator;
+import com.github.nullnoname.pc3dssdemo.audio.SoundEffectBank;
+
+import paulscode.sound.SoundSystemConfig;
+
+/**
+ * Runs the demo's load test on a plain JVM: {@link LoadGenerator} taps the sound effects, starts and stops the songs
+ * and changes the stream buffer size, through the same command queue, command batches and sound effect bank as the demo,
+ * on the {@link HeadlessLibrary} which takes the PCM at the speed of a device.
+ * Prints the load test report at every interval with the stream underruns.
+ * Exits with status 1 if the heap has grown by more than the limit from the first report to the last one.
+ * <pre>
+ * SoakTest [--minutes N] [--sfx-rate N] [--switch-rate N] [--buffer-seconds N] [--report-seconds N] [--channels N] [--seed N] [--max-growth MB]
+ * </pre>
+ * @author NullNoname
+ */
+public class SoakTest {
+	/** Sound effects and songs (same as MainActivity) */
+	private static final String[] EFFECTS = {"gamestart.ogg", "gamestart.wav"};
+	private static final String[] STREAMS = {"swansong.ogg", "bm.xm", "fables.spx", "mz_331_3.mid"};
+
+	/** Maximum number of audio commands waiting for the worker (same as MainActivity) */
+	private static final int AUDIO_COMMAND_QUEUE_SIZE = 32;
+
+	/** Maximum size of the decoded sound effects kept in memory (same as MainActivity) */
+	private static final long SOUND_EFFECT_BANK_SIZE = 4 * 1024 * 1024;
+
+	/** Stream buffer size multiplier when the load does not set one */
+	private static final int DEFAULT_MULTIPLIER = 8;
+
+	/**
+	 * Get the audio command key of a sound (same as MainActivity)
+	 * @param filename Filename
+	 * @return Audio command key (null for a sound effect)
+	 */
+	private static String getSongCommandKey(String filename) {
+		for(String effect : EFFECTS) {
+			if(effect.equals(filename)) return null;
+		}
+		return "song:" + filename;
+	}
+
+	public static void main(String[] args) throws Exception {
+		float minutes = 1;
+		float effectRate = 50;
+		float switchRate = 1;
+		float bufferSeconds = 10;
+		float reportSeconds = 10;
+		int channels = 0;
+		long seed = 1;
+		float maxGrowth = 16;
+		for(int i = 0; i + 1 < args.length; i += 2) {
+			if(args[i].equals("--minutes")) minutes = Float.parseFloat(args[i + 1]);
+			else if(args[i].equals("--sfx-rate")) effectRate = Float.parseFloat(args[i + 1]);
+			else if(args[i].equals("--switch-rate")) switchRate = Float.parseFloat(args[i + 1]);
+			else if(args[i].equals("--buffer-seconds")) bufferSeconds = Float.parseFloat(args[i + 1]);
+			else if(args[i].equals("--report-seconds")) reportSeconds = Float.parseFloat(args[i + 1]);
+			else if(args[i].equals("--channels")) channels = Integer.parseInt(args[i + 1]);
+			else if(args[i].equals("--seed")) seed = Long.parseLong(args[i + 1]);
+			else if(args[i].equals("--max-growth")) maxGrowth = Float.parseFloat(args[i + 1]);
+		}
+
+		HeadlessEnvironment.init();
+		if(channels > 0) SoundSystemConfig.setNumberNormalChannels(channels);
+		HeadlessChannel.setDefaultStreamBufferSizeMultiplier(DEFAULT_MULTIPLIER);
+
+		final BatchSoundSystem soundSystem = new BatchSoundSystem(HeadlessLibrary.class);
+		final CommandBatch batch = soundSystem.newBatch();
+		final SoundEffectBank bank = new SoundEffectBank(SOUND_EFFECT_BANK_SIZE, false);
+		bank.attach(soundSystem);
+		for(String filename : EFFECTS) {
+			bank.preload(filename, LocalAssetFileInputProvider.createAssetURL(filename));
+		}
+		AudioCommandExecutor executor = new AudioCommandExecutor("AudioCommand", AUDIO_COMMAND_QUEUE_SIZE);
+
+		LoadGenerator generator = new LoadGenerator(executor, new LoadGenerator.Actions() {
+			public void playEffect(String filename) {
+				bank.quickPlay(batch, filename, LocalAssetFileInputProvider.createAssetURL(filename));
+				batch.submit();
+			}
+
+			public void playStream(String filename) {
+				batch.backgroundMusic(filename, LocalAssetFileInputProvider.createAssetURL(filename), filename, false);
+				batch.submit();
+			}
+
+			public void stopStream(String filename) {
+				batch.stop(filename);
+				batch.submit();
+			}
+
+			public void setBufferSizeMultiplier(int multiplier) {
+				HeadlessChannel.setDefaultStreamBufferSizeMultiplier((multiplier > 0) ? multiplier : DEFAULT_MULTIPLIER);
+			}
+
+			public String getCommandKey(String filename) {
+				return getSongCommandKey(filename);
+			}
+
+			public void report(String report) {
+				System.out.println(report);
+				System.out.println("Stream underruns: " + HeadlessChannel.getUnderruns() + ", " + soundSystem.getStats());
+				System.out.println();
+			}
+		}, EFFECTS, STREAMS, seed);
+		generator.setEffectRate(effectRate);
+		generator.setStreamSwitchRate(switchRate);
+		generator.setBufferChangeMillis((long)(bufferSeconds * 1000));
+		generator.setReportMillis((long)(reportSeconds * 1000));
+
+		System.out.println(String.format("Load test for %.1f minutes: %.1f SFX taps/s, %.1f song starts and stops/s, buffer change every %.0fs, %d normal channels, seed %d",
+				minutes, effectRate, switchRate, bufferSeconds, SoundSystemConfig.getNumberNormalChannels(), seed));
+		System.out.println();
+		generator.start((long)(minutes * 60000));
+		generator.join();
+
+		executor.shutdown();
+		soundSystem.cleanup();
+
+		boolean ok = generator.getHeapGrowth() <= maxGrowth * 1048576;
+		System.out.println(ok ? "OK" : "FAILED: the heap has grown by more than " + maxGrowth + "MB");
+		if(!ok) System.exit(1);
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.benchmark;
+
+import java.lang.management.ManagementFactory;
+
+import com.github.nullnoname.pc3dssdemo.audio.PcmBufferPool;
+import com.github.nullnoname.pc3dssdemo.audio.PooledCodecIBXM;
+import com.github.nullnoname.pc3dssdemo.audio.PooledCodecJOrbis;
+
+import paulscode.sound.ICodec;
+import paulscode.sound.SoundBuffer;
+import paulscode.sound.codecs.CodecIBXM;
+import paulscode.sound.codecs.CodecJOrbis;
+
+/**
+ * Measures the heap allocation per stream buffer of the stock and the pooled codecs in steady state.
+ * Buffers are given back to the pool the same way MonitoredChannelAudioTrack does after writing them.
+ * Exits with status 1 if a pooled codec allocates more than {@link #MAX_POOLED_BYTES_PER_BUFFER} per buffer.
+ * @author NullNoname
+ */
+public class StreamingAllocationCheck {
+	/** Allowed allocation per buffer for the pooled codecs (the SoundBuffer wrapper the library needs, plus some slack) */
+	public static final long MAX_POOLED_BYTES_PER_BUFFER = 256;
+
+	/** Number of buffers read before measuring */
+	private static final int WARMUP_BUFFERS = 8;
+
+	/** Number of buffers measured */
+	private static final int MEASURED_BUFFERS = 64;
+
+	/** Thread allocation counter of HotSpot */
+	private static final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+	public static void main(String[] args) throws Exception {
+		HeadlessEnvironment.init();
+		System.out.println("Stream buffer size: " + PcmBufferPool.getDefaultPool().getBufferSize() + " bytes");
+
+		boolean ok = true;
+		measure("swansong.ogg", new CodecJOrbis(), -1);
+		ok &= measure("swansong.ogg", new PooledCodecJOrbis(), MAX_POOLED_BYTES_PER_BUFFER);
+		measure("bm.xm", new CodecIBXM(), -1);
+		ok &= measure("bm.xm", new PooledCodecIBXM(), MAX_POOLED_BYTES_PER_BUFFER);
+
+		System.out.println(ok ? "OK" : "FAILED");
+		if(!ok) System.exit(1);
+	}
+
+	/**
+	 * Measure one codec
+	 * @param filename Asset filename
+	 * @param codec Codec
+	 * @param limit Allowed bytes per buffer (-1 for no limit)
+	 * @return false if the limit was exceeded
+	 */
+	private static boolean measure(String filename, ICodec codec, long limit) {
+		codec.reverseByteOrder(true);
+		if(!codec.initialize(HeadlessEnvironment.createFilenameURL(filename))) {
+			throw new IllegalStateException(codec.getClass().getSimpleName() + " failed to initialize " + filename);
+		}
+
+		try {
+			for(int i = 0; i < WARMUP_BUFFERS; i++) {
+				readAndRecycle(codec);
+			}
+
+			long threadId = Thread.currentThread().getId();
+			long before = threadBean.getThreadAllocatedBytes(threadId);
+			int count = 0;
+			for(int i = 0; i < MEASURED_BUFFERS; i++) {
+				if(!readAndRecycle(codec)) break;
+				count++;
+			}
+			long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+			long perBuffer = (count > 0) ? allocated / count : 0;
+
+			boolean ok = (limit < 0) || (perBuffer <= limit);
+			System.out.println(String.format("%-18s %-13s %10d bytes/buffer (%d buffers)%s", codec.getClass().getSimpleName(), filename,
+					perBuffer, count, ok ? "" : " > " + limit));
+			return ok;
+		} finally {
+			codec.cleanup();
+		}
+	}
+
+	/**
+	 * Read one buffer and give it back to the pool
+	 * @param codec Codec
+	 * @return false if the stream has ended
+	 */
+	private static boolean readAndRecycle(ICodec codec) {
+		if(codec.endOfStream()) return false;
+		SoundBuffer buffer = codec.read();
+		if(buffer == null) return false;
+		PcmBufferPool.recycle(buffer.audioData);
+		return true;
+	}
+}
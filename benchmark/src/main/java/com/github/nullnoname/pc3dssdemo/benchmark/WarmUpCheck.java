@@ -0,0 +1,98 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.benchmark;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.github.nullnoname.pc3dssdemo.audio.AudioWarmUp;
+import com.github.nullnoname.pc3dssdemo.audio.PcmBufferPool;
+
+import paulscode.sound.FilenameURL;
+import paulscode.sound.ICodec;
+import paulscode.sound.SoundBuffer;
+import paulscode.sound.SoundSystemConfig;
+
+/**
+ * Measures the time to the first stream buffer (codec init + first read) of each asset, like the first tap in the app.
+ * Run it once as is and once with --no-warmup to compare a warmed-up start with a cold one.
+ * There is no PCM disk cache in the headless environment, so every run decodes.
+ * @author NullNoname
+ */
+public class WarmUpCheck {
+	/** Files to measure */
+	private static final List<String> FILES = Arrays.asList("swansong.ogg", "bm.xm", "fables.spx", "gamestart.wav");
+
+	/** Number of times each file is measured after the first */
+	private static final int REPEATS = 9;
+
+	public static void main(String[] args) throws Exception {
+		HeadlessEnvironment.init();
+		boolean warm = !Arrays.asList(args).contains("--no-warmup");
+
+		if(warm) {
+			AudioWarmUp warmUp = new AudioWarmUp(AudioWarmUp.getDefaultThreadCount(), true);
+			for(String file : FILES) {
+				warmUp.addCodec(file, HeadlessEnvironment.createFilenameURL(file).getURL());
+			}
+			long begin = System.nanoTime();
+			warmUp.start();
+			warmUp.await(60000);
+			System.out.println("Warm-up: " + (System.nanoTime() - begin) / 1000000 + "ms");
+		}
+
+		System.out.println(warm ? "After warm-up:" : "Cold start:");
+		for(String file : FILES) {
+			long first = firstBuffer(file);
+			long rest = 0;
+			for(int i = 0; i < REPEATS; i++) {
+				rest += firstBuffer(file);
+			}
+			System.out.println(String.format("%-14s first %8.2fms, later %8.2fms", file, first / 1e6, rest / 1e6 / REPEATS));
+		}
+	}
+
+	/**
+	 * Initialize a new codec and read the first buffer
+	 * @param file Asset filename
+	 * @return Time in nanoseconds
+	 */
+	private static long firstBuffer(String file) {
+		long begin = System.nanoTime();
+		ICodec codec = SoundSystemConfig.getCodec(file);
+		FilenameURL filenameURL = HeadlessEnvironment.createFilenameURL(file);
+		codec.reverseByteOrder(true);
+		if(!codec.initialize(filenameURL)) throw new IllegalStateException("Cannot initialize " + file);
+		try {
+			SoundBuffer buffer = codec.read();
+			if(buffer != null) PcmBufferPool.recycle(buffer.audioData);
+		} finally {
+			codec.cleanup();
+		}
+		return System.nanoTime() - begin;
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import paulscode.sound.PAudioFormat;
+
+/**
+ * Writes PCM to a WAV file (or a headerless raw PCM file).
+ * The sizes in the WAV header are filled in when the file is closed.
+ * @author NullNoname
+ */
+public class WavFileSink implements PcmSink {
+	/** Size of the canonical WAV header */
+	private static final int HEADER_SIZE = 44;
+
+	/** Output file */
+	private final File file;
+	/** true for a WAV header, false for raw PCM */
+	private final boolean wav;
+
+	/** Open file */
+	private RandomAccessFile out;
+	/** Format being written */
+	private PAudioFormat format;
+	/** Number of PCM bytes written */
+	private long dataSize;
+
+	/**
+	 * Constructor
+	 * @param file Output file
+	 * @param wav true for a WAV header, false for raw PCM
+	 */
+	public WavFileSink(File file, boolean wav) {
+		this.file = file;
+		this.wav = wav;
+	}
+
+	/**
+	 * @return Output file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	public void open(PAudioFormat format) throws IOException {
+		this.format = format;
+		dataSize = 0;
+		out = new RandomAccessFile(file, "rw");
+		out.setLength(0);
+		if(wav) out.write(createHeader(0));
+	}
+
+	public void write(byte[] data, int offset, int length) throws IOException {
+		out.write(data, offset, length);
+		dataSize += length;
+	}
+
+	public void close() throws IOException {
+		if(out == null) return;
+		try {
+			if(wav) {
+				out.seek(0);
+				out.write(createHeader(dataSize));
+			}
+		} finally {
+			out.close();
+			out = null;
+		}
+	}
+
+	/**
+	 * Create the WAV header
+	 * @param size Size of the PCM data in bytes
+	 * @return Header
+	 */
+	private byte[] createHeader(long size) {
+		int channels = format.getChannels();
+		int bits = format.getSampleSizeInBits();
+		int rate = (int)format.getSampleRate();
+		int blockAlign = channels * ((bits + 7) / 8);
+		int dataSize = (int)Math.min(size, 0x7FFFFFFFL - HEADER_SIZE);
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.put(new byte[] {'R', 'I', 'F', 'F'}).putInt(HEADER_SIZE - 8 + dataSize).put(new byte[] {'W', 'A', 'V', 'E'});
+		header.put(new byte[] {'f', 'm', 't', ' '}).putInt(16).putShort((short)1).putShort((short)channels)
+			.putInt(rate).putInt(rate * blockAlign).putShort((short)blockAlign).putShort((short)bits);
+		header.put(new byte[] {'d', 'a', 't', 'a'}).putInt(dataSize);
+		return header.array();
+	}
+}
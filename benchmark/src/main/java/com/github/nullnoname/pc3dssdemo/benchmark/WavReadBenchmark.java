@@ -0,0 +1,168 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.nullnoname.pc3dssdemo.audio.CodecWavChannel;
+
+import paulscode.sound.FilenameURL;
+import paulscode.sound.ICodec;
+import paulscode.sound.codecs.CodecWavN;
+
+/**
+ * Compares CodecWavN (InputStream) with CodecWavChannel (positional FileChannel reads) on plain files.
+ * "long.wav" is a generated 60 second 44.1kHz stereo file, to show how large WAV music behaves.
+ * Run with the GC profiler to see the allocation per operation.
+ * @author NullNoname
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WavReadBenchmark {
+	/** Name of the generated file */
+	private static final String GENERATED_FILE = "long.wav";
+
+	/** File to read */
+	@Param({"gamestart.wav", GENERATED_FILE})
+	public String file;
+
+	/** Codec class to read with */
+	@Param({"CodecWavN", "CodecWavChannel"})
+	public String codec;
+
+	/** File to read */
+	private FilenameURL filenameURL;
+
+	/** Generated file (null if not used) */
+	private File generatedFile;
+
+	/** Decoder */
+	private CodecDecoder decoder;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		HeadlessEnvironment.init();
+		decoder = new CodecDecoder();
+
+		if(GENERATED_FILE.equals(file)) {
+			generatedFile = File.createTempFile("pc3dssdemo", ".wav");
+			writeWav(generatedFile, 44100, 2, 60);
+			filenameURL = new FilenameURL(generatedFile.toURI().toURL(), file);
+		} else {
+			filenameURL = HeadlessEnvironment.createFilenameURL(file);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if(generatedFile != null) generatedFile.delete();
+	}
+
+	@Benchmark
+	public long read(CodecDecodeBenchmark.DecodeCounters counters) {
+		ICodec c = "CodecWavChannel".equals(codec) ? new CodecWavChannel() : new CodecWavN();
+		long result = decoder.decode(c, filenameURL);
+		counters.bytes += decoder.bytes;
+		counters.frames += decoder.frames;
+		return result;
+	}
+
+	/**
+	 * Write a 16-bit PCM WAV file filled with a sawtooth wave
+	 * @param file File to write
+	 * @param sampleRate Sample rate
+	 * @param channels Number of channels
+	 * @param seconds Length in seconds
+	 * @throws IOException If the file cannot be written
+	 */
+	static void writeWav(File file, int sampleRate, int channels, int seconds) throws IOException {
+		int frames = sampleRate * seconds;
+		int dataSize = frames * channels * 2;
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(0x52494646);	// "RIFF"
+			out.writeInt(Integer.reverseBytes(36 + dataSize));
+			out.writeInt(0x57415645);	// "WAVE"
+			out.writeInt(0x666D7420);	// "fmt "
+			out.writeInt(Integer.reverseBytes(16));
+			out.writeShort(Short.reverseBytes((short)1));
+			out.writeShort(Short.reverseBytes((short)channels));
+			out.writeInt(Integer.reverseBytes(sampleRate));
+			out.writeInt(Integer.reverseBytes(sampleRate * channels * 2));
+			out.writeShort(Short.reverseBytes((short)(channels * 2)));
+			out.writeShort(Short.reverseBytes((short)16));
+			out.writeInt(0x64617461);	// "data"
+			out.writeInt(Integer.reverseBytes(dataSize));
+			for(int i = 0; i < frames; i++) {
+				short sample = (short)((i * 64) & 0xFFFF);
+				for(int ch = 0; ch < channels; ch++) {
+					out.writeShort(Short.reverseBytes(sample));
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		HeadlessEnvironment.init();
+		new Runner(new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.include(WavReadBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.jvmArgsAppend("-D" + HeadlessEnvironment.PROPERTY_ASSETS + "=" + HeadlessEnvironment.getAssetDir().getAbsolutePath())
+				.build()).run();
+	}
+}
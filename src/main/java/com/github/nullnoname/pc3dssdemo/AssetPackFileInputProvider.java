@@ -0,0 +1,100 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import com.github.nullnoname.paudiotrack.AssetFileInputProvider;
+import com.github.nullnoname.pc3dssdemo.audio.AssetPack;
+import com.github.nullnoname.pc3dssdemo.audio.PackFileInputProvider;
+
+import paulscode.sound.FileDescriptorWrapper;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.os.ParcelFileDescriptor;
+
+/**
+ * PackFileInputProvider of an asset pack stored uncompressed in the APK.
+ * The pack is mapped once; sounds are then found without asking the AssetManager, which opens the APK entry again for every
+ * length, start offset and stream. Assets which are not in the pack are served by AssetFileInputProvider.
+ * @author NullNoname
+ */
+public class AssetPackFileInputProvider extends PackFileInputProvider {
+	/**
+	 * Map an asset pack
+	 * @param context Context
+	 * @param packFilename Asset path of the pack
+	 * @return Provider
+	 * @throws IOException If the pack is missing, compressed in the APK, or invalid
+	 */
+	public static AssetPackFileInputProvider open(Context context, String packFilename) throws IOException {
+		AssetManager am = context.getAssets();
+		// openFd fails if the asset is compressed (see noCompress in build.gradle)
+		AssetFileDescriptor afd = am.openFd(packFilename);
+		try {
+			FileInputStream in = afd.createInputStream();
+			AssetPack pack = AssetPack.map(in.getChannel(), afd.getStartOffset(), afd.getLength());
+			return new AssetPackFileInputProvider(am, packFilename, afd.getStartOffset(), pack);
+		} finally {
+			afd.close();
+		}
+	}
+
+	/** AssetManager */
+	private final AssetManager am;
+	/** Asset path of the pack */
+	private final String packFilename;
+	/** Position of the pack in the APK */
+	private final long packStartOffset;
+
+	/**
+	 * Constructor
+	 * @param am AssetManager
+	 * @param packFilename Asset path of the pack
+	 * @param packStartOffset Position of the pack in the APK
+	 * @param pack Pack mapped from the APK
+	 */
+	public AssetPackFileInputProvider(AssetManager am, String packFilename, long packStartOffset, AssetPack pack) {
+		super(pack, new AssetFileInputProvider(am));
+		this.am = am;
+		this.packFilename = packFilename;
+		this.packStartOffset = packStartOffset;
+	}
+
+	@Override
+	protected FileDescriptorWrapper openPackFileDescriptor() throws IOException {
+		ParcelFileDescriptor pfd = am.openFd(packFilename).getParcelFileDescriptor();
+		return new FileDescriptorWrapper(pfd, pfd.getFileDescriptor());
+	}
+
+	@Override
+	protected long getPackStartOffset() {
+		return packStartOffset;
+	}
+}
@@ -26,27 +26,48 @@
  */
 package com.github.nullnoname.pc3dssdemo;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
 
 import android.app.Activity;
 import android.os.Bundle;
 import android.view.View;
 import android.widget.Button;
+import android.widget.ScrollView;
 import android.widget.TextView;
 
 /**
- * Crash log activity
+ * Crash log activity. Shows the crash log file written by CrashHandler (EXTRA_LOGPATH) one page at a time,
+ * so a large log with many audio events does not go into one huge TextView.
  * @author NullNoname
  */
 public class CrashActivity extends Activity {
 	private static final String TAG = "CrashActivity";
 
+	/** Maximum bytes per page (pages end at a line break if there is one) */
+	private static final int PAGE_SIZE = 16 * 1024;
+
 	/** Close button */
 	private Button buttonCrashClose;
+	/** Page buttons */
+	private Button buttonCrashPrev, buttonCrashNext;
+	/** Page number TextView */
+	private TextView textViewCrashPage;
+	/** Crash Log ScrollView */
+	private ScrollView scrollViewCrashLog;
 	/** Crash Log TextView */
 	private TextView textViewCrashLog;
 
+	/** Crash log file (null if not readable) */
+	private File logFile;
+	/** Start offset of each page, and the end of the log at the end */
+	private final List<Long> pageOffsets = new ArrayList<Long>();
+	/** Page shown */
+	private int page;
+
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		CrashHandler.install(TAG, this);
@@ -59,6 +80,10 @@ public class CrashActivity extends Activity {
 		setContentView(R.layout.activity_crash);
 
 		buttonCrashClose = (Button)findViewById(R.id.buttonCrashClose);
+		buttonCrashPrev = (Button)findViewById(R.id.buttonCrashPrev);
+		buttonCrashNext = (Button)findViewById(R.id.buttonCrashNext);
+		textViewCrashPage = (TextView)findViewById(R.id.textViewCrashPage);
+		scrollViewCrashLog = (ScrollView)findViewById(R.id.scrollViewCrashLog);
 		textViewCrashLog = (TextView)findViewById(R.id.textViewCrashLog);
 
 		buttonCrashClose.setOnClickListener(new View.OnClickListener() {
@@ -67,28 +92,117 @@ public class CrashActivity extends Activity {
 				quit();
 			}
 		});
+		buttonCrashPrev.setOnClickListener(new View.OnClickListener() {
+			@Override
+			public void onClick(View v) {
+				showPage(page - 1);
+			}
+		});
+		buttonCrashNext.setOnClickListener(new View.OnClickListener() {
+			@Override
+			public void onClick(View v) {
+				showPage(page + 1);
+			}
+		});
 	}
 
 	private void displayLog() {
-		StringBuffer sbuf = new StringBuffer();
+		String path = getIntent().getStringExtra(CrashHandler.EXTRA_LOGPATH);
+		if(path != null) {
+			try {
+				findPages(new File(path));
+				logFile = new File(path);
+				showPage(0);
+				return;
+			} catch (Exception e) {
+				logFile = null;
+			}
+		}
+
+		// The stack trace only
+		String report = getIntent().getStringExtra(CrashHandler.EXTRA_REPORT);
+		textViewCrashLog.setText((report != null) ? report : "Failed to load crash log");
+		textViewCrashPage.setText("");
+		buttonCrashPrev.setEnabled(false);
+		buttonCrashNext.setEnabled(false);
+	}
 
+	/**
+	 * Find the end of the log (the first zero byte, as a memory-mapped log is followed by zeros) and split it into pages
+	 * @param file Crash log file
+	 * @throws IOException If the file cannot be read
+	 */
+	private void findPages(File file) throws IOException {
+		pageOffsets.clear();
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
 		try {
-			BufferedReader r = new BufferedReader(new InputStreamReader(openFileInput("crash.log")));
-			String s;
-			while((s = r.readLine()) != null) {
-				sbuf.append(s);
-				sbuf.append('\n');
+			byte[] buf = new byte[PAGE_SIZE];
+			long start = 0;
+			long length = raf.length();
+			pageOffsets.add(0L);
+			while(start < length) {
+				raf.seek(start);
+				int count = raf.read(buf, 0, (int)Math.min(PAGE_SIZE, length - start));
+				if(count <= 0) break;
+
+				int end = count;
+				int lastBreak = -1;
+				for(int i = 0; i < count; i++) {
+					if(buf[i] == 0) {
+						end = i;
+						break;
+					}
+					if(buf[i] == '\n') lastBreak = i;
+				}
+				if(end < count) {
+					// End of the log
+					start += end;
+					break;
+				}
+				// Cut the page after the last line break
+				if(start + count < length && lastBreak >= 0) count = lastBreak + 1;
+				start += count;
+				if(start < length) pageOffsets.add(start);
+			}
+			if(pageOffsets.size() > 1 && pageOffsets.get(pageOffsets.size() - 1) >= start) {
+				pageOffsets.remove(pageOffsets.size() - 1);
 			}
-			r.close();
-			textViewCrashLog.setText(sbuf);
-		} catch (Exception e) {
-			if(sbuf.length() == 0)
-				textViewCrashLog.setText("Failed to load crash log");
-			else
-				textViewCrashLog.setText(sbuf);
+			pageOffsets.add(start);
+		} finally {
+			raf.close();
 		}
 	}
 
+	/**
+	 * Show a page of the log
+	 * @param n Page number
+	 */
+	private void showPage(int n) {
+		int pages = pageOffsets.size() - 1;
+		if(logFile == null || n < 0 || n >= pages) return;
+
+		long offset = pageOffsets.get(n);
+		byte[] data = new byte[(int)(pageOffsets.get(n + 1) - offset)];
+		try {
+			RandomAccessFile raf = new RandomAccessFile(logFile, "r");
+			try {
+				raf.seek(offset);
+				raf.readFully(data);
+			} finally {
+				raf.close();
+			}
+			textViewCrashLog.setText(new String(data, "UTF-8"));
+		} catch (IOException e) {
+			textViewCrashLog.setText("Failed to load crash log");
+		}
+
+		page = n;
+		textViewCrashPage.setText(getString(R.string.crash_page, n + 1, pages));
+		buttonCrashPrev.setEnabled(n > 0);
+		buttonCrashNext.setEnabled(n < pages - 1);
+		scrollViewCrashLog.scrollTo(0, 0);
+	}
+
 	@Override
 	public void onBackPressed() {
 		quit();
@@ -28,10 +28,17 @@ package com.github.nullnoname.pc3dssdemo;
 
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.RandomAccessFile;
 import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
 import java.lang.Thread.UncaughtExceptionHandler;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.github.nullnoname.pc3dssdemo.audio.AudioEventRing;
 
 import android.annotation.TargetApi;
 import android.app.Activity;
@@ -42,13 +49,22 @@ import android.os.Environment;
 import android.util.Log;
 
 /**
- * Custom crash handler
+ * Custom crash handler.
+ * The crash log includes the recent events of the default {@link AudioEventRing}. When a crash info activity is given,
+ * the log file is created and memory-mapped in the background at install time, so a crash only fills the mapped pages
+ * (the kernel writes them to the file, even after the process has gone) and renames the file; nothing is opened or written then.
  * @author NullNoname
  */
 public class CrashHandler implements UncaughtExceptionHandler {
 	static public final String EXTRA_REPORT = CrashHandler.class.getName() + ".report";
 	static public final String EXTRA_LOGPATH = CrashHandler.class.getName() + ".logpath";
 
+	/** Size of the crash log (the unused rest of a mapped file is zero) */
+	private static final int REPORT_SIZE = 256 * 1024;
+
+	/** Last line of the crash log */
+	private static final String END_MARKER = "===== END CRASH LOG =====\n";
+
 	/**
 	 * Tag for error log
 	 */
@@ -64,6 +80,16 @@ public class CrashHandler implements UncaughtExceptionHandler {
 	 */
 	protected Class<?> crashInfoActivityClass;
 
+	/**
+	 * Crash log file mapped in advance (null until ready, or if it could not be mapped)
+	 */
+	protected volatile MappedByteBuffer reportBuffer;
+
+	/**
+	 * File of reportBuffer
+	 */
+	protected volatile File reportFile;
+
 	/**
 	 * Install the custom crash handler to the current thread
 	 * @param tag Tag shown in error log
@@ -103,6 +129,37 @@ public class CrashHandler implements UncaughtExceptionHandler {
 		this.tag = tag;
 		this.context = context;
 		this.crashInfoActivityClass = crashInfoActivityClass;
+		prepareReportFile();
+	}
+
+	/**
+	 * Create and map the crash log file in a background thread
+	 */
+	protected void prepareReportFile() {
+		Thread thread = new Thread("CrashReportFile") {
+			@Override
+			public void run() {
+				File dir = getExternalFilesDir();
+				if(dir == null) dir = context.getFilesDir();
+				File file = new File(dir, "crash_" + tag + ".tmp");
+				RandomAccessFile raf = null;
+				try {
+					raf = new RandomAccessFile(file, "rw");
+					raf.setLength(0);	// Clear a file left by an earlier run
+					raf.setLength(REPORT_SIZE);
+					reportBuffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, REPORT_SIZE);
+					reportFile = file;
+				} catch (Throwable e) {
+					Log.w(tag, "Failed to map the crash log file", e);
+				} finally {
+					// The mapping stays valid after the file is closed
+					try {if(raf != null) raf.close();} catch (Throwable e2) {}
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
 	}
 
 	/**
@@ -120,8 +177,17 @@ public class CrashHandler implements UncaughtExceptionHandler {
 	 * @return External files directory
 	 */
 	public File getExternalFilesDir() {
+		return getExternalFilesDir(context);
+	}
+
+	/**
+	 * Get the external files directory
+	 * @param context Context
+	 * @return External files directory (null if not available)
+	 */
+	public static File getExternalFilesDir(Context context) {
 		if(Build.VERSION.SDK_INT >= 8) {
-			return getExternalFilesDir8();
+			return getExternalFilesDir8(context);
 		} else {
 			String packageName = context.getPackageName();
 			File externalStorageDirectory = Environment.getExternalStorageDirectory();
@@ -136,7 +202,7 @@ public class CrashHandler implements UncaughtExceptionHandler {
 	 * @return External files directory
 	 */
 	@TargetApi(8)
-	public File getExternalFilesDir8() {
+	public static File getExternalFilesDir8(Context context) {
 		return context.getExternalFilesDir(null);
 	}
 
@@ -144,43 +210,35 @@ public class CrashHandler implements UncaughtExceptionHandler {
 	@SuppressWarnings("deprecation")
 	public void uncaughtException(Thread thread, Throwable ex) {
 		Log.e(tag, "Uncaught Exception", ex);
+		long now = System.currentTimeMillis();
 
-		// Build the crash log
-		final File file = getCrashLogFile();
-		final StringBuilder report = new StringBuilder();
-
-		report.append("===== BEGIN CRASH LOG =====\n");
-		report.append("***** Crash Log Path *****\n");
-		report.append(file.getPath() + "\n\n");
-
-		report.append("***** Stack Trace *****\n");
-		report.append(getStackTrace(ex) + "\n\n");
-
-		report.append("***** Device *****\n");
-		report.append("Brand:" + Build.BRAND + "\n");
-		report.append("Device:" + Build.DEVICE + "\n");
-		report.append("Model:" + Build.MODEL + "\n");
-		report.append("ID:" + Build.ID + "\n");
-		report.append("Product:" + Build.PRODUCT + "\n");
-		report.append("\n");
-
-		report.append("***** Android Version *****\n");
-		report.append("SDK:" + Build.VERSION.SDK_INT + "\n");
-		report.append("Release:" + Build.VERSION.RELEASE + "\n");
-		report.append("Incremental:" + Build.VERSION.INCREMENTAL + "\n");
-
-		report.append("===== END CRASH LOG =====\n");
-
-		// Now write the crash log to the sdcard
-		final String crashReportString = report.toString();
-
-		if(file != null) {
-			OutputStream out = null;
+		// Build the crash log in the mapped file, or in memory if it is not ready
+		File file = getCrashLogFile();
+		ByteBuffer buffer = reportBuffer;
+		File mappedFile = reportFile;
+		boolean mapped = (buffer != null && mappedFile != null);
+		String stackTrace = getStackTrace(ex);
+		try {
+			if(!mapped) buffer = ByteBuffer.allocate(REPORT_SIZE);
+			writeReport(buffer, file, stackTrace, now);
+		} catch (Throwable e) {
+			Log.e(tag, "Failed to build crash log", e);
+		}
 
+		if(mapped) {
+			if(mappedFile.renameTo(file)) {
+				Log.d(tag, "Crash log is in " + file.getPath());
+			} else {
+				file = mappedFile;
+				Log.e(tag, "Failed to rename crash log, it is in " + file.getPath());
+			}
+		} else if(buffer != null) {
+			// Write the crash log in one write
+			FileOutputStream out = null;
 			try {
 				out = new FileOutputStream(file);
-				out.write(crashReportString.getBytes());
-				out.flush();
+				buffer.flip();
+				out.getChannel().write(buffer);
 				Log.d(tag, "Successfully written crash log to " + file.getPath());
 			} catch (Throwable e) {
 				Log.e(tag, "Failed to write crash log", e);
@@ -191,8 +249,6 @@ public class CrashHandler implements UncaughtExceptionHandler {
 					} catch (Throwable e2) {}
 				}
 			}
-		} else {
-			Log.e(tag, "SD card isn't writable. Crash log cannot be written.");
 		}
 
 		// Start the crash info activity and leave
@@ -202,7 +258,7 @@ public class CrashHandler implements UncaughtExceptionHandler {
 				final Intent intent = new Intent(context, crashInfoActivityClass);
 				intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_WHEN_TASK_RESET);
 				intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
-				intent.putExtra(EXTRA_REPORT, crashReportString);
+				intent.putExtra(EXTRA_REPORT, stackTrace);	// Shown if the log cannot be read
 				intent.putExtra(EXTRA_LOGPATH, file.getPath());
 				activity.startActivity(intent);
 			} catch (Throwable e) {
@@ -213,6 +269,90 @@ public class CrashHandler implements UncaughtExceptionHandler {
 		System.exit(0);	// Kill the VM
 	}
 
+	/**
+	 * Write the crash log into a buffer. The recent audio events are cut if the log does not fit,
+	 * and a zero byte follows the log if there is room.
+	 * @param out Buffer (filled from its position)
+	 * @param file Crash log file
+	 * @param stackTrace Stack trace
+	 * @param now Time of the crash (System.currentTimeMillis())
+	 */
+	protected void writeReport(ByteBuffer out, File file, String stackTrace, long now) {
+		int capacity = out.limit();
+		out.limit(capacity - END_MARKER.length() - 1);
+
+		try {
+			AudioEventRing.putAscii(out, "===== BEGIN CRASH LOG =====\n");
+			AudioEventRing.putAscii(out, "***** Crash Log Path *****\n");
+			putText(out, file.getPath());
+			AudioEventRing.putAscii(out, "\n\n");
+
+			AudioEventRing.putAscii(out, "***** Stack Trace *****\n");
+			putText(out, stackTrace);
+			AudioEventRing.putAscii(out, "\n\n");
+
+			AudioEventRing.putAscii(out, "***** Device *****\n");
+			putField(out, "Brand:", Build.BRAND);
+			putField(out, "Device:", Build.DEVICE);
+			putField(out, "Model:", Build.MODEL);
+			putField(out, "ID:", Build.ID);
+			putField(out, "Product:", Build.PRODUCT);
+			AudioEventRing.putAscii(out, "\n");
+
+			AudioEventRing.putAscii(out, "***** Android Version *****\n");
+			AudioEventRing.putAscii(out, "SDK:");
+			AudioEventRing.putDecimal(out, Build.VERSION.SDK_INT);
+			AudioEventRing.putAscii(out, "\n");
+			putField(out, "Release:", Build.VERSION.RELEASE);
+			putField(out, "Incremental:", Build.VERSION.INCREMENTAL);
+
+			AudioEventRing ring = AudioEventRing.getDefaultRing();
+			if(ring != null) {
+				AudioEventRing.putAscii(out, "\n***** Recent Audio Events (time from the crash) *****\n");
+				ring.dump(out, now);
+			}
+		} catch (BufferOverflowException e) {
+			// Cut here
+		}
+
+		out.limit(capacity);
+		AudioEventRing.putAscii(out, END_MARKER);
+		out.put((byte)0);
+	}
+
+	/**
+	 * Write a line of the crash log
+	 * @param out Buffer
+	 * @param name Name
+	 * @param value Value
+	 */
+	private static void putField(ByteBuffer out, String name, String value) {
+		AudioEventRing.putAscii(out, name);
+		putText(out, String.valueOf(value));
+		AudioEventRing.putAscii(out, "\n");
+	}
+
+	/**
+	 * Write text as UTF-8, so the messages and paths keep their non-ASCII characters.
+	 * The text is cut (and BufferOverflowException thrown) if it does not fit.
+	 * @param out Buffer
+	 * @param text Text
+	 */
+	private static void putText(ByteBuffer out, String text) {
+		byte[] bytes;
+		try {
+			bytes = text.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			AudioEventRing.putAscii(out, text);
+			return;
+		}
+		if(bytes.length > out.remaining()) {
+			out.put(bytes, 0, out.remaining());
+			throw new BufferOverflowException();
+		}
+		out.put(bytes);
+	}
+
 	/**
 	 * Write Stack Trace to a String
 	 * @param t Exception
@@ -0,0 +1,172 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo;
+
+import java.lang.reflect.Method;
+import java.net.URL;
+
+import com.github.nullnoname.pc3dssdemo.audio.CodecRegistry;
+import com.github.nullnoname.pc3dssdemo.audio.DeviceProfile;
+import com.github.nullnoname.pc3dssdemo.audio.PcmBufferPool;
+
+import paulscode.sound.FilenameURL;
+import paulscode.sound.ICodec;
+import paulscode.sound.PAudioFormat;
+import paulscode.sound.SoundBuffer;
+import paulscode.sound.SoundSystemConfig;
+import android.app.ActivityManager;
+import android.content.Context;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+
+/**
+ * Short audio benchmark which creates a DeviceProfile for this device.
+ * It measures the decode speed of each stream file with its registered decoder, the AudioTrack minimum buffer size
+ * and the output latency, and reads the core count and the heap size. It takes about half a second per file,
+ * so it should run on a background thread.
+ * @author NullNoname
+ */
+public class DeviceBenchmark {
+	/** Class name for the log */
+	private static final String CLASS_NAME = "DeviceBenchmark";
+
+	/** Maximum time spent decoding each file in milliseconds */
+	private static final long DECODE_MILLIS = 500;
+
+	/** Sample rate of the AudioTrack measurements */
+	private static final int TEST_SAMPLE_RATE = 44100;
+
+	/** Context (for the heap size) */
+	private final Context context;
+
+	/** true to decode in reversed byte order (same as the output library) */
+	private final boolean reverseByteOrder;
+
+	/**
+	 * Constructor
+	 * @param context Context
+	 * @param reverseByteOrder true to decode in reversed byte order (same as the output library)
+	 */
+	public DeviceBenchmark(Context context, boolean reverseByteOrder) {
+		this.context = context;
+		this.reverseByteOrder = reverseByteOrder;
+	}
+
+	/**
+	 * Run the benchmark
+	 * @param filenames Stream files to decode (files without a codec, e.g. MIDI played by MediaPlayer, are skipped)
+	 * @param urls URLs of the files
+	 * @param defaultNormalChannels Number of normal channels of the SoundSystemConfig defaults
+	 * @param defaultStreamingChannels Number of streaming channels of the SoundSystemConfig defaults
+	 * @return New profile
+	 */
+	public DeviceProfile run(String[] filenames, URL[] urls, int defaultNormalChannels, int defaultStreamingChannels) {
+		long begin = System.nanoTime();
+
+		String slowestFile = "";
+		float slowestSpeed = Float.MAX_VALUE;
+		for(int i = 0; i < filenames.length; i++) {
+			float speed = measureDecodeSpeed(new FilenameURL(urls[i], filenames[i]));
+			if(speed <= 0) continue;
+			SoundSystemConfig.getLogger().message("Benchmark: '" + filenames[i] + "' decodes at " + String.format("%.1f", speed) + "x real time", 0);
+			if(speed < slowestSpeed) {
+				slowestSpeed = speed;
+				slowestFile = filenames[i];
+			}
+		}
+		if(slowestSpeed == Float.MAX_VALUE) slowestSpeed = 0;
+
+		int minBufferSize = AudioTrack.getMinBufferSize(TEST_SAMPLE_RATE, AudioFormat.CHANNEL_OUT_STEREO, AudioFormat.ENCODING_PCM_16BIT);
+		ActivityManager am = (ActivityManager)context.getSystemService(Context.ACTIVITY_SERVICE);
+		DeviceProfile profile = DeviceProfile.create(Runtime.getRuntime().availableProcessors(), am.getMemoryClass(),
+				AudioTrack.getNativeOutputSampleRate(AudioManager.STREAM_MUSIC), minBufferSize, getOutputLatencyMillis(minBufferSize),
+				slowestFile, slowestSpeed, defaultNormalChannels, defaultStreamingChannels);
+
+		SoundSystemConfig.getLogger().message("Benchmark finished in " + (System.nanoTime() - begin) / 1000000 + "ms", 0);
+		return profile;
+	}
+
+	/**
+	 * Decode a file for up to DECODE_MILLIS
+	 * @param filenameURL File
+	 * @return Seconds of audio decoded per second (0 if the file has no decoder or cannot be decoded)
+	 */
+	private float measureDecodeSpeed(FilenameURL filenameURL) {
+		ICodec codec = CodecRegistry.createDecoder(filenameURL.getFilename());
+		if(codec == null) return 0;
+
+		codec.reverseByteOrder(reverseByteOrder);
+		if(!codec.initialize(filenameURL)) {
+			codec.cleanup();
+			SoundSystemConfig.getLogger().errorMessage(CLASS_NAME, "Unable to decode '" + filenameURL.getFilename() + "'", 0);
+			return 0;
+		}
+
+		PAudioFormat format = codec.getAudioFormat();
+		long bytes = 0;
+		long begin = System.nanoTime();
+		long elapsed = 0;
+		try {
+			while(elapsed < DECODE_MILLIS * 1000000L && !codec.endOfStream()) {
+				SoundBuffer buffer = codec.read();
+				if(buffer == null) break;
+				bytes += buffer.audioData.length;
+				PcmBufferPool.recycle(buffer.audioData);
+				buffer.cleanup();
+				elapsed = System.nanoTime() - begin;
+			}
+		} finally {
+			codec.cleanup();
+		}
+
+		if(format == null || elapsed <= 0) return 0;
+		double bytesPerSecond = format.getSampleRate() * format.getChannels() * (format.getSampleSizeInBits() / 8);
+		return (float)(bytes / bytesPerSecond / (elapsed / 1e9));
+	}
+
+	/**
+	 * Get the output latency of a stream AudioTrack with the minimum buffer.
+	 * AudioTrack.getLatency() is hidden, so it is called by reflection, and the length of the minimum buffer is used if it is missing.
+	 * @param minBufferSize AudioTrack minimum buffer size in bytes
+	 * @return Output latency in milliseconds
+	 */
+	private static int getOutputLatencyMillis(int minBufferSize) {
+		int bufferMillis = (int)(minBufferSize * 1000L / (TEST_SAMPLE_RATE * 4));
+		AudioTrack track = null;
+		try {
+			track = new AudioTrack(AudioManager.STREAM_MUSIC, TEST_SAMPLE_RATE, AudioFormat.CHANNEL_OUT_STEREO, AudioFormat.ENCODING_PCM_16BIT,
+					minBufferSize, AudioTrack.MODE_STREAM);
+			Method getLatency = AudioTrack.class.getMethod("getLatency");
+			return ((Integer)getLatency.invoke(track)).intValue();
+		} catch (Exception e) {
+			return bufferMillis;
+		} finally {
+			if(track != null) track.release();
+		}
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free store of log messages.
+ * Every message gets a sequence number. Writers never block, and the oldest messages are overwritten when the store is full.
+ * Readers on any thread can ask for the messages after a sequence number they have already seen.
+ * @author NullNoname
+ */
+public class LogRingBuffer {
+	/** Stored message */
+	private static class Entry {
+		/** Sequence number */
+		final long seq;
+		/** Message text */
+		final String text;
+
+		Entry(long seq, String text) {
+			this.seq = seq;
+			this.text = text;
+		}
+	}
+
+	/** Slots (capacity is a power of two) */
+	private final AtomicReferenceArray<Entry> slots;
+
+	/** Mask to convert a sequence number to a slot index */
+	private final int mask;
+
+	/** Sequence number of the next message */
+	private final AtomicLong nextSeq = new AtomicLong();
+
+	/** Messages before this sequence number were cleared */
+	private final AtomicLong startSeq = new AtomicLong();
+
+	/**
+	 * Constructor
+	 * @param capacity Number of messages to keep (rounded up to a power of two)
+	 */
+	public LogRingBuffer(int capacity) {
+		int size = 1;
+		while(size < capacity) size <<= 1;
+		slots = new AtomicReferenceArray<Entry>(size);
+		mask = size - 1;
+	}
+
+	/**
+	 * @return Number of messages kept
+	 */
+	public int getCapacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * Add a message
+	 * @param text Message text
+	 * @return Sequence number of the message
+	 */
+	public long append(String text) {
+		long seq = nextSeq.getAndIncrement();
+		slots.set((int)(seq & mask), new Entry(seq, text));
+		return seq;
+	}
+
+	/**
+	 * Forget all messages added so far
+	 */
+	public void clear() {
+		startSeq.set(nextSeq.get());
+	}
+
+	/**
+	 * @return Sequence number the next message will get
+	 */
+	public long getNextSeq() {
+		return nextSeq.get();
+	}
+
+	/**
+	 * @return Sequence number of the first message after the last clear()
+	 */
+	public long getStartSeq() {
+		return startSeq.get();
+	}
+
+	/**
+	 * @return Sequence number of the oldest message still kept
+	 */
+	public long getOldestSeq() {
+		return Math.max(startSeq.get(), nextSeq.get() - getCapacity());
+	}
+
+	/**
+	 * Copy the messages from the given sequence number. Each message is followed by a newline.
+	 * Messages already overwritten are skipped, and copying stops at a message which is not completely written yet.
+	 * @param fromSeq First sequence number wanted
+	 * @param out StringBuilder to copy the messages to
+	 * @return Sequence number to pass next time
+	 */
+	public long read(long fromSeq, StringBuilder out) {
+		long endSeq = nextSeq.get();
+		long seq = Math.max(fromSeq, getOldestSeq());
+
+		while(seq < endSeq) {
+			Entry e = slots.get((int)(seq & mask));
+			if(e == null || e.seq < seq) {
+				// Sequence number taken but not published yet
+				break;
+			}
+			if(e.seq == seq) {
+				out.append(e.text);
+				out.append('\n');
+			}
+			// e.seq > seq means it was overwritten while reading
+			seq++;
+		}
+
+		return seq;
+	}
+
+	/**
+	 * Copy all messages still kept
+	 * @return All messages, each followed by a newline
+	 */
+	public String snapshot() {
+		StringBuilder sb = new StringBuilder();
+		read(0, sb);
+		return sb.toString();
+	}
+}
@@ -27,30 +27,66 @@
 package com.github.nullnoname.pc3dssdemo;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.github.nullnoname.paudiotrack.AssetFileInputProvider;
 import com.github.nullnoname.paudiotrack.ChannelAudioTrack;
 import com.github.nullnoname.paudiotrack.LibraryAudioTrack;
 import com.github.nullnoname.paudiotrack.MPMidiChannelFactory;
+import com.github.nullnoname.pc3dssdemo.audio.AdaptiveBufferTuner;
+import com.github.nullnoname.pc3dssdemo.audio.AudioCommandExecutor;
+import com.github.nullnoname.pc3dssdemo.audio.AudioEventRing;
+import com.github.nullnoname.pc3dssdemo.audio.AudioWarmUp;
+import com.github.nullnoname.pc3dssdemo.audio.BatchSoundSystem;
+import com.github.nullnoname.pc3dssdemo.audio.ChannelStats;
+import com.github.nullnoname.pc3dssdemo.audio.CodecRegistry;
+import com.github.nullnoname.pc3dssdemo.audio.CommandBatch;
+import com.github.nullnoname.pc3dssdemo.audio.DeviceProfile;
+import com.github.nullnoname.pc3dssdemo.audio.FeedScheduler;
+import com.github.nullnoname.pc3dssdemo.audio.IdleManager;
+import com.github.nullnoname.pc3dssdemo.audio.LoadGenerator;
+import com.github.nullnoname.pc3dssdemo.audio.MidiSynthCodec;
+import com.github.nullnoname.pc3dssdemo.audio.OutputNegotiator;
+import com.github.nullnoname.pc3dssdemo.audio.ParallelDecodeCodec;
+import com.github.nullnoname.pc3dssdemo.audio.PcmBufferPool;
+import com.github.nullnoname.pc3dssdemo.audio.PcmCachingCodec;
+import com.github.nullnoname.pc3dssdemo.audio.PcmDiskCache;
+import com.github.nullnoname.pc3dssdemo.audio.PlaybackTimer;
+import com.github.nullnoname.pc3dssdemo.audio.Playlist;
+import com.github.nullnoname.pc3dssdemo.audio.SoundEffectBank;
+import com.github.nullnoname.pc3dssdemo.audio.StreamHealth;
+import com.github.nullnoname.pc3dssdemo.audio.StreamHealthListener;
+import com.github.nullnoname.pc3dssdemo.audio.StreamResume;
 
+import paulscode.sound.FileInputProvider;
+import paulscode.sound.FilenameURL;
+import paulscode.sound.IMidiChannel;
 import paulscode.sound.IStreamListener;
-import paulscode.sound.SoundSystem;
 import paulscode.sound.SoundSystemConfig;
 import paulscode.sound.SoundSystemException;
 import paulscode.sound.SoundSystemLogger;
-import paulscode.sound.codecs.CodecIBXM;
-import paulscode.sound.codecs.CodecJOrbis;
-import paulscode.sound.codecs.CodecJSpeex;
-import paulscode.sound.codecs.CodecWavN;
+import android.annotation.TargetApi;
 import android.app.Activity;
+import android.content.SharedPreferences;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Process;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.Button;
+import android.widget.CheckBox;
+import android.widget.CompoundButton;
 import android.widget.EditText;
 import android.widget.ScrollView;
 import android.widget.TextView;
@@ -62,12 +98,89 @@ import android.widget.TextView;
 public class MainActivity extends Activity implements IStreamListener {
 	/** Log Tag */
 	private static final String TAG = "MainActivity";
+	/** Asset path of the sound pack, written to build/assetpack/sounds.pack by the packAssets task of the app (assetpacker module) */
+	private static final String ASSET_PACK_FILENAME = "sounds.pack";
 	/** Asset filenames */
 	private static final String[] FILENAMES = {"swansong.ogg", "bm.xm", "fables.spx", "mz_331_3.mid", "gamestart.ogg", "gamestart.wav"};
 	private static final int SOUND_EFFECT_START_ID = 4;
+	/** Songs of the demo playlist (MIDI is not a stream, so it cannot be spliced) */
+	private static final int[] PLAYLIST_SONGS = {0, 1, 2};
+	/** Crossfade length of the demo playlist in the crossfade mode */
+	private static final int PLAYLIST_CROSSFADE_MILLIS = 3000;
+	/** Distance of the seek menu items in milliseconds */
+	private static final long SEEK_STEP_MILLIS = 10000;
+	/** Sound effect taps per second of the load test */
+	private static final float LOAD_EFFECT_RATE = 10f;
+	/** Song starts and stops per second of the load test */
+	private static final float LOAD_STREAM_SWITCH_RATE = 0.2f;
+	/** Milliseconds between buffer setting changes of the load test */
+	private static final long LOAD_BUFFER_CHANGE_MILLIS = 30000;
+	/** Milliseconds between load test reports */
+	private static final long LOAD_REPORT_MILLIS = 60000;
+	/** Maximum size of the decoded sound effects kept in memory */
+	private static final long SOUND_EFFECT_BANK_SIZE = 4 * 1024 * 1024;
+	/** Maximum size of the decoded PCM cache in the cache directory */
+	private static final long PCM_DISK_CACHE_SIZE = 96 * 1024 * 1024;
+	/** Maximum number of free stream buffers kept by the PCM buffer pool */
+	private static final int PCM_BUFFER_POOL_SIZE = 8;
+	/** Default quiet period before the audio output becomes idle, in seconds */
+	private static final int DEFAULT_IDLE_SECONDS = 30;
+	/** Preferences file name */
+	private static final String PREFS_NAME = "settings";
+	/** Preferences key of the adaptive buffer mode */
+	private static final String PREF_ADAPTIVE_BUFFER = "adaptiveBuffer";
+	/** Preferences key of the event-driven stream feeding mode */
+	private static final String PREF_EVENT_FEED = "eventFeed";
+	/** Preferences key of the software mixer mode */
+	private static final String PREF_SOFTWARE_MIXER = "softwareMixer";
+	/** Preferences key of the parallel decode mode */
+	private static final String PREF_PARALLEL_DECODE = "parallelDecode";
+	/** Preferences key of the software MIDI mode */
+	private static final String PREF_MIDI_SYNTH = "midiSynth";
+	/** Preferences key of the native output mode */
+	private static final String PREF_NATIVE_OUTPUT = "nativeOutput";
+	/** Preferences key of the idle mode quiet period */
+	private static final String PREF_IDLE_SECONDS = "idleSeconds";
+	/** Preferences keys of the manual buffer size settings */
+	private static final String PREF_AUDIO_BUFFER_SIZE = "audioBufferSize", PREF_AUDIO_BUFFER_SIZE_MULTIPLIER = "audioBufferSizeMultiplier";
+	/** Preferences key prefix of the device profile (followed by the device model) */
+	private static final String PREF_DEVICE_PROFILE = "deviceProfile.";
+	/** Preferences key prefixes of the tuned buffer size multiplier (followed by the device model) */
+	private static final String PREF_TUNED_MULTIPLIER = "tunedMultiplier.", PREF_TUNED_FLOOR = "tunedFloor.";
+	/** Initial buffer size multiplier of the adaptive mode */
+	private static final int DEFAULT_TUNED_MULTIPLIER = 8;
+	/** Number of normal channels (sound effect voices) in the software mixer mode */
+	private static final int MIXER_NORMAL_CHANNELS = 48;
+	/** Render time limit of the software MIDI synthesizer, as a fraction of the block duration (voices are dropped above it) */
+	private static final float MIDI_LOAD_LIMIT = 0.5f;
+	/** Maximum number of audio commands waiting for the worker */
+	private static final int AUDIO_COMMAND_QUEUE_SIZE = 32;
+	/** Number of log messages kept */
+	private static final int LOG_CAPACITY = 1024;
+	/** Number of audio events kept for the crash log */
+	private static final int AUDIO_EVENT_CAPACITY = 1024;
+	/** Minimum interval between log display refreshes in milliseconds (about one frame) */
+	private static final long LOG_REFRESH_INTERVAL = 16;
 
-	/** Log buffer */
-	private StringBuffer logBuffer;
+	/** Log messages (written from any thread) */
+	private LogRingBuffer logStore;
+	/** Handler of the UI thread */
+	private Handler uiHandler;
+	/** Load test (null if never started) */
+	private LoadGenerator loadGenerator;
+	/** Stream buffer size multiplier set by the load test (0 to use the settings, audio worker thread only) */
+	private int loadBufferSizeMultiplier;
+	/** true while a log display refresh is scheduled */
+	private final AtomicBoolean logRefreshPending = new AtomicBoolean();
+
+	/** true while the device benchmark runs (only one run at a time) */
+	private final AtomicBoolean deviceBenchmarkRunning = new AtomicBoolean();
+	/** Scroll action of the next log display refresh */
+	private volatile int logScrollAction = 2;
+	/** Sequence number of the next message to display, and of the clear() the display is based on (UI thread only) */
+	private long logDisplaySeq, logDisplayStartSeq;
+	/** Number of messages in the log display (UI thread only) */
+	private int logDisplayCount;
 
 	/** ScrollView of log display */
 	private ScrollView scrollViewLog;
@@ -78,6 +191,38 @@ public class MainActivity extends Activity implements IStreamListener {
 	private EditText editTextAudioBufferSize;
 	/** EditText for Audio Buffer Size Multiplier*/
 	private EditText editTextAudioBufferSizeMultiplier;
+	/** CheckBox for the adaptive buffer size mode */
+	private CheckBox checkBoxAdaptiveBuffer;
+	/** true if the buffer size is tuned automatically */
+	private volatile boolean adaptiveBuffer;
+	/** CheckBox for the event-driven stream feeding mode */
+	private CheckBox checkBoxEventFeed;
+	/** true if streams are fed when they need data instead of every 20ms (applied when the SoundSystem is created) */
+	private volatile boolean eventFeed;
+	/** Scheduler of the stream thread of the current SoundSystem (counts its wakeups) */
+	private volatile FeedScheduler feedScheduler;
+	/** CheckBox for the software mixer mode */
+	private CheckBox checkBoxSoftwareMixer;
+	/** true if sound effects are mixed in software into one AudioTrack (applied when the SoundSystem is created) */
+	private volatile boolean softwareMixer;
+	/** CheckBox for the parallel decode mode */
+	private CheckBox checkBoxParallelDecode;
+	/** CheckBox for the software MIDI mode */
+	private CheckBox checkBoxMidiSynth;
+	/** CheckBox for the native output mode */
+	private CheckBox checkBoxNativeOutput;
+	/** Native output sample rate and buffer size in frames of this device (queried once in initSoundSystem, 0 if unknown) */
+	private int nativeSampleRate, nativeBufferFrames;
+	/** EditTexts for the software MIDI synthesizer settings */
+	private EditText editTextMidiSampleRate, editTextMidiBlockSize, editTextMidiPolyphony;
+	/** EditText of the idle mode quiet period */
+	private EditText editTextIdleSeconds;
+	/** Number of normal and streaming channels of the SoundSystemConfig defaults */
+	private int defaultNormalChannels, defaultStreamingChannels;
+	/** Audio settings measured on this device (null until the first benchmark has finished) */
+	private volatile DeviceProfile deviceProfile;
+	/** Startup warm-up (the benchmark waits for it) */
+	private AudioWarmUp audioWarmUp;
 
 	/** Sound effects play button */
 	private Button buttonPlaySE, buttonPlaySEWav;
@@ -88,15 +233,48 @@ public class MainActivity extends Activity implements IStreamListener {
 
 	/** Our logger */
 	private CustomSoundSystemLogger logger;
-	/** PaulsCode 3D Sound System */
-	private SoundSystem soundSystem;
+	/** Runs the audio commands in order on a single worker thread */
+	private AudioCommandExecutor audioExecutor;
+	/** Idle mode of the audio output, checked on the audio worker thread */
+	private IdleManager idleManager;
+	/** PaulsCode 3D Sound System (only touched from the audio worker thread) */
+	private BatchSoundSystem soundSystem;
+	/** Commands sent to the SoundSystem together (only touched from the audio worker thread) */
+	private CommandBatch commandBatch;
+	/** Pre-decoded sound effects */
+	private SoundEffectBank soundEffectBank;
+	/** Tunes the buffer size multiplier in the adaptive mode */
+	private volatile AdaptiveBufferTuner bufferTuner;
+	/** Tap-to-sound latency statistics */
+	private PlaybackTimer playbackTimer;
+	/** Demo playlist (created on first use) */
+	private volatile Playlist playlist;
+	/** Start position of the current stream of each song in milliseconds (audio worker thread only) */
+	private final long[] songStartMillis = new long[FILENAMES.length];
+	/** Position where the next play of each song starts in milliseconds (audio worker thread only) */
+	private final long[] resumeMillis = new long[FILENAMES.length];
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
+		if(AudioEventRing.getDefaultRing() == null) AudioEventRing.setDefaultRing(new AudioEventRing(AUDIO_EVENT_CAPACITY));
 		CrashHandler.install(TAG, this, CrashActivity.class);
 		super.onCreate(savedInstanceState);
 
-		logBuffer = new StringBuffer();
+		logStore = new LogRingBuffer(LOG_CAPACITY);
+		playbackTimer = new PlaybackTimer();
+		uiHandler = new Handler();
+		audioExecutor = new AudioCommandExecutor("AudioCommand", AUDIO_COMMAND_QUEUE_SIZE);
+		idleManager = new IdleManager(audioExecutor, new IdleManager.Target() {
+			public boolean isBusy() {
+				return (soundSystem != null) && soundSystem.isBusy();
+			}
+
+			public int releaseIdleResources() {
+				return (soundSystem != null) ? soundSystem.releaseIdleResources() : 0;
+			}
+		});
+		idleManager.setThreadNames("AudioCommand", IdleManager.COMMAND_THREAD_NAME, IdleManager.STREAM_THREAD_NAME,
+				MixerLibraryAudioTrack.OUTPUT_THREAD_NAME);
 		initGUI();
 		initSoundSystem();
 	}
@@ -113,6 +291,16 @@ public class MainActivity extends Activity implements IStreamListener {
 
 		editTextAudioBufferSize = (EditText)findViewById(R.id.editTextAudioBufferSize);
 		editTextAudioBufferSizeMultiplier = (EditText)findViewById(R.id.editTextAudioBufferSizeMultiplier);
+		checkBoxAdaptiveBuffer = (CheckBox)findViewById(R.id.checkBoxAdaptiveBuffer);
+		checkBoxEventFeed = (CheckBox)findViewById(R.id.checkBoxEventFeed);
+		checkBoxSoftwareMixer = (CheckBox)findViewById(R.id.checkBoxSoftwareMixer);
+		checkBoxParallelDecode = (CheckBox)findViewById(R.id.checkBoxParallelDecode);
+		checkBoxMidiSynth = (CheckBox)findViewById(R.id.checkBoxMidiSynth);
+		checkBoxNativeOutput = (CheckBox)findViewById(R.id.checkBoxNativeOutput);
+		editTextMidiSampleRate = (EditText)findViewById(R.id.editTextMidiSampleRate);
+		editTextMidiBlockSize = (EditText)findViewById(R.id.editTextMidiBlockSize);
+		editTextMidiPolyphony = (EditText)findViewById(R.id.editTextMidiPolyphony);
+		editTextIdleSeconds = (EditText)findViewById(R.id.editTextIdleSeconds);
 
 		buttonPlaySE = (Button)findViewById(R.id.buttonPlaySE);
 		buttonPlaySEWav = (Button)findViewById(R.id.buttonPlaySEWav);
@@ -128,6 +316,85 @@ public class MainActivity extends Activity implements IStreamListener {
 		// Erase log text
 		textViewLog.setText("");
 
+		// Restore the manual buffer size settings
+		editTextAudioBufferSize.setText(getPrefs().getString(PREF_AUDIO_BUFFER_SIZE, ""));
+		editTextAudioBufferSizeMultiplier.setText(getPrefs().getString(PREF_AUDIO_BUFFER_SIZE_MULTIPLIER, ""));
+		editTextIdleSeconds.setText(getPrefs().getString(PREF_IDLE_SECONDS, ""));
+
+		// Restore the adaptive buffer mode
+		adaptiveBuffer = getPrefs().getBoolean(PREF_ADAPTIVE_BUFFER, false);
+		checkBoxAdaptiveBuffer.setChecked(adaptiveBuffer);
+		editTextAudioBufferSize.setEnabled(!adaptiveBuffer);
+		editTextAudioBufferSizeMultiplier.setEnabled(!adaptiveBuffer);
+		checkBoxAdaptiveBuffer.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+			public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+				adaptiveBuffer = isChecked;
+				editTextAudioBufferSize.setEnabled(!isChecked);
+				editTextAudioBufferSizeMultiplier.setEnabled(!isChecked);
+				saveInBackground(getPrefs().edit().putBoolean(PREF_ADAPTIVE_BUFFER, isChecked));
+			}
+		});
+
+		// Restore the event-driven stream feeding mode
+		eventFeed = getPrefs().getBoolean(PREF_EVENT_FEED, false);
+		checkBoxEventFeed.setChecked(eventFeed);
+		checkBoxEventFeed.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+			public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+				eventFeed = isChecked;
+				saveInBackground(getPrefs().edit().putBoolean(PREF_EVENT_FEED, isChecked));
+				logger.message("Event-driven stream feeding " + (isChecked ? "on" : "off") + " from the next start of the SoundSystem", 0);
+			}
+		});
+
+		// Restore the software mixer mode
+		softwareMixer = getPrefs().getBoolean(PREF_SOFTWARE_MIXER, false);
+		checkBoxSoftwareMixer.setChecked(softwareMixer);
+		checkBoxSoftwareMixer.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+			public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+				softwareMixer = isChecked;
+				saveInBackground(getPrefs().edit().putBoolean(PREF_SOFTWARE_MIXER, isChecked));
+				logger.message("Software mixer " + (isChecked ? "on" : "off") + " from the next start of the SoundSystem", 0);
+			}
+		});
+
+		// Restore the parallel decode mode (applied to the codecs in initSoundSystem)
+		checkBoxParallelDecode.setChecked(getPrefs().getBoolean(PREF_PARALLEL_DECODE, false));
+		checkBoxParallelDecode.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+			public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+				saveInBackground(getPrefs().edit().putBoolean(PREF_PARALLEL_DECODE, isChecked));
+				try {
+					CodecRegistry.setParallelDecode(isChecked);
+					logger.message("Parallel decode " + (isChecked ? "on (" + ParallelDecodeCodec.getDefaultThreads() + " workers)" : "off") +
+							" from the next stream", 0);
+				} catch (SoundSystemException e) {
+					logger.printStackTrace(e, 0);
+				}
+			}
+		});
+
+		// Restore the software MIDI mode (a MIDI codec cannot be unregistered, so turning it off needs a restart)
+		checkBoxMidiSynth.setChecked(getPrefs().getBoolean(PREF_MIDI_SYNTH, false));
+		checkBoxMidiSynth.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+			public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+				saveInBackground(getPrefs().edit().putBoolean(PREF_MIDI_SYNTH, isChecked));
+				logger.message("Software MIDI " + (isChecked ? "on" : "off") + " after the app is restarted", 0);
+			}
+		});
+
+		// Restore the native output mode (applied to the codecs in initSoundSystem)
+		checkBoxNativeOutput.setChecked(getPrefs().getBoolean(PREF_NATIVE_OUTPUT, true));
+		checkBoxNativeOutput.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+			public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+				saveInBackground(getPrefs().edit().putBoolean(PREF_NATIVE_OUTPUT, isChecked));
+				try {
+					CodecRegistry.setNativeOutput(isChecked ? nativeSampleRate : 0, nativeBufferFrames);
+					logger.message("Native output " + (isChecked ? "on (" + nativeSampleRate + "Hz)" : "off") + " from the next stream", 0);
+				} catch (SoundSystemException e) {
+					logger.printStackTrace(e, 0);
+				}
+			}
+		});
+
 		// Add the button click behaviors
 		buttonPlaySE.setOnClickListener(new View.OnClickListener() {
 			public void onClick(View v) {
@@ -192,29 +459,312 @@ public class MainActivity extends Activity implements IStreamListener {
 		// Add our stream listener. At the end of a song, endOfStream will be called.
 		SoundSystemConfig.addStreamListener(this);
 
-		// Set our AssetFileInputProvider
-		SoundSystemConfig.setFileInputProvider(new AssetFileInputProvider(this));
+		// Set our file input provider (the asset pack, or the loose assets)
+		SoundSystemConfig.setFileInputProvider(createFileInputProvider());
 
 		// Set our MIDIChannelFactory
 		SoundSystemConfig.setMidiChannelFactory(new MPMidiChannelFactory());
 
+		// Decoded Ogg/Speex streams are cached in the cache directory
+		PcmCachingCodec.setDefaultCache(new PcmDiskCache(new File(getCacheDir(), "pcm"), PCM_DISK_CACHE_SIZE));
+
+		// Stream buffers are recycled between the codecs and the AudioTrack channels
+		PcmBufferPool.setDefaultPool(new PcmBufferPool(SoundSystemConfig.getStreamingBufferSize(), PCM_BUFFER_POOL_SIZE));
+
+		// Restore the profile and the buffer size tuned on this device, and keep tuning it from the stream health
+		SharedPreferences prefs = getPrefs();
+		DeviceProfile profile = DeviceProfile.decode(prefs.getString(PREF_DEVICE_PROFILE + Build.MODEL, null));
+		bufferTuner = new AdaptiveBufferTuner(prefs.getInt(PREF_TUNED_MULTIPLIER + Build.MODEL,
+				(profile != null) ? profile.bufferSizeMultiplier : DEFAULT_TUNED_MULTIPLIER), prefs.getInt(PREF_TUNED_FLOOR + Build.MODEL, 0));
+		MonitoredChannelAudioTrack.setDefaultPlaybackTimer(playbackTimer);
+		MonitoredChannelAudioTrack.setDefaultStreamHealthListener(new StreamHealthListener() {
+			public void streamFinished(StreamHealth health) {
+				onStreamFinished(health);
+			}
+		});
+
 		try {
-			// Set codecs
-			SoundSystemConfig.setCodec("wav", CodecWavN.class);
-			SoundSystemConfig.setCodec("ogg", CodecJOrbis.class);
-			SoundSystemConfig.setCodec("spx", CodecJSpeex.class);
-			SoundSystemConfig.setCodec("mod", CodecIBXM.class);
-			SoundSystemConfig.setCodec("xm", CodecIBXM.class);
-			SoundSystemConfig.setCodec("s3m", CodecIBXM.class);
+			// Query the native output once. Modules render at its rate and the other formats are resampled to it, so AudioFlinger does not resample them.
+			queryNativeOutput();
+			OutputNegotiator.setNativeOutput(checkBoxNativeOutput.isChecked() ? nativeSampleRate : 0, nativeBufferFrames);
+			logger.message("Native output: " + nativeSampleRate + "Hz, " + nativeBufferFrames + " frames per buffer" +
+					(checkBoxNativeOutput.isChecked() ? "" : " (not used)"), 0);
+
+			// Set codecs (shared with the headless benchmark module), decoded on the stream thread or on the parallel decode workers
+			CodecRegistry.setParallelDecode(checkBoxParallelDecode.isChecked());
+			if(checkBoxMidiSynth.isChecked()) {
+				// MIDI files are streamed from MidiSynthCodec instead of MediaPlayer, with the load limit against underruns on slow devices
+				MidiSynthCodec.setDefaultLoadLimit(MIDI_LOAD_LIMIT);
+				CodecRegistry.registerMidiSynth();
+			}
 
-			// Set library
-			SoundSystemConfig.addLibrary(LibraryAudioTrack.class);
+			// Set libraries (LibraryAudioTrack with underrun monitoring, with or without the software mixer)
+			SoundSystemConfig.addLibrary(MonitoredLibraryAudioTrack.class);
+			SoundSystemConfig.addLibrary(MixerLibraryAudioTrack.class);
+			defaultNormalChannels = SoundSystemConfig.getNumberNormalChannels();
+			defaultStreamingChannels = SoundSystemConfig.getNumberStreamingChannels();
 
 			logger.message("Welcome!", 0);
 		} catch (SoundSystemException e) {
 			logger.errorMessage(TAG, "Sound System init failed", 0);
 			logger.printStackTrace(e, 0);
 		}
+
+		soundEffectBank = new SoundEffectBank(SOUND_EFFECT_BANK_SIZE, LibraryAudioTrack.reversByteOrder());
+		if(profile != null) {
+			applyDeviceProfile(profile);
+			warmUp();
+		} else {
+			// First launch on this device: measure it after the warm-up
+			warmUp();
+			runDeviceBenchmark();
+		}
+	}
+
+	/**
+	 * Apply a device profile. The channel counts are used from the next start of the SoundSystem,
+	 * the buffer size from the next stream (in the manual mode, only if the settings are blank).
+	 * @param profile Device profile
+	 */
+	private void applyDeviceProfile(final DeviceProfile profile) {
+		deviceProfile = profile;
+		SoundSystemConfig.setNumberStreamingChannels(profile.streamingChannels);
+		uiHandler.post(new Runnable() {
+			public void run() {
+				if(editTextAudioBufferSize.getText().length() == 0 && editTextAudioBufferSizeMultiplier.getText().length() == 0) {
+					if(profile.streamBufferSize > 0) editTextAudioBufferSize.setText(String.valueOf(profile.streamBufferSize));
+					editTextAudioBufferSizeMultiplier.setText(String.valueOf(profile.bufferSizeMultiplier));
+				}
+			}
+		});
+		logger.message("Device profile: " + profile, 0);
+	}
+
+	/**
+	 * Measure this device on a background thread, then save and apply its profile.
+	 * The buffer size the adaptive mode has tuned is replaced by the measured one.
+	 * Requests made while a run is in progress are ignored.
+	 */
+	private void runDeviceBenchmark() {
+		if(!deviceBenchmarkRunning.compareAndSet(false, true)) {
+			logger.message("The audio benchmark is already running", 0);
+			return;
+		}
+		Thread thread = new Thread("DeviceBenchmark") {
+			@Override
+			public void run() {
+				try {
+					measureDevice();
+				} finally {
+					deviceBenchmarkRunning.set(false);
+				}
+			}
+
+			private void measureDevice() {
+				Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+				try {
+					// Do not slow down the startup
+					audioWarmUp.await(10000);
+				} catch (InterruptedException e) {
+					return;
+				}
+
+				String[] filenames = new String[SOUND_EFFECT_START_ID];
+				URL[] urls = new URL[SOUND_EFFECT_START_ID];
+				for(int i = 0; i < SOUND_EFFECT_START_ID; i++) {
+					filenames[i] = FILENAMES[i];
+					urls[i] = AssetFileInputProvider.createAssetURL(FILENAMES[i]);
+				}
+				logger.message("Running the audio benchmark", 0);
+				final DeviceProfile profile = new DeviceBenchmark(MainActivity.this, LibraryAudioTrack.reversByteOrder())
+						.run(filenames, urls, defaultNormalChannels, defaultStreamingChannels);
+
+				bufferTuner = new AdaptiveBufferTuner(profile.bufferSizeMultiplier, 0);
+				getPrefs().edit()
+					.putString(PREF_DEVICE_PROFILE + Build.MODEL, profile.encode())
+					.putInt(PREF_TUNED_MULTIPLIER + Build.MODEL, profile.bufferSizeMultiplier)
+					.putInt(PREF_TUNED_FLOOR + Build.MODEL, 0)
+					.commit();
+				audioExecutor.submit("profile", new Runnable() {
+					public void run() {
+						applyDeviceProfile(profile);
+					}
+				});
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Warm up the audio code in background, so the first tap is as fast as the others.
+	 * The SoundSystem is built on the audio worker thread, while the codecs, the MIDI player and the sound effects are loaded on a small worker pool.
+	 */
+	private void warmUp() {
+		audioExecutor.submit("warmup", new Runnable() {
+			public void run() {
+				createSoundSystem();
+			}
+		});
+
+		AudioWarmUp warmUp = new AudioWarmUp(AudioWarmUp.getDefaultThreadCount(), LibraryAudioTrack.reversByteOrder());
+		for(int i = 0; i < SOUND_EFFECT_START_ID; i++) {
+			final String filename = FILENAMES[i];
+			if(filename.matches(SoundSystemConfig.EXTENSION_MIDI) && !SoundSystemConfig.midiCodec()) {
+				warmUp.addTask(filename, new Runnable() {
+					public void run() {
+						warmUpMidi(filename);
+					}
+				});
+			} else {
+				warmUp.addCodec(filename, AssetFileInputProvider.createAssetURL(filename));
+			}
+		}
+		// Sound effects are decoded at startup unless the device profile says the heap is too small (then on first play)
+		DeviceProfile profile = deviceProfile;
+		for(int i = SOUND_EFFECT_START_ID; (profile == null || profile.preloadSoundEffects) && i < FILENAMES.length; i++) {
+			final String filename = FILENAMES[i];
+			warmUp.addTask(filename, new Runnable() {
+				public void run() {
+					soundEffectBank.preload(filename, AssetFileInputProvider.createAssetURL(filename));
+				}
+			});
+		}
+		warmUp.start();
+		audioWarmUp = warmUp;
+	}
+
+	/**
+	 * Open and close a MIDI file with the MIDI channel factory, which sets up the MIDI player and its soundbank
+	 * @param filename MIDI filename
+	 */
+	private void warmUpMidi(String filename) {
+		IMidiChannel channel = SoundSystemConfig.getMidiChannelFactory().createMidiChannel(false, "warmup:" + filename,
+				new FilenameURL(AssetFileInputProvider.createAssetURL(filename), filename));
+		channel.cleanup();
+	}
+
+	/**
+	 * Create the SoundSystem if it does not exist yet (audio worker thread only)
+	 * @return true if the SoundSystem exists
+	 */
+	private boolean createSoundSystem() {
+		// Leave the idle mode; the channels create their AudioTracks again when they play
+		idleManager.setQuietMillis(Math.max(0, getIntSetting(editTextIdleSeconds, DEFAULT_IDLE_SECONDS)) * 1000L);
+		idleManager.wake();
+		if(soundSystem != null) return true;
+
+		// The software mixer has no AudioTrack per sound effect, so it can afford many more voices
+		boolean mixer = softwareMixer;
+		DeviceProfile profile = deviceProfile;
+		SoundSystemConfig.setNumberNormalChannels(mixer ? MIXER_NORMAL_CHANNELS : (profile != null) ? profile.normalChannels : defaultNormalChannels);
+
+		// The stream thread always counts its wakeups, so both feeding modes can be compared in the log
+		feedScheduler = new FeedScheduler(eventFeed);
+		MonitoredChannelAudioTrack.setDefaultFeedScheduler(feedScheduler);
+
+		long begin = System.nanoTime();
+		try {
+			soundSystem = new BatchSoundSystem(mixer ? MixerLibraryAudioTrack.class : MonitoredLibraryAudioTrack.class);
+		} catch (SoundSystemException e) {
+			logger.errorMessage(TAG, "SoundSystem init failed", 0);
+			logger.printStackTrace(e, 0);
+			return false;
+		}
+		soundEffectBank.attach(soundSystem);
+		commandBatch = soundSystem.newBatch();
+		logger.message("SoundSystem created in " + (System.nanoTime() - begin) / 1000000 + "ms (" +
+				(mixer ? "software mixer, " : "") + (feedScheduler.isEventDriven() ? "event-driven feeding, " : "") + SoundSystemConfig.getNumberNormalChannels() + " normal channels)", 0);
+		return true;
+	}
+
+	/**
+	 * Create the file input provider of the sounds.
+	 * The build packs the sounds into one uncompressed asset which is mapped here; builds without the pack read the loose assets.
+	 * @return AssetPackFileInputProvider, or AssetFileInputProvider if there is no usable pack
+	 */
+	private FileInputProvider createFileInputProvider() {
+		long begin = System.nanoTime();
+		try {
+			AssetPackFileInputProvider provider = AssetPackFileInputProvider.open(this, ASSET_PACK_FILENAME);
+			logger.message("Asset pack: " + provider.getPack().size() + " sounds, " + provider.getPack().getByteSize() / 1024 +
+					"KB mapped in " + (System.nanoTime() - begin) / 1000 + "us", 0);
+			return provider;
+		} catch (IOException e) {
+			logger.message("Asset pack not used (" + e.getMessage() + "), reading the loose assets", 0);
+			return new AssetFileInputProvider(this);
+		}
+	}
+
+	/**
+	 * Query the native output sample rate and buffer size of the device
+	 */
+	private void queryNativeOutput() {
+		nativeSampleRate = AudioTrack.getNativeOutputSampleRate(AudioManager.STREAM_MUSIC);
+		nativeBufferFrames = 0;
+		if(Build.VERSION.SDK_INT >= 17) queryNativeOutput17();
+	}
+
+	/**
+	 * Query the native output of the device from the AudioManager properties (Android 4.2 or later)
+	 */
+	@TargetApi(17)
+	private void queryNativeOutput17() {
+		AudioManager am = (AudioManager)getSystemService(AUDIO_SERVICE);
+		try {
+			String rate = am.getProperty(AudioManager.PROPERTY_OUTPUT_SAMPLE_RATE);
+			if(rate != null) nativeSampleRate = Integer.parseInt(rate);
+			String frames = am.getProperty(AudioManager.PROPERTY_OUTPUT_FRAMES_PER_BUFFER);
+			if(frames != null) nativeBufferFrames = Integer.parseInt(frames);
+		} catch (NumberFormatException e) {
+			logger.errorMessage(TAG, "Unexpected native output property", 0);
+		}
+	}
+
+	/**
+	 * Get the preferences of this app
+	 * @return SharedPreferences
+	 */
+	private SharedPreferences getPrefs() {
+		return getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+	}
+
+	/**
+	 * Write the preferences without waiting for the disk (API 9+), or right away on older versions
+	 * @param editor Preferences editor
+	 */
+	private static void saveInBackground(SharedPreferences.Editor editor) {
+		if(Build.VERSION.SDK_INT >= 9) apply9(editor);
+		else editor.commit();
+	}
+
+	/**
+	 * Write the preferences in the background (Android 2.3 or later)
+	 */
+	@TargetApi(9)
+	private static void apply9(SharedPreferences.Editor editor) {
+		editor.apply();
+	}
+
+	/**
+	 * Called when a stream has finished playing. Tunes the buffer size in the adaptive mode.
+	 * @param health Playback health of the stream
+	 */
+	private void onStreamFinished(StreamHealth health) {
+		logger.message("Stream health: " + health, 0);
+		FeedScheduler scheduler = feedScheduler;
+		if(scheduler != null) logger.message(scheduler.getStats(), 0);
+		if(CodecRegistry.isParallelDecode()) logger.message(ParallelDecodeCodec.getStats(), 0);
+
+		if(adaptiveBuffer && bufferTuner.update(health)) {
+			int multiplier = bufferTuner.getMultiplier();
+			ChannelAudioTrack.setDefaultStreamBufferSizeMultiplier(multiplier);
+			// Called on the stream thread, so the preferences are written in the background where possible
+			saveInBackground(getPrefs().edit()
+				.putInt(PREF_TUNED_MULTIPLIER + Build.MODEL, multiplier)
+				.putInt(PREF_TUNED_FLOOR + Build.MODEL, bufferTuner.getFloor()));
+			logger.message("Adaptive buffer size multiplier is now " + multiplier, 0);
+		}
 	}
 
 	/**
@@ -243,37 +793,150 @@ public class MainActivity extends Activity implements IStreamListener {
 		}
 	}
 
+	/**
+	 * Get an integer setting
+	 * @param editText EditText of the setting
+	 * @param defaultValue Value used if the text is blank or not a number
+	 * @return Setting value
+	 */
+	private static int getIntSetting(EditText editText, int defaultValue) {
+		try {
+			return Integer.parseInt(editText.getText().toString());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Apply the software MIDI synthesizer settings to the MIDI streams started from now on (audio worker thread only).
+	 * The synthesizer renders at the native output rate in blocks of the native buffer size by default, so the AudioTrack does not resample it.
+	 */
+	private void applyMidiSettings() {
+		int sampleRate = getIntSetting(editTextMidiSampleRate, 0);
+		if(sampleRate <= 0) sampleRate = nativeSampleRate;
+		MidiSynthCodec.setDefaultSampleRate(sampleRate);
+		int blockFrames = getIntSetting(editTextMidiBlockSize, 0);
+		if(blockFrames <= 0) blockFrames = (nativeBufferFrames > 0) ? nativeBufferFrames : 256;
+		MidiSynthCodec.setDefaultBlockFrames(blockFrames);
+		MidiSynthCodec.setDefaultMaxPolyphony(Math.max(1, getIntSetting(editTextMidiPolyphony, 32)));
+		logger.message("Software MIDI: " + MidiSynthCodec.getDefaultSampleRate() + "Hz, " + MidiSynthCodec.getDefaultBlockFrames() +
+				" frames per block, " + MidiSynthCodec.getDefaultMaxPolyphony() + " voices", 0);
+	}
+
 	/**
 	 * Play a song
 	 * @param n Song number (3:Sound Effect)
 	 */
 	private void playSong(final int n) {
-		final Thread t = new Thread(new Runnable() {
+		final PlaybackTimer.Trace trace = playbackTimer.begin((n >= SOUND_EFFECT_START_ID) ? PlaybackTimer.KIND_SOUND_EFFECT : PlaybackTimer.KIND_STREAM);
+		audioExecutor.submit(getCommandKey(n), new Runnable() {
 			public void run() {
-				playSongSub(n);
+				playSongSub(n, trace);
 			}
 		});
-		t.start();
 	}
 
 	/**
-	 * Play a song (actual code in thread)
+	 * Get the audio command key of a song. Play and stop of the same song share the key, so only the latest one runs.
+	 * Sound effects have no key: every tap makes a new source and must play.
+	 * @param n Song number
+	 * @return Audio command key (null for a sound effect)
+	 */
+	private static String getCommandKey(int n) {
+		if(n >= SOUND_EFFECT_START_ID) return null;
+		return "song:" + FILENAMES[n];
+	}
+
+	/**
+	 * Play a song (actual code in the audio worker thread)
+	 * @param n Song number (4-5:Sound Effect)
+	 * @param trace Latency trace of this request
+	 */
+	private void playSongSub(final int n, PlaybackTimer.Trace trace) {
+		applyStreamBufferSize();
+		boolean resumed = idleManager.isIdle();
+		if(!createSoundSystem()) return;
+		if(resumed) playbackTimer.resumed(trace);
+		playSongSub(n, trace, commandBatch);
+		commandBatch.submit();
+	}
+
+	/**
+	 * Add the commands to play a song to a batch (audio worker thread only)
 	 * @param n Song number (4-5:Sound Effect)
+	 * @param trace Latency trace of this request
+	 * @param batch Command batch, submitted by the caller
 	 */
-	private void playSongSub(final int n) {
+	private void playSongSub(int n, PlaybackTimer.Trace trace, CommandBatch batch) {
+		playbackTimer.dispatched(trace);
 		final String filename = FILENAMES[n];
 		logger.message("Start playing '" + filename + "'", 0);
 
-		ChannelAudioTrack.setDefaultStreamBufferSize(getAudioBufferSize());
-		ChannelAudioTrack.setDefaultStreamBufferSizeMultiplier(getAudioBufferSizeMultiplier());
-
-		if(soundSystem == null) soundSystem = new SoundSystem();
-
 		if(n >= SOUND_EFFECT_START_ID) { // Sound Effect
-			String tempSourceName = soundSystem.quickPlay(false, AssetFileInputProvider.createAssetURL(filename), filename, false, 0, 0, 0, SoundSystemConfig.ATTENUATION_NONE, 0);
+			String tempSourceName = soundEffectBank.quickPlay(batch, filename, AssetFileInputProvider.createAssetURL(filename));
+			playbackTimer.submitted(trace, tempSourceName);
 			logger.message("Temporary source name:" + tempSourceName, 0);
 		} else { // Streaming songs
-			soundSystem.backgroundMusic(filename, AssetFileInputProvider.createAssetURL(filename), filename, false);
+			if(filename.matches(SoundSystemConfig.EXTENSION_MIDI) && SoundSystemConfig.midiCodec()) applyMidiSettings();
+			// Resume where the song was stopped (the codec takes the position when it opens the file)
+			songStartMillis[n] = resumeMillis[n];
+			resumeMillis[n] = 0;
+			StreamResume.setStartMillis(filename, songStartMillis[n]);
+			AudioEventRing.log(AudioEventRing.TYPE_PLAY, filename, songStartMillis[n], 0);
+			batch.backgroundMusic(filename, AssetFileInputProvider.createAssetURL(filename), filename, false);
+			playbackTimer.submitted(trace, filename);
+		}
+	}
+
+	/**
+	 * Apply the stream buffer size settings to the channels created from now on (audio worker thread only)
+	 */
+	private void applyStreamBufferSize() {
+		if(loadBufferSizeMultiplier > 0) {
+			ChannelAudioTrack.setDefaultStreamBufferSize(0);
+			ChannelAudioTrack.setDefaultStreamBufferSizeMultiplier(loadBufferSizeMultiplier);
+		} else if(adaptiveBuffer) {
+			ChannelAudioTrack.setDefaultStreamBufferSize(0);
+			ChannelAudioTrack.setDefaultStreamBufferSizeMultiplier(bufferTuner.getMultiplier());
+			logger.message("Adaptive buffer size multiplier: " + bufferTuner.getMultiplier(), 0);
+		} else {
+			ChannelAudioTrack.setDefaultStreamBufferSize(getAudioBufferSize());
+			ChannelAudioTrack.setDefaultStreamBufferSizeMultiplier(getAudioBufferSizeMultiplier());
+		}
+		AudioEventRing.log(AudioEventRing.TYPE_BUFFER, (loadBufferSizeMultiplier > 0) ? "load" : adaptiveBuffer ? "adaptive" : null,
+				ChannelAudioTrack.getDefaultStreamBufferSize(), ChannelAudioTrack.getDefaultStreamBufferSizeMultiplier());
+	}
+
+	/**
+	 * Play the songs one after another as one gapless stream (audio worker thread only)
+	 * @param crossfadeMillis Crossfade length (0 for a plain splice)
+	 */
+	private void playPlaylist(int crossfadeMillis) {
+		if(playlist == null) {
+			Playlist list = new Playlist("demo");
+			for(int n : PLAYLIST_SONGS) {
+				list.add(FILENAMES[n], AssetFileInputProvider.createAssetURL(FILENAMES[n]));
+			}
+			Playlist.register(list);
+			playlist = list;
+		}
+		playlist.setCrossfadeMillis(crossfadeMillis);
+		logger.message("Start playing the playlist" + (crossfadeMillis > 0 ? " with " + crossfadeMillis + "ms crossfades" : ""), 0);
+
+		applyStreamBufferSize();
+		if(!createSoundSystem()) return;
+		String identifier = playlist.getIdentifier();
+		soundSystem.backgroundMusic(identifier, playlist.getTrack(0).getURL(), identifier, false);
+	}
+
+	/**
+	 * Stop the playlist (audio worker thread only)
+	 */
+	private void stopPlaylist() {
+		if(soundSystem != null && playlist != null) {
+			logger.message("Stopping the playlist", 0);
+			soundSystem.stop(playlist.getIdentifier());
+			logger.message(playlist.getReport(), 0);
 		}
 	}
 
@@ -282,42 +945,154 @@ public class MainActivity extends Activity implements IStreamListener {
 	 * @param n Song number
 	 */
 	private void stopSong(final int n) {
+		audioExecutor.submit(getCommandKey(n), new Runnable() {
+			public void run() {
+				stopSongSub(n);
+			}
+		});
+	}
+
+	/**
+	 * Stop a song (actual code in the audio worker thread)
+	 * @param n Song number
+	 */
+	private void stopSongSub(final int n) {
 		final String filename = FILENAMES[n];
 		logger.message("Stopping '" + filename + "'", 0);
 
 		if(soundSystem != null) {
-			soundSystem.stop(filename);
+			saveSongPosition(n, 0);
+			AudioEventRing.log(AudioEventRing.TYPE_STOP, filename, resumeMillis[n], 0);
+			commandBatch.stop(filename);
+			commandBatch.submit();
+		}
+	}
+
+	/**
+	 * Remember the position of a song, so the next play of the song resumes there (audio worker thread only).
+	 * A song which is not playing (e.g. stopped twice, or finished) starts from the beginning next time.
+	 * @param n Song number
+	 * @param deltaMillis Milliseconds added to the current position
+	 * @return true if the song is playing and can resume
+	 */
+	private boolean saveSongPosition(int n, long deltaMillis) {
+		String filename = FILENAMES[n];
+		resumeMillis[n] = 0;
+		if(!soundSystem.playing(filename) || !CodecRegistry.isSeekable(filename)) return false;
+		float played = soundSystem.millisecondsPlayed(filename);
+		if(played < 0) return false;
+		resumeMillis[n] = Math.max(0, songStartMillis[n] + (long)played + deltaMillis);
+		logger.message("'" + filename + "' will resume at " + (resumeMillis[n] / 100) / 10f + "s (stop again to rewind)", 0);
+		return true;
+	}
+
+	/**
+	 * Move the playing songs forward or back by restarting them at a new position (audio worker thread only).
+	 * All songs are restarted by one command batch, so they stay in step.
+	 * @param deltaMillis Milliseconds to move (negative to move back)
+	 */
+	private void seekSongs(long deltaMillis) {
+		if(soundSystem == null) return;
+		applyStreamBufferSize();
+		for(int n = 0; n < SOUND_EFFECT_START_ID; n++) {
+			if(saveSongPosition(n, deltaMillis)) {
+				playSongSub(n, playbackTimer.begin(PlaybackTimer.KIND_STREAM), commandBatch);
+			}
+		}
+		commandBatch.submit();
+	}
+
+	/**
+	 * Start the load test, or stop it if running. The load test taps the sound effects, starts and stops the songs and
+	 * changes the stream buffer size through the audio command queue until stopped, and writes a report every minute.
+	 */
+	private void toggleLoadTest() {
+		if(loadGenerator != null && loadGenerator.isRunning()) {
+			logger.message("Stopping the load test", 0);
+			loadGenerator.stop();
+			return;
+		}
+
+		String[] effects = new String[FILENAMES.length - SOUND_EFFECT_START_ID];
+		String[] streams = new String[SOUND_EFFECT_START_ID];
+		System.arraycopy(FILENAMES, SOUND_EFFECT_START_ID, effects, 0, effects.length);
+		System.arraycopy(FILENAMES, 0, streams, 0, streams.length);
+		long seed = System.currentTimeMillis();
+		loadGenerator = new LoadGenerator(audioExecutor, new LoadGenerator.Actions() {
+			public void playEffect(String filename) {
+				playSongSub(findSong(filename), playbackTimer.begin(PlaybackTimer.KIND_SOUND_EFFECT));
+			}
+
+			public void playStream(String filename) {
+				playSongSub(findSong(filename), playbackTimer.begin(PlaybackTimer.KIND_STREAM));
+			}
+
+			public void stopStream(String filename) {
+				stopSongSub(findSong(filename));
+			}
+
+			public void setBufferSizeMultiplier(int multiplier) {
+				loadBufferSizeMultiplier = multiplier;
+				logger.message("Load test: stream buffer size multiplier " + ((multiplier > 0) ? String.valueOf(multiplier) : "from the settings"), 0);
+			}
+
+			public String getCommandKey(String filename) {
+				return MainActivity.getCommandKey(findSong(filename));
+			}
+
+			public void report(String report) {
+				logger.message(report, 0);
+			}
+		}, effects, streams, seed);
+		loadGenerator.setEffectRate(LOAD_EFFECT_RATE);
+		loadGenerator.setStreamSwitchRate(LOAD_STREAM_SWITCH_RATE);
+		loadGenerator.setBufferChangeMillis(LOAD_BUFFER_CHANGE_MILLIS);
+		loadGenerator.setReportMillis(LOAD_REPORT_MILLIS);
+		logger.message("Starting the load test (seed " + seed + ")", 0);
+		loadGenerator.start(0);
+	}
+
+	/**
+	 * Find the song number of a filename
+	 * @param filename Filename
+	 * @return Song number (-1 if not found)
+	 */
+	private static int findSong(String filename) {
+		for(int i = 0; i < FILENAMES.length; i++) {
+			if(FILENAMES[i].equals(filename)) return i;
 		}
+		return -1;
 	}
 
 	/**
 	 * Shutdown the 3D Sound System
 	 */
 	private void shutdownSoundSystem() {
-		try {
-			final Thread t = new Thread(new Runnable() {
-				public void run() {
-					shutdownSoundSystemSub();
-				}
-			});
-			t.start();
-		} catch (Exception e) {
-			Log.w(TAG, "Problem during cleanup", e);
-		}
+		// The load test would start the SoundSystem again
+		if(loadGenerator != null) loadGenerator.stop();
+		audioExecutor.submit("shutdown", new Runnable() {
+			public void run() {
+				shutdownSoundSystemSub();
+			}
+		});
 	}
 
 	/**
-	 * Shutdown the 3D Sound System (actual code in thread)
+	 * Shutdown the 3D Sound System (actual code in the audio worker thread)
 	 */
 	private void shutdownSoundSystemSub() {
 		try {
 			if(soundSystem != null) {
+				soundEffectBank.detach();
+				logger.message(soundSystem.getStats(), 0);
 				soundSystem.cleanup();
 				soundSystem = null;
+				commandBatch = null;
 			}
 		} catch (Exception e) {
 			Log.w(TAG, "Problem during cleanup", e);
 		}
+		logger.message(audioExecutor.getStats(), 0);
 	}
 
 	/**
@@ -328,30 +1103,60 @@ public class MainActivity extends Activity implements IStreamListener {
 	}
 
 	/**
-	 * Update the log display
+	 * Update the log display. Refreshes are batched, so this can be called from any thread as often as needed.
 	 * @param scrollAction 0:No Scroll, 1:Scroll up, 2:Scroll down
 	 */
 	private void updateLogDisplay(final int scrollAction) {
-		runOnUiThread(new Runnable() {
-			public void run() {
-				// Update the log text
-				if(textViewLog != null) textViewLog.setText(logBuffer);
-
-				// Scroll to bottom
-				if(scrollViewLog != null && scrollAction != 0) {
-					scrollViewLog.postDelayed(new Runnable() {
-						public void run() {
-							if(scrollViewLog != null) {
-								if(scrollAction == 1)
-									scrollViewLog.fullScroll(View.FOCUS_UP);
-								else if(scrollAction == 2)
-									scrollViewLog.fullScroll(View.FOCUS_DOWN);
-							}
-						}
-					}, 200);
+		logScrollAction = scrollAction;
+		if(logRefreshPending.compareAndSet(false, true)) {
+			uiHandler.postDelayed(new Runnable() {
+				public void run() {
+					refreshLogDisplay();
 				}
-			}
-		});
+			}, LOG_REFRESH_INTERVAL);
+		}
+	}
+
+	/**
+	 * Append the new log messages to the log display (UI thread only)
+	 */
+	private void refreshLogDisplay() {
+		logRefreshPending.set(false);
+		final int scrollAction = logScrollAction;
+		if(textViewLog == null) return;
+
+		StringBuilder sb = new StringBuilder();
+		long oldestSeq = logStore.getOldestSeq();
+		long startSeq = logStore.getStartSeq();
+
+		if(startSeq != logDisplayStartSeq || logDisplaySeq < oldestSeq || logDisplayCount >= LOG_CAPACITY * 2) {
+			// Cleared, or old messages are gone from the store: render everything still kept
+			logDisplaySeq = logStore.read(oldestSeq, sb);
+			logDisplayStartSeq = startSeq;
+			logDisplayCount = (int)(logDisplaySeq - oldestSeq);
+			textViewLog.setText(sb);
+		} else {
+			// Append the new messages only
+			long nextSeq = logStore.read(logDisplaySeq, sb);
+			logDisplayCount += (int)(nextSeq - logDisplaySeq);
+			logDisplaySeq = nextSeq;
+			if(sb.length() == 0) return;
+			textViewLog.append(sb);
+		}
+
+		// Scroll after the layout has been updated
+		if(scrollViewLog != null && scrollAction != 0) {
+			scrollViewLog.postDelayed(new Runnable() {
+				public void run() {
+					if(scrollViewLog != null) {
+						if(scrollAction == 1)
+							scrollViewLog.fullScroll(View.FOCUS_UP);
+						else if(scrollAction == 2)
+							scrollViewLog.fullScroll(View.FOCUS_DOWN);
+					}
+				}
+			}, 200);
+		}
 	}
 
 	/**
@@ -371,8 +1176,8 @@ public class MainActivity extends Activity implements IStreamListener {
 				sb.append(s);
 				sb.append('\n');
 			}
-			logBuffer.setLength(0);
-			logBuffer.append(sb);
+			logStore.clear();
+			logStore.append(sb.toString());
 			updateLogDisplay(1);
 		} catch (Exception e) {
 			logger.errorMessage(TAG, "Failed to load legal.txt", 0);
@@ -382,6 +1187,41 @@ public class MainActivity extends Activity implements IStreamListener {
 		}
 	}
 
+	/**
+	 * Show the latency report in the log display, and write it to the external files directory
+	 */
+	private void latencyReport() {
+		String report = playbackTimer.getReport() + "\n" + audioExecutor.getStats() + "\n" +
+				"Buffer size " + ChannelAudioTrack.getDefaultStreamBufferSize() +
+				", multiplier " + ChannelAudioTrack.getDefaultStreamBufferSizeMultiplier() +
+				(adaptiveBuffer ? " (adaptive)" : "") + (softwareMixer ? ", software mixer" : "") + "\n" +
+				((feedScheduler != null) ? feedScheduler.getStats() + "\n" : "") +
+				(CodecRegistry.isParallelDecode() ? ParallelDecodeCodec.getStats() + "\n" : "") +
+				(MidiSynthCodec.getLastStats() != null ? MidiSynthCodec.getLastStats() + "\n" : "") +
+				((playlist != null) ? playlist.getReport() + "\n" : "") +
+				((deviceProfile != null) ? "Device profile: " + deviceProfile + "\n" : "") +
+				ChannelStats.getStats() + "\n" +
+				OutputNegotiator.getStats() + "\n" +
+				idleManager.getStats() + "\n" +
+				StreamResume.getStats();
+		logger.message(report, 0);
+
+		File dir = CrashHandler.getExternalFilesDir(this);
+		if(dir == null) dir = getFilesDir();
+		File file = new File(dir, "latency_" + System.currentTimeMillis() + ".txt");
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(file);
+			out.write(report.getBytes("UTF-8"));
+			logger.message("Latency report written to " + file.getPath(), 0);
+		} catch (Exception e) {
+			logger.errorMessage(TAG, "Failed to write " + file.getPath(), 0);
+			logger.printStackTrace(e, 0);
+		} finally {
+			try {if(out != null) out.close();} catch (Exception e2) {}
+		}
+	}
+
 	@Override
 	public boolean onCreateOptionsMenu(Menu menu) {
 		// Inflate the menu; this adds items to the action bar if it is present.
@@ -400,23 +1240,81 @@ public class MainActivity extends Activity implements IStreamListener {
 			shutdownSoundSystem();
 			return true;
 		}
+		// Latency Report
+		else if(id == R.id.action_latency) {
+			audioExecutor.submit("latency", new Runnable() {
+				public void run() {
+					latencyReport();
+				}
+			});
+			return true;
+		}
+		// Playlist
+		else if(id == R.id.action_playlist || id == R.id.action_playlist_crossfade) {
+			final int crossfadeMillis = (id == R.id.action_playlist_crossfade) ? PLAYLIST_CROSSFADE_MILLIS : 0;
+			audioExecutor.submit("playlist", new Runnable() {
+				public void run() {
+					playPlaylist(crossfadeMillis);
+				}
+			});
+			return true;
+		}
+		else if(id == R.id.action_playlist_stop) {
+			audioExecutor.submit("playlist", new Runnable() {
+				public void run() {
+					stopPlaylist();
+				}
+			});
+			return true;
+		}
+		// Seek
+		else if(id == R.id.action_seek_forward || id == R.id.action_seek_back) {
+			final long deltaMillis = (id == R.id.action_seek_forward) ? SEEK_STEP_MILLIS : -SEEK_STEP_MILLIS;
+			// Seeks are relative, so each one runs (a coalescing key would drop steps)
+			audioExecutor.submit(null, new Runnable() {
+				public void run() {
+					seekSongs(deltaMillis);
+				}
+			});
+			return true;
+		}
+		// Load Test
+		else if(id == R.id.action_load_test) {
+			toggleLoadTest();
+			return true;
+		}
+		// Audio Benchmark
+		else if(id == R.id.action_benchmark) {
+			runDeviceBenchmark();
+			return true;
+		}
 		// Credits and License Info
 		else if(id == R.id.action_credits) {
-			Thread t = new Thread(new Runnable() {
+			audioExecutor.submit("credits", new Runnable() {
 				public void run() {
 					credits();
 				}
 			});
-			t.start();
 			return true;
 		}
 		return super.onOptionsItemSelected(item);
 	}
 
+	@Override
+	protected void onPause() {
+		super.onPause();
+		getPrefs().edit()
+			.putString(PREF_AUDIO_BUFFER_SIZE, editTextAudioBufferSize.getText().toString())
+			.putString(PREF_AUDIO_BUFFER_SIZE_MULTIPLIER, editTextAudioBufferSizeMultiplier.getText().toString())
+			.putString(PREF_IDLE_SECONDS, editTextIdleSeconds.getText().toString())
+			.commit();
+	}
+
 	@Override
 	protected void onDestroy() {
 		super.onDestroy();
 		shutdownSoundSystem();
+		audioExecutor.shutdown();
 	}
 
 	/**
@@ -426,6 +1324,10 @@ public class MainActivity extends Activity implements IStreamListener {
 	 */
 	public void endOfStream(String sourcename, int queueSize) {
 		logger.message("'" + sourcename + "' has reached the end of the stream", 0);
+		Playlist list = playlist;
+		if(list != null && sourcename.equals(list.getIdentifier())) {
+			logger.message(list.getReport(), 0);
+		}
 	}
 
 	/**
@@ -435,34 +1337,32 @@ public class MainActivity extends Activity implements IStreamListener {
 		@Override
 		public void message(String message, int indent) {
 			Log.d("3D Sound System", message);
-			logBuffer.append(message);
-			logBuffer.append('\n');
+			logStore.append(message);
+			AudioEventRing.log(AudioEventRing.TYPE_MESSAGE, message, 0, 0);
 			updateLogDisplay();
 		}
 
 		@Override
 		public void importantMessage(String message, int indent) {
 			Log.w("3D Sound System", message);
-			logBuffer.append(message);
-			logBuffer.append('\n');
+			logStore.append(message);
+			AudioEventRing.log(AudioEventRing.TYPE_MESSAGE, message, 0, 0);
 			updateLogDisplay();
 		}
 
 		@Override
 		public void errorMessage(String classname, String message, int indent) {
-			Log.e("3D Sound System", classname + ":" + message);
-			logBuffer.append(classname);
-			logBuffer.append(':');
-			logBuffer.append(message);
-			logBuffer.append('\n');
+			String text = classname + ":" + message;
+			Log.e("3D Sound System", text);
+			logStore.append(text);
+			AudioEventRing.log(AudioEventRing.TYPE_ERROR, text, 0, 0);
 			updateLogDisplay();
 		}
 
 		@Override
 		public void printStackTrace(Exception e, int indent) {
 			Log.e("3D Sound System", "Stack Trace", e);
-			logBuffer.append(CrashHandler.getStackTrace(e));
-			logBuffer.append('\n');
+			logStore.append(CrashHandler.getStackTrace(e));
 			updateLogDisplay();
 		}
 	}
@@ -0,0 +1,138 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo;
+
+import com.github.nullnoname.pc3dssdemo.audio.SoftwareMixer;
+
+import paulscode.sound.SoundBuffer;
+import paulscode.sound.SoundSystemConfig;
+
+/**
+ * Channel of {@link MixerLibraryAudioTrack}.
+ * Normal (non-streaming) sources play on a voice of the shared {@link SoftwareMixer} instead of their own AudioTrack,
+ * and gain, pan and pitch are applied by the mixer. Streaming sources work the same as in {@link MonitoredChannelAudioTrack}.
+ * @author NullNoname
+ */
+public class MixerChannelAudioTrack extends MonitoredChannelAudioTrack {
+	/** Mixer voice (null for streaming channels) */
+	private SoftwareMixer.Voice voice;
+
+	/**
+	 * Constructor
+	 * @param type Channel type (SoundSystemConfig.TYPE_NORMAL or TYPE_STREAMING)
+	 * @param mixer Mixer which plays the normal sources
+	 */
+	public MixerChannelAudioTrack(int type, SoftwareMixer mixer) {
+		super(type);
+		if(type == SoundSystemConfig.TYPE_NORMAL) voice = mixer.createVoice();
+	}
+
+	@Override
+	public void cleanup() {
+		if(voice != null) voice.release();
+		super.cleanup();
+	}
+
+	@Override
+	public boolean attachBuffer(SoundBuffer buffer) {
+		if(voice == null)
+			return super.attachBuffer(buffer);
+
+		if(errorCheck(buffer == null || buffer.audioData == null || buffer.audioFormat == null, "Buffer or its data missing in method 'attachBuffer'"))
+			return false;
+
+		voice.setData(buffer.audioData, buffer.audioFormat.getSampleRate(), buffer.audioFormat.getChannels(), buffer.audioFormat.getSampleSizeInBits());
+		return true;
+	}
+
+	@Override
+	public void setLooping(boolean value) {
+		super.setLooping(value);
+		if(voice != null) voice.setLooping(value);
+	}
+
+	@Override
+	public void setGain(float g) {
+		if(voice != null) voice.setGain(g);
+		else super.setGain(g);
+	}
+
+	@Override
+	public void setPan(float p) {
+		if(voice != null) voice.setPan(p);
+		else super.setPan(p);
+	}
+
+	@Override
+	public void setPitch(float p) {
+		if(voice != null) voice.setPitch(p);
+		else super.setPitch(p);
+	}
+
+	@Override
+	public void play() {
+		if(voice != null) voice.play();
+		// Does nothing more than the latency report for normal channels, as there is no AudioTrack
+		super.play();
+	}
+
+	@Override
+	public void pause() {
+		if(voice != null) voice.pause();
+		super.pause();
+	}
+
+	@Override
+	public void stop() {
+		if(voice != null) voice.stop();
+		super.stop();
+	}
+
+	@Override
+	public void rewind() {
+		if(voice != null) voice.rewind();
+		else super.rewind();
+	}
+
+	@Override
+	public void close() {
+		if(voice != null) voice.stop();
+		super.close();
+	}
+
+	@Override
+	public boolean playing() {
+		if(voice != null) return voice.isPlaying();
+		return super.playing();
+	}
+
+	@Override
+	public float millisecondsPlayed() {
+		if(voice != null) return voice.getMillisPlayed();
+		return super.millisecondsPlayed();
+	}
+}
@@ -0,0 +1,280 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo;
+
+import com.github.nullnoname.pc3dssdemo.audio.SoftwareMixer;
+
+import paulscode.sound.Channel;
+import paulscode.sound.SoundSystemException;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Process;
+
+/**
+ * LibraryAudioTrack which mixes all normal (non-streaming) sources in software into one AudioTrack.
+ * Sound effects no longer need an AudioTrack each, so the number of normal channels can be raised
+ * to dozens of voices while the output device cost stays the same. Streaming sources keep their own AudioTrack.
+ * The output AudioTrack is created by the first voice, stopped shortly after the last voice ends, and released in the idle mode.
+ * @author NullNoname
+ */
+public class MixerLibraryAudioTrack extends MonitoredLibraryAudioTrack {
+	/** Name of the output thread */
+	public static final String OUTPUT_THREAD_NAME = "MixerOutput";
+
+	/** Output buffer size as a multiple of the AudioTrack minimum buffer size */
+	private static int defaultOutputBufferSizeMultiplier = 2;
+
+	/** The output AudioTrack is stopped after this many milliseconds without any playing voice */
+	private static final long IDLE_MILLIS = 500;
+
+	/**
+	 * @return Output buffer size as a multiple of the AudioTrack minimum buffer size
+	 */
+	public static int getDefaultOutputBufferSizeMultiplier() {
+		return defaultOutputBufferSizeMultiplier;
+	}
+
+	/**
+	 * Set the output buffer size of the mixer. Used when the library is initialized.
+	 * @param defaultOutputBufferSizeMultiplier Output buffer size as a multiple of the AudioTrack minimum buffer size
+	 */
+	public static void setDefaultOutputBufferSizeMultiplier(int defaultOutputBufferSizeMultiplier) {
+		MixerLibraryAudioTrack.defaultOutputBufferSizeMultiplier = defaultOutputBufferSizeMultiplier;
+	}
+
+	/** Mixer shared by the normal channels */
+	private final SoftwareMixer mixer;
+
+	/** Thread which writes the mixer output to the AudioTrack */
+	private OutputThread outputThread;
+
+	public MixerLibraryAudioTrack() throws SoundSystemException {
+		super();
+		mixer = new SoftwareMixer(AudioTrack.getNativeOutputSampleRate(AudioManager.STREAM_MUSIC));
+	}
+
+	@Override
+	public void init() throws SoundSystemException {
+		super.init();
+		outputThread = new OutputThread();
+		outputThread.start();
+		message("Software mixer output: " + mixer.getSampleRate() + "Hz");
+	}
+
+	@Override
+	protected Channel createChannel(int type) {
+		return new MixerChannelAudioTrack(type, mixer);
+	}
+
+	@Override
+	public void cleanup() {
+		super.cleanup();
+		if(outputThread != null) {
+			outputThread.kill();
+			try {
+				outputThread.join(1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			outputThread = null;
+		}
+		message(mixer.getStats());
+	}
+
+	/**
+	 * @return Mixer shared by the normal channels
+	 */
+	public SoftwareMixer getMixer() {
+		return mixer;
+	}
+
+	@Override
+	public boolean isOutputBusy() {
+		return super.isOutputBusy() || mixer.getActiveVoices() > 0;
+	}
+
+	@Override
+	public int releaseIdleResources() {
+		int count = super.releaseIdleResources();
+		if(outputThread != null && outputThread.releaseTrack()) count++;
+		return count;
+	}
+
+	@Override
+	public String getClassName() {
+		return "MixerLibraryAudioTrack";
+	}
+
+	/**
+	 * Writes the mixer output to the AudioTrack while any voice is playing
+	 */
+	private class OutputThread extends Thread {
+		/** false to end the thread */
+		private volatile boolean alive = true;
+
+		/** true while the thread has an AudioTrack */
+		private volatile boolean hasTrack;
+
+		/** true to release the AudioTrack once it is stopped */
+		private volatile boolean releaseRequested;
+
+		OutputThread() {
+			super(OUTPUT_THREAD_NAME);
+			setDaemon(true);
+		}
+
+		/**
+		 * Release the AudioTrack once no voice is playing. The next voice creates a new one.
+		 * @return true if there was an AudioTrack to release
+		 */
+		boolean releaseTrack() {
+			if(!hasTrack) return false;
+			releaseRequested = true;
+			mixer.wake();
+			return true;
+		}
+
+		/**
+		 * End the thread
+		 */
+		void kill() {
+			alive = false;
+			interrupt();
+		}
+
+		@Override
+		public void run() {
+			Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+
+			int sampleRate = mixer.getSampleRate();
+			int minBufferSize = AudioTrack.getMinBufferSize(sampleRate, AudioFormat.CHANNEL_OUT_STEREO, AudioFormat.ENCODING_PCM_16BIT);
+			// Created by the first voice
+			AudioTrack track = null;
+
+			// Write half of the minimum buffer at a time
+			int blockFrames = Math.max(64, minBufferSize / 4 / 2);
+			long blockMillis = Math.max(1, blockFrames * 1000L / sampleRate);
+			short[] block = new short[blockFrames * SoftwareMixer.OUTPUT_CHANNELS];
+			boolean started = false;
+			// true after the AudioTrack could not be created: the voices playing then are dropped, and the next voice tries again
+			boolean failed = false;
+
+			try {
+				while(alive) {
+					// Once the AudioTrack is stopped, wait without a timeout: a playing voice or releaseTrack() wakes this thread up
+					if(!mixer.awaitActive(started ? IDLE_MILLIS : 0)) {
+						// Nothing to play: stop the AudioTrack after the written data has been played
+						if(started) {
+							try {
+								track.stop();
+							} catch (IllegalStateException e) {
+								// Already stopped
+							}
+							started = false;
+						}
+						if(releaseRequested) {
+							releaseRequested = false;
+							if(track != null) track.release();
+							track = null;
+							hasTrack = false;
+						}
+						failed = false;
+						continue;
+					}
+
+					// A release which came too late for this idle period is dropped
+					releaseRequested = false;
+					if(track == null && !failed) {
+						track = createTrack(sampleRate, minBufferSize);
+						failed = (track == null);
+					}
+					mixer.mix(block, blockFrames);
+					if(failed) {
+						// No output: let the voices run out at the speed they would have played
+						if(mixer.getActiveVoices() == 0) failed = false;
+						else Thread.sleep(blockMillis);
+						continue;
+					}
+					try {
+						track.write(block, 0, block.length);
+						if(!started) {
+							track.play();
+							started = true;
+						}
+					} catch (RuntimeException e) {
+						// The AudioTrack has stopped working (e.g. the output device is gone): drop it and try a new one with the next voice
+						errorMessage("The mixer AudioTrack failed, the sounds playing now are dropped and the next one tries again");
+						printStackTrace(e);
+						track.release();
+						track = null;
+						hasTrack = false;
+						started = false;
+						failed = true;
+					}
+				}
+			} catch (InterruptedException e) {
+				// Killed
+			} finally {
+				if(track != null) {
+					try {
+						track.stop();
+					} catch (IllegalStateException e) {
+						// Already stopped
+					}
+					track.release();
+				}
+				hasTrack = false;
+			}
+		}
+
+		/**
+		 * Create the output AudioTrack
+		 * @param sampleRate Sample rate
+		 * @param minBufferSize Minimum buffer size
+		 * @return AudioTrack, or null if it cannot be created
+		 */
+		private AudioTrack createTrack(int sampleRate, int minBufferSize) {
+			try {
+				AudioTrack track = new AudioTrack(AudioManager.STREAM_MUSIC, sampleRate, AudioFormat.CHANNEL_OUT_STEREO, AudioFormat.ENCODING_PCM_16BIT,
+						minBufferSize * Math.max(1, defaultOutputBufferSizeMultiplier), AudioTrack.MODE_STREAM);
+				// Out of native tracks, the constructor returns an unusable AudioTrack instead of throwing
+				if(track.getState() != AudioTrack.STATE_INITIALIZED) {
+					track.release();
+					errorMessage("The mixer AudioTrack is not initialized, the sounds playing now are dropped and the next one tries again");
+					return null;
+				}
+				hasTrack = true;
+				return track;
+			} catch (Exception e) {
+				errorMessage("Unable to create the mixer AudioTrack, the sounds playing now are dropped and the next one tries again");
+				printStackTrace(e);
+				return null;
+			}
+		}
+	}
+}
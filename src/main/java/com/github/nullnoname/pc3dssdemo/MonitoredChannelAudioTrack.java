@@ -0,0 +1,693 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo;
+
+import java.util.LinkedList;
+
+import com.github.nullnoname.paudiotrack.ChannelAudioTrack;
+import com.github.nullnoname.pc3dssdemo.audio.AudioEventRing;
+import com.github.nullnoname.pc3dssdemo.audio.FeedScheduler;
+import com.github.nullnoname.pc3dssdemo.audio.PcmBufferPool;
+import com.github.nullnoname.pc3dssdemo.audio.PlaybackTimer;
+import com.github.nullnoname.pc3dssdemo.audio.StreamHealth;
+import com.github.nullnoname.pc3dssdemo.audio.StreamHealthListener;
+
+import paulscode.sound.PAudioFormat;
+import paulscode.sound.SoundBuffer;
+import paulscode.sound.SoundSystemConfig;
+import android.media.AudioTrack;
+
+/**
+ * ChannelAudioTrack which measures the playback health of streams.
+ * It keeps count of the audio written to the AudioTrack and compares it with the playback head position before each write.
+ * When the head has caught up with the written data the output has run dry, which is counted as an underrun.
+ * It also tells the {@link PlaybackTimer} when the AudioTrack has actually started.
+ * Stream buffers coming from a codec are given back to the {@link PcmBufferPool} once they have been written to the AudioTrack.
+ * <p>
+ * With an event-driven {@link FeedScheduler}, streams are written in chunks of a quarter of the AudioTrack buffer,
+ * only when there is room for them, so the writes never block. The next buffer is decoded while the current one is still being written,
+ * and the scheduler is told when this channel next needs the stream thread.
+ * <p>
+ * While the output is idle, the AudioTrack of the channel can be released with {@link #releaseIdle()}.
+ * A normal channel attaches its sound again when it is played, and a streaming channel gets a new AudioTrack with the next stream.
+ * @author NullNoname
+ */
+public class MonitoredChannelAudioTrack extends ChannelAudioTrack {
+	/** Listener which receives the health of finished streams (null if none) */
+	private static StreamHealthListener defaultStreamHealthListener;
+
+	/** Timer which is told when a source starts playing (null if none) */
+	private static PlaybackTimer defaultPlaybackTimer;
+
+	/** Scheduler of the stream thread (null for the stock stream thread) */
+	private static FeedScheduler defaultFeedScheduler;
+
+	/** Number of chunks per AudioTrack buffer in the event-driven mode */
+	private static final int EVENT_CHUNKS_PER_BUFFER = 4;
+
+	/** Buffers queued but not yet written to the AudioTrack, in queue order (ring buffer, no allocation per buffer) */
+	private byte[][] pendingBuffers = new byte[8][];
+
+	/** true for each pending buffer which can be given back to the pool */
+	private boolean[] pendingRecyclable = new boolean[8];
+
+	/** Index of the oldest pending buffer */
+	private int pendingHead;
+
+	/** Number of pending buffers */
+	private int pendingCount;
+
+	/** Bytes in the pending buffers which are not written yet */
+	private int pendingBytes;
+
+	/** Bytes of the oldest pending buffer which are already written (event-driven mode) */
+	private int pendingOffset;
+
+	/** Scheduler of the current stream if it is fed in the event-driven mode, otherwise null */
+	private FeedScheduler eventScheduler;
+
+	/** Write chunk of the event-driven mode */
+	private byte[] chunk;
+
+	/** true while a chunk is written through ChannelAudioTrack */
+	private boolean writingChunk;
+
+	/** true after the source has run out of data (event-driven mode) */
+	private boolean draining;
+
+	/** Format of the current stream (null if none) */
+	private PAudioFormat streamFormat;
+
+	/** Bytes per frame of the current stream */
+	private int frameSize;
+
+	/** Output buffer size in bytes */
+	private int bufferSize;
+
+	/** Buffer size multiplier used to create the output buffer */
+	private int bufferSizeMultiplier;
+
+	/** Frames written to the AudioTrack */
+	private long writtenFrames;
+
+	/** Number of underruns */
+	private int underruns;
+
+	/** true while the output is known to be dry (so one gap is counted only once) */
+	private boolean starved;
+
+	/** Smallest amount of queued audio seen before a write, in milliseconds */
+	private int minHeadroomMillis;
+
+	/** Time of the previous write (System.nanoTime()) */
+	private long lastWriteTime;
+
+	/** Longest gap between two writes, in milliseconds */
+	private int maxFeedIntervalMillis;
+
+	/** true while paused or stopped */
+	private boolean paused;
+
+	/** true while the channel has an AudioTrack */
+	private boolean hasTrack;
+
+	/** true after the AudioTrack has been released by releaseIdle() */
+	private boolean idleReleased;
+
+	/** Sound attached to this normal channel, attached again after an idle release (null if none) */
+	private SoundBuffer attachedBuffer;
+
+	/** Length of the attached sound in milliseconds */
+	private float attachedMillis;
+
+	/** true if the source loops */
+	private boolean looping;
+
+	/**
+	 * Get the listener which receives the health of finished streams
+	 * @return Stream health listener (null if none)
+	 */
+	public static StreamHealthListener getDefaultStreamHealthListener() {
+		return defaultStreamHealthListener;
+	}
+
+	/**
+	 * Set the listener which receives the health of finished streams
+	 * @param defaultStreamHealthListener Stream health listener (null to disable)
+	 */
+	public static void setDefaultStreamHealthListener(StreamHealthListener defaultStreamHealthListener) {
+		MonitoredChannelAudioTrack.defaultStreamHealthListener = defaultStreamHealthListener;
+	}
+
+	/**
+	 * Get the timer which is told when a source starts playing
+	 * @return Playback timer (null if none)
+	 */
+	public static PlaybackTimer getDefaultPlaybackTimer() {
+		return defaultPlaybackTimer;
+	}
+
+	/**
+	 * Set the timer which is told when a source starts playing
+	 * @param defaultPlaybackTimer Playback timer (null to disable)
+	 */
+	public static void setDefaultPlaybackTimer(PlaybackTimer defaultPlaybackTimer) {
+		MonitoredChannelAudioTrack.defaultPlaybackTimer = defaultPlaybackTimer;
+	}
+
+	/**
+	 * Get the scheduler of the stream thread
+	 * @return Feed scheduler (null if the stock stream thread is used)
+	 */
+	public static FeedScheduler getDefaultFeedScheduler() {
+		return defaultFeedScheduler;
+	}
+
+	/**
+	 * Set the scheduler of the stream thread. Used by libraries created after this call.
+	 * @param defaultFeedScheduler Feed scheduler (null for the stock stream thread)
+	 */
+	public static void setDefaultFeedScheduler(FeedScheduler defaultFeedScheduler) {
+		MonitoredChannelAudioTrack.defaultFeedScheduler = defaultFeedScheduler;
+	}
+
+	public MonitoredChannelAudioTrack(int type) {
+		super(type);
+	}
+
+	@Override
+	public boolean attachBuffer(SoundBuffer buffer) {
+		idleReleased = false;
+		if(!super.attachBuffer(buffer))
+			return false;
+
+		hasTrack = true;
+		attachedBuffer = buffer;
+		PAudioFormat format = buffer.audioFormat;
+		int bytesPerFrame = Math.max(1, format.getChannels() * format.getSampleSizeInBits() / 8);
+		attachedMillis = buffer.audioData.length / bytesPerFrame * 1000f / format.getSampleRate();
+		return true;
+	}
+
+	@Override
+	public void setLooping(boolean value) {
+		looping = value;
+		super.setLooping(value);
+	}
+
+	@Override
+	public boolean resetStream(PAudioFormat format) {
+		// Report first, so a changed buffer size setting is used by the new AudioTrack
+		reportStreamHealth();
+
+		int size = getDefaultStreamBufferSize();
+		int multiplier = getDefaultStreamBufferSizeMultiplier();
+
+		idleReleased = false;
+		if(!super.resetStream(format))
+			return false;
+
+		hasTrack = true;
+
+		streamFormat = format;
+		frameSize = Math.max(1, format.getChannels() * format.getSampleSizeInBits() / 8);
+		if(size == 0) {
+			int minBufferSize = AudioTrack.getMinBufferSize((int)format.getSampleRate(), getChannelOutputType(format), getAudioEncoding(format));
+			bufferSize = minBufferSize * multiplier;
+			bufferSizeMultiplier = multiplier;
+		} else {
+			bufferSize = size;
+			bufferSizeMultiplier = 0;
+		}
+
+		FeedScheduler scheduler = defaultFeedScheduler;
+		if(eventScheduler != null) eventScheduler.cancel(this);
+		eventScheduler = (scheduler != null && scheduler.isEventDriven()) ? scheduler : null;
+		if(eventScheduler != null) {
+			int chunkFrames = Math.max(1, bufferSize / frameSize / EVENT_CHUNKS_PER_BUFFER);
+			if(chunk == null || chunk.length != chunkFrames * frameSize) chunk = new byte[chunkFrames * frameSize];
+		}
+		resetStreamHealth();
+		return true;
+	}
+
+	@Override
+	public boolean preLoadBuffers(LinkedList<byte[]> bufferList) {
+		// The next sound of a sequence is queued without a new AudioTrack
+		if(idleReleased && streamFormat != null && !resetStream(streamFormat))
+			return false;
+
+		if(eventScheduler != null) {
+			// Start the AudioTrack with nothing written, then write what fits
+			int start = pendingCount;
+			while(!bufferList.isEmpty()) {
+				addPending(bufferList.removeFirst(), true);
+			}
+			if(!super.preLoadBuffers(bufferList)) {
+				removePendingFrom(start);
+				return false;
+			}
+			paused = false;
+			draining = false;
+			pump(false);
+			notifyStarted();
+			return true;
+		}
+
+		// The first buffer is written right away, the others are queued
+		byte[] first = bufferList.isEmpty() ? null : bufferList.getFirst();
+		int start = pendingCount;
+		for(int i = 1; i < bufferList.size(); i++) {
+			addPending(bufferList.get(i), true);
+		}
+
+		if(!super.preLoadBuffers(bufferList)) {
+			removePendingFrom(start);
+			return false;
+		}
+
+		paused = false;
+		if(first != null) {
+			onWritten(first.length);
+			PcmBufferPool.recycle(first);
+		}
+		notifyStarted();
+		return true;
+	}
+
+	@Override
+	public boolean queueBuffer(byte[] buffer) {
+		if(eventScheduler != null) {
+			addPending(buffer, true);
+			draining = false;
+			pump(false);
+			return true;
+		}
+
+		int start = pendingCount;
+		addPending(buffer, true);
+		if(!super.queueBuffer(buffer)) {
+			removePendingFrom(start);
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public int feedRawAudioData(byte[] buffer) {
+		// Raw data belongs to the caller, so it is never given to the pool
+		if(eventScheduler != null && !writingChunk) {
+			addPending(buffer, false);
+			eventScheduler.wakeNow();
+			return 1;
+		}
+
+		int start = pendingCount;
+		addPending(buffer, false);
+		int result = super.feedRawAudioData(buffer);
+		if(result < 0) removePendingFrom(start);
+		return result;
+	}
+
+	@Override
+	public int buffersProcessed() {
+		if(eventScheduler == null || writingChunk)
+			return super.buffersProcessed();
+
+		// Write what fits, and ask for the next buffer while there is still data pending
+		pump(false);
+		return needsData() ? 1 : 0;
+	}
+
+	@Override
+	public boolean processBuffer() {
+		if(eventScheduler != null && !writingChunk) {
+			// The source has no more data: write out the rest
+			draining = true;
+			pump(true);
+			return pendingCount > 0;
+		}
+
+		if(channelType == SoundSystemConfig.TYPE_STREAMING && pendingCount > 0) {
+			checkHeadroom();
+		}
+
+		if(!super.processBuffer())
+			return false;
+
+		if(pendingCount > 0) {
+			int length = removeFirstPending();
+			pendingBytes -= length;
+			onWritten(length);
+		}
+		return true;
+	}
+
+	@Override
+	public void flush() {
+		if(channelType == SoundSystemConfig.TYPE_STREAMING) {
+			reportStreamHealth();
+			resetStreamHealth();
+		}
+		super.flush();
+	}
+
+	@Override
+	public void close() {
+		if(channelType == SoundSystemConfig.TYPE_STREAMING) {
+			reportStreamHealth();
+			resetStreamHealth();
+		}
+		super.close();
+		hasTrack = false;
+	}
+
+	@Override
+	public void cleanup() {
+		super.cleanup();
+		attachedBuffer = null;
+	}
+
+	@Override
+	public void play() {
+		// The time spent paused is not a feed gap
+		if(paused) lastWriteTime = System.nanoTime();
+		paused = false;
+		if(idleReleased && channelType == SoundSystemConfig.TYPE_NORMAL && attachedBuffer != null) attachBuffer(attachedBuffer);
+		super.play();
+		if(eventScheduler != null) eventScheduler.wakeNow();
+		// Streams start in preLoadBuffers()
+		if(channelType == SoundSystemConfig.TYPE_NORMAL) notifyStarted();
+	}
+
+	@Override
+	public void pause() {
+		paused = true;
+		if(eventScheduler != null) eventScheduler.cancel(this);
+		super.pause();
+	}
+
+	@Override
+	public void stop() {
+		paused = true;
+		if(eventScheduler != null) eventScheduler.cancel(this);
+		super.stop();
+	}
+
+	@Override
+	public boolean playing() {
+		// The stock check looks at the library queue, which the event-driven mode does not use
+		if(eventScheduler != null)
+			return !paused && pendingCount > 0;
+		return super.playing();
+	}
+
+	/**
+	 * Check if the channel is in use: playing something audible, or holding a paused source
+	 * @return true if the channel is in use
+	 */
+	public boolean isBusy() {
+		if(attachedSource != null && attachedSource.paused()) return true;
+		if(!playing()) return false;
+		// A static AudioTrack stays in the playing state after the end of its sound
+		if(channelType == SoundSystemConfig.TYPE_NORMAL && hasTrack && !looping)
+			return millisecondsPlayed() < attachedMillis;
+		return true;
+	}
+
+	/**
+	 * Release the AudioTrack of this channel if it is not in use (idle mode)
+	 * @return true if an AudioTrack has been released
+	 */
+	public boolean releaseIdle() {
+		if(!hasTrack || isBusy()) return false;
+		close();
+		idleReleased = true;
+		return true;
+	}
+
+	/**
+	 * Check if the source should decode the next buffer (event-driven mode).
+	 * It is decoded while the current one is still being written, so decoding does not delay the writes.
+	 * @return true if more data is needed
+	 */
+	private boolean needsData() {
+		return pendingCount <= 1 || pendingBytes < chunk.length * 2;
+	}
+
+	/**
+	 * Get the number of frames written to the AudioTrack but not played yet
+	 * @return Number of frames
+	 */
+	private long getQueuedFrames() {
+		float played = millisecondsPlayed();
+		if(played < 0) return 0;
+		long headFrames = (long)(played * streamFormat.getSampleRate() / 1000f);
+		return Math.max(0, writtenFrames - headFrames);
+	}
+
+	/**
+	 * Write as many chunks as fit in the AudioTrack without blocking, then tell the scheduler when to come back (event-driven mode)
+	 * @param drain true to also write the last piece which is smaller than a chunk
+	 */
+	private void pump(boolean drain) {
+		if(paused || streamFormat == null)
+			return;
+
+		int capacityFrames = bufferSize / frameSize;
+		while(pendingCount > 0) {
+			long freeFrames = capacityFrames - getQueuedFrames();
+			byte[] out;
+			if(pendingBytes >= chunk.length) {
+				if(freeFrames < chunk.length / frameSize) break;
+				out = chunk;
+			} else if(drain) {
+				if(freeFrames < pendingBytes / frameSize) break;
+				out = new byte[pendingBytes];	// Last piece of the stream
+			} else {
+				break;
+			}
+
+			takePending(out);
+			checkHeadroom();
+			writingChunk = true;
+			try {
+				super.feedRawAudioData(out);
+				super.processBuffer();
+			} finally {
+				writingChunk = false;
+			}
+			onWritten(out.length);
+		}
+
+		// Come back right away for more data, otherwise when there is room for the next write
+		long now = System.nanoTime();
+		if(pendingCount == 0 && draining) {
+			eventScheduler.cancel(this);
+		} else if(!draining && needsData()) {
+			eventScheduler.schedule(this, now);
+		} else {
+			int needFrames = Math.min(pendingBytes, chunk.length) / frameSize;
+			long waitFrames = Math.max(1, needFrames - (capacityFrames - getQueuedFrames()));
+			eventScheduler.schedule(this, now + waitFrames * 1000000000L / (long)streamFormat.getSampleRate());
+		}
+	}
+
+	/**
+	 * Fill an array from the pending buffers (event-driven mode). The buffers which are used up go back to the pool.
+	 * @param out Array to fill (not larger than pendingBytes)
+	 */
+	private void takePending(byte[] out) {
+		int filled = 0;
+		while(filled < out.length) {
+			byte[] buffer = pendingBuffers[pendingHead];
+			int length = Math.min(out.length - filled, buffer.length - pendingOffset);
+			System.arraycopy(buffer, pendingOffset, out, filled, length);
+			filled += length;
+			pendingOffset += length;
+			pendingBytes -= length;
+			if(pendingOffset == buffer.length) {
+				removeFirstPending();
+				pendingOffset = 0;
+			}
+		}
+	}
+
+	/**
+	 * Remove the oldest pending buffer, and give it back to the pool if possible
+	 * @return Length of the buffer in bytes
+	 */
+	private int removeFirstPending() {
+		byte[] buffer = pendingBuffers[pendingHead];
+		boolean recyclable = pendingRecyclable[pendingHead];
+		pendingBuffers[pendingHead] = null;
+		pendingHead = (pendingHead + 1) % pendingBuffers.length;
+		pendingCount--;
+		if(recyclable) PcmBufferPool.recycle(buffer);
+		return buffer.length;
+	}
+
+	/**
+	 * Add a buffer to the end of the pending buffers
+	 * @param buffer Buffer
+	 * @param recyclable true if it can be given back to the pool after it has been written
+	 */
+	private void addPending(byte[] buffer, boolean recyclable) {
+		if(pendingCount == pendingBuffers.length) {
+			// Grow (only happens when many buffers are queued at once)
+			byte[][] newBuffers = new byte[pendingBuffers.length * 2][];
+			boolean[] newRecyclable = new boolean[pendingBuffers.length * 2];
+			for(int i = 0; i < pendingCount; i++) {
+				int index = (pendingHead + i) % pendingBuffers.length;
+				newBuffers[i] = pendingBuffers[index];
+				newRecyclable[i] = pendingRecyclable[index];
+			}
+			pendingBuffers = newBuffers;
+			pendingRecyclable = newRecyclable;
+			pendingHead = 0;
+		}
+		int index = (pendingHead + pendingCount) % pendingBuffers.length;
+		pendingBuffers[index] = buffer;
+		pendingRecyclable[index] = recyclable;
+		pendingCount++;
+		pendingBytes += buffer.length;
+	}
+
+	/**
+	 * Remove the pending buffers added last, after the library refused them
+	 * @param count Number of pending buffers to keep
+	 */
+	private void removePendingFrom(int count) {
+		while(pendingCount > count) {
+			pendingCount--;
+			int index = (pendingHead + pendingCount) % pendingBuffers.length;
+			pendingBytes -= pendingBuffers[index].length;
+			pendingBuffers[index] = null;
+		}
+	}
+
+	/**
+	 * Forget all pending buffers. The library has dropped them, so the recyclable ones go back to the pool.
+	 */
+	private void clearPending() {
+		while(pendingCount > 0) {
+			if(pendingRecyclable[pendingHead]) PcmBufferPool.recycle(pendingBuffers[pendingHead]);
+			pendingBuffers[pendingHead] = null;
+			pendingHead = (pendingHead + 1) % pendingBuffers.length;
+			pendingCount--;
+		}
+		pendingHead = 0;
+		pendingBytes = 0;
+		pendingOffset = 0;
+	}
+
+	/**
+	 * Tell the playback timer that the attached source has started
+	 */
+	private void notifyStarted() {
+		PlaybackTimer timer = defaultPlaybackTimer;
+		if(timer != null && attachedSource != null) {
+			timer.started(attachedSource.sourcename);
+		}
+	}
+
+	/**
+	 * Compare the written data with the playback head position, just before the next write
+	 */
+	private void checkHeadroom() {
+		if(streamFormat == null || writtenFrames == 0 || paused)
+			return;
+
+		float played = millisecondsPlayed();
+		if(played < 0)
+			return;
+
+		int headroom = (int)(writtenFrames * 1000 / (long)streamFormat.getSampleRate() - (long)played);
+		if(headroom < minHeadroomMillis) minHeadroomMillis = headroom;
+
+		if(headroom <= 0) {
+			if(!starved) {
+				underruns++;
+				starved = true;
+				AudioEventRing.log(AudioEventRing.TYPE_UNDERRUN, (attachedSource != null) ? attachedSource.sourcename : null, underruns, headroom);
+			}
+		}
+
+		long now = System.nanoTime();
+		int interval = (int)((now - lastWriteTime) / 1000000L);
+		if(interval > maxFeedIntervalMillis) maxFeedIntervalMillis = interval;
+	}
+
+	/**
+	 * Called after a buffer has been written to the AudioTrack
+	 * @param length Length of the buffer in bytes
+	 */
+	private void onWritten(int length) {
+		writtenFrames += length / frameSize;
+		starved = false;
+		lastWriteTime = System.nanoTime();
+	}
+
+	/**
+	 * Clear the measurements of the current stream
+	 */
+	private void resetStreamHealth() {
+		clearPending();
+		draining = false;
+		if(eventScheduler != null) eventScheduler.cancel(this);
+		writtenFrames = 0;
+		underruns = 0;
+		starved = false;
+		minHeadroomMillis = Integer.MAX_VALUE;
+		maxFeedIntervalMillis = 0;
+		paused = false;
+	}
+
+	/**
+	 * Send the health of the current stream to the listener, if anything was played
+	 */
+	private void reportStreamHealth() {
+		StreamHealthListener listener = defaultStreamHealthListener;
+		if(listener == null || streamFormat == null || writtenFrames == 0)
+			return;
+
+		float rate = streamFormat.getSampleRate();
+		long writtenMillis = (long)(writtenFrames * 1000 / rate);
+		float played = millisecondsPlayed();
+		long playedMillis = (played < 0) ? writtenMillis : Math.min((long)played, writtenMillis);
+		int bufferMillis = (int)(bufferSize / frameSize * 1000 / rate);
+		int minHeadroom = (minHeadroomMillis == Integer.MAX_VALUE) ? bufferMillis : minHeadroomMillis;
+
+		try {
+			listener.streamFinished(new StreamHealth(bufferSize, bufferSizeMultiplier, bufferMillis, playedMillis, underruns,
+					minHeadroom, maxFeedIntervalMillis));
+		} catch (Exception e) {
+			errorMessage("Stream health listener failed");
+			printStackTrace(e);
+		}
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo;
+
+import java.util.List;
+
+import com.github.nullnoname.paudiotrack.LibraryAudioTrack;
+import com.github.nullnoname.pc3dssdemo.audio.ChannelStats;
+import com.github.nullnoname.pc3dssdemo.audio.FeedScheduler;
+import com.github.nullnoname.pc3dssdemo.audio.FeedStreamThread;
+import com.github.nullnoname.pc3dssdemo.audio.IdleManager;
+import com.github.nullnoname.pc3dssdemo.audio.IdleReleasable;
+
+import paulscode.sound.Channel;
+import paulscode.sound.CommandThread;
+import paulscode.sound.FilenameURL;
+import paulscode.sound.SoundSystemException;
+import paulscode.sound.Source;
+import paulscode.sound.StreamThread;
+
+/**
+ * LibraryAudioTrack which uses {@link MonitoredChannelAudioTrack} for all sources.
+ * When a {@link FeedScheduler} is set, the stream thread is replaced with a {@link FeedStreamThread} which uses it.
+ * The command thread and the stream thread are named for the wakeup counts of {@link IdleManager}.
+ * Play requests which find every channel busy are counted in {@link ChannelStats}.
+ * In the idle mode, the AudioTracks of the channels which are not in use are released.
+ * @author NullNoname
+ */
+public class MonitoredLibraryAudioTrack extends LibraryAudioTrack implements IdleReleasable {
+	/** Extra polling time after a fade, in milliseconds */
+	private static final long FADE_POLL_MARGIN_MILLIS = 100;
+
+	/** Scheduler of the stream thread (null for the stock thread) */
+	private final FeedScheduler feedScheduler;
+
+	public MonitoredLibraryAudioTrack() throws SoundSystemException {
+		super();
+
+		// The library is created on the command thread, which can name itself
+		if(Thread.currentThread() instanceof CommandThread) Thread.currentThread().setName(IdleManager.COMMAND_THREAD_NAME);
+
+		// The stock thread is still waiting for its first source, so it ends right away
+		feedScheduler = MonitoredChannelAudioTrack.getDefaultFeedScheduler();
+		streamThread.kill();
+		streamThread.interrupt();
+		streamThread = (feedScheduler != null) ? new FeedStreamThread(feedScheduler) : new StreamThread();
+		streamThread.setName(IdleManager.STREAM_THREAD_NAME);
+		streamThread.start();
+	}
+
+	@Override
+	public void fadeOut(String sourcename, FilenameURL filenameURL, long milis) {
+		// Fades are stepped by the stream thread, which needs to wake up often for that
+		if(feedScheduler != null) feedScheduler.pollFor(milis + FADE_POLL_MARGIN_MILLIS);
+		super.fadeOut(sourcename, filenameURL, milis);
+	}
+
+	@Override
+	public void fadeOutIn(String sourcename, FilenameURL filenameURL, long milisOut, long milisIn) {
+		if(feedScheduler != null) feedScheduler.pollFor(milisOut + milisIn + FADE_POLL_MARGIN_MILLIS);
+		super.fadeOutIn(sourcename, filenameURL, milisOut, milisIn);
+	}
+
+	@Override
+	public void play(Source source) {
+		boolean free = ChannelStats.hasFreeChannel(source, (source != null && source.toStream) ? streamingChannels : normalChannels);
+		super.play(source);
+		ChannelStats.played(source, free);
+	}
+
+	@Override
+	protected Channel createChannel(int type) {
+		return new MonitoredChannelAudioTrack(type);
+	}
+
+	public boolean isOutputBusy() {
+		return isBusy(normalChannels) || isBusy(streamingChannels);
+	}
+
+	public int releaseIdleResources() {
+		return releaseIdle(normalChannels) + releaseIdle(streamingChannels);
+	}
+
+	/**
+	 * @param channels Channels
+	 * @return true if any of the channels is in use
+	 */
+	private static boolean isBusy(List<Channel> channels) {
+		if(channels == null) return false;
+		for(Channel channel : channels) {
+			if(channel instanceof MonitoredChannelAudioTrack && ((MonitoredChannelAudioTrack)channel).isBusy()) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param channels Channels
+	 * @return Number of AudioTracks released
+	 */
+	private static int releaseIdle(List<Channel> channels) {
+		if(channels == null) return 0;
+		int count = 0;
+		for(Channel channel : channels) {
+			if(channel instanceof MonitoredChannelAudioTrack && ((MonitoredChannelAudioTrack)channel).releaseIdle()) count++;
+		}
+		return count;
+	}
+
+	@Override
+	public String getClassName() {
+		return "MonitoredLibraryAudioTrack";
+	}
+}
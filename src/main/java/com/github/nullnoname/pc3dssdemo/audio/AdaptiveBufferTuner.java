@@ -0,0 +1,142 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+/**
+ * Adaptive stream buffer size tuner.
+ * It looks for the smallest buffer size multiplier that plays without underruns.
+ * An underrun doubles the multiplier and remembers the failed value as the floor.
+ * A near-underrun (a gap between two writes of the stream thread which left less than a quarter of the buffer queued)
+ * raises the multiplier by one step.
+ * A long enough glitch-free stream with spare headroom lowers the multiplier by one step, but never down to the floor,
+ * and the floor itself is lowered by one step after a number of glitch-free streams, so a single transient underrun does not stay forever.
+ * @author NullNoname
+ */
+public class AdaptiveBufferTuner {
+	/** Smallest multiplier */
+	public static final int MIN_MULTIPLIER = 1;
+
+	/** Largest multiplier */
+	public static final int MAX_MULTIPLIER = 32;
+
+	/** Streams shorter than this (in milliseconds) are not trusted to be glitch-free */
+	private static final long MIN_CLEAN_PLAY_MILLIS = 5000;
+
+	/** A feed gap leaving less than buffer length / this of audio queued is a near-underrun */
+	private static final int NEAR_UNDERRUN_DIVISOR = 4;
+
+	/** Number of glitch-free streams after which the floor is lowered by one step */
+	private static final int FLOOR_DECAY_STREAMS = 8;
+
+	/** Current multiplier */
+	private int multiplier;
+
+	/** Largest multiplier which had an underrun (0 if none) */
+	private int floor;
+
+	/** Number of glitch-free streams since the floor was last raised or lowered */
+	private int cleanStreams;
+
+	/**
+	 * Constructor
+	 * @param multiplier Initial multiplier (e.g. from the previous run)
+	 * @param floor Largest multiplier known to underrun (0 if none)
+	 */
+	public AdaptiveBufferTuner(int multiplier, int floor) {
+		this.floor = Math.max(0, Math.min(floor, MAX_MULTIPLIER - 1));
+		this.multiplier = Math.max(Math.max(MIN_MULTIPLIER, this.floor + 1), Math.min(multiplier, MAX_MULTIPLIER));
+	}
+
+	/**
+	 * @return Current multiplier
+	 */
+	public synchronized int getMultiplier() {
+		return multiplier;
+	}
+
+	/**
+	 * @return Largest multiplier known to underrun (0 if none)
+	 */
+	public synchronized int getFloor() {
+		return floor;
+	}
+
+	/**
+	 * Update the multiplier from the health of a finished stream.
+	 * Streams played with a different multiplier or a fixed buffer size are ignored.
+	 * @param health Playback health of the stream
+	 * @return true if the multiplier or the floor has changed
+	 */
+	public synchronized boolean update(StreamHealth health) {
+		if(health.bufferSizeMultiplier != multiplier) return false;
+
+		if(health.underruns > 0) {
+			floor = Math.max(floor, multiplier);
+			cleanStreams = 0;
+			int newMultiplier = Math.min(multiplier * 2, MAX_MULTIPLIER);
+			if(newMultiplier == multiplier) return false;
+			multiplier = newMultiplier;
+			return true;
+		}
+
+		// The stream thread was late enough to nearly drain the buffer
+		if(isNearUnderrun(health.maxFeedIntervalMillis, health.bufferMillis)) {
+			cleanStreams = 0;
+			if(multiplier >= MAX_MULTIPLIER) return false;
+			multiplier++;
+			return true;
+		}
+
+		if(health.playedMillis < MIN_CLEAN_PLAY_MILLIS) return false;
+
+		// Let the floor of an old underrun decay
+		boolean changed = false;
+		if(floor > 0 && ++cleanStreams >= FLOOR_DECAY_STREAMS) {
+			floor--;
+			cleanStreams = 0;
+			changed = true;
+		}
+
+		// Shrink only if one step smaller would still have had data queued, and would have survived the longest feed gap
+		if(multiplier - 1 <= Math.max(floor, MIN_MULTIPLIER - 1)) return changed;
+		int stepMillis = health.bufferMillis / multiplier;
+		if(health.minHeadroomMillis < stepMillis) return changed;
+		if(isNearUnderrun(health.maxFeedIntervalMillis, health.bufferMillis - stepMillis)) return changed;
+
+		multiplier--;
+		return true;
+	}
+
+	/**
+	 * @param feedIntervalMillis Gap between two writes in milliseconds
+	 * @param bufferMillis Length of the output buffer in milliseconds
+	 * @return true if the gap would leave less than the headroom of a near-underrun queued
+	 */
+	private static boolean isNearUnderrun(int feedIntervalMillis, int bufferMillis) {
+		return feedIntervalMillis > bufferMillis - bufferMillis / NEAR_UNDERRUN_DIVISOR;
+	}
+}
@@ -0,0 +1,368 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reader of an asset pack: every sound of the game in one uncompressed file, with a binary index.
+ * The pack is mapped once, and a sound is found by the hash of its name and served as a slice of the mapping,
+ * so there is no per-file lookup in the APK and no per-file open.
+ * <p>
+ * Layout (big endian):
+ * <ul>
+ * <li>Header: magic ("P3AP"), version, page size, number of entries, offset and length of the name table</li>
+ * <li>Index: one {@link #ENTRY_SIZE} byte entry per sound, sorted by name hash:
+ * hash, data offset, data length, format, offset and length of the name in the name table</li>
+ * <li>Name table: the names in UTF-8 (the asset paths, e.g. "swansong.ogg"), to tell hash collisions apart</li>
+ * <li>Data: the files as they are, each starting on a page boundary so it can be mapped or read without straddling a page</li>
+ * </ul>
+ * Packs are written at build time by the AssetPacker tool (assetpacker module).
+ * @author NullNoname
+ */
+public class AssetPack {
+	/** File magic ("P3AP") */
+	public static final int MAGIC = 0x50334150;
+	/** Format version */
+	public static final int VERSION = 1;
+	/** Header size in bytes */
+	public static final int HEADER_SIZE = 24;
+	/** Index entry size in bytes */
+	public static final int ENTRY_SIZE = 32;
+	/** Default alignment of the data */
+	public static final int DEFAULT_PAGE_SIZE = 4096;
+
+	/** Format codes of the entries (by file extension) */
+	public static final int FORMAT_UNKNOWN = 0, FORMAT_WAV = 1, FORMAT_OGG = 2, FORMAT_SPEEX = 3, FORMAT_MODULE = 4, FORMAT_MIDI = 5;
+
+	/** Extensions of each format code */
+	private static final String[][] FORMAT_EXTENSIONS = {
+		{}, {"wav"}, {"ogg"}, {"spx"}, {"mod", "xm", "s3m"}, {"mid", "midi"}
+	};
+
+	/**
+	 * Hash a name (64-bit FNV-1a over the UTF-16 code units, so a lookup does not encode the name)
+	 * @param name Name
+	 * @return Hash
+	 */
+	public static long hash(String name) {
+		long hash = 0xcbf29ce484222325L;
+		for(int i = 0; i < name.length(); i++) {
+			hash ^= name.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Get the format code of a filename
+	 * @param filename Filename
+	 * @return Format code (FORMAT_UNKNOWN if the extension is not an audio format)
+	 */
+	public static int getFormat(String filename) {
+		String extension = filename.substring(filename.lastIndexOf('.') + 1).toLowerCase();
+		for(int format = 0; format < FORMAT_EXTENSIONS.length; format++) {
+			for(String e : FORMAT_EXTENSIONS[format]) {
+				if(e.equals(extension)) return format;
+			}
+		}
+		return FORMAT_UNKNOWN;
+	}
+
+	/**
+	 * Get the name of a format code
+	 * @param format Format code
+	 * @return Name (the first extension of the format)
+	 */
+	public static String getFormatName(int format) {
+		if(format <= FORMAT_UNKNOWN || format >= FORMAT_EXTENSIONS.length) return "unknown";
+		return FORMAT_EXTENSIONS[format][0];
+	}
+
+	/**
+	 * Map a pack
+	 * @param channel Channel of the file which contains the pack
+	 * @param start Position of the pack in the file
+	 * @param length Length of the pack
+	 * @return Pack (the mapping stays valid after the channel is closed)
+	 * @throws IOException If the file cannot be mapped or is not a valid pack
+	 */
+	public static AssetPack map(FileChannel channel, long start, long length) throws IOException {
+		return new AssetPack(channel.map(FileChannel.MapMode.READ_ONLY, start, length));
+	}
+
+	/** Whole pack */
+	private final ByteBuffer buffer;
+	/** Page size the data is aligned to */
+	private final int pageSize;
+	/** Number of entries */
+	private final int count;
+	/** Offset of the name table */
+	private final int namesOffset;
+
+	/**
+	 * Constructor
+	 * @param buffer Whole pack (not modified; usually mapped)
+	 * @throws IOException If the buffer is not a valid pack
+	 */
+	public AssetPack(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+		int capacity = this.buffer.capacity();
+		if(capacity < HEADER_SIZE || this.buffer.getInt(0) != MAGIC) throw new IOException("Not an asset pack");
+		if(this.buffer.getInt(4) != VERSION) throw new IOException("Unsupported asset pack version " + this.buffer.getInt(4));
+		pageSize = this.buffer.getInt(8);
+		count = this.buffer.getInt(12);
+		namesOffset = this.buffer.getInt(16);
+		int namesLength = this.buffer.getInt(20);
+		if(count < 0 || (long)HEADER_SIZE + (long)count * ENTRY_SIZE > namesOffset || namesLength < 0 || (long)namesOffset + namesLength > capacity)
+			throw new IOException("Broken asset pack index");
+		for(int i = 0; i < count; i++) {
+			long end = getOffset(i) + getLength(i);
+			if(getOffset(i) < 0 || getLength(i) < 0 || end > capacity || getNameOffset(i) + getNameLength(i) > namesLength)
+				throw new IOException("Broken asset pack entry " + i);
+		}
+	}
+
+	/**
+	 * @return Number of sounds
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return Page size the data is aligned to
+	 */
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * @return Size of the pack in bytes
+	 */
+	public int getByteSize() {
+		return buffer.capacity();
+	}
+
+	/**
+	 * Find a sound
+	 * @param name Name (asset path)
+	 * @return Entry index, or -1 if the pack does not have it
+	 */
+	public int find(String name) {
+		long hash = hash(name);
+		int low = 0, high = count - 1;
+		while(low <= high) {
+			int mid = (low + high) >>> 1;
+			long h = getHash(mid);
+			if(h < hash) {
+				low = mid + 1;
+			} else if(h > hash) {
+				high = mid - 1;
+			} else {
+				// Check the names of every entry with this hash
+				int first = mid;
+				while(first > 0 && getHash(first - 1) == hash) first--;
+				for(int i = first; i < count && getHash(i) == hash; i++) {
+					if(nameEquals(i, name)) return i;
+				}
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param index Entry index
+	 * @return Name hash
+	 */
+	public long getHash(int index) {
+		return buffer.getLong(HEADER_SIZE + index * ENTRY_SIZE);
+	}
+
+	/**
+	 * @param index Entry index
+	 * @return Offset of the data from the beginning of the pack
+	 */
+	public long getOffset(int index) {
+		return buffer.getLong(HEADER_SIZE + index * ENTRY_SIZE + 8);
+	}
+
+	/**
+	 * @param index Entry index
+	 * @return Length of the data in bytes
+	 */
+	public int getLength(int index) {
+		return buffer.getInt(HEADER_SIZE + index * ENTRY_SIZE + 16);
+	}
+
+	/**
+	 * @param index Entry index
+	 * @return Format code
+	 */
+	public int getFormat(int index) {
+		return buffer.getInt(HEADER_SIZE + index * ENTRY_SIZE + 20);
+	}
+
+	/**
+	 * @param index Entry index
+	 * @return Name (asset path)
+	 */
+	public String getName(int index) {
+		byte[] bytes = new byte[getNameLength(index)];
+		ByteBuffer b = buffer.duplicate();
+		b.position(namesOffset + getNameOffset(index));
+		b.get(bytes);
+		try {
+			return new String(bytes, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Get the data of a sound
+	 * @param index Entry index
+	 * @return Read-only slice of the pack
+	 */
+	public ByteBuffer slice(int index) {
+		ByteBuffer b = buffer.asReadOnlyBuffer();
+		int offset = (int)getOffset(index);
+		b.limit(offset + getLength(index));
+		b.position(offset);
+		return b.slice();
+	}
+
+	/**
+	 * Open the data of a sound as an InputStream
+	 * @param index Entry index
+	 * @return InputStream over a slice of the pack (closing it does nothing)
+	 */
+	public InputStream openStream(int index) {
+		return new ByteBufferInputStream(slice(index));
+	}
+
+	/**
+	 * @param index Entry index
+	 * @return Offset of the name in the name table
+	 */
+	private int getNameOffset(int index) {
+		return buffer.getInt(HEADER_SIZE + index * ENTRY_SIZE + 24);
+	}
+
+	/**
+	 * @param index Entry index
+	 * @return Length of the name in bytes
+	 */
+	private int getNameLength(int index) {
+		return buffer.getInt(HEADER_SIZE + index * ENTRY_SIZE + 28);
+	}
+
+	/**
+	 * Compare the name of an entry (without decoding it if the name is ASCII)
+	 * @param index Entry index
+	 * @param name Name
+	 * @return true if equal
+	 */
+	private boolean nameEquals(int index, String name) {
+		int length = getNameLength(index);
+		int p = namesOffset + getNameOffset(index);
+		for(int i = 0; i < name.length(); i++) {
+			if(name.charAt(i) >= 0x80) return getName(index).equals(name);
+		}
+		if(length != name.length()) return false;
+		for(int i = 0; i < length; i++) {
+			if(buffer.get(p + i) != name.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * InputStream over a ByteBuffer
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+		/** Data */
+		private final ByteBuffer data;
+		/** Marked position (-1 if none) */
+		private int markPosition = -1;
+
+		/**
+		 * Constructor
+		 * @param data Data (read from its position to its limit)
+		 */
+		ByteBufferInputStream(ByteBuffer data) {
+			this.data = data;
+		}
+
+		@Override
+		public int read() {
+			return data.hasRemaining() ? (data.get() & 0xFF) : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if(len == 0) return 0;
+			if(!data.hasRemaining()) return -1;
+			int n = Math.min(len, data.remaining());
+			data.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public long skip(long n) {
+			int skipped = (int)Math.max(0, Math.min(n, data.remaining()));
+			data.position(data.position() + skipped);
+			return skipped;
+		}
+
+		@Override
+		public int available() {
+			return data.remaining();
+		}
+
+		@Override
+		public boolean markSupported() {
+			return true;
+		}
+
+		@Override
+		public synchronized void mark(int readlimit) {
+			markPosition = data.position();
+		}
+
+		@Override
+		public synchronized void reset() throws IOException {
+			if(markPosition < 0) throw new IOException("Not marked");
+			data.position(markPosition);
+		}
+	}
+}
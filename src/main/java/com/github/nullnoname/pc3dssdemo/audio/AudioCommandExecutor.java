@@ -0,0 +1,303 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+
+import paulscode.sound.SoundSystemConfig;
+import paulscode.sound.SoundSystemLogger;
+
+/**
+ * Single worker thread which runs audio commands in order.
+ * The queue is bounded. A command submitted with the same key as a command still waiting in the queue replaces it,
+ * so a burst of taps on the same button runs only the latest command.
+ * Queue depth and the latency of every command are written to the SoundSystem logger.
+ * <p>
+ * A quiet task can be set to run once the queue has stayed empty for a while after the last command (see {@link IdleManager}).
+ * Otherwise the worker thread waits without a timeout, so it does not wake up while there is nothing to do.
+ * @author NullNoname
+ */
+public class AudioCommandExecutor {
+	/** Class name used in the log */
+	private static final String CLASS_NAME = "AudioCommandExecutor";
+
+	/** Queued command */
+	private static class Entry {
+		/** Coalescing key (null if never coalesced) */
+		final String key;
+		/** Command to run */
+		Runnable command;
+		/** Time of the first submission (System.nanoTime()) */
+		final long submitTime;
+
+		Entry(String key, Runnable command, long submitTime) {
+			this.key = key;
+			this.command = command;
+			this.submitTime = submitTime;
+		}
+	}
+
+	/** Maximum number of waiting commands */
+	private final int capacity;
+
+	/** Waiting commands, in submission order */
+	private final LinkedList<Entry> queue;
+
+	/** Waiting commands by coalescing key */
+	private final HashMap<String, Entry> pending;
+
+	/** Worker thread */
+	private final Thread worker;
+
+	/** true after shutdown() */
+	private boolean shuttingDown;
+
+	/** Task run on the worker thread when the queue has been empty for quietMillis (null if none) */
+	private Runnable quietTask;
+
+	/** Quiet time before the quiet task runs, in milliseconds */
+	private long quietMillis;
+
+	/** Time the quiet task is due (System.nanoTime()), valid while quietArmed */
+	private long quietDeadline;
+
+	/** true while the quiet task is waiting to run */
+	private boolean quietArmed;
+
+	/** Statistics */
+	private int executed, coalesced, rejected, maxQueueDepth;
+
+	/** Statistics (in nanoseconds) */
+	private long totalWaitTime, maxWaitTime, totalRunTime, maxRunTime;
+
+	/**
+	 * Constructor. The worker thread starts immediately.
+	 * @param name Name of the worker thread
+	 * @param capacity Maximum number of waiting commands
+	 */
+	public AudioCommandExecutor(String name, int capacity) {
+		this.capacity = capacity;
+		this.queue = new LinkedList<Entry>();
+		this.pending = new HashMap<String, Entry>();
+		this.worker = new Thread(new Runnable() {
+			public void run() {
+				workerLoop();
+			}
+		}, name);
+		this.worker.setDaemon(true);
+		this.worker.start();
+	}
+
+	/**
+	 * Submit a command.
+	 * @param key Coalescing key (e.g. "song:0"). A waiting command with the same key is replaced. null to never coalesce.
+	 * @param command Command to run on the worker thread
+	 * @return false if the command was rejected because the queue is full or the executor is shutting down
+	 */
+	public boolean submit(String key, Runnable command) {
+		synchronized(queue) {
+			if(shuttingDown) {
+				rejected++;
+				return false;
+			}
+
+			if(key != null) {
+				Entry e = pending.get(key);
+				if(e != null) {
+					e.command = command;
+					coalesced++;
+					return true;
+				}
+			}
+
+			if(queue.size() >= capacity) {
+				rejected++;
+				getLogger().importantMessage("Audio command queue is full, '" + key + "' rejected", 0);
+				return false;
+			}
+
+			Entry e = new Entry(key, command, System.nanoTime());
+			queue.add(e);
+			if(key != null) pending.put(key, e);
+			if(queue.size() > maxQueueDepth) maxQueueDepth = queue.size();
+			queue.notify();
+			return true;
+		}
+	}
+
+	/**
+	 * Stop accepting commands. Commands already waiting still run, then the worker thread ends.
+	 */
+	public void shutdown() {
+		synchronized(queue) {
+			shuttingDown = true;
+			queue.notify();
+		}
+	}
+
+	/**
+	 * Set the task which runs on the worker thread when no command has been submitted for a while.
+	 * It runs once per quiet period; every command starts the period again, and so does {@link #armQuietTask()}.
+	 * @param quietMillis Quiet time in milliseconds (0 or less to remove the task)
+	 * @param task Task (null to remove the task)
+	 */
+	public void setQuietTask(long quietMillis, Runnable task) {
+		synchronized(queue) {
+			this.quietTask = (quietMillis > 0) ? task : null;
+			this.quietMillis = quietMillis;
+			quietArmed = false;
+			if(quietTask != null) arm();
+			queue.notify();
+		}
+	}
+
+	/**
+	 * Run the quiet task again after another quiet period, even if no command is submitted (e.g. when the task found something still playing)
+	 */
+	public void armQuietTask() {
+		synchronized(queue) {
+			if(quietTask != null) arm();
+		}
+	}
+
+	/**
+	 * Start a new quiet period (lock of the queue must be held)
+	 */
+	private void arm() {
+		quietArmed = true;
+		quietDeadline = System.nanoTime() + quietMillis * 1000000L;
+	}
+
+	/**
+	 * @return true if called from the worker thread
+	 */
+	public boolean isWorkerThread() {
+		return Thread.currentThread() == worker;
+	}
+
+	/**
+	 * @return Number of commands waiting
+	 */
+	public int getQueueDepth() {
+		synchronized(queue) {
+			return queue.size();
+		}
+	}
+
+	/**
+	 * @return Summary of the statistics
+	 */
+	public String getStats() {
+		synchronized(queue) {
+			return "Audio commands: executed " + executed + ", coalesced " + coalesced + ", rejected " + rejected +
+					", max queue depth " + maxQueueDepth +
+					", wait avg " + LatencyHistogram.toMillis((executed == 0) ? 0 : totalWaitTime / executed) + "ms max " + LatencyHistogram.toMillis(maxWaitTime) + "ms" +
+					", run avg " + LatencyHistogram.toMillis((executed == 0) ? 0 : totalRunTime / executed) + "ms max " + LatencyHistogram.toMillis(maxRunTime) + "ms";
+		}
+	}
+
+	/**
+	 * Main loop of the worker thread
+	 */
+	private void workerLoop() {
+		while(true) {
+			Entry e;
+			int depth;
+			Runnable quiet = null;
+			synchronized(queue) {
+				while(queue.isEmpty() && !shuttingDown) {
+					try {
+						if(!quietArmed) {
+							queue.wait();
+							continue;
+						}
+						long remaining = quietDeadline - System.nanoTime();
+						if(remaining <= 0) {
+							quietArmed = false;
+							quiet = quietTask;
+							break;
+						}
+						queue.wait(remaining / 1000000L + 1);
+					} catch (InterruptedException ie) {
+						// Keep waiting until shutdown()
+					}
+				}
+				if(quiet == null) {
+					if(queue.isEmpty()) return;
+
+					e = queue.removeFirst();
+					if(e.key != null) pending.remove(e.key);
+					depth = queue.size();
+				} else {
+					e = null;
+					depth = 0;
+				}
+			}
+
+			if(quiet != null) {
+				try {
+					quiet.run();
+				} catch (Exception ex) {
+					getLogger().errorMessage(CLASS_NAME, "Quiet task failed", 0);
+					getLogger().printStackTrace(ex, 0);
+				}
+				continue;
+			}
+
+			long startTime = System.nanoTime();
+			try {
+				e.command.run();
+			} catch (Exception ex) {
+				getLogger().errorMessage(CLASS_NAME, "Audio command '" + e.key + "' failed", 0);
+				getLogger().printStackTrace(ex, 0);
+			}
+			long endTime = System.nanoTime();
+
+			long waitTime = startTime - e.submitTime;
+			long runTime = endTime - startTime;
+			synchronized(queue) {
+				executed++;
+				totalWaitTime += waitTime;
+				totalRunTime += runTime;
+				if(waitTime > maxWaitTime) maxWaitTime = waitTime;
+				if(runTime > maxRunTime) maxRunTime = runTime;
+				// The quiet period starts after the last command has run
+				if(quietTask != null) arm();
+			}
+			getLogger().message("Audio command '" + e.key + "': waited " + LatencyHistogram.toMillis(waitTime) + "ms, ran " + LatencyHistogram.toMillis(runTime) +
+					"ms, queue depth " + depth, 0);
+		}
+	}
+
+	/**
+	 * @return The SoundSystem logger
+	 */
+	private static SoundSystemLogger getLogger() {
+		return SoundSystemConfig.getLogger();
+	}
+}
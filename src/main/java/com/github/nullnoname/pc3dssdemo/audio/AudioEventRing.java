@@ -0,0 +1,246 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Preallocated ring of the last audio events (plays, stops, buffer settings, underruns and log messages), dumped into a crash report.
+ * Recording an event stores a few primitives and a reference to a String the caller already has, so it does not allocate
+ * and never blocks. Writers on different threads each take a slot with one atomic increment; a dump taken while events are being
+ * recorded can show a slot half written, which is fine for a crash report.
+ * @author NullNoname
+ */
+public class AudioEventRing {
+	/** Event types */
+	public static final int TYPE_PLAY = 0, TYPE_STOP = 1, TYPE_BUFFER = 2, TYPE_UNDERRUN = 3, TYPE_MESSAGE = 4, TYPE_ERROR = 5;
+
+	/** Names of the event types */
+	private static final String[] TYPE_NAMES = {"play", "stop", "buffer", "underrun", "message", "error"};
+
+	/** Names of the values of each event type (null if the value is not used) */
+	private static final String[][] VALUE_NAMES = {
+		{"start", null},
+		{"resume", null},
+		{"size", "multiplier"},
+		{"underruns", "headroom"},
+		{null, null},
+		{null, null}
+	};
+
+	/** Characters of the event text written in a dump */
+	private static final int MAX_TEXT_CHARS = 200;
+
+	/** Ring used by log() (null to disable) */
+	private static volatile AudioEventRing defaultRing;
+
+	/**
+	 * @return Ring used by log() (null if disabled)
+	 */
+	public static AudioEventRing getDefaultRing() {
+		return defaultRing;
+	}
+
+	/**
+	 * Set the ring used by log()
+	 * @param defaultRing Ring (null to disable)
+	 */
+	public static void setDefaultRing(AudioEventRing defaultRing) {
+		AudioEventRing.defaultRing = defaultRing;
+	}
+
+	/**
+	 * Record an event into the default ring, if there is one
+	 * @param type Event type (TYPE_*)
+	 * @param text Text (e.g. the filename or the message; may be null)
+	 * @param value1 First value (meaning depends on the type)
+	 * @param value2 Second value (meaning depends on the type)
+	 */
+	public static void log(int type, String text, long value1, long value2) {
+		AudioEventRing ring = defaultRing;
+		if(ring != null) ring.record(type, text, value1, value2);
+	}
+
+	/** Time of each event (System.currentTimeMillis()) */
+	private final long[] times;
+	/** Type of each event */
+	private final int[] types;
+	/** Text of each event */
+	private final String[] texts;
+	/** Values of each event */
+	private final long[] values1, values2;
+	/** Mask to convert a sequence number to a slot index */
+	private final int mask;
+	/** Sequence number of the next event */
+	private final AtomicLong nextSeq = new AtomicLong();
+
+	/**
+	 * Constructor
+	 * @param capacity Number of events to keep (rounded up to a power of two)
+	 */
+	public AudioEventRing(int capacity) {
+		int size = 1;
+		while(size < capacity) size <<= 1;
+		times = new long[size];
+		types = new int[size];
+		texts = new String[size];
+		values1 = new long[size];
+		values2 = new long[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * @return Number of events kept
+	 */
+	public int getCapacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * @return Number of events recorded so far (including the overwritten ones)
+	 */
+	public long getCount() {
+		return nextSeq.get();
+	}
+
+	/**
+	 * Record an event
+	 * @param type Event type (TYPE_*)
+	 * @param text Text (e.g. the filename or the message; may be null)
+	 * @param value1 First value (meaning depends on the type)
+	 * @param value2 Second value (meaning depends on the type)
+	 */
+	public void record(int type, String text, long value1, long value2) {
+		int i = (int)(nextSeq.getAndIncrement() & mask);
+		times[i] = System.currentTimeMillis();
+		types[i] = type;
+		texts[i] = text;
+		values1[i] = value1;
+		values2[i] = value2;
+	}
+
+	/**
+	 * Write the kept events as text lines, oldest first, with their time relative to a given time.
+	 * Stops at the last complete line which fits in the buffer.
+	 * @param out Buffer (filled from its position)
+	 * @param now Time the event times are relative to (System.currentTimeMillis())
+	 * @return Number of events written
+	 */
+	public int dump(ByteBuffer out, long now) {
+		long end = nextSeq.get();
+		long seq = Math.max(0, end - getCapacity());
+		int count = 0;
+		for(; seq < end; seq++) {
+			int i = (int)(seq & mask);
+			int start = out.position();
+			try {
+				putDecimal(out, times[i] - now);
+				putAscii(out, "ms ");
+				int type = types[i];
+				putAscii(out, (type >= 0 && type < TYPE_NAMES.length) ? TYPE_NAMES[type] : "?");
+				if(texts[i] != null) {
+					out.put((byte)' ');
+					putLine(out, texts[i], MAX_TEXT_CHARS);
+				}
+				if(type >= 0 && type < VALUE_NAMES.length) {
+					putValue(out, VALUE_NAMES[type][0], values1[i]);
+					putValue(out, VALUE_NAMES[type][1], values2[i]);
+				}
+				out.put((byte)'\n');
+			} catch (RuntimeException e) {
+				// BufferOverflowException: drop the partial line
+				out.position(start);
+				break;
+			}
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Write a named value
+	 * @param out Buffer
+	 * @param name Name of the value (nothing is written if null)
+	 * @param value Value
+	 */
+	private static void putValue(ByteBuffer out, String name, long value) {
+		if(name == null) return;
+		out.put((byte)' ');
+		putAscii(out, name);
+		out.put((byte)'=');
+		putDecimal(out, value);
+	}
+
+	/**
+	 * Write text as ASCII without allocating (other characters become '?')
+	 * @param out Buffer
+	 * @param text Text
+	 */
+	public static void putAscii(ByteBuffer out, CharSequence text) {
+		int length = text.length();
+		for(int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			out.put((c >= 0x20 && c < 0x7F) || c == '\n' || c == '\t' ? (byte)c : (byte)'?');
+		}
+	}
+
+	/**
+	 * Write text as ASCII on one line (line breaks become spaces)
+	 * @param out Buffer
+	 * @param text Text
+	 * @param maxChars Maximum number of characters written
+	 */
+	private static void putLine(ByteBuffer out, CharSequence text, int maxChars) {
+		int length = Math.min(text.length(), maxChars);
+		for(int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			out.put((c >= 0x20 && c < 0x7F) ? (byte)c : (byte)(c == '\n' || c == '\r' || c == '\t' ? ' ' : '?'));
+		}
+	}
+
+	/**
+	 * Write a number in decimal without allocating
+	 * @param out Buffer
+	 * @param value Number
+	 */
+	public static void putDecimal(ByteBuffer out, long value) {
+		if(value < 0) {
+			out.put((byte)'-');
+			if(value == Long.MIN_VALUE) {
+				putAscii(out, "9223372036854775808");
+				return;
+			}
+			value = -value;
+		}
+		long divisor = 1;
+		while(divisor <= value / 10) divisor *= 10;
+		for(; divisor > 0; divisor /= 10) {
+			out.put((byte)('0' + (value / divisor) % 10));
+		}
+	}
+}
@@ -0,0 +1,243 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import paulscode.sound.FilenameURL;
+import paulscode.sound.ICodec;
+import paulscode.sound.SoundBuffer;
+import paulscode.sound.SoundSystemConfig;
+
+/**
+ * Warms up the audio code at startup on a small pool of worker threads, so the first play is not slower than the others.
+ * For each registered file the codec is loaded, initialized (headers are read) and a few buffers are decoded,
+ * which loads the classes, pulls the file into the OS cache and lets the JIT see the decode loop.
+ * Other startup work (e.g. building the SoundSystem, preloading sound effects) can be added as tasks.
+ * Progress and timings are written to the SoundSystem logger.
+ * @author NullNoname
+ */
+public class AudioWarmUp {
+	/** Class name for the log */
+	private static final String CLASS_NAME = "AudioWarmUp";
+
+	/** Default number of buffers decoded per file */
+	public static final int DEFAULT_BUFFERS_PER_CODEC = 4;
+
+	/** Thread number for the names of the worker threads */
+	private static final AtomicInteger threadNumber = new AtomicInteger();
+
+	/**
+	 * Get the default number of worker threads: one core is left for the UI and the audio threads, and at most 2 are used
+	 * @return Default number of worker threads
+	 */
+	public static int getDefaultThreadCount() {
+		return Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+	}
+
+	/** Number of worker threads */
+	private final int threads;
+
+	/** true to decode in reversed byte order (same as the output library) */
+	private final boolean reverseByteOrder;
+
+	/** Number of buffers decoded per file */
+	private int buffersPerCodec = DEFAULT_BUFFERS_PER_CODEC;
+
+	/** Task names and tasks, in the order they were added */
+	private final List<String> names = new ArrayList<String>();
+	private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+	/** Becomes 0 when all tasks are finished (null before start()) */
+	private volatile CountDownLatch finished;
+
+	/** Number of finished tasks */
+	private final AtomicInteger finishedCount = new AtomicInteger();
+
+	/** System.nanoTime() of start() */
+	private long startTime;
+
+	/**
+	 * Constructor
+	 * @param threads Number of worker threads
+	 * @param reverseByteOrder true to decode in reversed byte order (same as the output library)
+	 */
+	public AudioWarmUp(int threads, boolean reverseByteOrder) {
+		this.threads = Math.max(1, threads);
+		this.reverseByteOrder = reverseByteOrder;
+	}
+
+	/**
+	 * Set the number of buffers decoded per file. More buffers give the JIT more to work with, but take longer.
+	 * @param buffersPerCodec Number of buffers (0 to only read the headers)
+	 */
+	public void setBuffersPerCodec(int buffersPerCodec) {
+		this.buffersPerCodec = Math.max(0, buffersPerCodec);
+	}
+
+	/**
+	 * Add a file whose codec is warmed up. Files without a codec (e.g. MIDI) are skipped.
+	 * @param filename Filename (also used to find the codec)
+	 * @param url URL of the file
+	 */
+	public void addCodec(final String filename, final URL url) {
+		addTask(filename, new Runnable() {
+			public void run() {
+				warmUpCodec(new FilenameURL(url, filename));
+			}
+		});
+	}
+
+	/**
+	 * Add another task
+	 * @param name Task name for the log
+	 * @param task Task
+	 */
+	public synchronized void addTask(String name, Runnable task) {
+		if(finished != null) throw new IllegalStateException("Warm-up has already started");
+		names.add(name);
+		tasks.add(task);
+	}
+
+	/**
+	 * Start the tasks in the background. The worker threads end when all tasks are finished.
+	 */
+	public synchronized void start() {
+		if(finished != null) throw new IllegalStateException("Warm-up has already started");
+		finished = new CountDownLatch(tasks.size());
+		startTime = System.nanoTime();
+
+		int poolSize = Math.min(threads, Math.max(1, tasks.size()));
+		SoundSystemConfig.getLogger().message("Warm-up: " + tasks.size() + " tasks on " + poolSize + " threads", 0);
+
+		ExecutorService executor = Executors.newFixedThreadPool(poolSize, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "AudioWarmUp-" + threadNumber.incrementAndGet());
+				t.setDaemon(true);
+				t.setPriority(Thread.NORM_PRIORITY - 1);
+				return t;
+			}
+		});
+		for(int i = 0; i < tasks.size(); i++) {
+			final String name = names.get(i);
+			final Runnable task = tasks.get(i);
+			executor.execute(new Runnable() {
+				public void run() {
+					runTask(name, task);
+				}
+			});
+		}
+		executor.shutdown();
+	}
+
+	/**
+	 * Wait until all tasks are finished
+	 * @param timeoutMillis Maximum wait time in milliseconds
+	 * @return true if all tasks are finished
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	public boolean await(long timeoutMillis) throws InterruptedException {
+		CountDownLatch latch = finished;
+		if(latch == null) throw new IllegalStateException("Warm-up has not started");
+		return latch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return true if all tasks are finished
+	 */
+	public boolean isFinished() {
+		CountDownLatch latch = finished;
+		return (latch != null) && (latch.getCount() == 0);
+	}
+
+	/**
+	 * Run one task and log its time
+	 * @param name Task name
+	 * @param task Task
+	 */
+	private void runTask(String name, Runnable task) {
+		long begin = System.nanoTime();
+		try {
+			task.run();
+		} catch (RuntimeException e) {
+			SoundSystemConfig.getLogger().errorMessage(CLASS_NAME, "Warm-up task '" + name + "' failed: " + e, 0);
+		}
+		long end = System.nanoTime();
+
+		int count = finishedCount.incrementAndGet();
+		SoundSystemConfig.getLogger().message("Warm-up: '" + name + "' done in " + LatencyHistogram.toMillis(end - begin) + "ms (" +
+				count + "/" + tasks.size() + ")", 0);
+		if(count == tasks.size()) {
+			SoundSystemConfig.getLogger().message("Warm-up finished in " + LatencyHistogram.toMillis(end - startTime) + "ms", 0);
+		}
+		finished.countDown();
+	}
+
+	/**
+	 * Load, initialize and partially decode one file
+	 * @param filenameURL File
+	 */
+	private void warmUpCodec(FilenameURL filenameURL) {
+		// Warm the real decoder, without writing a partial file to the PCM cache
+		ICodec codec = CodecRegistry.createDecoder(filenameURL.getFilename());
+		if(codec == null) return;
+
+		codec.reverseByteOrder(reverseByteOrder);
+		long begin = System.nanoTime();
+		if(!codec.initialize(filenameURL)) {
+			codec.cleanup();
+			SoundSystemConfig.getLogger().importantMessage("Warm-up: " + codec.getClass().getSimpleName() + " failed to initialize '" +
+					filenameURL.getFilename() + "'", 0);
+			return;
+		}
+		long initialized = System.nanoTime();
+
+		int buffers = 0;
+		try {
+			while(buffers < buffersPerCodec && !codec.endOfStream()) {
+				SoundBuffer buffer = codec.read();
+				if(buffer == null) break;
+				PcmBufferPool.recycle(buffer.audioData);
+				buffer.cleanup();
+				buffers++;
+			}
+		} finally {
+			codec.cleanup();
+		}
+
+		SoundSystemConfig.getLogger().message("Warm-up: " + codec.getClass().getSimpleName() + " '" + filenameURL.getFilename() +
+				"' header " + LatencyHistogram.toMillis(initialized - begin) + "ms, " + buffers + " buffers " + LatencyHistogram.toMillis(System.nanoTime() - initialized) + "ms", 0);
+	}
+}
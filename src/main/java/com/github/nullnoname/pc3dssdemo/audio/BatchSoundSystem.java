@@ -0,0 +1,212 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import paulscode.sound.CommandObject;
+import paulscode.sound.Source;
+import paulscode.sound.SoundSystem;
+import paulscode.sound.SoundSystemConfig;
+import paulscode.sound.SoundSystemException;
+
+/**
+ * SoundSystem which also accepts commands in batches.
+ * A {@link CommandBatch} is queued with one lock acquisition and wakes the command thread once,
+ * and its CommandObjects are reused after the command thread has run them.
+ * The usual SoundSystem methods still work and can be mixed with batches.
+ * Batches must be built and submitted on one thread (the demo's audio worker thread).
+ * @author NullNoname
+ */
+public class BatchSoundSystem extends SoundSystem {
+	/** Maximum number of spare CommandObjects kept for each command */
+	private static final int POOL_LIMIT = 64;
+
+	/** Spare CommandObjects by command (submitting thread only) */
+	private final ArrayList<ArrayList<CommandObject>> free;
+
+	/**
+	 * Pooled commands queued but not yet run (guarded by SoundSystemConfig.THREAD_SYNC).
+	 * null while the super constructor already runs the command thread.
+	 */
+	private ArrayList<CommandObject> inFlight;
+
+	/** Pooled commands which have run and can be reused (guarded by SoundSystemConfig.THREAD_SYNC) */
+	private ArrayList<CommandObject> processed;
+
+	/** Statistics (submitting thread only) */
+	private int batches, commands, reused;
+
+	/**
+	 * Constructor
+	 * @param libraryClass Library to use
+	 * @throws SoundSystemException If the library fails to initialize
+	 */
+	public BatchSoundSystem(Class<?> libraryClass) throws SoundSystemException {
+		super(libraryClass);
+		free = new ArrayList<ArrayList<CommandObject>>(CommandObject.NEW_LIBRARY + 1);
+		for(int i = 0; i <= CommandObject.NEW_LIBRARY; i++) {
+			free.add(new ArrayList<CommandObject>());
+		}
+		synchronized(SoundSystemConfig.THREAD_SYNC) {
+			inFlight = new ArrayList<CommandObject>();
+			processed = new ArrayList<CommandObject>();
+		}
+	}
+
+	/**
+	 * Create a new empty batch. A batch can be submitted and filled again any number of times.
+	 * @return New batch
+	 */
+	public CommandBatch newBatch() {
+		return new CommandBatch(this);
+	}
+
+	/**
+	 * Queue all commands in a batch and wake the command thread once. The batch is empty afterwards.
+	 * @param batch Batch to submit
+	 */
+	void submit(CommandBatch batch) {
+		List<CommandObject> list = batch.getCommands();
+		int size = list.size();
+		if(size == 0) return;
+
+		boolean queued = false;
+		synchronized(SoundSystemConfig.THREAD_SYNC) {
+			// Take back the commands which have run since the last batch
+			for(int i = 0; i < processed.size(); i++) {
+				recycle(processed.get(i));
+			}
+			processed.clear();
+
+			if(commandQueue != null) {
+				for(int i = 0; i < size; i++) {
+					CommandObject c = list.get(i);
+					commandQueue.add(c);
+					inFlight.add(c);
+				}
+				queued = true;
+			}
+		}
+
+		if(queued) {
+			batches++;
+			commands += size;
+			if(commandThread != null) commandThread.interrupt();
+		} else {
+			// Already cleaned up
+			for(int i = 0; i < size; i++) {
+				recycle(list.get(i));
+			}
+		}
+		list.clear();
+	}
+
+	/**
+	 * Get a spare CommandObject (submitting thread only)
+	 * @param command Command (e.g. CommandObject.PLAY)
+	 * @return Spare CommandObject with the same command and argument arrays, or null if there is none
+	 */
+	CommandObject obtain(int command) {
+		ArrayList<CommandObject> list = free.get(command);
+		int size = list.size();
+		if(size == 0) return null;
+		reused++;
+		return list.remove(size - 1);
+	}
+
+	/**
+	 * Return a CommandObject to the pool, dropping its references
+	 * @param c CommandObject
+	 */
+	private void recycle(CommandObject c) {
+		if(c.stringArgs != null) c.stringArgs[0] = null;
+		if(c.objectArgs != null) c.objectArgs[0] = null;
+		ArrayList<CommandObject> list = free.get(c.Command);
+		if(list.size() < POOL_LIMIT) list.add(c);
+	}
+
+	/**
+	 * Run all queued commands. Called by the command thread with null.
+	 * The pooled commands which have run are handed back to the submitting thread.
+	 */
+	@Override
+	public boolean CommandQueue(CommandObject newCommand) {
+		if(newCommand != null) return super.CommandQueue(newCommand);
+
+		synchronized(SoundSystemConfig.THREAD_SYNC) {
+			boolean activations = super.CommandQueue(null);
+			if(inFlight == null) return activations;
+			// Everything queued before this call has run now
+			for(int i = 0; i < inFlight.size(); i++) {
+				processed.add(inFlight.get(i));
+			}
+			inFlight.clear();
+			return activations;
+		}
+	}
+
+	/**
+	 * Check if the output is in use: a command is waiting, or a source is playing or paused
+	 * @return true if the output is in use
+	 */
+	public boolean isBusy() {
+		synchronized(SoundSystemConfig.THREAD_SYNC) {
+			if(commandQueue != null && !commandQueue.isEmpty()) return true;
+			if(soundLibrary == null) return false;
+			if(soundLibrary instanceof IdleReleasable) return ((IdleReleasable)soundLibrary).isOutputBusy();
+			HashMap<String, Source> sources = soundLibrary.getSources();
+			if(sources == null) return false;
+			for(Source source : sources.values()) {
+				if(source != null && (source.playing() || source.paused())) return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Release the output resources of the idle channels, if the library supports it (see {@link IdleReleasable})
+	 * @return Number of resources released
+	 */
+	public int releaseIdleResources() {
+		synchronized(SoundSystemConfig.THREAD_SYNC) {
+			if(!(soundLibrary instanceof IdleReleasable)) return 0;
+			return ((IdleReleasable)soundLibrary).releaseIdleResources();
+		}
+	}
+
+	/**
+	 * @return Summary of the statistics (submitting thread only)
+	 */
+	public String getStats() {
+		return "Command batches: " + batches + " batches, " + commands + " commands" +
+				((batches == 0) ? "" : " (avg " + (commands * 10 / batches) / 10f + " per batch)") +
+				", " + reused + " command objects reused";
+	}
+}
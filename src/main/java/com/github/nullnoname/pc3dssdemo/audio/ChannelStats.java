@@ -0,0 +1,115 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import paulscode.sound.Channel;
+import paulscode.sound.Source;
+
+/**
+ * Counts the play requests which found every channel of their type busy. Such a request either cuts off a sound
+ * which is still playing (a stolen channel), or is not played at all when every channel has a priority source.
+ * The Library subclasses call {@link #hasFreeChannel(Source, List)} before Library.play(Source) and
+ * {@link #played(Source, boolean)} after it.
+ * @author NullNoname
+ */
+public class ChannelStats {
+	/** Play requests */
+	private static final AtomicLong plays = new AtomicLong();
+
+	/** Play requests which stopped another playing sound */
+	private static final AtomicLong stolen = new AtomicLong();
+
+	/** Play requests without a channel */
+	private static final AtomicLong exhausted = new AtomicLong();
+
+	/**
+	 * Check if a source can get a channel without stopping another sound (call this on the command thread)
+	 * @param source Source about to play
+	 * @param channels Channels of the type of the source
+	 * @return true if the source is already on a channel or a channel is free
+	 */
+	public static boolean hasFreeChannel(Source source, List<Channel> channels) {
+		if(source == null || channels == null) return true;
+		for(int i = 0; i < channels.size(); i++) {
+			Source attached = channels.get(i).attachedSource;
+			if(attached == null || attached == source || !attached.playing()) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Record the result of Library.play(Source)
+	 * @param source Source which was asked to play (null is ignored)
+	 * @param hadFreeChannel Result of hasFreeChannel() before the play
+	 */
+	public static void played(Source source, boolean hadFreeChannel) {
+		if(source == null || source.rawDataStream || !source.active()) return;
+		plays.incrementAndGet();
+		if(source.channel == null || source.channel.attachedSource != source) exhausted.incrementAndGet();
+		else if(!hadFreeChannel) stolen.incrementAndGet();
+	}
+
+	/**
+	 * @return Number of play requests
+	 */
+	public static long getPlays() {
+		return plays.get();
+	}
+
+	/**
+	 * @return Number of play requests which stopped another playing sound
+	 */
+	public static long getStolen() {
+		return stolen.get();
+	}
+
+	/**
+	 * @return Number of play requests which did not get a channel
+	 */
+	public static long getExhausted() {
+		return exhausted.get();
+	}
+
+	/**
+	 * Clear the counters
+	 */
+	public static void reset() {
+		plays.set(0);
+		stolen.set(0);
+		exhausted.set(0);
+	}
+
+	/**
+	 * @return Summary of the counters
+	 */
+	public static String getStats() {
+		return "Channels: " + plays.get() + " plays, " + stolen.get() + " stole a playing channel, " + exhausted.get() + " found no channel";
+	}
+}
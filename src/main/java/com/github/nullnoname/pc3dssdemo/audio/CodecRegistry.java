@@ -0,0 +1,163 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import paulscode.sound.ICodec;
+import paulscode.sound.SoundSystemConfig;
+import paulscode.sound.SoundSystemException;
+
+/**
+ * Codec registrations shared by the demo and the headless tools.
+ * This class must not depend on Android, so it can be used on a plain JVM.
+ * @author NullNoname
+ */
+public class CodecRegistry {
+	/** true if the streams are decoded on the ParallelDecodeCodec workers */
+	private static volatile boolean parallelDecode;
+
+	/** true if MIDI files are rendered by MidiSynthCodec */
+	private static volatile boolean midiSynth;
+
+	/**
+	 * Register the codecs to SoundSystemConfig
+	 * @throws SoundSystemException If a codec cannot be registered
+	 */
+	public static void register() throws SoundSystemException {
+		// Uncompressed WAV is read straight from the file descriptor (see CodecWavChannel)
+		setCodec("wav", CodecWavChannel.class, true);
+		// Ogg and Speex are slow to decode, so they go through the PCM disk cache (see PcmCachingCodec)
+		setCodec("ogg", CachedCodecJOrbis.class, true);
+		setCodec("spx", CachedCodecJSpeex.class, true);
+		// Modules are rendered into pooled stream buffers (see PcmBufferPool), at the native output rate if it is set
+		setCodec("mod", PooledCodecIBXM.class, false);
+		setCodec("xm", PooledCodecIBXM.class, false);
+		setCodec("s3m", PooledCodecIBXM.class, false);
+		// MIDI files are rendered in software if enabled, otherwise they go to the MIDI channel factory (MediaPlayer)
+		if(midiSynth) {
+			setCodec("mid", MidiSynthCodec.class, false);
+			setCodec("midi", MidiSynthCodec.class, false);
+		}
+		// Registered playlists are played as one gapless stream (see Playlist)
+		SoundSystemConfig.setCodec(Playlist.EXTENSION, PlaylistCodec.class);
+	}
+
+	/**
+	 * @return true if the streams are decoded on the ParallelDecodeCodec workers
+	 */
+	public static boolean isParallelDecode() {
+		return parallelDecode;
+	}
+
+	/**
+	 * Decode the streams on the ParallelDecodeCodec workers, or on the stream thread. Applies to the streams started from now on.
+	 * @param parallelDecode true to decode on the workers
+	 * @throws SoundSystemException If a codec cannot be registered
+	 */
+	public static void setParallelDecode(boolean parallelDecode) throws SoundSystemException {
+		CodecRegistry.parallelDecode = parallelDecode;
+		register();
+	}
+
+	/**
+	 * @return true if MIDI files are rendered by MidiSynthCodec
+	 */
+	public static boolean isMidiSynth() {
+		return midiSynth;
+	}
+
+	/**
+	 * Render MIDI files with MidiSynthCodec, as streams. SoundSystemConfig has no way to unregister a MIDI codec,
+	 * so MIDI files keep going to the codec until the process restarts.
+	 * @throws SoundSystemException If a codec cannot be registered
+	 */
+	public static void registerMidiSynth() throws SoundSystemException {
+		midiSynth = true;
+		register();
+	}
+
+	/**
+	 * Set the native output (see OutputNegotiator). Once it is set, the decoded formats are converted to it by ResamplingCodec.
+	 * Applies to the streams started from now on.
+	 * @param sampleRate Native output sample rate (0 to keep the formats of the files)
+	 * @param bufferFrames Native output buffer size in frames (0 if unknown)
+	 * @throws SoundSystemException If a codec cannot be registered
+	 */
+	public static void setNativeOutput(int sampleRate, int bufferFrames) throws SoundSystemException {
+		OutputNegotiator.setNativeOutput(sampleRate, bufferFrames);
+		register();
+	}
+
+	/**
+	 * Create the codec which actually decodes a file, without the PCM cache, resampling and parallel decode wrappers.
+	 * Used to warm up or measure the decoder itself.
+	 * @param filename Filename
+	 * @return New codec, or null if no codec is registered for the file
+	 */
+	public static ICodec createDecoder(String filename) {
+		ICodec codec = SoundSystemConfig.getCodec(filename);
+		if(codec instanceof ParallelDecodeCodec) {
+			codec = ParallelDecodeCodec.createDecoder(filename);
+		}
+		if(codec instanceof ResamplingCodec) {
+			codec = ResamplingCodec.createDecoder(filename);
+		}
+		if(codec instanceof PcmCachingCodec) {
+			codec = ((PcmCachingCodec)codec).getWrappedCodec();
+		}
+		return codec;
+	}
+
+	/**
+	 * Check if the streams of a file can start at a position (see StreamResume)
+	 * @param filename Filename
+	 * @return true if the codec of the file is a SeekableCodec
+	 */
+	public static boolean isSeekable(String filename) {
+		ICodec codec = SoundSystemConfig.getCodec(filename);
+		if(codec instanceof ParallelDecodeCodec) {
+			codec = ParallelDecodeCodec.createDecoder(filename);
+		}
+		if(codec instanceof ResamplingCodec) {
+			codec = ResamplingCodec.createDecoder(filename);
+		}
+		return codec instanceof SeekableCodec;
+	}
+
+	/**
+	 * Register a codec, wrapped in ResamplingCodec once the native output is set, and in ParallelDecodeCodec in the parallel decode mode
+	 * @param extension Extension
+	 * @param codecClass Codec class
+	 * @param resample true if the codec decodes in the format of the file, false if it renders at the native rate itself
+	 * @throws SoundSystemException If the codec cannot be registered
+	 */
+	private static void setCodec(String extension, Class<? extends ICodec> codecClass, boolean resample) throws SoundSystemException {
+		ResamplingCodec.setDecoder(extension, codecClass);
+		Class<? extends ICodec> decoderClass = (resample && OutputNegotiator.isNegotiated()) ? ResamplingCodec.class : codecClass;
+		ParallelDecodeCodec.setDecoder(extension, decoderClass);
+		SoundSystemConfig.setCodec(extension, parallelDecode ? ParallelDecodeCodec.class : decoderClass);
+	}
+}
@@ -0,0 +1,301 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import paulscode.sound.FileDescriptorWrapper;
+import paulscode.sound.FilenameURL;
+import paulscode.sound.ICodec;
+import paulscode.sound.PAudioFormat;
+import paulscode.sound.SoundBuffer;
+import paulscode.sound.SoundSystemConfig;
+import paulscode.sound.codecs.CodecWavN;
+
+/**
+ * Codec for uncompressed WAV files which reads the PCM data with positional FileChannel reads.
+ * The file is opened with FilenameURL.openFileDescriptorWrapper() and read from getContentStartOffset(),
+ * so uncompressed APK assets are read straight from the APK without an InputStream.
+ * Each read goes directly into the exact-size array handed to the AudioTrack (taken from {@link PcmBufferPool}), so there is no intermediate buffer.
+ * Files without a FileDescriptor (e.g. compressed assets) are played with CodecWavN instead.
+ * @author NullNoname
+ */
+public class CodecWavChannel implements ICodec {
+	/** Class name used in the log */
+	private static final String CLASS_NAME = "CodecWavChannel";
+
+	/** "RIFF", "WAVE", "fmt " and "data" in little endian */
+	private static final int RIFF = 0x46464952, WAVE = 0x45564157, FMT = 0x20746D66, DATA = 0x61746164;
+
+	/** Codec used when the file cannot be read through a FileChannel (null if not used) */
+	private ICodec fallback;
+
+	/** File descriptor of the file (null if not open) */
+	private FileDescriptorWrapper wrapper;
+
+	/** Channel of the file */
+	private FileChannel channel;
+
+	/** Audio format */
+	private PAudioFormat audioFormat;
+
+	/** Position of the next PCM byte to read in the channel */
+	private long position;
+
+	/** Position of the end of the PCM data in the channel */
+	private long dataEnd;
+
+	/** Bytes per frame */
+	private int frameSize;
+
+	/** true if initialized */
+	private boolean initialized;
+
+	/** true when the end of the PCM data has been reached */
+	private boolean endOfStream;
+
+	public void reverseByteOrder(boolean b) {
+		// WAV data is little endian, which is what AudioTrack wants (same as CodecWavN)
+	}
+
+	public boolean initialize(FilenameURL filenameURL) {
+		initialized = false;
+		cleanup();
+
+		if(filenameURL == null) {
+			errorMessage("filenameURL null in method 'initialize'");
+			return false;
+		}
+
+		try {
+			wrapper = filenameURL.openFileDescriptorWrapper();
+		} catch (Exception e) {
+			// Compressed asset or not a local file
+			wrapper = null;
+		}
+
+		if(wrapper == null) {
+			fallback = new CodecWavN();
+			initialized = fallback.initialize(filenameURL);
+			return initialized;
+		}
+
+		try {
+			Closeable closeable = wrapper.getCloseable();
+			if(closeable instanceof FileInputStream)
+				channel = ((FileInputStream)closeable).getChannel();
+			else
+				channel = new FileInputStream(wrapper.getFileDescriptor()).getChannel();
+
+			long start = filenameURL.getContentStartOffset();
+			int length = filenameURL.getContentLength();
+			long end = (length >= 0) ? (start + length) : channel.size();
+			readHeader(start, end);
+		} catch (IOException e) {
+			errorMessage("Error reading the header of " + filenameURL.getFilename());
+			printStackTrace(e);
+			cleanup();
+			return false;
+		}
+
+		endOfStream = (position >= dataEnd);
+		initialized = true;
+		return true;
+	}
+
+	public boolean initialized() {
+		return initialized;
+	}
+
+	public SoundBuffer read() {
+		if(fallback != null) return fallback.read();
+		if(channel == null || endOfStream) return null;
+
+		int size = (int)Math.min(SoundSystemConfig.getStreamingBufferSize(), dataEnd - position);
+		size -= size % frameSize;
+		if(size <= 0) {
+			endOfStream = true;
+			return null;
+		}
+
+		byte[] data = readData(PcmBufferPool.allocate(size));
+		if(data == null) {
+			endOfStream = true;
+			return null;
+		}
+		if(position >= dataEnd) endOfStream = true;
+		return new SoundBuffer(data, audioFormat);
+	}
+
+	public SoundBuffer readAll() {
+		if(fallback != null) return fallback.readAll();
+		if(channel == null) {
+			errorMessage("FileChannel null in method 'readAll'");
+			return null;
+		}
+
+		int size = (int)Math.min(SoundSystemConfig.getMaxFileSize(), dataEnd - position);
+		size -= size % frameSize;
+
+		byte[] data = readData(new byte[size]);
+		endOfStream = true;
+		cleanup();
+		return (data == null) ? null : new SoundBuffer(data, audioFormat);
+	}
+
+	public boolean endOfStream() {
+		if(fallback != null) return fallback.endOfStream();
+		return endOfStream;
+	}
+
+	public void cleanup() {
+		if(fallback != null) {
+			fallback.cleanup();
+			fallback = null;
+		}
+		if(wrapper != null) {
+			wrapper.closeQuietly();
+			wrapper = null;
+		}
+		channel = null;
+	}
+
+	public PAudioFormat getAudioFormat() {
+		if(fallback != null) return fallback.getAudioFormat();
+		return audioFormat;
+	}
+
+	/**
+	 * Read PCM data from the current position
+	 * @param data Array to fill (given back to the PcmBufferPool if it cannot be returned)
+	 * @return Array of exactly the read size, or null if nothing could be read
+	 */
+	private byte[] readData(byte[] data) {
+		ByteBuffer dst = ByteBuffer.wrap(data);
+		try {
+			while(dst.hasRemaining()) {
+				int cnt = channel.read(dst, position);
+				if(cnt < 0) break;
+				position += cnt;
+			}
+		} catch (IOException e) {
+			errorMessage("Error reading the PCM data");
+			printStackTrace(e);
+			PcmBufferPool.recycle(data);
+			return null;
+		}
+
+		if(dst.position() == 0) {
+			PcmBufferPool.recycle(data);
+			return null;
+		}
+		if(dst.hasRemaining()) {
+			// The file was shorter than its header said
+			dataEnd = position;
+			byte[] trimmed = new byte[dst.position() - dst.position() % frameSize];
+			System.arraycopy(data, 0, trimmed, 0, trimmed.length);
+			PcmBufferPool.recycle(data);
+			return trimmed;
+		}
+		return data;
+	}
+
+	/**
+	 * Read the RIFF header and find the PCM data
+	 * @param start Position of the file in the channel
+	 * @param end Position of the end of the file in the channel
+	 * @throws IOException If the file is not a supported WAV file
+	 */
+	private void readHeader(long start, long end) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+
+		readFully(buf, start, 12);
+		if(buf.getInt(0) != RIFF) throw new IOException("Not a RIFF (0x" + Integer.toHexString(buf.getInt(0)).toUpperCase() + ")");
+		if(buf.getInt(8) != WAVE) throw new IOException("Not a WAVE (0x" + Integer.toHexString(buf.getInt(8)).toUpperCase() + ")");
+
+		long pos = start + 12;
+		while(true) {
+			readFully(buf, pos, 8);
+			int chunkID = buf.getInt(0);
+			long chunkSize = buf.getInt(4) & 0xFFFFFFFFL;
+			pos += 8;
+
+			if(chunkID == FMT) {
+				readFully(buf, pos, 16);
+				short compressionFormat = buf.getShort(0);
+				if(compressionFormat != 1) throw new IOException("Unsupported Wave Compression Format (" + compressionFormat + ")");
+				short channels = buf.getShort(2);
+				int sampleRate = buf.getInt(4);
+				int bytesPerSecond = buf.getInt(8);
+				short blockAlign = buf.getShort(12);
+				short sampleSizeInBits = buf.getShort(14);
+
+				PAudioFormat.Encoding encoding = (sampleSizeInBits == 8) ? PAudioFormat.Encoding.PCM_UNSIGNED : PAudioFormat.Encoding.PCM_SIGNED;
+				audioFormat = new PAudioFormat(encoding, sampleRate, sampleSizeInBits, channels, blockAlign, bytesPerSecond/blockAlign, false);
+				frameSize = Math.max(1, (int)blockAlign);
+			} else if(chunkID == DATA) {
+				if(audioFormat == null) throw new IOException("This file does not contain \"fmt \" chunk");
+				position = pos;
+				dataEnd = Math.min(pos + chunkSize, end);
+				return;
+			}
+
+			// Chunks are padded to an even size
+			pos += chunkSize + (chunkSize & 1);
+			if(pos + 8 > end) throw new IOException("This file does not contain \"data\" chunk");
+		}
+	}
+
+	/**
+	 * Read bytes at a position of the channel into the beginning of a buffer
+	 * @param buf Buffer
+	 * @param pos Position in the channel
+	 * @param size Number of bytes to read
+	 * @throws IOException If the end of the file was reached
+	 */
+	private void readFully(ByteBuffer buf, long pos, int size) throws IOException {
+		buf.clear();
+		buf.limit(size);
+		while(buf.hasRemaining()) {
+			int cnt = channel.read(buf, pos + buf.position());
+			if(cnt < 0) throw new IOException("Unexpected end of file");
+		}
+	}
+
+	private void errorMessage(String message) {
+		SoundSystemConfig.getLogger().errorMessage(CLASS_NAME, message, 0);
+	}
+
+	private void printStackTrace(Exception e) {
+		SoundSystemConfig.getLogger().printStackTrace(e, 1);
+	}
+}
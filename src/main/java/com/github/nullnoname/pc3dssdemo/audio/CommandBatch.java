@@ -0,0 +1,277 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import paulscode.sound.CommandObject;
+import paulscode.sound.FilenameURL;
+import paulscode.sound.SoundSystemConfig;
+
+/**
+ * Commands collected for {@link BatchSoundSystem}. The methods mirror the SoundSystem methods of the same name,
+ * but nothing is sent to the command thread until {@link #submit()}.
+ * Not thread safe; build and submit a batch on the thread which owns the BatchSoundSystem.
+ * @author NullNoname
+ */
+public class CommandBatch {
+	/** SoundSystem which receives this batch */
+	private final BatchSoundSystem soundSystem;
+
+	/** Collected commands */
+	private final ArrayList<CommandObject> commands;
+
+	/** Random numbers for temporary source names */
+	private final Random random;
+
+	/**
+	 * Constructor (use BatchSoundSystem.newBatch())
+	 * @param soundSystem SoundSystem which receives this batch
+	 */
+	CommandBatch(BatchSoundSystem soundSystem) {
+		this.soundSystem = soundSystem;
+		this.commands = new ArrayList<CommandObject>();
+		this.random = new Random();
+	}
+
+	/**
+	 * @return SoundSystem which receives this batch
+	 */
+	public BatchSoundSystem getSoundSystem() {
+		return soundSystem;
+	}
+
+	/**
+	 * @return Collected commands
+	 */
+	List<CommandObject> getCommands() {
+		return commands;
+	}
+
+	/**
+	 * @return Number of collected commands
+	 */
+	public int size() {
+		return commands.size();
+	}
+
+	/**
+	 * Queue all collected commands with one lock acquisition and wake the command thread once.
+	 * The batch is empty afterwards and can be reused.
+	 */
+	public void submit() {
+		soundSystem.submit(this);
+	}
+
+	/**
+	 * Play a source
+	 * @param sourcename Source name
+	 */
+	public void play(String sourcename) {
+		addSourceCommand(CommandObject.PLAY, sourcename);
+	}
+
+	/**
+	 * Pause a source
+	 * @param sourcename Source name
+	 */
+	public void pause(String sourcename) {
+		addSourceCommand(CommandObject.PAUSE, sourcename);
+	}
+
+	/**
+	 * Stop a source
+	 * @param sourcename Source name
+	 */
+	public void stop(String sourcename) {
+		addSourceCommand(CommandObject.STOP, sourcename);
+	}
+
+	/**
+	 * Set the volume of a source
+	 * @param sourcename Source name
+	 * @param value Volume (0.0-1.0)
+	 */
+	public void setVolume(String sourcename, float value) {
+		addSourceCommand(CommandObject.SET_VOLUME, sourcename, value);
+	}
+
+	/**
+	 * Set the pitch of a source
+	 * @param sourcename Source name
+	 * @param value Pitch (0.5-2.0)
+	 */
+	public void setPitch(String sourcename, float value) {
+		addSourceCommand(CommandObject.SET_PITCH, sourcename, value);
+	}
+
+	/**
+	 * Move a source
+	 * @param sourcename Source name
+	 * @param x X position
+	 * @param y Y position
+	 * @param z Z position
+	 */
+	public void setPosition(String sourcename, float x, float y, float z) {
+		CommandObject c = soundSystem.obtain(CommandObject.SET_POSITION);
+		if(c == null) {
+			c = new CommandObject(CommandObject.SET_POSITION, sourcename, x, y, z);
+		} else {
+			c.stringArgs[0] = sourcename;
+			c.floatArgs[0] = x;
+			c.floatArgs[1] = y;
+			c.floatArgs[2] = z;
+		}
+		commands.add(c);
+	}
+
+	/**
+	 * Create a permanent, streaming, priority source with zero attenuation and play it
+	 * @param sourcename Source name
+	 * @param url URL of the sound file
+	 * @param identifier Filename/identifier of the file
+	 * @param toLoop true to loop
+	 */
+	public void backgroundMusic(String sourcename, URL url, String identifier, boolean toLoop) {
+		addQuickPlay(true, true, toLoop, sourcename, new FilenameURL(url, identifier), 0, 0, 0, SoundSystemConfig.ATTENUATION_NONE, 0, false);
+		play(sourcename);
+	}
+
+	/**
+	 * Create a temporary non-streaming source from a loaded sound and play it
+	 * @param priority true to prevent other sounds from overriding this one
+	 * @param identifier Filename/identifier of the loaded sound
+	 * @param toLoop true to loop
+	 * @param x X position
+	 * @param y Y position
+	 * @param z Z position
+	 * @param attmodel Attenuation model
+	 * @param distOrRoll Fading distance or rolloff factor
+	 * @return Temporary source name
+	 */
+	public String quickPlay(boolean priority, String identifier, boolean toLoop, float x, float y, float z, int attmodel, float distOrRoll) {
+		return quickPlay(priority, new FilenameURL(identifier), toLoop, x, y, z, attmodel, distOrRoll);
+	}
+
+	/**
+	 * Create a temporary non-streaming source from a URL and play it
+	 * @param priority true to prevent other sounds from overriding this one
+	 * @param url URL of the sound file
+	 * @param identifier Filename/identifier of the file
+	 * @param toLoop true to loop
+	 * @param x X position
+	 * @param y Y position
+	 * @param z Z position
+	 * @param attmodel Attenuation model
+	 * @param distOrRoll Fading distance or rolloff factor
+	 * @return Temporary source name
+	 */
+	public String quickPlay(boolean priority, URL url, String identifier, boolean toLoop, float x, float y, float z, int attmodel, float distOrRoll) {
+		return quickPlay(priority, new FilenameURL(url, identifier), toLoop, x, y, z, attmodel, distOrRoll);
+	}
+
+	/**
+	 * Create a temporary non-streaming source and play it
+	 * @param priority true to prevent other sounds from overriding this one
+	 * @param filenameURL Sound file
+	 * @param toLoop true to loop
+	 * @param x X position
+	 * @param y Y position
+	 * @param z Z position
+	 * @param attmodel Attenuation model
+	 * @param distOrRoll Fading distance or rolloff factor
+	 * @return Temporary source name
+	 */
+	private String quickPlay(boolean priority, FilenameURL filenameURL, boolean toLoop, float x, float y, float z, int attmodel, float distOrRoll) {
+		// Same naming as SoundSystem.quickPlay()
+		String sourcename = "Source_" + random.nextInt() + "_" + random.nextInt();
+		addQuickPlay(priority, false, toLoop, sourcename, filenameURL, x, y, z, attmodel, distOrRoll, true);
+		play(sourcename);
+		return sourcename;
+	}
+
+	/**
+	 * Add a QUICK_PLAY command
+	 */
+	private void addQuickPlay(boolean priority, boolean toStream, boolean toLoop, String sourcename, FilenameURL filenameURL,
+			float x, float y, float z, int attmodel, float distOrRoll, boolean temporary)
+	{
+		CommandObject c = soundSystem.obtain(CommandObject.QUICK_PLAY);
+		if(c == null) {
+			c = new CommandObject(CommandObject.QUICK_PLAY, priority, toStream, toLoop, sourcename, filenameURL,
+					x, y, z, attmodel, distOrRoll, temporary);
+		} else {
+			c.boolArgs[0] = priority;
+			c.boolArgs[1] = toStream;
+			c.boolArgs[2] = toLoop;
+			c.boolArgs[3] = temporary;
+			c.stringArgs[0] = sourcename;
+			c.objectArgs[0] = filenameURL;
+			c.floatArgs[0] = x;
+			c.floatArgs[1] = y;
+			c.floatArgs[2] = z;
+			c.floatArgs[3] = distOrRoll;
+			c.intArgs[0] = attmodel;
+		}
+		commands.add(c);
+	}
+
+	/**
+	 * Add a command which takes only a source name
+	 * @param command Command
+	 * @param sourcename Source name
+	 */
+	private void addSourceCommand(int command, String sourcename) {
+		CommandObject c = soundSystem.obtain(command);
+		if(c == null) {
+			c = new CommandObject(command, sourcename);
+		} else {
+			c.stringArgs[0] = sourcename;
+		}
+		commands.add(c);
+	}
+
+	/**
+	 * Add a command which takes a source name and a float
+	 * @param command Command
+	 * @param sourcename Source name
+	 * @param value Value
+	 */
+	private void addSourceCommand(int command, String sourcename, float value) {
+		CommandObject c = soundSystem.obtain(command);
+		if(c == null) {
+			c = new CommandObject(command, sourcename, value);
+		} else {
+			c.stringArgs[0] = sourcename;
+			c.floatArgs[0] = value;
+		}
+		commands.add(c);
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+/**
+ * Audio settings chosen for one device from a short benchmark (see DeviceBenchmark), and the measurements they were chosen from.
+ * The profile is saved as one line of text, so it can be kept in the preferences and applied at startup without measuring again.
+ * @author NullNoname
+ */
+public class DeviceProfile {
+	/** Version of the profile format and the selection rules; profiles of other versions are measured again */
+	public static final int VERSION = 1;
+
+	/** Stream buffer size multiplier of the library (used on fast devices) */
+	public static final int BASE_MULTIPLIER = 4;
+
+	/** Decode speed (times real time) below which the stream buffer is made larger, and the number of streams is limited */
+	public static final float SLOW_DECODE_SPEED = 4, VERY_SLOW_DECODE_SPEED = 2;
+
+	/** Length of the AudioTrack minimum buffer (in milliseconds) above which it is already long enough to hide decode stalls */
+	public static final int LONG_MIN_BUFFER_MILLIS = 80;
+
+	/** Smallest memory class (in MB) for which the sound effects are decoded at startup */
+	public static final int PRELOAD_MEMORY_CLASS = 32;
+
+	/** Number of CPU cores */
+	public final int cores;
+
+	/** Maximum heap of the app in MB (ActivityManager.getMemoryClass()) */
+	public final int memoryClass;
+
+	/** Native output sample rate */
+	public final int nativeSampleRate;
+
+	/** AudioTrack minimum buffer size in bytes (44100Hz 16bit stereo) */
+	public final int minBufferSize;
+
+	/** Output latency in milliseconds (estimated from the minimum buffer if the device does not report it) */
+	public final int outputLatencyMillis;
+
+	/** Slowest file of the decode test, and its decode speed (seconds of audio decoded per second) */
+	public final String slowestFile;
+	public final float slowestDecodeSpeed;
+
+	/** Stream buffer size in bytes (0 to use the minimum buffer size times the multiplier) */
+	public final int streamBufferSize;
+
+	/** Stream buffer size multiplier */
+	public final int bufferSizeMultiplier;
+
+	/** Number of normal (sound effect) and streaming channels */
+	public final int normalChannels, streamingChannels;
+
+	/** true to decode the sound effects at startup, false to decode them when they are played first */
+	public final boolean preloadSoundEffects;
+
+	/**
+	 * Constructor
+	 * @param cores Number of CPU cores
+	 * @param memoryClass Maximum heap of the app in MB
+	 * @param nativeSampleRate Native output sample rate
+	 * @param minBufferSize AudioTrack minimum buffer size in bytes
+	 * @param outputLatencyMillis Output latency in milliseconds
+	 * @param slowestFile Slowest file of the decode test
+	 * @param slowestDecodeSpeed Decode speed of the slowest file
+	 * @param streamBufferSize Stream buffer size in bytes (0 for automatic)
+	 * @param bufferSizeMultiplier Stream buffer size multiplier
+	 * @param normalChannels Number of normal channels
+	 * @param streamingChannels Number of streaming channels
+	 * @param preloadSoundEffects true to decode the sound effects at startup
+	 */
+	public DeviceProfile(int cores, int memoryClass, int nativeSampleRate, int minBufferSize, int outputLatencyMillis,
+			String slowestFile, float slowestDecodeSpeed, int streamBufferSize, int bufferSizeMultiplier,
+			int normalChannels, int streamingChannels, boolean preloadSoundEffects)
+	{
+		this.cores = cores;
+		this.memoryClass = memoryClass;
+		this.nativeSampleRate = nativeSampleRate;
+		this.minBufferSize = minBufferSize;
+		this.outputLatencyMillis = outputLatencyMillis;
+		this.slowestFile = slowestFile;
+		this.slowestDecodeSpeed = slowestDecodeSpeed;
+		this.streamBufferSize = streamBufferSize;
+		this.bufferSizeMultiplier = bufferSizeMultiplier;
+		this.normalChannels = normalChannels;
+		this.streamingChannels = streamingChannels;
+		this.preloadSoundEffects = preloadSoundEffects;
+	}
+
+	/**
+	 * Choose the settings from the measurements.
+	 * The stream buffer must cover the time the stream thread needs to refill it, so slow decoders and single core devices
+	 * get a larger multiplier, unless the minimum buffer is already long. Slow devices also get fewer channels,
+	 * because every streaming channel adds a decoder and every normal channel adds an AudioTrack.
+	 * @param cores Number of CPU cores
+	 * @param memoryClass Maximum heap of the app in MB
+	 * @param nativeSampleRate Native output sample rate
+	 * @param minBufferSize AudioTrack minimum buffer size in bytes (44100Hz 16bit stereo)
+	 * @param outputLatencyMillis Output latency in milliseconds
+	 * @param slowestFile Slowest file of the decode test
+	 * @param slowestDecodeSpeed Decode speed of the slowest file
+	 * @param defaultNormalChannels Number of normal channels of the SoundSystemConfig defaults
+	 * @param defaultStreamingChannels Number of streaming channels of the SoundSystemConfig defaults
+	 * @return New profile
+	 */
+	public static DeviceProfile create(int cores, int memoryClass, int nativeSampleRate, int minBufferSize, int outputLatencyMillis,
+			String slowestFile, float slowestDecodeSpeed, int defaultNormalChannels, int defaultStreamingChannels)
+	{
+		int multiplier = BASE_MULTIPLIER;
+		if(slowestDecodeSpeed < VERY_SLOW_DECODE_SPEED) multiplier *= 4;
+		else if(slowestDecodeSpeed < SLOW_DECODE_SPEED) multiplier *= 2;
+		if(cores <= 1) multiplier *= 2;
+		if(minBufferSize * 1000L / (44100 * 4) >= LONG_MIN_BUFFER_MILLIS) multiplier /= 2;
+		multiplier = Math.max(AdaptiveBufferTuner.MIN_MULTIPLIER, Math.min(multiplier, AdaptiveBufferTuner.MAX_MULTIPLIER));
+
+		int normalChannels = defaultNormalChannels;
+		if(cores <= 1) normalChannels = Math.min(normalChannels, 8);
+		else if(cores < 4) normalChannels = Math.min(normalChannels, 16);
+
+		int streamingChannels = defaultStreamingChannels;
+		if(slowestDecodeSpeed < SLOW_DECODE_SPEED) streamingChannels = Math.min(streamingChannels, 2);
+
+		return new DeviceProfile(cores, memoryClass, nativeSampleRate, minBufferSize, outputLatencyMillis, slowestFile, slowestDecodeSpeed,
+				0, multiplier, normalChannels, streamingChannels, memoryClass >= PRELOAD_MEMORY_CLASS);
+	}
+
+	/**
+	 * Convert to one line of text
+	 * @return Text for decode(String)
+	 */
+	public String encode() {
+		return VERSION + "," + cores + "," + memoryClass + "," + nativeSampleRate + "," + minBufferSize + "," + outputLatencyMillis + "," +
+				slowestDecodeSpeed + "," + streamBufferSize + "," + bufferSizeMultiplier + "," + normalChannels + "," + streamingChannels + "," +
+				preloadSoundEffects + "," + slowestFile;
+	}
+
+	/**
+	 * Read a profile written by encode()
+	 * @param s Text (can be null)
+	 * @return Profile, or null if the text is missing, broken or from another version
+	 */
+	public static DeviceProfile decode(String s) {
+		if(s == null) return null;
+		String[] v = s.split(",", 13);
+		if(v.length != 13) return null;
+		try {
+			if(Integer.parseInt(v[0]) != VERSION) return null;
+			return new DeviceProfile(Integer.parseInt(v[1]), Integer.parseInt(v[2]), Integer.parseInt(v[3]), Integer.parseInt(v[4]),
+					Integer.parseInt(v[5]), v[12], Float.parseFloat(v[6]), Integer.parseInt(v[7]), Integer.parseInt(v[8]),
+					Integer.parseInt(v[9]), Integer.parseInt(v[10]), Boolean.parseBoolean(v[11]));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "buffer " + (streamBufferSize > 0 ? streamBufferSize + " bytes" : "x" + bufferSizeMultiplier) + ", " +
+				normalChannels + " normal / " + streamingChannels + " streaming channels, sound effects " +
+				(preloadSoundEffects ? "preloaded" : "decoded on first play") + " (" + cores + " cores, " + memoryClass + "MB heap, " +
+				nativeSampleRate + "Hz native, min buffer " + minBufferSize + " bytes, output latency " + outputLatencyMillis +
+				"ms, slowest decode " + String.format("%.1fx", slowestDecodeSpeed) + " '" + slowestFile + "')";
+	}
+}
@@ -0,0 +1,200 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+/**
+ * Decides when the stream feeder thread wakes up, and counts its wakeups.
+ * In the polling mode the feeder sleeps for the interval it asks for (20ms in the SoundSystem StreamThread), like the stock library.
+ * In the event-driven mode each stream channel tells the scheduler when it next needs attention
+ * (when there is room in its AudioTrack for another write, or right away when it needs more decoded data),
+ * and the feeder sleeps until the earliest of those deadlines.
+ * A short polling window can be requested for work which has no deadline (e.g. volume fades).
+ * @author NullNoname
+ */
+public class FeedScheduler {
+	/** Longest sleep in the event-driven mode, in case a deadline was missed */
+	public static final long MAX_WAIT_MILLIS = 250;
+
+	/** true for the event-driven mode */
+	private final boolean eventDriven;
+
+	/** Registered channels and their deadlines (System.nanoTime()) */
+	private Object[] keys = new Object[4];
+	private long[] deadlines = new long[4];
+
+	/** Number of registered channels */
+	private int count;
+
+	/** Polling is used until this time (System.nanoTime()), e.g. during a fade */
+	private long pollUntil;
+
+	/** true if woken up before the deadline */
+	private boolean signaled;
+
+	/** Statistics */
+	private long wakeups, earlyWakeups, statsStart = System.nanoTime();
+
+	/**
+	 * Constructor
+	 * @param eventDriven true for the event-driven mode, false for polling
+	 */
+	public FeedScheduler(boolean eventDriven) {
+		this.eventDriven = eventDriven;
+	}
+
+	/**
+	 * @return true for the event-driven mode
+	 */
+	public boolean isEventDriven() {
+		return eventDriven;
+	}
+
+	/**
+	 * Set the time a channel next needs the feeder. Wakes the feeder if it is earlier than what it is waiting for.
+	 * @param key Channel
+	 * @param deadline System.nanoTime() of the deadline
+	 */
+	public synchronized void schedule(Object key, long deadline) {
+		int index = indexOf(key);
+		if(index < 0) {
+			if(count == keys.length) {
+				Object[] newKeys = new Object[keys.length * 2];
+				long[] newDeadlines = new long[keys.length * 2];
+				System.arraycopy(keys, 0, newKeys, 0, count);
+				System.arraycopy(deadlines, 0, newDeadlines, 0, count);
+				keys = newKeys;
+				deadlines = newDeadlines;
+			}
+			index = count++;
+			keys[index] = key;
+		}
+		deadlines[index] = deadline;
+		notifyAll();
+	}
+
+	/**
+	 * Forget the deadline of a channel
+	 * @param key Channel
+	 */
+	public synchronized void cancel(Object key) {
+		int index = indexOf(key);
+		if(index < 0) return;
+		count--;
+		keys[index] = keys[count];
+		deadlines[index] = deadlines[count];
+		keys[count] = null;
+	}
+
+	/**
+	 * Wake the feeder now
+	 */
+	public synchronized void wakeNow() {
+		signaled = true;
+		notifyAll();
+	}
+
+	/**
+	 * Use polling for a while, for work without a deadline (e.g. a volume fade)
+	 * @param millis Duration in milliseconds
+	 */
+	public synchronized void pollFor(long millis) {
+		long until = System.nanoTime() + millis * 1000000L;
+		if(until - pollUntil > 0) pollUntil = until;
+		notifyAll();
+	}
+
+	/**
+	 * Sleep until the feeder should make its next pass (called from the feeder thread)
+	 * @param pollMillis Interval of the polling mode in milliseconds
+	 * @throws InterruptedException If interrupted (e.g. a new source to stream)
+	 */
+	public synchronized void await(long pollMillis) throws InterruptedException {
+		long now = System.nanoTime();
+		if(!eventDriven || now - pollUntil < 0) {
+			wakeups++;
+			wait(pollMillis);
+			return;
+		}
+
+		// A wake-up sent during the last pass is kept until here, so the next pass starts right away
+		if(signaled) {
+			signaled = false;
+			earlyWakeups++;
+			wakeups++;
+			return;
+		}
+		long limit = now + MAX_WAIT_MILLIS * 1000000L;
+		while(!signaled) {
+			long next = limit;
+			for(int i = 0; i < count; i++) {
+				if(deadlines[i] - next < 0) next = deadlines[i];
+			}
+			if(now - pollUntil < 0 && now + pollMillis * 1000000L - next < 0) next = now + pollMillis * 1000000L;
+
+			long waitNanos = next - now;
+			if(waitNanos <= 0) break;
+			wait(waitNanos / 1000000L, (int)(waitNanos % 1000000L));
+			now = System.nanoTime();
+		}
+		if(signaled) {
+			signaled = false;
+			earlyWakeups++;
+		}
+		wakeups++;
+	}
+
+	/**
+	 * Get the statistics as a string for the log
+	 * @return Statistics
+	 */
+	public synchronized String getStats() {
+		double seconds = (System.nanoTime() - statsStart) / 1e9;
+		return String.format("Feeder (%s): %d wakeups in %.1fs (%.1f/s, %d early)", eventDriven ? "event-driven" : "polling",
+				wakeups, seconds, wakeups / Math.max(seconds, 0.001), earlyWakeups);
+	}
+
+	/**
+	 * Clear the statistics
+	 */
+	public synchronized void resetStats() {
+		wakeups = 0;
+		earlyWakeups = 0;
+		statsStart = System.nanoTime();
+	}
+
+	/**
+	 * Find a channel
+	 * @param key Channel
+	 * @return Index, or -1 if not registered
+	 */
+	private int indexOf(Object key) {
+		for(int i = 0; i < count; i++) {
+			if(keys[i] == key) return i;
+		}
+		return -1;
+	}
+}
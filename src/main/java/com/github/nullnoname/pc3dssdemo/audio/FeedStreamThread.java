@@ -0,0 +1,65 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import paulscode.sound.StreamThread;
+
+/**
+ * StreamThread whose sleep between passes is decided by a {@link FeedScheduler} instead of a fixed 20ms.
+ * The long sleep while there is nothing to stream is left as is; the library interrupts it when a source starts.
+ * @author NullNoname
+ */
+public class FeedStreamThread extends StreamThread {
+	/** The StreamThread sleeps this long when there are no sources */
+	private static final long IDLE_SNOOZE_MILLIS = 3600000;
+
+	/** Scheduler */
+	private final FeedScheduler scheduler;
+
+	/**
+	 * Constructor
+	 * @param scheduler Scheduler
+	 */
+	public FeedStreamThread(FeedScheduler scheduler) {
+		this.scheduler = scheduler;
+		setName("FeedStreamThread");
+	}
+
+	@Override
+	protected void snooze(long milliseconds) {
+		if(milliseconds >= IDLE_SNOOZE_MILLIS) {
+			super.snooze(milliseconds);
+			return;
+		}
+
+		try {
+			scheduler.await(milliseconds);
+		} catch (InterruptedException e) {
+			// Woken up by the library
+		}
+	}
+}
@@ -0,0 +1,311 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import paulscode.sound.SoundSystemConfig;
+
+/**
+ * Idle state of the audio output.
+ * When no command has been run for the quiet period and nothing is playing, the output resources are released
+ * (see {@link IdleReleasable}) and the audio threads are left waiting without a timeout. They come back lazily:
+ * the next command calls {@link #wake()}, and the channels create their AudioTracks again when they play.
+ * <p>
+ * The check runs as the quiet task of the {@link AudioCommandExecutor}, so it needs no thread of its own.
+ * The time and the wakeups of the audio threads (see {@link #setThreadNames(String...)}) are counted per state.
+ * The wakeups are read when the output becomes idle and when the statistics are asked for, so resuming never waits for a read.
+ * The wakeups of resuming count for the active state, and those of the idle state are counted up to the last read while idle.
+ * @author NullNoname
+ */
+public class IdleManager {
+	/** Names of the command thread and the stream thread of the SoundSystem, given by the output libraries */
+	public static final String COMMAND_THREAD_NAME = "SoundCommand", STREAM_THREAD_NAME = "SoundStream";
+
+	/** States */
+	public static final int STATE_ACTIVE = 0, STATE_IDLE = 1;
+
+	/** Names of the states */
+	private static final String[] STATE_NAMES = {"active", "idle"};
+
+	/**
+	 * Output which can become idle
+	 */
+	public interface Target {
+		/**
+		 * @return true while anything is playing or paused (worker thread)
+		 */
+		boolean isBusy();
+
+		/**
+		 * Release the output resources (worker thread)
+		 * @return Number of resources released
+		 */
+		int releaseIdleResources();
+	}
+
+	/** Executor whose worker thread runs the check and the commands */
+	private final AudioCommandExecutor executor;
+
+	/** Output */
+	private final Target target;
+
+	/** Check run by the executor after the quiet period */
+	private final Runnable check = new Runnable() {
+		public void run() {
+			check();
+		}
+	};
+
+	/** Quiet period in milliseconds (0 if disabled) */
+	private long quietMillis;
+
+	/** Current state */
+	private int state = STATE_ACTIVE;
+
+	/** Time the current state began (System.nanoTime()) */
+	private long stateBegin;
+
+	/** Names of the threads whose wakeups are counted (null to not count them) */
+	private String[] threadNames;
+
+	/** State and resume count at the last read of the wakeups */
+	private int wakeupsState = STATE_ACTIVE, wakeupsResumes;
+
+	/** Wakeups of the threads at the last read (-1 if they cannot be counted), and the time of the read */
+	private long wakeupsBegin = -1, wakeupsTime;
+
+	/** Time spent in each state */
+	private final long[] stateNanos = new long[STATE_NAMES.length];
+
+	/** Wakeups counted in each state, and the time they were counted over */
+	private final long[] stateWakeups = new long[STATE_NAMES.length], wakeupsNanos = new long[STATE_NAMES.length];
+
+	/** Statistics */
+	private int idles, resumes, released;
+
+	/** Time of the last release, and the longest (nanoseconds) */
+	private long lastReleaseNanos, maxReleaseNanos;
+
+	/** Time of the last resume (System.nanoTime()) */
+	private long lastResume;
+
+	/**
+	 * Constructor. The check is off until {@link #setQuietMillis(long)} is called.
+	 * @param executor Executor whose worker thread runs the commands
+	 * @param target Output
+	 */
+	public IdleManager(AudioCommandExecutor executor, Target target) {
+		this.executor = executor;
+		this.target = target;
+		stateBegin = System.nanoTime();
+	}
+
+	/**
+	 * Set the threads whose wakeups are counted. They are found by name, so give them names when they start.
+	 * @param names Thread names (only the first 15 characters count)
+	 */
+	public void setThreadNames(String... names) {
+		synchronized(this) {
+			threadNames = names.clone();
+			wakeupsBegin = -1;
+		}
+		sampleWakeups();
+	}
+
+	/**
+	 * Set the quiet period
+	 * @param quietMillis Milliseconds without commands and without playing sounds before the output becomes idle (0 to never become idle)
+	 */
+	public synchronized void setQuietMillis(long quietMillis) {
+		this.quietMillis = Math.max(0, quietMillis);
+		executor.setQuietTask(this.quietMillis, check);
+	}
+
+	/**
+	 * @return Quiet period in milliseconds (0 if disabled)
+	 */
+	public synchronized long getQuietMillis() {
+		return quietMillis;
+	}
+
+	/**
+	 * @return true while the output is idle
+	 */
+	public synchronized boolean isIdle() {
+		return state == STATE_IDLE;
+	}
+
+	/**
+	 * Leave the idle state before a command uses the output (worker thread)
+	 * @return true if the output was idle
+	 */
+	public boolean wake() {
+		long idleNanos;
+		synchronized(this) {
+			if(state != STATE_IDLE) return false;
+			idleNanos = System.nanoTime() - stateBegin;
+			enter(STATE_ACTIVE);
+			resumes++;
+			lastResume = stateBegin;
+		}
+		SoundSystemConfig.getLogger().message("Audio output resumed after " + idleNanos / 1000000000L + "s idle", 0);
+		return true;
+	}
+
+	/**
+	 * Become idle if nothing is playing, otherwise check again after another quiet period (worker thread)
+	 */
+	private void check() {
+		if(isIdle()) return;
+		if(target.isBusy()) {
+			executor.armQuietTask();
+			return;
+		}
+
+		long begin = System.nanoTime();
+		int count = target.releaseIdleResources();
+		long nanos = System.nanoTime() - begin;
+		synchronized(this) {
+			enter(STATE_IDLE);
+			idles++;
+			released += count;
+			lastReleaseNanos = nanos;
+			if(nanos > maxReleaseNanos) maxReleaseNanos = nanos;
+		}
+		sampleWakeups();
+		SoundSystemConfig.getLogger().message("Audio output idle after " + quietMillis / 1000 + "s quiet: " + count +
+				" output resources released in " + LatencyHistogram.toMillis(nanos) + "ms", 0);
+	}
+
+	/**
+	 * Change the state, adding the time of the previous state (lock must be held)
+	 * @param newState New state
+	 */
+	private void enter(int newState) {
+		long now = System.nanoTime();
+		stateNanos[state] += now - stateBegin;
+		state = newState;
+		stateBegin = now;
+	}
+
+	/**
+	 * Read the wakeups of the threads, adding those since the last read to the state at the last read,
+	 * or to the active state from the resume on if the output has resumed since
+	 */
+	private void sampleWakeups() {
+		String[] names;
+		synchronized(this) {
+			names = threadNames;
+		}
+		long wakeups = (names == null) ? -1 : ThreadWakeups.read(names);
+		// The worker is running the read, so its next wait is not counted yet
+		if(wakeups >= 0 && executor.isWorkerThread()) wakeups++;
+		long now = System.nanoTime();
+		synchronized(this) {
+			if(wakeups >= 0 && wakeupsBegin >= 0) {
+				int s = (resumes == wakeupsResumes) ? wakeupsState : STATE_ACTIVE;
+				long begin = (resumes == wakeupsResumes) ? wakeupsTime : Math.max(wakeupsTime, lastResume);
+				stateWakeups[s] += wakeups - wakeupsBegin;
+				wakeupsNanos[s] += now - begin;
+			}
+			wakeupsBegin = wakeups;
+			wakeupsTime = now;
+			wakeupsState = state;
+			wakeupsResumes = resumes;
+		}
+	}
+
+	/**
+	 * Get the wakeups per minute of the threads in a state, including the current state so far.
+	 * The idle state is counted up to the last read while idle, so ask while the output is idle to include the current idle period.
+	 * @param s State (STATE_*)
+	 * @return Wakeups per minute, or -1 if they cannot be counted or have not been counted in the state yet
+	 */
+	public float getWakeupsPerMinute(int s) {
+		sampleWakeups();
+		synchronized(this) {
+			return wakeupsPerMinute(s);
+		}
+	}
+
+	/**
+	 * Get the wakeups per minute in a state as of the last read (lock must be held)
+	 * @param s State (STATE_*)
+	 * @return Wakeups per minute, or -1 if they cannot be counted or have not been counted in the state yet
+	 */
+	private float wakeupsPerMinute(int s) {
+		if(wakeupsBegin < 0 || wakeupsNanos[s] <= 0) return -1;
+		return stateWakeups[s] * 60e9f / wakeupsNanos[s];
+	}
+
+	/**
+	 * @return Summary of the statistics
+	 */
+	public String getStats() {
+		sampleWakeups();
+		synchronized(this) {
+			return formatStats();
+		}
+	}
+
+	/**
+	 * @return Summary of the statistics as of the last read of the wakeups (lock must be held)
+	 */
+	private String formatStats() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Idle mode: ").append(STATE_NAMES[state]);
+		sb.append(", quiet period ").append((quietMillis > 0) ? (quietMillis / 1000) + "s" : "off");
+		sb.append(", ").append(idles).append(" times idle (").append(released).append(" resources released, last ")
+				.append(LatencyHistogram.toMillis(lastReleaseNanos)).append("ms max ").append(LatencyHistogram.toMillis(maxReleaseNanos)).append("ms), ")
+				.append(resumes).append(" resumes");
+		long now = System.nanoTime();
+		for(int s = 0; s < STATE_NAMES.length; s++) {
+			long nanos = stateNanos[s] + ((s == state) ? now - stateBegin : 0);
+			float perMinute = wakeupsPerMinute(s);
+			sb.append("; ").append(STATE_NAMES[s]).append(' ').append(nanos / 1000000000L).append('s');
+			if(perMinute >= 0) sb.append(" at ").append(Math.round(perMinute)).append(" wakeups/min");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Clear the statistics (the current state starts counting again from now)
+	 */
+	public void resetStats() {
+		synchronized(this) {
+			for(int s = 0; s < STATE_NAMES.length; s++) {
+				stateNanos[s] = 0;
+				stateWakeups[s] = 0;
+				wakeupsNanos[s] = 0;
+			}
+			idles = resumes = released = 0;
+			lastReleaseNanos = maxReleaseNanos = 0;
+			stateBegin = System.nanoTime();
+			wakeupsBegin = -1;
+		}
+		sampleWakeups();
+	}
+}
@@ -0,0 +1,48 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+/**
+ * Library which can give back its output resources while nothing is playing (see {@link IdleManager}).
+ * The resources must come back by themselves when a source plays again.
+ * @author NullNoname
+ */
+public interface IdleReleasable {
+	/**
+	 * Check if the output is in use. This can be more exact than asking the sources, e.g. a static AudioTrack
+	 * stays in the playing state after the end of its sound. Called with SoundSystemConfig.THREAD_SYNC held.
+	 * @return true if any channel is playing something audible or holds a paused source
+	 */
+	boolean isOutputBusy();
+
+	/**
+	 * Release the output resources (e.g. AudioTracks) of the channels which are not playing or paused,
+	 * and let the library's own threads wait without a timeout. Called with SoundSystemConfig.THREAD_SYNC held.
+	 * @return Number of resources released
+	 */
+	int releaseIdleResources();
+}
@@ -0,0 +1,198 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free, allocation-free latency histogram with log-linear buckets (in the style of HdrHistogram).
+ * Every power of two is split into 32 buckets, so the reported values are within about 3% of the recorded ones.
+ * Values are in nanoseconds.
+ * @author NullNoname
+ */
+public class LatencyHistogram {
+	/** log2 of the number of buckets per power of two */
+	private static final int SUB_BUCKET_BITS = 5;
+
+	/** Number of buckets per power of two */
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+	/** Largest value which can be recorded (larger values are clamped), about 18 minutes */
+	public static final long MAX_VALUE = (1L << 40) - 1;
+
+	/** Percentiles of a summary when none are given */
+	private static final double[] DEFAULT_PERCENTILES = {50, 99};
+
+	/** Counts of each bucket */
+	private final AtomicLongArray counts;
+
+	/** Number of recorded values */
+	private final AtomicLong totalCount = new AtomicLong();
+
+	/** Sum of the recorded values */
+	private final AtomicLong totalValue = new AtomicLong();
+
+	/** Largest recorded value */
+	private final AtomicLong maxValue = new AtomicLong();
+
+	public LatencyHistogram() {
+		counts = new AtomicLongArray(getBucketIndex(MAX_VALUE) + 1);
+	}
+
+	/**
+	 * Record a value
+	 * @param value Value in nanoseconds (negative values are recorded as 0)
+	 */
+	public void record(long value) {
+		if(value < 0) value = 0;
+		if(value > MAX_VALUE) value = MAX_VALUE;
+
+		counts.incrementAndGet(getBucketIndex(value));
+		totalCount.incrementAndGet();
+		totalValue.addAndGet(value);
+
+		long max = maxValue.get();
+		while(value > max && !maxValue.compareAndSet(max, value)) {
+			max = maxValue.get();
+		}
+	}
+
+	/**
+	 * Clear all recorded values
+	 */
+	public void reset() {
+		for(int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+		totalCount.set(0);
+		totalValue.set(0);
+		maxValue.set(0);
+	}
+
+	/**
+	 * @return Number of recorded values
+	 */
+	public long getCount() {
+		return totalCount.get();
+	}
+
+	/**
+	 * @return Largest recorded value
+	 */
+	public long getMax() {
+		return maxValue.get();
+	}
+
+	/**
+	 * @return Mean of the recorded values (0 if none)
+	 */
+	public long getMean() {
+		long count = totalCount.get();
+		return (count == 0) ? 0 : totalValue.get() / count;
+	}
+
+	/**
+	 * Get the value at the given percentile
+	 * @param percentile Percentile (0-100)
+	 * @return Highest value of the bucket holding the percentile (never larger than the recorded maximum), 0 if nothing was recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long count = 0;
+		for(int i = 0; i < counts.length(); i++) {
+			count += counts.get(i);
+		}
+		if(count == 0) return 0;
+
+		long target = Math.max(1, (long)Math.ceil(percentile / 100.0 * count));
+		long seen = 0;
+		for(int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if(seen >= target) {
+				return Math.min(getBucketHighestValue(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * Add a summary of the recorded values in milliseconds to a report: "name: n=count p50=... p99=... max=... mean=..."
+	 * (only the count if nothing was recorded)
+	 * @param sb Report
+	 * @param name Name of the values
+	 * @param percentiles Percentiles to show (p50 and p99 if none are given)
+	 * @return sb
+	 */
+	public StringBuilder appendSummary(StringBuilder sb, String name, double... percentiles) {
+		long count = getCount();
+		sb.append(name).append(": n=").append(count);
+		if(count > 0) {
+			if(percentiles.length == 0) percentiles = DEFAULT_PERCENTILES;
+			for(double percentile : percentiles) {
+				sb.append(" p");
+				if(percentile == (long)percentile) sb.append((long)percentile);
+				else sb.append(percentile);
+				sb.append('=').append(toMillis(getValueAtPercentile(percentile)));
+			}
+			sb.append(" max=").append(toMillis(getMax()));
+			sb.append(" mean=").append(toMillis(getMean()));
+		}
+		return sb;
+	}
+
+	/**
+	 * Convert nanoseconds to milliseconds with two decimal places
+	 * @param nanos Nanoseconds
+	 * @return Milliseconds
+	 */
+	public static float toMillis(long nanos) {
+		return (nanos / 10000L) / 100f;
+	}
+
+	/**
+	 * Get the bucket index of a value
+	 * @param value Value (0 to MAX_VALUE)
+	 * @return Bucket index
+	 */
+	private static int getBucketIndex(long value) {
+		if(value < SUB_BUCKET_COUNT) return (int)value;
+		int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+		return ((shift + 1) << SUB_BUCKET_BITS) + (int)((value >>> shift) - SUB_BUCKET_COUNT);
+	}
+
+	/**
+	 * Get the highest value which goes into a bucket
+	 * @param index Bucket index
+	 * @return Highest value of the bucket
+	 */
+	private static long getBucketHighestValue(int index) {
+		if(index < SUB_BUCKET_COUNT) return index;
+		int shift = (index >> SUB_BUCKET_BITS) - 1;
+		long mantissa = (index & (SUB_BUCKET_COUNT - 1)) + SUB_BUCKET_COUNT;
+		return ((mantissa + 1) << shift) - 1;
+	}
+}
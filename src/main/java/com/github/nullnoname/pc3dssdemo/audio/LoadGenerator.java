@@ -0,0 +1,406 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scripted load for the audio stack: sound effect taps at random times, starts and stops of the streamed songs, and
+ * changes of the stream buffer settings while running. Every command goes through an {@link AudioCommandExecutor} like
+ * a button tap does. Throughput, dropped commands, channel exhaustion, command latency and heap growth are reported at
+ * a fixed interval, so a soak run of several hours can be followed in the log.
+ * @author NullNoname
+ */
+public class LoadGenerator {
+	/**
+	 * The commands of the load, run on the worker thread of the executor
+	 */
+	public interface Actions {
+		/**
+		 * Play a sound effect
+		 * @param filename Filename of the sound effect
+		 */
+		public void playEffect(String filename);
+
+		/**
+		 * Start a streamed song
+		 * @param filename Filename of the song
+		 */
+		public void playStream(String filename);
+
+		/**
+		 * Stop a streamed song
+		 * @param filename Filename of the song
+		 */
+		public void stopStream(String filename);
+
+		/**
+		 * Change the stream buffer size multiplier used by the songs started from now on
+		 * @param multiplier Multiplier of the minimum buffer size (0 to go back to the settings used before the load)
+		 */
+		public void setBufferSizeMultiplier(int multiplier);
+
+		/**
+		 * Get the audio command key the buttons use for a sound, so the load coalesces the same way
+		 * @param filename Filename of the sound effect or song
+		 * @return Audio command key (null if the commands are never replaced)
+		 */
+		public String getCommandKey(String filename);
+
+		/**
+		 * Receive a report (called from the generator thread)
+		 * @param report Report
+		 */
+		public void report(String report);
+	}
+
+	/** Kinds of command */
+	private static final int KIND_EFFECT = 0, KIND_STREAM = 1, KIND_BUFFER = 2;
+
+	/** Names of the kinds */
+	private static final String[] KIND_NAMES = {"SFX", "Stream", "Buffer"};
+
+	/** Executor which runs the commands */
+	private final AudioCommandExecutor executor;
+
+	/** Commands */
+	private final Actions actions;
+
+	/** Filenames of the sound effects and the songs */
+	private final String[] effects, streams;
+
+	/** Random numbers (generator thread only) */
+	private final Random random;
+
+	/** Sound effect taps per second */
+	private float effectRate = 20f;
+
+	/** Song starts and stops per second */
+	private float streamSwitchRate = 0.5f;
+
+	/** Milliseconds between buffer setting changes (0 to never change them) */
+	private long bufferChangeMillis = 15000;
+
+	/** Buffer size multipliers to choose from */
+	private int[] bufferSizeMultipliers = {2, 4, 8, 16};
+
+	/** Milliseconds between reports */
+	private long reportMillis = 60000;
+
+	/** Time from the issue until the command has run, by kind (in nanoseconds) */
+	private final LatencyHistogram[] histograms;
+
+	/** Commands issued and dropped by the executor, by kind (generator thread only) */
+	private final long[] issued, dropped;
+
+	/** Commands run, by kind */
+	private final AtomicLong[] executed;
+
+	/** true for the songs started by the load (generator thread only) */
+	private final boolean[] streamPlaying;
+
+	/** Generator thread (null when not running) */
+	private volatile Thread thread;
+
+	/** Time of start() (System.nanoTime()) */
+	private long startTime;
+
+	/** Channel counters at start() */
+	private long startPlays, startStolen, startExhausted;
+
+	/** Time of the previous report (System.nanoTime()) and the commands run until then */
+	private long lastReportTime, lastExecuted;
+
+	/** Heap used after the first report (bytes, -1 until then) and time of that report */
+	private long baselineHeap = -1, baselineTime;
+
+	/** Largest heap use seen (bytes) */
+	private long peakHeap;
+
+	/** Heap growth from the baseline at the last report (bytes) */
+	private volatile long heapGrowth;
+
+	/**
+	 * Constructor
+	 * @param executor Executor which runs the commands
+	 * @param actions Commands
+	 * @param effects Filenames of the sound effects
+	 * @param streams Filenames of the streamed songs
+	 * @param seed Random seed (the same seed gives the same script)
+	 */
+	public LoadGenerator(AudioCommandExecutor executor, Actions actions, String[] effects, String[] streams, long seed) {
+		this.executor = executor;
+		this.actions = actions;
+		this.effects = effects.clone();
+		this.streams = streams.clone();
+		this.random = new Random(seed);
+		histograms = new LatencyHistogram[KIND_NAMES.length];
+		issued = new long[KIND_NAMES.length];
+		dropped = new long[KIND_NAMES.length];
+		executed = new AtomicLong[KIND_NAMES.length];
+		for(int i = 0; i < KIND_NAMES.length; i++) {
+			histograms[i] = new LatencyHistogram();
+			executed[i] = new AtomicLong();
+		}
+		streamPlaying = new boolean[streams.length];
+	}
+
+	/**
+	 * @param effectRate Sound effect taps per second (0 for none)
+	 */
+	public void setEffectRate(float effectRate) {
+		this.effectRate = effectRate;
+	}
+
+	/**
+	 * @param streamSwitchRate Song starts and stops per second (0 for none)
+	 */
+	public void setStreamSwitchRate(float streamSwitchRate) {
+		this.streamSwitchRate = streamSwitchRate;
+	}
+
+	/**
+	 * @param bufferChangeMillis Milliseconds between buffer setting changes (0 to never change them)
+	 */
+	public void setBufferChangeMillis(long bufferChangeMillis) {
+		this.bufferChangeMillis = bufferChangeMillis;
+	}
+
+	/**
+	 * @param bufferSizeMultipliers Buffer size multipliers to choose from
+	 */
+	public void setBufferSizeMultipliers(int[] bufferSizeMultipliers) {
+		this.bufferSizeMultipliers = bufferSizeMultipliers.clone();
+	}
+
+	/**
+	 * @param reportMillis Milliseconds between reports
+	 */
+	public void setReportMillis(long reportMillis) {
+		this.reportMillis = reportMillis;
+	}
+
+	/**
+	 * Start the load on a new thread. The settings must not be changed while running.
+	 * @param durationMillis Length of the run in milliseconds (0 to run until stop())
+	 * @return false if already running
+	 */
+	public synchronized boolean start(final long durationMillis) {
+		if(thread != null) return false;
+		Thread t = new Thread(new Runnable() {
+			public void run() {
+				try {
+					generate(durationMillis);
+				} finally {
+					thread = null;
+				}
+			}
+		}, "LoadGenerator");
+		t.setDaemon(true);
+		thread = t;
+		t.start();
+		return true;
+	}
+
+	/**
+	 * Stop the load. The songs it started are stopped, the buffer settings are put back and the last report is sent.
+	 */
+	public void stop() {
+		Thread t = thread;
+		if(t != null) t.interrupt();
+	}
+
+	/**
+	 * @return true while the load is running
+	 */
+	public boolean isRunning() {
+		return thread != null;
+	}
+
+	/**
+	 * Wait until the run has ended
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	public void join() throws InterruptedException {
+		Thread t = thread;
+		if(t != null) t.join();
+	}
+
+	/**
+	 * @return Heap growth from the first report to the last one in bytes (after a GC)
+	 */
+	public long getHeapGrowth() {
+		return heapGrowth;
+	}
+
+	/**
+	 * Main loop of the generator thread
+	 * @param durationMillis Length of the run in milliseconds (0 to run until stop())
+	 */
+	private void generate(long durationMillis) {
+		startTime = System.nanoTime();
+		lastReportTime = startTime;
+		startPlays = ChannelStats.getPlays();
+		startStolen = ChannelStats.getStolen();
+		startExhausted = ChannelStats.getExhausted();
+		long endTime = (durationMillis > 0) ? startTime + durationMillis * 1000000L : Long.MAX_VALUE;
+		long nextEffect = startTime + nextInterval(effectRate);
+		long nextSwitch = startTime + nextInterval(streamSwitchRate);
+		long nextBuffer = (bufferChangeMillis > 0) ? startTime + bufferChangeMillis * 1000000L : Long.MAX_VALUE;
+		long nextReport = startTime + reportMillis * 1000000L;
+
+		try {
+			while(true) {
+				long now = System.nanoTime();
+				if(now - endTime >= 0) break;
+
+				// Events which are late (e.g. after a GC pause) are all issued at once, like a burst of taps
+				while(nextEffect - now <= 0) {
+					issue(KIND_EFFECT, effects[random.nextInt(effects.length)], null);
+					nextEffect += nextInterval(effectRate);
+				}
+				while(nextSwitch - now <= 0) {
+					int n = random.nextInt(streams.length);
+					streamPlaying[n] = !streamPlaying[n];
+					issue(KIND_STREAM, streams[n], Boolean.valueOf(streamPlaying[n]));
+					nextSwitch += nextInterval(streamSwitchRate);
+				}
+				if(nextBuffer - now <= 0) {
+					int multiplier = bufferSizeMultipliers[random.nextInt(bufferSizeMultipliers.length)];
+					issue(KIND_BUFFER, null, Integer.valueOf(multiplier));
+					nextBuffer += bufferChangeMillis * 1000000L;
+				}
+				if(nextReport - now <= 0) {
+					actions.report(sample(now));
+					nextReport += reportMillis * 1000000L;
+				}
+
+				long next = Math.min(Math.min(nextEffect, nextSwitch), Math.min(nextBuffer, Math.min(nextReport, endTime)));
+				long wait = next - System.nanoTime();
+				if(wait > 0) Thread.sleep(wait / 1000000L, (int)(wait % 1000000L));
+			}
+		} catch (InterruptedException e) {
+			// stop()
+		}
+
+		for(int i = 0; i < streams.length; i++) {
+			if(streamPlaying[i]) {
+				streamPlaying[i] = false;
+				issue(KIND_STREAM, streams[i], Boolean.FALSE);
+			}
+		}
+		if(bufferChangeMillis > 0) issue(KIND_BUFFER, null, Integer.valueOf(0));
+		actions.report(sample(System.nanoTime()));
+	}
+
+	/**
+	 * Get the time until the next event of a random process
+	 * @param rate Events per second
+	 * @return Nanoseconds until the next event (Long.MAX_VALUE / 2 if the rate is 0)
+	 */
+	private long nextInterval(float rate) {
+		if(rate <= 0) return Long.MAX_VALUE / 2;
+		return (long)(-Math.log(1.0 - random.nextDouble()) / rate * 1e9);
+	}
+
+	/**
+	 * Submit a command to the executor
+	 * @param kind Kind of command (KIND_*)
+	 * @param filename Filename of the sound (null for a buffer change)
+	 * @param arg true/false to start/stop a song, or the buffer size multiplier
+	 */
+	private void issue(final int kind, final String filename, final Object arg) {
+		final long issueTime = System.nanoTime();
+		Runnable command = new Runnable() {
+			public void run() {
+				if(kind == KIND_EFFECT) actions.playEffect(filename);
+				else if(kind == KIND_BUFFER) actions.setBufferSizeMultiplier(((Integer)arg).intValue());
+				else if(((Boolean)arg).booleanValue()) actions.playStream(filename);
+				else actions.stopStream(filename);
+				histograms[kind].record(System.nanoTime() - issueTime);
+				executed[kind].incrementAndGet();
+			}
+		};
+
+		// Sound commands use the same keys as the buttons, so a start and a stop still waiting cancel out
+		String key = (kind == KIND_BUFFER) ? "buffer" : actions.getCommandKey(filename);
+		issued[kind]++;
+		if(!executor.submit(key, command)) dropped[kind]++;
+	}
+
+	/**
+	 * Measure the heap and build a report (generator thread only)
+	 * @param now Current time (System.nanoTime())
+	 * @return Report
+	 */
+	private String sample(long now) {
+		Runtime rt = Runtime.getRuntime();
+		System.gc();
+		long heap = rt.totalMemory() - rt.freeMemory();
+		if(baselineHeap < 0) {
+			// The first sample is taken after the codecs, caches and pools have warmed up
+			baselineHeap = heap;
+			baselineTime = now;
+		}
+		if(heap > peakHeap) peakHeap = heap;
+		heapGrowth = heap - baselineHeap;
+
+		long totalIssued = 0, totalDropped = 0, totalExecuted = 0;
+		for(int i = 0; i < KIND_NAMES.length; i++) {
+			totalIssued += issued[i];
+			totalDropped += dropped[i];
+			totalExecuted += executed[i].get();
+		}
+		int queueDepth = executor.getQueueDepth();
+		double seconds = (now - startTime) / 1e9;
+		double intervalSeconds = (now - lastReportTime) / 1e9;
+		double hours = (now - baselineTime) / 3.6e12;
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("***** Load Test (").append((long)seconds / 60).append("m").append((long)seconds % 60).append("s) *****\n");
+		sb.append("Commands: issued ").append(totalIssued).append(", run ").append(totalExecuted);
+		sb.append(String.format(" (%.1f/s, last %.1f/s)", totalExecuted / Math.max(seconds, 0.001),
+				(totalExecuted - lastExecuted) / Math.max(intervalSeconds, 0.001)));
+		sb.append(", dropped ").append(totalDropped);
+		sb.append(", coalesced ").append(Math.max(0, totalIssued - totalDropped - totalExecuted - queueDepth));
+		sb.append(", waiting ").append(queueDepth).append('\n');
+		for(int i = 0; i < KIND_NAMES.length; i++) {
+			sb.append(KIND_NAMES[i]).append(": issued ").append(issued[i]).append(", dropped ").append(dropped[i]).append(", ");
+			histograms[i].appendSummary(sb, "run (ms)", 50, 90, 99, 99.9).append('\n');
+		}
+		sb.append("Channels: ").append(ChannelStats.getPlays() - startPlays).append(" plays, ");
+		sb.append(ChannelStats.getStolen() - startStolen).append(" stole a playing channel, ");
+		sb.append(ChannelStats.getExhausted() - startExhausted).append(" found no channel\n");
+		sb.append(String.format("Heap: %.2fMB used, baseline %.2fMB, peak %.2fMB", heap / 1048576.0, baselineHeap / 1048576.0, peakHeap / 1048576.0));
+		if(hours > 0) sb.append(String.format(", %+.2fMB/h", (heap - baselineHeap) / 1048576.0 / hours));
+
+		lastReportTime = now;
+		lastExecuted = totalExecuted;
+		return sb.toString();
+	}
+}
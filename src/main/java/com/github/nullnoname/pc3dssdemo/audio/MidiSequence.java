@@ -0,0 +1,246 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Channel events of a Standard MIDI File (format 0 or 1), merged from all tracks and timed in microseconds.
+ * Tempo changes are applied while loading; system exclusive and other meta events are dropped.
+ * @author NullNoname
+ */
+public class MidiSequence {
+	/** Default tempo (120 BPM) in microseconds per quarter note */
+	private static final int DEFAULT_TEMPO = 500000;
+
+	/** Time of each event in microseconds */
+	private final long[] times;
+	/** Each event as status | data1 << 8 | data2 << 16 */
+	private final int[] messages;
+	/** Length in microseconds (time of the end of the last track) */
+	private final long length;
+
+	/**
+	 * Constructor
+	 * @param times Time of each event in microseconds (ascending)
+	 * @param messages Each event as status | data1 << 8 | data2 << 16
+	 * @param length Length in microseconds
+	 */
+	private MidiSequence(long[] times, int[] messages, long length) {
+		this.times = times;
+		this.messages = messages;
+		this.length = length;
+	}
+
+	/**
+	 * @return Number of events
+	 */
+	public int size() {
+		return messages.length;
+	}
+
+	/**
+	 * @param index Event index
+	 * @return Time of the event in microseconds
+	 */
+	public long getTime(int index) {
+		return times[index];
+	}
+
+	/**
+	 * @param index Event index
+	 * @return Event as status | data1 << 8 | data2 << 16
+	 */
+	public int getMessage(int index) {
+		return messages[index];
+	}
+
+	/**
+	 * @return Length in microseconds
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Load a Standard MIDI File
+	 * @param in Input (read to the end, not closed)
+	 * @return Sequence
+	 * @throws IOException If reading failed or the file is not a Standard MIDI File
+	 */
+	public static MidiSequence load(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int len;
+		while((len = in.read(buf)) > 0) out.write(buf, 0, len);
+		return parse(out.toByteArray());
+	}
+
+	/**
+	 * Parse a Standard MIDI File
+	 * @param data Whole file
+	 * @return Sequence
+	 * @throws IOException If the data is not a Standard MIDI File
+	 */
+	public static MidiSequence parse(byte[] data) throws IOException {
+		Reader r = new Reader(data);
+		if(r.readInt() != 0x4D546864 /* MThd */) throw new IOException("Not a Standard MIDI File");
+		int headerLength = r.readInt();
+		int format = r.readShort();
+		int trackCount = r.readShort();
+		int division = (short)r.readShort();
+		r.pos += headerLength - 6;
+		if(format > 1) throw new IOException("Unsupported MIDI file format " + format);
+
+		// Read every track as (tick, order, message); tempo changes are kept as messages with status 0
+		List<long[]> events = new ArrayList<long[]>();
+		long endTick = 0;
+		for(int t = 0; t < trackCount && r.pos + 8 <= data.length; t++) {
+			int chunk = r.readInt();
+			int chunkLength = r.readInt();
+			int end = Math.min(data.length, r.pos + chunkLength);
+			if(chunk != 0x4D54726B /* MTrk */) {
+				r.pos = end;
+				continue;
+			}
+			long tick = 0;
+			int status = 0;
+			while(r.pos < end) {
+				tick += r.readVariable();
+				int b = r.readByte();
+				if(b == 0xFF) {
+					int type = r.readByte();
+					int length = (int)r.readVariable();
+					if(type == 0x51 && length == 3) {
+						int tempo = (r.readByte() << 16) | (r.readByte() << 8) | r.readByte();
+						events.add(new long[] {tick, events.size(), (long)tempo << 8});
+					} else {
+						r.pos += length;
+					}
+					if(type == 0x2F) break;
+				} else if(b == 0xF0 || b == 0xF7) {
+					r.pos += (int)r.readVariable();
+				} else {
+					int data1;
+					if(b >= 0x80) {
+						status = b;
+						data1 = r.readByte();
+					} else {
+						// Running status
+						data1 = b;
+					}
+					int type = status & 0xF0;
+					int data2 = (type == 0xC0 || type == 0xD0) ? 0 : r.readByte();
+					events.add(new long[] {tick, events.size(), status | (data1 << 8) | (data2 << 16)});
+				}
+			}
+			endTick = Math.max(endTick, tick);
+			r.pos = end;
+		}
+
+		// Merge the tracks
+		long[][] sorted = events.toArray(new long[events.size()][]);
+		Arrays.sort(sorted, new Comparator<long[]>() {
+			public int compare(long[] a, long[] b) {
+				if(a[0] != b[0]) return (a[0] < b[0]) ? -1 : 1;
+				return (a[1] < b[1]) ? -1 : ((a[1] == b[1]) ? 0 : 1);
+			}
+		});
+
+		// Convert ticks to microseconds
+		double microsPerTick;
+		boolean smpte = division < 0;
+		if(smpte) {
+			int framesPerSecond = -(division >> 8);
+			int ticksPerFrame = division & 0xFF;
+			microsPerTick = 1000000.0 / (framesPerSecond * ticksPerFrame);
+		} else {
+			microsPerTick = (double)DEFAULT_TEMPO / division;
+		}
+		int count = 0;
+		for(long[] e : sorted) if((e[2] & 0xFF) != 0) count++;
+		long[] times = new long[count];
+		int[] messages = new int[count];
+		long lastTick = 0;
+		double micros = 0;
+		int i = 0;
+		for(long[] e : sorted) {
+			micros += (e[0] - lastTick) * microsPerTick;
+			lastTick = e[0];
+			if((e[2] & 0xFF) == 0) {
+				if(!smpte) microsPerTick = (double)(e[2] >> 8) / division;
+			} else {
+				times[i] = (long)micros;
+				messages[i] = (int)e[2];
+				i++;
+			}
+		}
+		micros += (endTick - lastTick) * microsPerTick;
+		return new MidiSequence(times, messages, (long)micros);
+	}
+
+	/**
+	 * Big endian reader of the file data
+	 */
+	private static class Reader {
+		final byte[] data;
+		int pos;
+
+		Reader(byte[] data) {
+			this.data = data;
+		}
+
+		int readByte() throws IOException {
+			if(pos >= data.length) throw new IOException("Unexpected end of MIDI file");
+			return data[pos++] & 0xFF;
+		}
+
+		int readShort() throws IOException {
+			return (readByte() << 8) | readByte();
+		}
+
+		int readInt() throws IOException {
+			return (readShort() << 16) | readShort();
+		}
+
+		long readVariable() throws IOException {
+			long value = 0;
+			for(int i = 0; i < 4; i++) {
+				int b = readByte();
+				value = (value << 7) | (b & 0x7F);
+				if((b & 0x80) == 0) break;
+			}
+			return value;
+		}
+	}
+}
@@ -0,0 +1,713 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import java.util.Arrays;
+
+/**
+ * Small software synthesizer which renders a MidiSequence to 16-bit stereo PCM at any sample rate.
+ * Each General MIDI instrument family has a simple oscillator patch with an ADSR envelope, and channel 10 has synthesized drums.
+ * <p>
+ * The sequence is rendered in blocks of a fixed number of frames. Events are applied at the start of the block they fall in,
+ * so smaller blocks time the notes more precisely and larger blocks cost less per frame.
+ * The number of voices is capped; a new note steals the oldest released voice, or the oldest voice if none is released.
+ * With a load limit, the cap is lowered while rendering a block takes more than that share of the block's duration,
+ * and raised again when there is headroom, so playback stays real time on slow devices.
+ * The render time of every block is recorded in a LatencyHistogram.
+ * @author NullNoname
+ */
+public class MidiSynth {
+	/** Lowest voice cap the load limit can lower to */
+	public static final int MIN_VOICE_LIMIT = 4;
+
+	/** Size of the sine table */
+	private static final int SINE_SIZE = 4096;
+
+	/** Sine table */
+	private static final float[] SINE = new float[SINE_SIZE];
+
+	/** Output gain, so a few loud voices do not clip */
+	private static final float MASTER_GAIN = 0.3f;
+
+	/** Time the sequence keeps rendering after its last event, for the releases */
+	private static final long TAIL_MICROS = 2000000;
+
+	/** Initial pitch sweep of the drums with a pitch drop (added to 1x) */
+	private static final float PITCH_SWEEP = 1.5f;
+
+	/** Sample rate the pitch drops are given for */
+	private static final double PATCH_RATE = 44100;
+
+	/** Smoothing of the load average (weight of the newest block) */
+	private static final float LOAD_SMOOTHING = 0.1f;
+
+	/** Waveforms */
+	private static final int SINE_WAVE = 0, TRIANGLE = 1, SQUARE = 2, SAW = 3, NOISE = 4;
+
+	/** Envelope stages */
+	private static final int ATTACK = 0, DECAY = 1, SUSTAIN = 2, RELEASE = 3;
+
+	/** Drum channel (channel 10) */
+	private static final int DRUM_CHANNEL = 9;
+
+	/** Patches of the 16 General MIDI instrument families (program / 8) */
+	private static final Patch[] PATCHES = {
+		new Patch(TRIANGLE, 0.002f, 1.5f, 0f, 0.3f, 0.5f, 0.9f),	// Piano
+		new Patch(SINE_WAVE, 0.001f, 0.8f, 0f, 0.3f, 1f, 0.8f),	// Chromatic percussion
+		new Patch(SQUARE, 0.01f, 0.1f, 0.8f, 0.08f, 0.25f, 0.4f),	// Organ
+		new Patch(SAW, 0.002f, 1.2f, 0f, 0.2f, 0.3f, 0.6f),		// Guitar
+		new Patch(TRIANGLE, 0.005f, 0.6f, 0.5f, 0.1f, 0.3f, 1f),	// Bass
+		new Patch(SAW, 0.08f, 0.3f, 0.8f, 0.3f, 0.15f, 0.5f),		// Strings
+		new Patch(SAW, 0.1f, 0.3f, 0.8f, 0.4f, 0.12f, 0.5f),		// Ensemble
+		new Patch(SQUARE, 0.03f, 0.2f, 0.7f, 0.15f, 0.2f, 0.45f),	// Brass
+		new Patch(SQUARE, 0.02f, 0.1f, 0.8f, 0.1f, 0.12f, 0.45f),	// Reed
+		new Patch(SINE_WAVE, 0.04f, 0.1f, 0.9f, 0.12f, 1f, 0.8f),	// Pipe
+		new Patch(SAW, 0.005f, 0.1f, 0.8f, 0.1f, 0.35f, 0.45f),	// Synth lead
+		new Patch(TRIANGLE, 0.3f, 0.5f, 0.7f, 0.6f, 0.4f, 0.8f),	// Synth pad
+		new Patch(TRIANGLE, 0.1f, 0.5f, 0.5f, 0.5f, 0.4f, 0.7f),	// Synth effects
+		new Patch(SAW, 0.002f, 0.8f, 0f, 0.2f, 0.3f, 0.6f),		// Ethnic
+		new Patch(SINE_WAVE, 0.001f, 0.4f, 0f, 0.2f, 1f, 0.9f),	// Percussive
+		new Patch(NOISE, 0.05f, 0.5f, 0.3f, 0.3f, 0.2f, 0.4f),		// Sound effects
+	};
+
+	/** Drum patches */
+	private static final Patch KICK = new Patch(SINE_WAVE, 0.001f, 0.25f, 0f, 0.05f, 1f, 1.2f, 60f, 0.9995f);
+	private static final Patch TOM = new Patch(SINE_WAVE, 0.001f, 0.3f, 0f, 0.05f, 1f, 0.9f, 0f, 0.9998f);
+	private static final Patch SNARE = new Patch(NOISE, 0.001f, 0.18f, 0f, 0.05f, 0.5f, 0.7f);
+	private static final Patch CLOSED_HAT = new Patch(NOISE, 0.001f, 0.05f, 0f, 0.03f, 0.9f, 0.35f);
+	private static final Patch OPEN_HAT = new Patch(NOISE, 0.001f, 0.3f, 0f, 0.1f, 0.9f, 0.3f);
+	private static final Patch CYMBAL = new Patch(NOISE, 0.001f, 1.2f, 0f, 0.3f, 0.8f, 0.3f);
+	private static final Patch OTHER_DRUM = new Patch(NOISE, 0.001f, 0.1f, 0f, 0.05f, 0.6f, 0.4f);
+
+	static {
+		for(int i = 0; i < SINE_SIZE; i++) {
+			SINE[i] = (float)Math.sin(2 * Math.PI * i / SINE_SIZE);
+		}
+	}
+
+	/** Output sample rate */
+	private final int sampleRate;
+	/** Frames per render block */
+	private final int blockFrames;
+	/** Maximum number of voices */
+	private final int maxPolyphony;
+
+	/** Voices */
+	private final Voice[] voices;
+	/** Channel states */
+	private final int[] programs = new int[16];
+	private final float[] channelGains = new float[16], pans = new float[16], bends = new float[16];
+	private final int[] volumes = new int[16], expressions = new int[16];
+	private final boolean[] sustains = new boolean[16];
+
+	/** Float accumulator of one block (interleaved stereo) */
+	private final float[] accumulator;
+	/** Last rendered block, and how much of it has been returned */
+	private final short[] block;
+	private int blockPos, blockLength;
+
+	/** Sequence being rendered */
+	private MidiSequence sequence;
+	/** Next event of the sequence */
+	private int eventIndex;
+	/** Frame position of the next block */
+	private long framePosition;
+	/** Frame position where the rendering ends */
+	private long endFrame;
+
+	/** Current voice cap (lowered by the load limit) */
+	private int voiceLimit;
+	/** Share of a block's duration its rendering may take before the voice cap is lowered (0 to disable) */
+	private float loadLimit;
+	/** Smoothed render time / block duration */
+	private float load;
+	/** Counter of started voices, to find the oldest one */
+	private long voiceSerial;
+	/** Noise generator state */
+	private int noiseSeed = 0x12345678;
+
+	/** Render time of each block */
+	private final LatencyHistogram renderTimes = new LatencyHistogram();
+	/** Statistics */
+	private int peakVoices, minVoiceLimit;
+	private long stolenVoices, clippedSamples;
+
+	/**
+	 * Constructor
+	 * @param sampleRate Output sample rate
+	 * @param blockFrames Frames per render block
+	 * @param maxPolyphony Maximum number of voices
+	 */
+	public MidiSynth(int sampleRate, int blockFrames, int maxPolyphony) {
+		if(sampleRate <= 0 || blockFrames <= 0 || maxPolyphony <= 0) throw new IllegalArgumentException("Invalid synth settings");
+		this.sampleRate = sampleRate;
+		this.blockFrames = blockFrames;
+		this.maxPolyphony = maxPolyphony;
+		this.voices = new Voice[maxPolyphony];
+		for(int i = 0; i < maxPolyphony; i++) voices[i] = new Voice();
+		this.accumulator = new float[blockFrames * 2];
+		this.block = new short[blockFrames * 2];
+		this.voiceLimit = maxPolyphony;
+		this.minVoiceLimit = maxPolyphony;
+		resetChannels();
+	}
+
+	/**
+	 * @return Output sample rate
+	 */
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * @return Frames per render block
+	 */
+	public int getBlockFrames() {
+		return blockFrames;
+	}
+
+	/**
+	 * @return Maximum number of voices
+	 */
+	public int getMaxPolyphony() {
+		return maxPolyphony;
+	}
+
+	/**
+	 * @return Share of a block's duration its rendering may take before the voice cap is lowered (0 if disabled)
+	 */
+	public float getLoadLimit() {
+		return loadLimit;
+	}
+
+	/**
+	 * Lower the voice cap while rendering takes more than a share of real time. The output then depends on the CPU speed.
+	 * @param loadLimit Share of a block's duration (e.g. 0.5), 0 to disable
+	 */
+	public void setLoadLimit(float loadLimit) {
+		this.loadLimit = loadLimit;
+	}
+
+	/**
+	 * Start rendering a sequence from the beginning
+	 * @param sequence Sequence
+	 */
+	public void setSequence(MidiSequence sequence) {
+		this.sequence = sequence;
+		eventIndex = 0;
+		framePosition = 0;
+		endFrame = toFrame(sequence.getLength() + TAIL_MICROS);
+		blockPos = blockLength = 0;
+		for(Voice v : voices) v.active = false;
+		resetChannels();
+	}
+
+	/**
+	 * @return true when the whole sequence has been rendered
+	 */
+	public boolean isFinished() {
+		return sequence == null || (blockPos >= blockLength && framePosition >= endFrame);
+	}
+
+	/**
+	 * Render PCM
+	 * @param out Output (interleaved stereo)
+	 * @param offset First output sample index
+	 * @param frames Number of frames wanted
+	 * @return Number of frames rendered (less than frames only at the end)
+	 */
+	public int render(short[] out, int offset, int frames) {
+		int done = 0;
+		while(done < frames) {
+			if(blockPos >= blockLength) {
+				if(framePosition >= endFrame) break;
+				renderBlock();
+			}
+			int count = Math.min(frames - done, (blockLength - blockPos) / 2);
+			System.arraycopy(block, blockPos, out, offset + done * 2, count * 2);
+			blockPos += count * 2;
+			done += count;
+		}
+		return done;
+	}
+
+	/**
+	 * @return Render time of each block
+	 */
+	public LatencyHistogram getRenderTimes() {
+		return renderTimes;
+	}
+
+	/**
+	 * @return Duration of one block in nanoseconds
+	 */
+	public long getBlockNanos() {
+		return blockFrames * 1000000000L / sampleRate;
+	}
+
+	/**
+	 * @return Largest number of voices sounding at once
+	 */
+	public int getPeakVoices() {
+		return peakVoices;
+	}
+
+	/**
+	 * @return Number of voices cut off to make room for new notes
+	 */
+	public long getStolenVoices() {
+		return stolenVoices;
+	}
+
+	/**
+	 * @return Statistics
+	 */
+	public String getStats() {
+		long budget = getBlockNanos();
+		return String.format("MIDI synth: %dHz, %d-frame blocks (%.2fms), %d blocks: mean %.3fms, p99 %.3fms, max %.3fms (%.1f%% of real time), " +
+				"peak %d/%d voices, %d stolen, voice cap down to %d, %d clipped samples",
+				sampleRate, blockFrames, budget / 1e6, renderTimes.getCount(), renderTimes.getMean() / 1e6,
+				renderTimes.getValueAtPercentile(99) / 1e6, renderTimes.getMax() / 1e6, renderTimes.getMean() * 100.0 / budget,
+				peakVoices, maxPolyphony, stolenVoices, minVoiceLimit, clippedSamples);
+	}
+
+	/**
+	 * Convert a time to a frame position
+	 * @param micros Time in microseconds
+	 * @return Frame position
+	 */
+	private long toFrame(long micros) {
+		return micros * sampleRate / 1000000;
+	}
+
+	/**
+	 * Set every channel to its initial state
+	 */
+	private void resetChannels() {
+		for(int c = 0; c < 16; c++) {
+			programs[c] = 0;
+			volumes[c] = 100;
+			expressions[c] = 127;
+			pans[c] = 0.5f;
+			bends[c] = 1f;
+			sustains[c] = false;
+			updateChannelGain(c);
+		}
+	}
+
+	/**
+	 * Render the next block
+	 */
+	private void renderBlock() {
+		long begin = System.nanoTime();
+
+		// Events of this block
+		long blockEnd = framePosition + blockFrames;
+		while(sequence != null && eventIndex < sequence.size() && toFrame(sequence.getTime(eventIndex)) < blockEnd) {
+			processMessage(sequence.getMessage(eventIndex++));
+		}
+
+		// Voices
+		float[] acc = accumulator;
+		Arrays.fill(acc, 0f);
+		int activeVoices = 0;
+		for(Voice v : voices) {
+			if(v.active) {
+				renderVoice(v, acc);
+				if(v.active) activeVoices++;
+			}
+		}
+		peakVoices = Math.max(peakVoices, activeVoices);
+
+		// Output
+		for(int i = 0; i < acc.length; i++) {
+			int s = (int)(acc[i] * (MASTER_GAIN * 32768f));
+			if(s > Short.MAX_VALUE) {
+				s = Short.MAX_VALUE;
+				clippedSamples++;
+			} else if(s < Short.MIN_VALUE) {
+				s = Short.MIN_VALUE;
+				clippedSamples++;
+			}
+			block[i] = (short)s;
+		}
+		int frames = (int)Math.min(blockFrames, endFrame - framePosition);
+		blockLength = frames * 2;
+		blockPos = 0;
+		framePosition = blockEnd;
+
+		long elapsed = System.nanoTime() - begin;
+		renderTimes.record(elapsed);
+		if(loadLimit > 0) updateVoiceLimit(elapsed);
+	}
+
+	/**
+	 * Lower or raise the voice cap from the render time
+	 * @param elapsed Render time of the last block
+	 */
+	private void updateVoiceLimit(long elapsed) {
+		load += (elapsed / (float)getBlockNanos() - load) * LOAD_SMOOTHING;
+		if(load > loadLimit && voiceLimit > MIN_VOICE_LIMIT) {
+			voiceLimit--;
+			minVoiceLimit = Math.min(minVoiceLimit, voiceLimit);
+			// Make room at once, releasing the oldest voices quickly
+			int count = 0;
+			for(Voice v : voices) if(v.active) count++;
+			while(count-- > voiceLimit) stealVoice().active = false;
+		} else if(load < loadLimit / 2 && voiceLimit < maxPolyphony) {
+			voiceLimit++;
+		}
+	}
+
+	/**
+	 * Apply one channel message
+	 * @param message status | data1 << 8 | data2 << 16
+	 */
+	private void processMessage(int message) {
+		int channel = message & 0x0F;
+		int data1 = (message >> 8) & 0x7F;
+		int data2 = (message >> 16) & 0x7F;
+		switch(message & 0xF0) {
+		case 0x90:
+			// Note on with velocity 0 is a note off
+			if(data2 > 0) noteOn(channel, data1, data2);
+			else noteOff(channel, data1);
+			break;
+		case 0x80:
+			noteOff(channel, data1);
+			break;
+		case 0xB0:
+			controlChange(channel, data1, data2);
+			break;
+		case 0xC0:
+			programs[channel] = data1;
+			break;
+		case 0xE0:
+			int bend = ((data2 << 7) | data1) - 8192;
+			bends[channel] = (float)Math.pow(2, bend / 8192.0 * 2 / 12);
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Apply a control change
+	 * @param channel Channel
+	 * @param controller Controller number
+	 * @param value Value
+	 */
+	private void controlChange(int channel, int controller, int value) {
+		switch(controller) {
+		case 7:
+			volumes[channel] = value;
+			updateChannelGain(channel);
+			break;
+		case 10:
+			pans[channel] = value / 127f;
+			break;
+		case 11:
+			expressions[channel] = value;
+			updateChannelGain(channel);
+			break;
+		case 64:
+			sustains[channel] = value >= 64;
+			if(!sustains[channel]) {
+				for(Voice v : voices) {
+					if(v.active && v.channel == channel && v.sustained) {
+						v.sustained = false;
+						v.stage = RELEASE;
+					}
+				}
+			}
+			break;
+		case 120:
+			// All sound off
+			for(Voice v : voices) if(v.active && v.channel == channel) v.active = false;
+			break;
+		case 121:
+			// Reset all controllers
+			volumes[channel] = 100;
+			expressions[channel] = 127;
+			pans[channel] = 0.5f;
+			bends[channel] = 1f;
+			sustains[channel] = false;
+			updateChannelGain(channel);
+			break;
+		case 123:
+			// All notes off
+			for(Voice v : voices) if(v.active && v.channel == channel) v.stage = RELEASE;
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Update the gain of a channel from its volume and expression
+	 * @param channel Channel
+	 */
+	private void updateChannelGain(int channel) {
+		channelGains[channel] = (volumes[channel] / 127f) * (expressions[channel] / 127f);
+	}
+
+	/**
+	 * Start a note
+	 * @param channel Channel
+	 * @param note Note number
+	 * @param velocity Velocity (1-127)
+	 */
+	private void noteOn(int channel, int note, int velocity) {
+		Patch patch;
+		float frequency = (float)(440 * Math.pow(2, (note - 69) / 12.0));
+		if(channel == DRUM_CHANNEL) {
+			patch = getDrumPatch(note);
+			if(patch.frequency > 0) frequency = patch.frequency;
+			else if(patch.waveform == SINE_WAVE) frequency = 60 + (note - 40) * 8;	// Toms: higher notes are smaller drums
+		} else {
+			// A note which is playing again restarts
+			for(Voice v : voices) {
+				if(v.active && v.channel == channel && v.note == note && v.stage != RELEASE) v.stage = RELEASE;
+			}
+			patch = PATCHES[programs[channel] >> 3];
+		}
+
+		Voice v = null;
+		int active = 0;
+		for(Voice candidate : voices) {
+			if(candidate.active) active++;
+			else if(v == null) v = candidate;
+		}
+		if(v == null || active >= voiceLimit) {
+			v = stealVoice();
+			stolenVoices++;
+		}
+
+		v.active = true;
+		v.channel = channel;
+		v.note = note;
+		v.patch = patch;
+		v.serial = voiceSerial++;
+		v.stage = ATTACK;
+		v.level = 0f;
+		v.phase = 0f;
+		v.frequency = frequency;
+		v.sweep = (patch.pitchDrop < 1f) ? PITCH_SWEEP : 0f;
+		v.sweepDecay = (float)Math.pow(patch.pitchDrop, PATCH_RATE / sampleRate);
+		v.filtered = 0f;
+		v.sustained = false;
+		float velocityGain = velocity / 127f;
+		v.gain = velocityGain * velocityGain * patch.gain;
+		v.attackStep = 1f / Math.max(1f, patch.attack * sampleRate);
+		v.decayStep = (1f - patch.sustain) / Math.max(1f, patch.decay * sampleRate);
+		v.releaseStep = 1f / Math.max(1f, patch.release * sampleRate);
+	}
+
+	/**
+	 * Release a note
+	 * @param channel Channel
+	 * @param note Note number
+	 */
+	private void noteOff(int channel, int note) {
+		if(channel == DRUM_CHANNEL) return;
+		for(Voice v : voices) {
+			if(v.active && v.channel == channel && v.note == note && v.stage != RELEASE && !v.sustained) {
+				if(sustains[channel]) v.sustained = true;
+				else v.stage = RELEASE;
+			}
+		}
+	}
+
+	/**
+	 * Choose the voice to steal: the oldest released one, or the oldest one
+	 * @return Voice
+	 */
+	private Voice stealVoice() {
+		Voice oldest = null, oldestReleased = null;
+		for(Voice v : voices) {
+			if(!v.active) return v;
+			if(oldest == null || v.serial < oldest.serial) oldest = v;
+			if(v.stage == RELEASE && (oldestReleased == null || v.serial < oldestReleased.serial)) oldestReleased = v;
+		}
+		return (oldestReleased != null) ? oldestReleased : oldest;
+	}
+
+	/**
+	 * Get the patch of a drum note
+	 * @param note Note number
+	 * @return Patch
+	 */
+	private static Patch getDrumPatch(int note) {
+		switch(note) {
+		case 35: case 36:
+			return KICK;
+		case 41: case 43: case 45: case 47: case 48: case 50:
+			return TOM;
+		case 37: case 38: case 39: case 40:
+			return SNARE;
+		case 42: case 44:
+			return CLOSED_HAT;
+		case 46:
+			return OPEN_HAT;
+		case 49: case 51: case 52: case 53: case 55: case 57: case 59:
+			return CYMBAL;
+		default:
+			return OTHER_DRUM;
+		}
+	}
+
+	/**
+	 * Add one voice to the accumulator
+	 * @param v Voice
+	 * @param acc Accumulator
+	 */
+	private void renderVoice(Voice v, float[] acc) {
+		Patch patch = v.patch;
+		int channel = v.channel;
+		float gain = v.gain * channelGains[channel];
+		float pan = pans[channel];
+		float gainLeft = gain * SINE[(int)((1 - pan) * (SINE_SIZE / 4)) & (SINE_SIZE - 1)];
+		float gainRight = gain * SINE[(int)(pan * (SINE_SIZE / 4)) & (SINE_SIZE - 1)];
+		float increment = v.frequency * bends[channel] / sampleRate;
+		float sweepDecay = v.sweepDecay;
+		float cutoff = patch.cutoff;
+		float phase = v.phase, level = v.level, filtered = v.filtered, sweep = v.sweep;
+		int stage = v.stage;
+		int seed = noiseSeed;
+
+		for(int i = 0; i < acc.length; i += 2) {
+			// Envelope
+			switch(stage) {
+			case ATTACK:
+				level += v.attackStep;
+				if(level >= 1f) {
+					level = 1f;
+					stage = DECAY;
+				}
+				break;
+			case DECAY:
+				level -= v.decayStep;
+				if(level <= patch.sustain) {
+					level = patch.sustain;
+					stage = SUSTAIN;
+				}
+				break;
+			case RELEASE:
+				level -= v.releaseStep;
+				break;
+			default:
+				break;
+			}
+			if(level <= 0f && stage != ATTACK) {
+				v.active = false;
+				break;
+			}
+
+			// Oscillator
+			float x;
+			switch(patch.waveform) {
+			case SINE_WAVE:
+				x = SINE[(int)(phase * SINE_SIZE) & (SINE_SIZE - 1)];
+				break;
+			case TRIANGLE:
+				x = (phase < 0.5f) ? phase * 4 - 1 : 3 - phase * 4;
+				break;
+			case SQUARE:
+				x = (phase < 0.5f) ? 1f : -1f;
+				break;
+			case SAW:
+				x = phase * 2 - 1;
+				break;
+			default:
+				seed = seed * 1103515245 + 12345;
+				x = (seed >> 8) * (1f / (1 << 23));
+				break;
+			}
+			phase += increment * (1f + sweep);
+			if(phase >= 1f) phase -= (int)phase;
+			sweep *= sweepDecay;
+
+			// One-pole low pass
+			filtered += (x - filtered) * cutoff;
+			float y = filtered * level;
+			acc[i] += y * gainLeft;
+			acc[i + 1] += y * gainRight;
+		}
+
+		v.phase = phase;
+		v.level = level;
+		v.filtered = filtered;
+		v.sweep = sweep;
+		v.stage = stage;
+		noiseSeed = seed;
+	}
+
+	/**
+	 * Sound of an instrument family or a drum
+	 */
+	private static class Patch {
+		final int waveform;
+		/** Envelope times in seconds, sustain level */
+		final float attack, decay, sustain, release;
+		/** Low pass coefficient (1 for none) */
+		final float cutoff;
+		/** Gain */
+		final float gain;
+		/** Fixed frequency (0 to use the note) */
+		final float frequency;
+		/** Decay per frame at 44.1kHz of the initial pitch sweep (1 for no sweep) */
+		final float pitchDrop;
+
+		Patch(int waveform, float attack, float decay, float sustain, float release, float cutoff, float gain) {
+			this(waveform, attack, decay, sustain, release, cutoff, gain, 0f, 1f);
+		}
+
+		Patch(int waveform, float attack, float decay, float sustain, float release, float cutoff, float gain, float frequency, float pitchDrop) {
+			this.waveform = waveform;
+			this.attack = attack;
+			this.decay = decay;
+			this.sustain = sustain;
+			this.release = release;
+			this.cutoff = cutoff;
+			this.gain = gain;
+			this.frequency = frequency;
+			this.pitchDrop = pitchDrop;
+		}
+	}
+
+	/**
+	 * One playing note
+	 */
+	private static class Voice {
+		boolean active, sustained;
+		int channel, note, stage;
+		long serial;
+		Patch patch;
+		float frequency, phase, level, gain, filtered, sweep, sweepDecay;
+		float attackStep, decayStep, releaseStep;
+	}
+}
@@ -0,0 +1,224 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+import paulscode.sound.FilenameURL;
+import paulscode.sound.ICodec;
+import paulscode.sound.PAudioFormat;
+import paulscode.sound.SoundBuffer;
+import paulscode.sound.SoundSystemConfig;
+
+/**
+ * Codec which renders MIDI files with MidiSynth, so they play as normal streams instead of through a MIDI channel.
+ * Once a codec is registered for MIDI, SoundSystem streams MIDI files like any other format (see SoundSystemConfig.midiCodec()).
+ * The sample rate, render block size, polyphony and load limit are taken from the defaults when a file is opened.
+ * The statistics of the last rendered file are kept for the log.
+ * @author NullNoname
+ */
+public class MidiSynthCodec implements ICodec {
+	/** Class name for the log */
+	private static final String CLASS_NAME = "MidiSynthCodec";
+
+	/** Default settings */
+	private static volatile int defaultSampleRate = 44100;
+	private static volatile int defaultBlockFrames = 256;
+	private static volatile int defaultMaxPolyphony = 32;
+	private static volatile float defaultLoadLimit;
+
+	/** Statistics of the last rendered file */
+	private static volatile String lastStats;
+
+	/**
+	 * @return Output sample rate of new streams
+	 */
+	public static int getDefaultSampleRate() {
+		return defaultSampleRate;
+	}
+
+	/**
+	 * Set the output sample rate of new streams. Use the native rate of the device to avoid resampling.
+	 * @param defaultSampleRate Sample rate
+	 */
+	public static void setDefaultSampleRate(int defaultSampleRate) {
+		MidiSynthCodec.defaultSampleRate = defaultSampleRate;
+	}
+
+	/**
+	 * @return Frames per render block of new streams
+	 */
+	public static int getDefaultBlockFrames() {
+		return defaultBlockFrames;
+	}
+
+	/**
+	 * Set the frames per render block of new streams. Events are applied at block boundaries.
+	 * @param defaultBlockFrames Frames per render block
+	 */
+	public static void setDefaultBlockFrames(int defaultBlockFrames) {
+		MidiSynthCodec.defaultBlockFrames = defaultBlockFrames;
+	}
+
+	/**
+	 * @return Maximum number of voices of new streams
+	 */
+	public static int getDefaultMaxPolyphony() {
+		return defaultMaxPolyphony;
+	}
+
+	/**
+	 * Set the maximum number of voices of new streams (more notes steal voices)
+	 * @param defaultMaxPolyphony Maximum number of voices
+	 */
+	public static void setDefaultMaxPolyphony(int defaultMaxPolyphony) {
+		MidiSynthCodec.defaultMaxPolyphony = defaultMaxPolyphony;
+	}
+
+	/**
+	 * @return Load limit of new streams (0 if disabled)
+	 */
+	public static float getDefaultLoadLimit() {
+		return defaultLoadLimit;
+	}
+
+	/**
+	 * Set the load limit of new streams (see MidiSynth.setLoadLimit()). Disabled by default, so renders are reproducible.
+	 * @param defaultLoadLimit Share of a block's duration, 0 to disable
+	 */
+	public static void setDefaultLoadLimit(float defaultLoadLimit) {
+		MidiSynthCodec.defaultLoadLimit = defaultLoadLimit;
+	}
+
+	/**
+	 * @return Statistics of the last rendered file (null if none)
+	 */
+	public static String getLastStats() {
+		return lastStats;
+	}
+
+	/** Synthesizer (null if not initialized) */
+	private MidiSynth synth;
+	/** Output format */
+	private PAudioFormat audioFormat;
+	/** Rendered samples of one read() */
+	private short[] samples = new short[0];
+	/** Filename, for the statistics */
+	private String filename;
+
+	public void reverseByteOrder(boolean b) {
+		// The output is little endian, which is what AudioTrack wants (same as CodecWavN)
+	}
+
+	public boolean initialize(FilenameURL filenameURL) {
+		cleanup();
+
+		if(filenameURL == null) {
+			errorMessage("filenameURL null in method 'initialize'");
+			return false;
+		}
+
+		MidiSequence sequence;
+		InputStream in = null;
+		try {
+			in = filenameURL.openStream();
+			sequence = MidiSequence.load(in);
+		} catch (Exception e) {
+			errorMessage("Unable to load '" + filenameURL.getFilename() + "'");
+			SoundSystemConfig.getLogger().printStackTrace(e, 1);
+			return false;
+		} finally {
+			try {if(in != null) in.close();} catch (Exception e2) {}
+		}
+
+		int sampleRate = defaultSampleRate;
+		synth = new MidiSynth(sampleRate, defaultBlockFrames, defaultMaxPolyphony);
+		synth.setLoadLimit(defaultLoadLimit);
+		synth.setSequence(sequence);
+		audioFormat = new PAudioFormat(sampleRate, 16, 2, true, false);
+		filename = filenameURL.getFilename();
+		OutputNegotiator.reportRendered(filename, sampleRate);
+		return true;
+	}
+
+	public boolean initialized() {
+		return synth != null;
+	}
+
+	public SoundBuffer read() {
+		if(synth == null || synth.isFinished()) return null;
+		int frames = SoundSystemConfig.getStreamingBufferSize() / 4;
+		if(samples.length < frames * 2) samples = new short[frames * 2];
+		frames = synth.render(samples, 0, frames);
+		if(frames <= 0) return null;
+
+		byte[] data = PcmBufferPool.allocate(frames * 4);
+		for(int i = 0; i < frames * 2; i++) {
+			data[i * 2] = (byte)samples[i];
+			data[i * 2 + 1] = (byte)(samples[i] >> 8);
+		}
+		return new SoundBuffer(data, audioFormat);
+	}
+
+	public SoundBuffer readAll() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SoundBuffer buffer;
+		while((buffer = read()) != null) {
+			out.write(buffer.audioData, 0, buffer.audioData.length);
+			PcmBufferPool.recycle(buffer.audioData);
+		}
+		return (out.size() > 0) ? new SoundBuffer(out.toByteArray(), audioFormat) : null;
+	}
+
+	public boolean endOfStream() {
+		return synth == null || synth.isFinished();
+	}
+
+	public void cleanup() {
+		if(synth != null && synth.getRenderTimes().getCount() > 0) {
+			lastStats = "'" + filename + "' " + synth.getStats();
+			SoundSystemConfig.getLogger().message(lastStats, 0);
+		}
+		synth = null;
+	}
+
+	public PAudioFormat getAudioFormat() {
+		return audioFormat;
+	}
+
+	/**
+	 * @return Synthesizer (null if not initialized)
+	 */
+	public MidiSynth getSynth() {
+		return synth;
+	}
+
+	private void errorMessage(String message) {
+		SoundSystemConfig.getLogger().errorMessage(CLASS_NAME, message, 0);
+	}
+}
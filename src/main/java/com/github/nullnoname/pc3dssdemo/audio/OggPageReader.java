@@ -0,0 +1,217 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.jcraft.jogg.Page;
+import com.jcraft.jogg.SyncState;
+
+/**
+ * Reads Ogg pages on demand from a range of a FileChannel (e.g. an uncompressed APK asset) with positional reads.
+ * Only the bytes of the page being parsed are kept in the SyncState window, which never grows beyond
+ * one maximum-size Ogg page plus one read, so the memory use does not depend on the length of the file.
+ * Pages can be looked up by granule position with a bisection search, which reads a few pages instead of the whole file.
+ * @author NullNoname
+ */
+public class OggPageReader {
+	/** Bytes read from the channel at once */
+	public static final int READ_SIZE = 4096 * 2;
+
+	/** The bisection search stops when the range is this small, and the rest is scanned page by page */
+	private static final int BISECT_MIN = READ_SIZE * 2;
+
+	/** File */
+	private final FileChannel channel;
+
+	/** Range of the Ogg data in the channel */
+	private final long start, end;
+
+	/** Page parser (and the read window) */
+	private final SyncState sync = new SyncState();
+
+	/** ByteBuffer over the read window (wrapped again when the window grows) */
+	private ByteBuffer window;
+
+	/** Position of the next byte to read from the channel */
+	private long position;
+
+	/** Position and length of the last page returned */
+	private long pageOffset;
+	private int pageLength;
+
+	/** Total bytes read from the channel */
+	private long bytesRead;
+
+	/**
+	 * Constructor
+	 * @param channel File
+	 * @param start Position of the Ogg data in the channel
+	 * @param end End of the Ogg data in the channel
+	 */
+	public OggPageReader(FileChannel channel, long start, long end) {
+		this.channel = channel;
+		this.start = start;
+		this.end = end;
+		sync.init();
+		position = start;
+	}
+
+	/**
+	 * @return Position of the Ogg data in the channel
+	 */
+	public long getStart() {
+		return start;
+	}
+
+	/**
+	 * @return End of the Ogg data in the channel
+	 */
+	public long getEnd() {
+		return end;
+	}
+
+	/**
+	 * @return Position of the last page returned by nextPage()
+	 */
+	public long getPageOffset() {
+		return pageOffset;
+	}
+
+	/**
+	 * @return Position just after the last page returned by nextPage()
+	 */
+	public long getPageEnd() {
+		return pageOffset + pageLength;
+	}
+
+	/**
+	 * @return Total bytes read from the channel
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * @return Current size of the read window in bytes
+	 */
+	public int getWindowSize() {
+		return (sync.data == null) ? 0 : sync.data.length;
+	}
+
+	/**
+	 * Read the next page. After seek(), bytes up to the next valid page are skipped.
+	 * The page points into the read window, so it is only valid until the next call.
+	 * @param page Page to fill
+	 * @return false at the end of the data
+	 * @throws IOException If the channel cannot be read
+	 */
+	public boolean nextPage(Page page) throws IOException {
+		while(true) {
+			int result = sync.pageout(page);
+			if(result == 1) {
+				pageLength = page.header_len + page.body_len;
+				pageOffset = position - (sync.getBufferOffset() - sync.getDataOffset()) - pageLength;
+				return true;
+			}
+			if(result == -1) continue;	// Skipped bytes before a page
+			if(position >= end) return false;
+
+			int size = (int)Math.min(READ_SIZE, end - position);
+			int index = sync.buffer(size);
+			if(window == null || window.array() != sync.data) window = ByteBuffer.wrap(sync.data);
+			window.limit(index + size).position(index);
+			int count = channel.read(window, position);
+			if(count <= 0) return false;
+			position += count;
+			bytesRead += count;
+			sync.wrote(count);
+		}
+	}
+
+	/**
+	 * Continue reading from a position. The next page is the first valid page at or after it.
+	 * @param offset Position in the channel
+	 */
+	public void seek(long offset) {
+		sync.reset();
+		position = Math.max(start, Math.min(offset, end));
+	}
+
+	/**
+	 * Find the last page of a logical stream whose granule position is at or before a target.
+	 * Pages without a granule position (-1, no packet ends on them) are skipped.
+	 * The read position is left somewhere in the searched range, so call seek() afterwards.
+	 * @param granule Target granule position
+	 * @param serialno Serial number of the logical stream
+	 * @param from First page to consider (e.g. the first audio page)
+	 * @return Position of the page, or from if no page is early enough
+	 * @throws IOException If the channel cannot be read
+	 */
+	public long findPage(long granule, int serialno, long from) throws IOException {
+		Page page = new Page();
+		long lo = from, hi = end, best = from;
+
+		while(hi - lo > BISECT_MIN) {
+			long mid = lo + (hi - lo) / 2;
+			seek(mid);
+			long found = -1, foundGranule = -1;
+			while(nextPage(page) && pageOffset < hi) {
+				if(page.serialno() == serialno && page.granulepos() != -1) {
+					found = pageOffset;
+					foundGranule = page.granulepos();
+					break;
+				}
+			}
+			if(found < 0 || foundGranule > granule) {
+				hi = mid;
+			} else {
+				best = found;
+				lo = getPageEnd();
+			}
+		}
+
+		// lo is always the start of a page here
+		seek(lo);
+		while(nextPage(page) && pageOffset < hi) {
+			if(page.serialno() != serialno || page.granulepos() == -1) continue;
+			if(page.granulepos() > granule) break;
+			best = pageOffset;
+		}
+		return best;
+	}
+
+	/**
+	 * Release the read window
+	 */
+	public void close() {
+		sync.clear();
+		window = null;
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import paulscode.sound.PAudioFormat;
+import paulscode.sound.SoundSystemConfig;
+
+/**
+ * Output format negotiation: the native output rate and buffer size of the device, queried once by the app,
+ * and the path each file took to reach it.
+ * A stream in another format makes the platform resample it, which costs CPU in the mixer and keeps the AudioTrack off
+ * the low-latency (fast) mixer path. So once the native output is set, the codecs which render (modules, MIDI) render at
+ * its rate, and the decoded formats go through ResamplingCodec, which converts them to 16-bit stereo at that rate.
+ * Nothing changes until {@link #setNativeOutput(int, int)} is called, so the headless tools keep the formats of the files.
+ * @author NullNoname
+ */
+public class OutputNegotiator {
+	/** Class name for the log */
+	private static final String CLASS_NAME = "OutputNegotiator";
+
+	/** Channels of the negotiated output */
+	public static final int CHANNELS = 2;
+
+	/** Native output sample rate (0 if not negotiated) */
+	private static volatile int sampleRate;
+
+	/** Native output buffer size in frames (0 if unknown) */
+	private static volatile int bufferFrames;
+
+	/** Path of each file (guarded by itself) */
+	private static final Map<String, String> paths = new TreeMap<String, String>();
+
+	/**
+	 * Set the native output, or turn the negotiation off. Applies to the streams started from now on.
+	 * CodecRegistry.setNativeOutput() also registers the codecs again.
+	 * @param sampleRate Native output sample rate (0 to keep the formats of the files)
+	 * @param bufferFrames Native output buffer size in frames (0 if unknown)
+	 */
+	public static void setNativeOutput(int sampleRate, int bufferFrames) {
+		OutputNegotiator.sampleRate = Math.max(0, sampleRate);
+		OutputNegotiator.bufferFrames = Math.max(0, bufferFrames);
+	}
+
+	/**
+	 * @return true if the native output is set
+	 */
+	public static boolean isNegotiated() {
+		return sampleRate > 0;
+	}
+
+	/**
+	 * @return Native output sample rate (0 if not negotiated)
+	 */
+	public static int getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * @return Native output buffer size in frames (0 if unknown)
+	 */
+	public static int getBufferFrames() {
+		return bufferFrames;
+	}
+
+	/**
+	 * Get the rate a rendering codec should use
+	 * @param defaultRate Rate of the codec when the output is not negotiated
+	 * @return Native output rate, or defaultRate
+	 */
+	public static int getRenderRate(int defaultRate) {
+		int rate = sampleRate;
+		return (rate > 0) ? rate : defaultRate;
+	}
+
+	/**
+	 * Record the path of a file rendered by its codec
+	 * @param filename Filename
+	 * @param rate Rate the codec renders at
+	 */
+	public static void reportRendered(String filename, int rate) {
+		int nativeRate = sampleRate;
+		if(nativeRate <= 0) report(filename, "rendered at " + rate + "Hz (output not negotiated)");
+		else if(rate == nativeRate) report(filename, "rendered at the native rate (" + rate + "Hz)");
+		else report(filename, "rendered at " + rate + "Hz, resampled by the platform to " + nativeRate + "Hz");
+	}
+
+	/**
+	 * Record the path of a file decoded in its own format
+	 * @param filename Filename
+	 * @param in Format of the decoder
+	 * @param resampler Converter to the native output (null if the buffers are passed through)
+	 */
+	public static void reportDecoded(String filename, PAudioFormat in, PolyphaseResampler resampler) {
+		String format = describe(in);
+		if(resampler == null) report(filename, format + ", passed through (native format)");
+		else if(resampler.isResampling()) report(filename, format + ", resampled to " + resampler.getOutputRate() + "Hz " + resampler.getOutputChannels() + "ch");
+		else report(filename, format + ", converted to " + resampler.getOutputChannels() + "ch 16-bit (native rate)");
+	}
+
+	/**
+	 * Record the path of a file, and log it the first time and whenever it changes
+	 * @param filename Filename
+	 * @param path Description of the path
+	 */
+	private static void report(String filename, String path) {
+		String previous;
+		synchronized(paths) {
+			previous = paths.put(filename, path);
+		}
+		if(!path.equals(previous)) SoundSystemConfig.getLogger().message(CLASS_NAME + ": '" + filename + "' " + path, 0);
+	}
+
+	/**
+	 * @param format Audio format
+	 * @return Rate, channels and sample size
+	 */
+	public static String describe(PAudioFormat format) {
+		return (int)format.getSampleRate() + "Hz " + format.getChannels() + "ch " + format.getSampleSizeInBits() + "-bit";
+	}
+
+	/**
+	 * @return Native output and the path of every file played so far
+	 */
+	public static String getStats() {
+		StringBuilder sb = new StringBuilder();
+		int rate = sampleRate;
+		sb.append("Output: ").append((rate > 0) ? rate + "Hz, " + bufferFrames + " frames per buffer" : "not negotiated");
+		synchronized(paths) {
+			for(Map.Entry<String, String> entry : paths.entrySet()) {
+				sb.append("\n  ").append(entry.getKey()).append(": ").append(entry.getValue());
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Forget the recorded paths
+	 */
+	public static void resetStats() {
+		synchronized(paths) {
+			paths.clear();
+		}
+	}
+}
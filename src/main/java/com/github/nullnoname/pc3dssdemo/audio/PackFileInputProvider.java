@@ -0,0 +1,122 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+import paulscode.sound.FileDescriptorWrapper;
+import paulscode.sound.FileInputProvider;
+import paulscode.sound.FilenameURL;
+
+/**
+ * FileInputProvider which serves the asset URLs ("file:///android_asset/...") of the sounds in an AssetPack.
+ * Streams are slices of the mapped pack. Codecs which read the file descriptor (CodecWavChannel, PooledCodecJOrbis, MediaPlayer MIDI)
+ * get the descriptor of the pack file with the start offset and length of the sound, so they work on the pack unchanged.
+ * Other URLs, and assets which are not in the pack, go to the fallback provider.
+ * Subclasses tell where the pack file is (an APK asset on the device, a plain file on the desktop).
+ * @author NullNoname
+ */
+public abstract class PackFileInputProvider implements FileInputProvider {
+	/** Asset path prefix of URLs (same as AssetFileInputProvider) */
+	public static final String URL_PATH_ASSET_PREFIX = "/android_asset/";
+
+	/** Pack */
+	private final AssetPack pack;
+	/** Provider of everything which is not in the pack */
+	private final FileInputProvider fallback;
+
+	/**
+	 * Constructor
+	 * @param pack Pack
+	 * @param fallback Provider of everything which is not in the pack
+	 */
+	protected PackFileInputProvider(AssetPack pack, FileInputProvider fallback) {
+		this.pack = pack;
+		this.fallback = fallback;
+	}
+
+	/**
+	 * @return Pack
+	 */
+	public AssetPack getPack() {
+		return pack;
+	}
+
+	/**
+	 * @return Provider of everything which is not in the pack
+	 */
+	public FileInputProvider getFallback() {
+		return fallback;
+	}
+
+	/**
+	 * Open a new file descriptor of the pack file
+	 * @return Wrapper of the file descriptor
+	 * @throws IOException If the file cannot be opened
+	 */
+	protected abstract FileDescriptorWrapper openPackFileDescriptor() throws IOException;
+
+	/**
+	 * @return Position of the pack in the file of {@link #openPackFileDescriptor()}
+	 */
+	protected abstract long getPackStartOffset();
+
+	/**
+	 * Find the pack entry of a URL
+	 * @param filenameURL FilenameURL
+	 * @return Entry index, or -1 if it is not an asset in the pack
+	 */
+	public int find(FilenameURL filenameURL) {
+		URL url = filenameURL.getURL();
+		if(url == null) return -1;
+		String path = url.getPath();
+		if(!path.startsWith(URL_PATH_ASSET_PREFIX)) return -1;
+		return pack.find(path.substring(URL_PATH_ASSET_PREFIX.length()));
+	}
+
+	public InputStream openStream(FilenameURL filenameURL) throws IOException {
+		int index = find(filenameURL);
+		return (index >= 0) ? pack.openStream(index) : fallback.openStream(filenameURL);
+	}
+
+	public int getContentLength(FilenameURL filenameURL) {
+		int index = find(filenameURL);
+		return (index >= 0) ? pack.getLength(index) : fallback.getContentLength(filenameURL);
+	}
+
+	public long getContentStartOffset(FilenameURL filenameURL) {
+		int index = find(filenameURL);
+		return (index >= 0) ? getPackStartOffset() + pack.getOffset(index) : fallback.getContentStartOffset(filenameURL);
+	}
+
+	public FileDescriptorWrapper openFileDescriptorWrapper(FilenameURL filenameURL) throws IOException {
+		int index = find(filenameURL);
+		return (index >= 0) ? openPackFileDescriptor() : fallback.openFileDescriptorWrapper(filenameURL);
+	}
+}
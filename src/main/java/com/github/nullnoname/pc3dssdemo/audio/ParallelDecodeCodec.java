@@ -0,0 +1,339 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import paulscode.sound.FilenameURL;
+import paulscode.sound.ICodec;
+import paulscode.sound.PAudioFormat;
+import paulscode.sound.SoundBuffer;
+import paulscode.sound.SoundSystemConfig;
+
+/**
+ * Codec wrapper which decodes a stream on a worker of a shared, bounded thread pool.
+ * The worker decodes a few buffers ahead into an SpscQueue, and read() on the stream thread only takes them out,
+ * so several streams playing at once are decoded on several cores instead of one after another on the stream thread.
+ * A worker leaves the stream when its queue is full and the stream is rescheduled when read() makes room, so any number of streams share the pool.
+ * The real decoder is chosen by the file extension (see {@link #setDecoder(String, Class)}); readAll() decodes on the calling thread.
+ * @author NullNoname
+ */
+public class ParallelDecodeCodec implements ICodec {
+	/** Class name for the log */
+	private static final String CLASS_NAME = "ParallelDecodeCodec";
+
+	/** Longest time read() parks at once while waiting for a worker */
+	private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	/** Real decoders by lower case extension */
+	private static final Map<String, Class<? extends ICodec>> decoders = new HashMap<String, Class<? extends ICodec>>();
+
+	/** Number of decode workers (read when the pool is created) */
+	private static volatile int defaultThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+
+	/** Number of buffers decoded ahead per stream */
+	private static volatile int defaultQueueLength = 3;
+
+	/** Decode workers (created on first use) */
+	private static ExecutorService executor;
+
+	/** Statistics of every instance */
+	private static final AtomicLong totalBuffers = new AtomicLong(), totalDecodeNanos = new AtomicLong();
+	private static final AtomicLong totalWaits = new AtomicLong(), totalWaitNanos = new AtomicLong();
+
+	/**
+	 * Set the real decoder of an extension
+	 * @param extension Extension (e.g. "ogg")
+	 * @param codecClass Codec class with a public no-argument constructor
+	 */
+	public static void setDecoder(String extension, Class<? extends ICodec> codecClass) {
+		synchronized(decoders) {
+			decoders.put(extension.toLowerCase(), codecClass);
+		}
+	}
+
+	/**
+	 * Create the real decoder of a file
+	 * @param filename Filename
+	 * @return New codec, or null if no decoder is set for the extension
+	 */
+	public static ICodec createDecoder(String filename) {
+		int dot = filename.lastIndexOf('.');
+		Class<? extends ICodec> codecClass;
+		synchronized(decoders) {
+			codecClass = decoders.get(filename.substring(dot + 1).toLowerCase());
+		}
+		if(codecClass == null) return null;
+		try {
+			return codecClass.getDeclaredConstructor().newInstance();
+		} catch (Exception e) {
+			SoundSystemConfig.getLogger().errorMessage(CLASS_NAME, "Cannot create " + codecClass.getName(), 0);
+			return null;
+		}
+	}
+
+	/**
+	 * @return Number of decode workers
+	 */
+	public static int getDefaultThreads() {
+		return defaultThreads;
+	}
+
+	/**
+	 * Set the number of decode workers. Only effective before the first stream is decoded.
+	 * @param defaultThreads Number of decode workers
+	 */
+	public static void setDefaultThreads(int defaultThreads) {
+		ParallelDecodeCodec.defaultThreads = Math.max(1, defaultThreads);
+	}
+
+	/**
+	 * @return Number of buffers decoded ahead per stream
+	 */
+	public static int getDefaultQueueLength() {
+		return defaultQueueLength;
+	}
+
+	/**
+	 * Set the number of buffers decoded ahead per stream (applied to new instances)
+	 * @param defaultQueueLength Number of buffers
+	 */
+	public static void setDefaultQueueLength(int defaultQueueLength) {
+		ParallelDecodeCodec.defaultQueueLength = Math.max(1, defaultQueueLength);
+	}
+
+	/**
+	 * @return Decode workers
+	 */
+	private static synchronized ExecutorService getExecutor() {
+		if(executor == null) {
+			final AtomicInteger threadNumber = new AtomicInteger();
+			executor = Executors.newFixedThreadPool(defaultThreads, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "ParallelDecode-" + threadNumber.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return executor;
+	}
+
+	/**
+	 * @return Statistics of every instance
+	 */
+	public static String getStats() {
+		long buffers = totalBuffers.get();
+		return String.format("Parallel decode: %d threads, %d buffers decoded in %.1fms, stream thread waited %d times (%.1fms)",
+				defaultThreads, buffers, totalDecodeNanos.get() / 1e6, totalWaits.get(), totalWaitNanos.get() / 1e6);
+	}
+
+	/**
+	 * Reset the statistics
+	 */
+	public static void resetStats() {
+		totalBuffers.set(0);
+		totalDecodeNanos.set(0);
+		totalWaits.set(0);
+		totalWaitNanos.set(0);
+	}
+
+	/** Decoded buffers waiting for read() */
+	private final SpscQueue<SoundBuffer> queue = new SpscQueue<SoundBuffer>(defaultQueueLength);
+	/** Held by the worker while it uses the decoder */
+	private final Object decodeLock = new Object();
+	/** true while a decode task is submitted or running */
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	/** Decode task */
+	private final Runnable decodeTask = new Runnable() {
+		public void run() {
+			decodeAhead();
+		}
+	};
+
+	/** Real decoder (guarded by decodeLock) */
+	private ICodec decoder;
+	/** Byte order setting */
+	private boolean reverseBytes;
+	/** Format of the stream */
+	private volatile PAudioFormat audioFormat;
+	/** true when the decoder has put its last buffer in the queue */
+	private volatile boolean decoderEnded;
+	/** true after cleanup() */
+	private volatile boolean closed = true;
+	/** Thread parked in read(), if any */
+	private volatile Thread waiter;
+	/** true if initialized */
+	private boolean initialized;
+
+	public void reverseByteOrder(boolean b) {
+		reverseBytes = b;
+	}
+
+	public boolean initialize(FilenameURL filenameURL) {
+		cleanup();
+
+		if(filenameURL == null) {
+			errorMessage("filenameURL null in method 'initialize'");
+			return false;
+		}
+		ICodec codec = createDecoder(filenameURL.getFilename());
+		if(codec == null) {
+			errorMessage("No decoder for '" + filenameURL.getFilename() + "'");
+			return false;
+		}
+		// Seek before the workers start decoding
+		long startMillis = StreamResume.takeStartMillis(filenameURL.getFilename());
+		codec.reverseByteOrder(reverseBytes);
+		if(!codec.initialize(filenameURL)) {
+			codec.cleanup();
+			return false;
+		}
+		if(startMillis > 0 && codec instanceof SeekableCodec) {
+			StreamResume.seek((SeekableCodec)codec, filenameURL.getFilename(), startMillis);
+		}
+
+		synchronized(decodeLock) {
+			decoder = codec;
+			audioFormat = codec.getAudioFormat();
+			decoderEnded = codec.endOfStream();
+			closed = false;
+		}
+		initialized = true;
+		schedule();
+		return true;
+	}
+
+	public boolean initialized() {
+		return initialized;
+	}
+
+	public SoundBuffer read() {
+		if(!initialized) return null;
+
+		SoundBuffer buffer = queue.poll();
+		if(buffer == null) {
+			// The worker is behind: wait for it
+			long begin = System.nanoTime();
+			waiter = Thread.currentThread();
+			while((buffer = queue.poll()) == null && !closed) {
+				if(decoderEnded) {
+					// The last buffer is offered before decoderEnded is set
+					buffer = queue.poll();
+					break;
+				}
+				schedule();
+				LockSupport.parkNanos(this, MAX_PARK_NANOS);
+			}
+			waiter = null;
+			totalWaits.incrementAndGet();
+			totalWaitNanos.addAndGet(System.nanoTime() - begin);
+		}
+		schedule();
+		return buffer;
+	}
+
+	public SoundBuffer readAll() {
+		if(!initialized) return null;
+		synchronized(decodeLock) {
+			return (decoder != null) ? decoder.readAll() : null;
+		}
+	}
+
+	public boolean endOfStream() {
+		return decoderEnded && queue.isEmpty();
+	}
+
+	public void cleanup() {
+		closed = true;
+		synchronized(decodeLock) {
+			if(decoder != null) decoder.cleanup();
+			decoder = null;
+		}
+		SoundBuffer buffer;
+		while((buffer = queue.poll()) != null) {
+			PcmBufferPool.recycle(buffer.audioData);
+		}
+		initialized = false;
+	}
+
+	public PAudioFormat getAudioFormat() {
+		return audioFormat;
+	}
+
+	/**
+	 * Submit the decode task unless it is already submitted, or there is nothing to do
+	 */
+	private void schedule() {
+		if(closed || decoderEnded || queue.size() >= queue.capacity()) return;
+		if(scheduled.compareAndSet(false, true)) getExecutor().execute(decodeTask);
+	}
+
+	/**
+	 * Decode until the queue is full or the stream ends (decode worker)
+	 */
+	private void decodeAhead() {
+		try {
+			synchronized(decodeLock) {
+				while(!closed && !decoderEnded && queue.size() < queue.capacity()) {
+					long begin = System.nanoTime();
+					SoundBuffer buffer = decoder.read();
+					boolean ended = (buffer == null) || decoder.endOfStream();
+					totalDecodeNanos.addAndGet(System.nanoTime() - begin);
+					if(buffer != null) {
+						queue.offer(buffer);
+						totalBuffers.incrementAndGet();
+					}
+					if(ended) decoderEnded = true;
+					LockSupport.unpark(waiter);
+				}
+			}
+		} catch (RuntimeException e) {
+			errorMessage("Decoder failed");
+			SoundSystemConfig.getLogger().printStackTrace(e, 1);
+			decoderEnded = true;
+		} finally {
+			scheduled.set(false);
+			LockSupport.unpark(waiter);
+		}
+		// read() may have made room after the loop ended, while this task was still marked as scheduled
+		schedule();
+	}
+
+	private void errorMessage(String message) {
+		SoundSystemConfig.getLogger().errorMessage(CLASS_NAME, message, 0);
+	}
+}
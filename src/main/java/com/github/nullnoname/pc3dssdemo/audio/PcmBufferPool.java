@@ -0,0 +1,153 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+/**
+ * Pool of fixed-size PCM arrays for the streaming path.
+ * Pooled codecs take their stream buffers from here, and the output channel gives them back once they are written to the AudioTrack,
+ * so a stream in steady state does not allocate PCM arrays.
+ * Arrays of any other size (e.g. the last piece of a stream) are allocated normally and never pooled.
+ * @author NullNoname
+ */
+public class PcmBufferPool {
+	/** Pool shared by the pooled codecs and the channels (null to disable pooling) */
+	private static PcmBufferPool defaultPool;
+
+	/**
+	 * @return Pool shared by the pooled codecs and the channels (null if disabled)
+	 */
+	public static PcmBufferPool getDefaultPool() {
+		return defaultPool;
+	}
+
+	/**
+	 * Set the pool shared by the pooled codecs and the channels
+	 * @param defaultPool Pool (null to disable pooling)
+	 */
+	public static void setDefaultPool(PcmBufferPool defaultPool) {
+		PcmBufferPool.defaultPool = defaultPool;
+	}
+
+	/**
+	 * Get an array from the default pool, or allocate one if there is no pool
+	 * @param size Size in bytes
+	 * @return Array of exactly the given size (contents undefined)
+	 */
+	public static byte[] allocate(int size) {
+		PcmBufferPool pool = defaultPool;
+		return (pool != null) ? pool.acquire(size) : new byte[size];
+	}
+
+	/**
+	 * Give an array back to the default pool. Only call this when nothing references the array anymore.
+	 * @param buffer Array (ignored if null, or if its size does not match the pool)
+	 */
+	public static void recycle(byte[] buffer) {
+		PcmBufferPool pool = defaultPool;
+		if(pool != null) pool.release(buffer);
+	}
+
+	/** Size of the pooled arrays */
+	private final int bufferSize;
+
+	/** Free arrays */
+	private final byte[][] free;
+
+	/** Number of free arrays */
+	private int freeCount;
+
+	/** Statistics */
+	private long hits, misses;
+
+	/**
+	 * Constructor
+	 * @param bufferSize Size of the pooled arrays (usually SoundSystemConfig.getStreamingBufferSize())
+	 * @param maxFree Maximum number of free arrays kept
+	 */
+	public PcmBufferPool(int bufferSize, int maxFree) {
+		this.bufferSize = bufferSize;
+		this.free = new byte[maxFree][];
+	}
+
+	/**
+	 * @return Size of the pooled arrays
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Get an array
+	 * @param size Size in bytes
+	 * @return Pooled array if size is the pool size and one is free, otherwise a new array
+	 */
+	public byte[] acquire(int size) {
+		if(size == bufferSize) {
+			synchronized(this) {
+				if(freeCount > 0) {
+					hits++;
+					byte[] buffer = free[--freeCount];
+					free[freeCount] = null;
+					return buffer;
+				}
+				misses++;
+			}
+		}
+		return new byte[size];
+	}
+
+	/**
+	 * Give an array back. Only call this when nothing references the array anymore.
+	 * @param buffer Array (ignored if null, if its size does not match the pool or if the pool is full)
+	 */
+	public void release(byte[] buffer) {
+		if(buffer == null || buffer.length != bufferSize) return;
+		synchronized(this) {
+			if(freeCount < free.length) {
+				// Guard against the same array given back twice
+				for(int i = 0; i < freeCount; i++) {
+					if(free[i] == buffer) return;
+				}
+				free[freeCount++] = buffer;
+			}
+		}
+	}
+
+	/**
+	 * @return Number of acquire() calls served from the pool
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return Number of acquire() calls of the pool size which had to allocate
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+}
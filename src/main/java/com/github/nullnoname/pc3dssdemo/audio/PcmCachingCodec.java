@@ -0,0 +1,311 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import java.nio.ByteBuffer;
+
+import paulscode.sound.FilenameURL;
+import paulscode.sound.ICodec;
+import paulscode.sound.PAudioFormat;
+import paulscode.sound.SoundBuffer;
+import paulscode.sound.SoundSystemConfig;
+
+/**
+ * Codec wrapper which stores the decoded PCM in a PcmDiskCache.
+ * The first play decodes with the wrapped codec and writes the PCM to the cache;
+ * later plays stream the raw PCM from the memory-mapped cache file without decoding.
+ * When no cache is set, this just forwards to the wrapped codec.
+ * <p>
+ * Cached PCM seeks by moving the read position, so the cache is also the exact seek index of the codecs which cannot seek by themselves.
+ * @author NullNoname
+ */
+public abstract class PcmCachingCodec implements SeekableCodec {
+	/** Cache shared by every instance (null to disable caching) */
+	private static PcmDiskCache defaultCache;
+
+	/**
+	 * @return Cache shared by every instance (null if disabled)
+	 */
+	public static PcmDiskCache getDefaultCache() {
+		return defaultCache;
+	}
+
+	/**
+	 * Set the cache shared by every instance
+	 * @param defaultCache Cache (null to disable caching)
+	 */
+	public static void setDefaultCache(PcmDiskCache defaultCache) {
+		PcmCachingCodec.defaultCache = defaultCache;
+	}
+
+	/** Wrapped codec which does the actual decoding */
+	protected final ICodec codec;
+	/** Byte order setting */
+	private boolean reverseBytes;
+
+	/** Cached PCM data in use (null if decoding) */
+	private ByteBuffer cachedData;
+	/** Format of the cached PCM data */
+	private PAudioFormat cachedFormat;
+	/** Writer of the new cache entry (null if not writing) */
+	private PcmDiskCache.Writer writer;
+	/** File being played */
+	private FilenameURL filenameURL;
+	/** Cache key of the file (null if not cached) */
+	private String key;
+	/** Frame position of the next frame returned by the wrapped codec */
+	private long position;
+	/** Rest of a buffer cut at a seek target, returned by the next read() (null if none) */
+	private SoundBuffer pending;
+	/** true if initialized */
+	private boolean initialized;
+
+	/**
+	 * Constructor
+	 * @param codec Codec which does the actual decoding
+	 */
+	protected PcmCachingCodec(ICodec codec) {
+		this.codec = codec;
+	}
+
+	/**
+	 * @return Wrapped codec which does the actual decoding
+	 */
+	public ICodec getWrappedCodec() {
+		return codec;
+	}
+
+	public void reverseByteOrder(boolean b) {
+		reverseBytes = b;
+		codec.reverseByteOrder(b);
+	}
+
+	public boolean initialize(FilenameURL filenameURL) {
+		closeCache();
+		initialized = false;
+		this.filenameURL = filenameURL;
+		key = null;
+		position = 0;
+
+		// Taken here, so the wrapped codec does not seek and the whole file goes into a new cache entry
+		long startMillis = (filenameURL != null) ? StreamResume.takeStartMillis(filenameURL.getFilename()) : 0;
+
+		PcmDiskCache cache = defaultCache;
+		PcmDiskCache.Entry entry = null;
+		if(cache != null && filenameURL != null) {
+			key = PcmDiskCache.createKey(filenameURL, codec.getClass(), reverseBytes);
+			entry = cache.open(key);
+		}
+		if(entry != null) {
+			SoundSystemConfig.getLogger().message("PCM cache hit for '" + filenameURL.getFilename() + "'", 0);
+			cachedData = entry.data;
+			cachedFormat = entry.format;
+		} else if(!openCodec()) {
+			return false;
+		}
+
+		initialized = true;
+		if(startMillis > 0) StreamResume.seek(this, filenameURL.getFilename(), startMillis);
+		return true;
+	}
+
+	public boolean initialized() {
+		return initialized;
+	}
+
+	public SoundBuffer read() {
+		if(pending != null) {
+			SoundBuffer buffer = pending;
+			pending = null;
+			return buffer;
+		}
+		if(cachedData != null) {
+			int length = Math.min(cachedData.remaining(), SoundSystemConfig.getStreamingBufferSize());
+			if(length <= 0) return null;
+			byte[] data = PcmBufferPool.allocate(length);
+			cachedData.get(data);
+			return new SoundBuffer(data, cachedFormat);
+		}
+
+		SoundBuffer buffer = codec.read();
+		if(buffer != null && buffer.audioData != null && buffer.audioFormat != null) {
+			position += buffer.audioData.length / buffer.audioFormat.getFrameSize();
+		}
+		if(writer != null) {
+			if(buffer != null && buffer.audioData != null && !writer.write(buffer.audioData)) {
+				writer = null;
+			} else if(codec.endOfStream()) {
+				writer.commit();
+				writer = null;
+			}
+		}
+		return buffer;
+	}
+
+	public SoundBuffer readAll() {
+		if(cachedData != null) {
+			byte[] data = new byte[cachedData.remaining()];
+			cachedData.get(data);
+			return new SoundBuffer(data, cachedFormat);
+		}
+
+		SoundBuffer buffer = codec.readAll();
+		if(writer != null) {
+			if(buffer != null && buffer.audioData != null && codec.endOfStream() && writer.write(buffer.audioData)) {
+				writer.commit();
+			} else {
+				writer.abort();
+			}
+			writer = null;
+		}
+		if(pending != null) {
+			// Put the rest of the buffer cut by a seek in front
+			byte[] data = pending.audioData;
+			if(buffer != null && buffer.audioData != null) {
+				data = new byte[pending.audioData.length + buffer.audioData.length];
+				System.arraycopy(pending.audioData, 0, data, 0, pending.audioData.length);
+				System.arraycopy(buffer.audioData, 0, data, pending.audioData.length, buffer.audioData.length);
+			}
+			buffer = new SoundBuffer(data, pending.audioFormat);
+			pending = null;
+		}
+		return buffer;
+	}
+
+	public boolean endOfStream() {
+		if(pending != null) return false;
+		if(cachedData != null) return !cachedData.hasRemaining();
+		return codec.endOfStream();
+	}
+
+	public void cleanup() {
+		closeCache();
+		initialized = false;
+		codec.cleanup();
+	}
+
+	public PAudioFormat getAudioFormat() {
+		if(cachedData != null) return cachedFormat;
+		return codec.getAudioFormat();
+	}
+
+	public long getFramePosition() {
+		if(cachedData != null) return cachedData.position() / cachedFormat.getFrameSize();
+		if(pending != null) return position - pending.audioData.length / pending.audioFormat.getFrameSize();
+		return position;
+	}
+
+	/**
+	 * Move to a frame position. Cached PCM just moves the read position. Otherwise the wrapped codec seeks if it can
+	 * (the new cache entry is dropped, as it would miss the part skipped), or the frames up to the target are decoded and dropped.
+	 * Those still go into the new cache entry, so the next play of the file can seek without decoding.
+	 * @param frame Frame position
+	 * @return false if the file cannot be decoded again (when seeking backward without a seekable codec)
+	 */
+	public boolean seek(long frame) {
+		if(!initialized) return false;
+		if(frame < 0) frame = 0;
+
+		if(cachedData != null) {
+			int frameSize = cachedFormat.getFrameSize();
+			cachedData.position((int)Math.min(frame, cachedData.limit() / frameSize) * frameSize);
+			return true;
+		}
+
+		if(pending != null) {
+			PcmBufferPool.recycle(pending.audioData);
+			pending = null;
+		}
+		if(codec instanceof SeekableCodec && ((SeekableCodec)codec).seek(frame)) {
+			if(writer != null) {
+				writer.abort();
+				writer = null;
+			}
+			position = ((SeekableCodec)codec).getFramePosition();
+			return true;
+		}
+
+		if(frame < position) {
+			// Decode again from the beginning
+			closeCache();
+			codec.cleanup();
+			position = 0;
+			if(!openCodec()) {
+				initialized = false;
+				return false;
+			}
+		}
+		while(position < frame) {
+			long before = position;
+			SoundBuffer buffer = read();
+			if(buffer == null || buffer.audioData == null || buffer.audioFormat == null) break;	// The target is after the end
+
+			long frames = position - before;
+			if(position > frame) {
+				// Keep the part from the target for the next read()
+				int frameSize = buffer.audioFormat.getFrameSize();
+				int offset = (int)(frame - before) * frameSize;
+				byte[] data = PcmBufferPool.allocate(buffer.audioData.length - offset);
+				System.arraycopy(buffer.audioData, offset, data, 0, data.length);
+				pending = new SoundBuffer(data, buffer.audioFormat);
+			}
+			PcmBufferPool.recycle(buffer.audioData);
+			if(frames == 0) break;
+		}
+		return true;
+	}
+
+	/**
+	 * Initialize the wrapped codec and start a new cache entry
+	 * @return false if the wrapped codec could not be initialized
+	 */
+	private boolean openCodec() {
+		if(!codec.initialize(filenameURL)) return false;
+		PcmDiskCache cache = defaultCache;
+		if(cache != null && key != null && codec.getAudioFormat() != null) {
+			writer = cache.create(key, codec.getAudioFormat());
+		}
+		return true;
+	}
+
+	/**
+	 * Release the cached data and discard an unfinished cache entry
+	 */
+	private void closeCache() {
+		cachedData = null;
+		cachedFormat = null;
+		if(pending != null) {
+			PcmBufferPool.recycle(pending.audioData);
+			pending = null;
+		}
+		if(writer != null) {
+			// Not decoded until the end (e.g. stopped): do not store a partial entry
+			writer.abort();
+			writer = null;
+		}
+	}
+}
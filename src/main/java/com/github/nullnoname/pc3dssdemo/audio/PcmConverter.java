@@ -0,0 +1,204 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import paulscode.sound.PAudioFormat;
+
+/**
+ * Converts the PCM of a codec to 16-bit samples of another rate and channel count.
+ * The input is 8-bit (unsigned) or 16-bit (signed little endian) mono/stereo PCM, in the byte order the AudioTrack library uses.
+ * Rates are converted with linear interpolation in 32.32 fixed point, the same way SoftwareMixer does.
+ * The converter keeps its position between calls, so a stream can be converted buffer by buffer without clicks at the buffer edges.
+ * When the rates match, the samples are copied exactly.
+ * @author NullNoname
+ */
+public class PcmConverter {
+	/** 1.0 in 32.32 fixed point */
+	private static final long FIXED_ONE = 1L << 32;
+
+	/** Scale from 32.32 fixed point fraction to float */
+	private static final float FRACTION_SCALE = 1f / FIXED_ONE;
+
+	/** Input format */
+	private final int inRate, inChannels, inBytesPerSample;
+
+	/** Output format */
+	private final int outRate, outChannels;
+
+	/** Input frames per output frame in 32.32 fixed point */
+	private final long step;
+
+	/** Position of the next output frame, relative to the first frame of the next input buffer (negative: between the previous buffer and the next one) */
+	private long position;
+
+	/** Last input frame of the previous buffer */
+	private int previousLeft, previousRight;
+
+	/**
+	 * Constructor
+	 * @param in Input format
+	 * @param outRate Output sample rate
+	 * @param outChannels Output channels (1 or 2)
+	 */
+	public PcmConverter(PAudioFormat in, int outRate, int outChannels) {
+		this.inRate = (int)in.getSampleRate();
+		this.inChannels = in.getChannels();
+		this.inBytesPerSample = in.getSampleSizeInBits() / 8;
+		this.outRate = outRate;
+		this.outChannels = outChannels;
+		this.step = ((long)inRate << 32) / outRate;
+		if(inChannels < 1 || inBytesPerSample < 1 || inBytesPerSample > 2 || inRate <= 0)
+			throw new IllegalArgumentException("Unsupported input format: " + in);
+		if(outChannels < 1 || outChannels > 2 || outRate <= 0)
+			throw new IllegalArgumentException("Unsupported output format: " + outRate + "Hz " + outChannels + "ch");
+	}
+
+	/**
+	 * @return true if the sample rate is converted
+	 */
+	public boolean isResampling() {
+		return inRate != outRate;
+	}
+
+	/**
+	 * @return true if the samples are just copied (same rate and channels, 16-bit input)
+	 */
+	public boolean isIdentity() {
+		return inRate == outRate && inChannels == outChannels && inBytesPerSample == 2;
+	}
+
+	/**
+	 * @return Output sample rate
+	 */
+	public int getOutputRate() {
+		return outRate;
+	}
+
+	/**
+	 * @return Output channels
+	 */
+	public int getOutputChannels() {
+		return outChannels;
+	}
+
+	/**
+	 * Get the maximum number of samples {@link #convert(byte[], int, short[], int)} can write for an input length
+	 * @param length Input length in bytes
+	 * @return Maximum number of output samples (frames * output channels)
+	 */
+	public int getMaxOutputSamples(int length) {
+		long frames = length / (inChannels * inBytesPerSample);
+		return (int)((frames * outRate / inRate + 2) * outChannels);
+	}
+
+	/**
+	 * Forget the position and the previous frame, before converting an unrelated stream
+	 */
+	public void reset() {
+		position = 0;
+		previousLeft = previousRight = 0;
+	}
+
+	/**
+	 * Convert one input buffer
+	 * @param data Input PCM
+	 * @param length Input length in bytes (partial frames at the end are ignored)
+	 * @param out Output samples (interleaved if stereo)
+	 * @param offset First output sample index
+	 * @return Number of samples written (frames * output channels)
+	 */
+	public int convert(byte[] data, int length, short[] out, int offset) {
+		int frames = length / (inChannels * inBytesPerSample);
+		if(frames <= 0) return 0;
+		int o = offset;
+
+		if(step == FIXED_ONE) {
+			// Same rate: copy (and remix the channels if needed)
+			for(int i = 0; i < frames; i++) {
+				int left = getSample(data, i, 0);
+				int right = (inChannels > 1) ? getSample(data, i, 1) : left;
+				o = put(out, o, left, right);
+			}
+			return o - offset;
+		}
+
+		// The last frame of this buffer is interpolated with the first frame of the next one
+		long pos = position;
+		long end = (long)(frames - 1) << 32;
+		while(pos < end) {
+			int i = (int)(pos >> 32);
+			float fraction = (pos & 0xFFFFFFFFL) * FRACTION_SCALE;
+			int left0, right0;
+			if(i < 0) {
+				left0 = previousLeft;
+				right0 = previousRight;
+			} else {
+				left0 = getSample(data, i, 0);
+				right0 = (inChannels > 1) ? getSample(data, i, 1) : left0;
+			}
+			int left1 = getSample(data, i + 1, 0);
+			int right1 = (inChannels > 1) ? getSample(data, i + 1, 1) : left1;
+			o = put(out, o, left0 + (int)((left1 - left0) * fraction), right0 + (int)((right1 - right0) * fraction));
+			pos += step;
+		}
+		position = pos - ((long)frames << 32);
+		previousLeft = getSample(data, frames - 1, 0);
+		previousRight = (inChannels > 1) ? getSample(data, frames - 1, 1) : previousLeft;
+		return o - offset;
+	}
+
+	/**
+	 * Read one input sample
+	 * @param data Input PCM
+	 * @param frame Frame index
+	 * @param channel Channel index
+	 * @return 16-bit sample
+	 */
+	private int getSample(byte[] data, int frame, int channel) {
+		int p = (frame * inChannels + channel) * inBytesPerSample;
+		if(inBytesPerSample == 1) return ((data[p] & 0xFF) - 128) << 8;
+		return (short)((data[p] & 0xFF) | (data[p + 1] << 8));
+	}
+
+	/**
+	 * Write one output frame
+	 * @param out Output samples
+	 * @param o Output index
+	 * @param left Left (or mono) sample
+	 * @param right Right sample
+	 * @return Next output index
+	 */
+	private int put(short[] out, int o, int left, int right) {
+		if(outChannels == 1) {
+			out[o++] = (short)((left + right) >> 1);
+		} else {
+			out[o++] = (short)left;
+			out[o++] = (short)right;
+		}
+		return o;
+	}
+}
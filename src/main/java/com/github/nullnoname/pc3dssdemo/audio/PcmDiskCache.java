@@ -0,0 +1,281 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import paulscode.sound.FilenameURL;
+import paulscode.sound.PAudioFormat;
+import paulscode.sound.SoundSystemConfig;
+
+/**
+ * On-disk cache of decoded PCM data.
+ * Each entry is a file in the cache directory with a small header followed by raw PCM,
+ * which is read back through a MappedByteBuffer.
+ * The total size is capped, and the least recently used entries are deleted first.
+ * @author NullNoname
+ */
+public class PcmDiskCache {
+	/** Class name used in the log */
+	private static final String CLASS_NAME = "PcmDiskCache";
+	/** File magic ("PCM1") */
+	private static final int MAGIC = 0x50434D31;
+	/** Header size in bytes */
+	private static final int HEADER_SIZE = 20;
+	/** Extension of the cache files */
+	private static final String EXTENSION = ".pcm";
+
+	/** Cache directory */
+	private final File dir;
+	/** Maximum total size of the cache files in bytes */
+	private final long maxBytes;
+
+	/**
+	 * Constructor
+	 * @param dir Cache directory (created if it does not exist)
+	 * @param maxBytes Maximum total size of the cache files in bytes
+	 */
+	public PcmDiskCache(File dir, long maxBytes) {
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+		dir.mkdirs();
+
+		// Remove the leftovers of interrupted writes
+		File[] files = dir.listFiles();
+		if(files != null) {
+			for(File f : files) {
+				if(f.getName().endsWith(".tmp")) f.delete();
+			}
+		}
+	}
+
+	/**
+	 * Create the cache key of a decoded file
+	 * @param filenameURL FilenameURL of the encoded file
+	 * @param codecClass Class of the codec which decodes the file
+	 * @param reverseByteOrder Byte order setting given to the codec
+	 * @return Cache key (usable as a filename)
+	 */
+	public static String createKey(FilenameURL filenameURL, Class<?> codecClass, boolean reverseByteOrder) {
+		String name = filenameURL.getFilename();
+		String url = (filenameURL.getURL() != null) ? filenameURL.getURL().toString() : name;
+		// The content length is included so a changed file does not hit a stale entry
+		String id = url + "|" + codecClass.getName() + "|" + reverseByteOrder + "|" + filenameURL.getContentLength();
+		return name.replaceAll("[^A-Za-z0-9._-]", "_") + "_" + codecClass.getSimpleName() +
+				(reverseByteOrder ? "_r_" : "_n_") + Integer.toHexString(id.hashCode());
+	}
+
+	/**
+	 * Open a cached entry
+	 * @param key Cache key
+	 * @return Entry, or null if not cached
+	 */
+	public Entry open(String key) {
+		File file = new File(dir, key + EXTENSION);
+		if(!file.isFile()) return null;
+
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "r");
+			if(raf.length() < HEADER_SIZE || raf.readInt() != MAGIC) {
+				raf.close();
+				raf = null;
+				file.delete();
+				return null;
+			}
+			float sampleRate = Float.intBitsToFloat(raf.readInt());
+			int sampleSizeInBits = raf.readInt();
+			int channels = raf.readInt();
+			int flags = raf.readInt();
+			PAudioFormat format = new PAudioFormat(sampleRate, sampleSizeInBits, channels, (flags & 1) != 0, (flags & 2) != 0);
+
+			MappedByteBuffer data = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, raf.length() - HEADER_SIZE);
+
+			// Touch the file for LRU
+			file.setLastModified(System.currentTimeMillis());
+
+			return new Entry(format, data);
+		} catch (IOException e) {
+			SoundSystemConfig.getLogger().errorMessage(CLASS_NAME, "Failed to open cache file " + file.getName(), 0);
+			SoundSystemConfig.getLogger().printStackTrace(e, 0);
+			return null;
+		} finally {
+			if(raf != null) {
+				try {
+					raf.close();
+				} catch (IOException e) {}
+			}
+		}
+	}
+
+	/**
+	 * Start writing a new entry
+	 * @param key Cache key
+	 * @param format Format of the PCM data
+	 * @return Writer, or null if failed
+	 */
+	public Writer create(String key, PAudioFormat format) {
+		try {
+			return new Writer(key, format);
+		} catch (IOException e) {
+			SoundSystemConfig.getLogger().errorMessage(CLASS_NAME, "Failed to create cache file for " + key, 0);
+			SoundSystemConfig.getLogger().printStackTrace(e, 0);
+			return null;
+		}
+	}
+
+	/**
+	 * Delete the least recently used entries until the cache fits in maxBytes
+	 * @param keep File which should never be deleted (can be null)
+	 */
+	private synchronized void trim(File keep) {
+		File[] files = dir.listFiles();
+		if(files == null) return;
+
+		long total = 0;
+		for(File f : files) total += f.length();
+		if(total <= maxBytes) return;
+
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File a, File b) {
+				long la = a.lastModified();
+				long lb = b.lastModified();
+				return (la < lb) ? -1 : ((la == lb) ? 0 : 1);
+			}
+		});
+		for(int i = 0; i < files.length && total > maxBytes; i++) {
+			if(files[i].equals(keep) || !files[i].getName().endsWith(EXTENSION)) continue;
+			long length = files[i].length();
+			if(files[i].delete()) {
+				total -= length;
+				SoundSystemConfig.getLogger().message("PCM cache: evicted " + files[i].getName(), 0);
+			}
+		}
+	}
+
+	/**
+	 * Cached entry
+	 */
+	public static class Entry {
+		/** Format of the PCM data */
+		public final PAudioFormat format;
+		/** PCM data */
+		public final MappedByteBuffer data;
+
+		private Entry(PAudioFormat format, MappedByteBuffer data) {
+			this.format = format;
+			this.data = data;
+		}
+	}
+
+	/**
+	 * Writes a new entry into a temporary file, which becomes visible on commit()
+	 */
+	public class Writer {
+		/** Cache key */
+		private final String key;
+		/** Temporary file */
+		private final File tempFile;
+		/** Output stream to the temporary file */
+		private DataOutputStream out;
+
+		private Writer(String key, PAudioFormat format) throws IOException {
+			this.key = key;
+			tempFile = File.createTempFile(key, ".tmp", dir);
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 65536));
+			out.writeInt(MAGIC);
+			out.writeInt(Float.floatToIntBits(format.getSampleRate()));
+			out.writeInt(format.getSampleSizeInBits());
+			out.writeInt(format.getChannels());
+			out.writeInt((format.getEncoding() == PAudioFormat.Encoding.PCM_SIGNED ? 1 : 0) | (format.isBigEndian() ? 2 : 0));
+		}
+
+		/**
+		 * Append PCM data
+		 * @param data PCM data
+		 * @return false if failed (the entry is discarded)
+		 */
+		public boolean write(byte[] data) {
+			if(out == null) return false;
+			try {
+				out.write(data);
+				return true;
+			} catch (IOException e) {
+				SoundSystemConfig.getLogger().errorMessage(CLASS_NAME, "Failed to write cache file for " + key, 0);
+				abort();
+				return false;
+			}
+		}
+
+		/**
+		 * Finish the entry and make it visible
+		 * @return true if successful
+		 */
+		public boolean commit() {
+			if(out == null) return false;
+			try {
+				out.close();
+				out = null;
+				File file = new File(dir, key + EXTENSION);
+				if(!tempFile.renameTo(file)) {
+					// Someone else has committed the same entry
+					tempFile.delete();
+					return file.isFile();
+				}
+				SoundSystemConfig.getLogger().message("PCM cache: stored " + file.getName() + " (" + file.length() + " bytes)", 0);
+				trim(file);
+				return true;
+			} catch (IOException e) {
+				SoundSystemConfig.getLogger().errorMessage(CLASS_NAME, "Failed to commit cache file for " + key, 0);
+				abort();
+				return false;
+			}
+		}
+
+		/**
+		 * Discard the entry
+		 */
+		public void abort() {
+			if(out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {}
+				out = null;
+			}
+			tempFile.delete();
+		}
+	}
+}
@@ -0,0 +1,260 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import paulscode.sound.SoundSystemConfig;
+
+/**
+ * Tap-to-sound latency instrumentation.
+ * Each play request is followed through these stages, and the time of each stage is recorded in a {@link LatencyHistogram}
+ * per stage and per kind of sound:
+ * <ul>
+ * <li>Dispatch: from the button click until the audio worker thread picks up the command</li>
+ * <li>Submit: until the SoundSystem call has queued the command</li>
+ * <li>Start: until the channel has started the AudioTrack (with the first buffer written, for streams)</li>
+ * <li>Total: from the button click until the start</li>
+ * </ul>
+ * The channel only knows the source name, so the requests are matched by source name.
+ * The total of the requests which woke the output from the idle mode (see {@link IdleManager}) is also recorded on its own.
+ * @author NullNoname
+ */
+public class PlaybackTimer {
+	/** Kinds of sound */
+	public static final int KIND_SOUND_EFFECT = 0, KIND_STREAM = 1;
+
+	/** Names of the kinds */
+	private static final String[] KIND_NAMES = {"SFX", "Stream"};
+
+	/** Stages */
+	public static final int STAGE_DISPATCH = 0, STAGE_SUBMIT = 1, STAGE_START = 2, STAGE_TOTAL = 3;
+
+	/** Names of the stages */
+	private static final String[] STAGE_NAMES = {"dispatch", "submit", "start", "total"};
+
+	/** Maximum number of requests waiting for the channel (or channel starts waiting for the request) */
+	private static final int MAX_PENDING = 64;
+
+	/**
+	 * A play request being timed
+	 */
+	public static class Trace {
+		/** Kind of sound */
+		final int kind;
+		/** Time of the button click */
+		final long clickTime;
+		/** Time the worker thread picked up the command */
+		long dispatchTime;
+		/** Time the SoundSystem command was queued */
+		long submitTime;
+		/** true if this request woke the output from the idle mode */
+		boolean resumed;
+
+		Trace(int kind, long clickTime) {
+			this.kind = kind;
+			this.clickTime = clickTime;
+		}
+	}
+
+	/** Histograms [kind][stage] */
+	private final LatencyHistogram[][] histograms;
+
+	/** Histograms of the total of the requests which woke the output from the idle mode [kind] */
+	private final LatencyHistogram[] resumeHistograms;
+
+	/** Submitted requests waiting for the channel to start, by source name */
+	private final Map<String, Trace> submitted;
+
+	/** Channel start times waiting for the request to be submitted, by source name */
+	private final Map<String, Long> started;
+
+	public PlaybackTimer() {
+		histograms = new LatencyHistogram[KIND_NAMES.length][STAGE_NAMES.length];
+		for(int i = 0; i < KIND_NAMES.length; i++) {
+			for(int j = 0; j < STAGE_NAMES.length; j++) {
+				histograms[i][j] = new LatencyHistogram();
+			}
+		}
+		resumeHistograms = new LatencyHistogram[KIND_NAMES.length];
+		for(int i = 0; i < KIND_NAMES.length; i++) {
+			resumeHistograms[i] = new LatencyHistogram();
+		}
+		submitted = createPendingMap();
+		started = createPendingMap();
+	}
+
+	/**
+	 * Create a map which forgets the oldest entry when it has too many
+	 * @return Map
+	 */
+	private static <V> Map<String, V> createPendingMap() {
+		return new LinkedHashMap<String, V>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+				return size() > MAX_PENDING;
+			}
+		};
+	}
+
+	/**
+	 * Start timing a play request (call this on the button click)
+	 * @param kind Kind of sound (KIND_*)
+	 * @return Trace
+	 */
+	public Trace begin(int kind) {
+		return new Trace(kind, System.nanoTime());
+	}
+
+	/**
+	 * Mark that the worker thread has picked up the command
+	 * @param trace Trace
+	 */
+	public void dispatched(Trace trace) {
+		trace.dispatchTime = System.nanoTime();
+	}
+
+	/**
+	 * Mark that the request woke the output from the idle mode
+	 * @param trace Trace
+	 */
+	public void resumed(Trace trace) {
+		trace.resumed = true;
+	}
+
+	/**
+	 * Mark that the SoundSystem command has been queued
+	 * @param trace Trace
+	 * @param sourcename Name of the source which will be played
+	 */
+	public void submitted(Trace trace, String sourcename) {
+		trace.submitTime = System.nanoTime();
+		if(sourcename == null) return;
+
+		Long startTime;
+		synchronized(this) {
+			startTime = started.remove(sourcename);
+			if(startTime == null) submitted.put(sourcename, trace);
+		}
+		if(startTime != null) complete(trace, sourcename, startTime);
+	}
+
+	/**
+	 * Mark that a channel has started playing a source (called from the channel)
+	 * @param sourcename Name of the source
+	 */
+	public void started(String sourcename) {
+		long startTime = System.nanoTime();
+		if(sourcename == null) return;
+
+		Trace trace;
+		synchronized(this) {
+			trace = submitted.remove(sourcename);
+			if(trace == null) started.put(sourcename, startTime);
+		}
+		if(trace != null) complete(trace, sourcename, startTime);
+	}
+
+	/**
+	 * Record the stages of a finished request
+	 * @param trace Trace
+	 * @param sourcename Name of the source
+	 * @param startTime Time the channel started
+	 */
+	private void complete(Trace trace, String sourcename, long startTime) {
+		// The channel can start before submitted() is called, so never let the start go before the submission
+		startTime = Math.max(startTime, trace.submitTime);
+
+		long[] stages = new long[STAGE_NAMES.length];
+		stages[STAGE_DISPATCH] = trace.dispatchTime - trace.clickTime;
+		stages[STAGE_SUBMIT] = trace.submitTime - trace.dispatchTime;
+		stages[STAGE_START] = startTime - trace.submitTime;
+		stages[STAGE_TOTAL] = startTime - trace.clickTime;
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("Latency '").append(sourcename).append("' (").append(KIND_NAMES[trace.kind]).append("):");
+		for(int i = 0; i < stages.length; i++) {
+			histograms[trace.kind][i].record(stages[i]);
+			sb.append(' ').append(STAGE_NAMES[i]).append(' ').append(LatencyHistogram.toMillis(stages[i])).append("ms");
+		}
+		if(trace.resumed) {
+			resumeHistograms[trace.kind].record(stages[STAGE_TOTAL]);
+			sb.append(" (after idle)");
+		}
+		SoundSystemConfig.getLogger().message(sb.toString(), 0);
+	}
+
+	/**
+	 * Clear all recorded values
+	 */
+	public void reset() {
+		for(int i = 0; i < histograms.length; i++) {
+			for(int j = 0; j < histograms[i].length; j++) {
+				histograms[i][j].reset();
+			}
+			resumeHistograms[i].reset();
+		}
+	}
+
+	/**
+	 * Get the histogram of a stage
+	 * @param kind Kind of sound (KIND_*)
+	 * @param stage Stage (STAGE_*)
+	 * @return Histogram
+	 */
+	public LatencyHistogram getHistogram(int kind, int stage) {
+		return histograms[kind][stage];
+	}
+
+	/**
+	 * Get the histogram of the total of the requests which woke the output from the idle mode
+	 * @param kind Kind of sound (KIND_*)
+	 * @return Histogram
+	 */
+	public LatencyHistogram getResumeHistogram(int kind) {
+		return resumeHistograms[kind];
+	}
+
+	/**
+	 * Build a report of all stages (count, p50, p99, max and mean in milliseconds)
+	 * @return Report
+	 */
+	public String getReport() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("***** Playback Latency (ms) *****\n");
+		for(int i = 0; i < histograms.length; i++) {
+			for(int j = 0; j < histograms[i].length; j++) {
+				histograms[i][j].appendSummary(sb, KIND_NAMES[i] + " " + STAGE_NAMES[j]).append('\n');
+			}
+			resumeHistograms[i].appendSummary(sb, KIND_NAMES[i] + " " + STAGE_NAMES[STAGE_TOTAL] + " after idle").append('\n');
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,239 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import paulscode.sound.FilenameURL;
+
+/**
+ * List of tracks played back to back as one gapless stream by PlaylistCodec.
+ * A playlist is registered under an identifier ending with ".playlist", which is then passed to SoundSystem.backgroundMusic()
+ * like a normal file. Tracks can be added while it plays, as a queue.
+ * The transitions between the tracks are measured and kept here for the report.
+ * @author NullNoname
+ */
+public class Playlist {
+	/** Extension of the playlist identifiers (registered to PlaylistCodec) */
+	public static final String EXTENSION = "playlist";
+
+	/** Registered playlists */
+	private static final Map<String, Playlist> registry = new HashMap<String, Playlist>();
+
+	/**
+	 * Register a playlist, so PlaylistCodec can find it by its identifier
+	 * @param playlist Playlist
+	 */
+	public static void register(Playlist playlist) {
+		synchronized(registry) {
+			registry.put(playlist.getIdentifier(), playlist);
+		}
+	}
+
+	/**
+	 * Remove a playlist from the registry
+	 * @param identifier Identifier
+	 */
+	public static void unregister(String identifier) {
+		synchronized(registry) {
+			registry.remove(identifier);
+		}
+	}
+
+	/**
+	 * Find a registered playlist
+	 * @param identifier Identifier
+	 * @return Playlist, or null if not registered
+	 */
+	public static Playlist get(String identifier) {
+		synchronized(registry) {
+			return registry.get(identifier);
+		}
+	}
+
+	/** Identifier (ends with ".playlist") */
+	private final String identifier;
+
+	/** Tracks */
+	private final List<FilenameURL> tracks = new ArrayList<FilenameURL>();
+
+	/** Measured transitions */
+	private final List<Transition> transitions = new ArrayList<Transition>();
+
+	/** true if the first track follows the last one */
+	private volatile boolean looping;
+
+	/** Crossfade length in milliseconds (0 for a plain splice) */
+	private volatile int crossfadeMillis;
+
+	/**
+	 * Constructor
+	 * @param name Name of the playlist (".playlist" is appended if missing)
+	 */
+	public Playlist(String name) {
+		this.identifier = name.endsWith("." + EXTENSION) ? name : name + "." + EXTENSION;
+	}
+
+	/**
+	 * @return Identifier to pass to SoundSystem.backgroundMusic()
+	 */
+	public String getIdentifier() {
+		return identifier;
+	}
+
+	/**
+	 * Add a track at the end. Can be called while the playlist plays.
+	 * @param filename Filename (its extension selects the codec)
+	 * @param url URL of the file
+	 */
+	public synchronized void add(String filename, URL url) {
+		tracks.add(new FilenameURL(url, filename));
+	}
+
+	/**
+	 * @return Number of tracks
+	 */
+	public synchronized int size() {
+		return tracks.size();
+	}
+
+	/**
+	 * Get a track
+	 * @param index Track index
+	 * @return Track, or null if index is past the end (the first track again if looping)
+	 */
+	public synchronized FilenameURL getTrack(int index) {
+		if(tracks.isEmpty()) return null;
+		if(index >= tracks.size()) {
+			if(!looping) return null;
+			index %= tracks.size();
+		}
+		return tracks.get(index);
+	}
+
+	/**
+	 * @return true if the first track follows the last one
+	 */
+	public boolean isLooping() {
+		return looping;
+	}
+
+	/**
+	 * @param looping true if the first track follows the last one
+	 */
+	public void setLooping(boolean looping) {
+		this.looping = looping;
+	}
+
+	/**
+	 * @return Crossfade length in milliseconds (0 for a plain splice)
+	 */
+	public int getCrossfadeMillis() {
+		return crossfadeMillis;
+	}
+
+	/**
+	 * @param crossfadeMillis Crossfade length in milliseconds (0 for a plain splice)
+	 */
+	public void setCrossfadeMillis(int crossfadeMillis) {
+		this.crossfadeMillis = Math.max(0, crossfadeMillis);
+	}
+
+	/**
+	 * Record a transition (called by PlaylistCodec)
+	 * @param transition Transition
+	 */
+	synchronized void addTransition(Transition transition) {
+		transitions.add(transition);
+	}
+
+	/**
+	 * @return Copy of the measured transitions
+	 */
+	public synchronized List<Transition> getTransitions() {
+		return new ArrayList<Transition>(transitions);
+	}
+
+	/**
+	 * @return Report of the measured transitions, one line each
+	 */
+	public synchronized String getReport() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Playlist '").append(identifier).append("': ").append(transitions.size()).append(" transitions");
+		long maxStall = 0;
+		for(Transition t : transitions) {
+			sb.append('\n').append(t);
+			maxStall = Math.max(maxStall, t.stallNanos);
+		}
+		sb.append("\nWorst stall at a boundary: ").append(String.format("%.2f", maxStall / 1000000.0)).append("ms");
+		return sb.toString();
+	}
+
+	/**
+	 * Measurement of one transition between two tracks
+	 */
+	public static class Transition {
+		/** Filenames of the ending and the starting track */
+		public final String from, to;
+		/** Time spent opening the next track and decoding its look-ahead, on the look-ahead thread */
+		public long prepareNanos;
+		/** Time between the end of the look-ahead and the boundary (negative if the stream thread had to wait) */
+		public long readyMarginNanos;
+		/** Time the stream thread waited for the next track at the boundary */
+		public long stallNanos;
+		/** Time spent at the boundary to splice (or crossfade) the tracks, including the stall */
+		public long spliceNanos;
+		/** Frames mixed by the crossfade */
+		public int crossfadeFrames;
+		/** true if the next track was converted to the playlist format */
+		public boolean converted;
+		/** true if the next track could not be opened */
+		public boolean failed;
+
+		/**
+		 * Constructor
+		 * @param from Filename of the ending track
+		 * @param to Filename of the starting track
+		 */
+		public Transition(String from, String to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("'%s' -> '%s': %s, splice %.2fms, stall %.2fms, look-ahead %.1fms ready %.1fms before%s",
+					from, to, failed ? "failed" : (crossfadeFrames > 0 ? "crossfade " + crossfadeFrames + " frames" : "spliced"),
+					spliceNanos / 1000000.0, stallNanos / 1000000.0, prepareNanos / 1000000.0, readyMarginNanos / 1000000.0,
+					converted ? ", converted" : "");
+		}
+	}
+}
@@ -0,0 +1,500 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import paulscode.sound.FilenameURL;
+import paulscode.sound.ICodec;
+import paulscode.sound.PAudioFormat;
+import paulscode.sound.SoundBuffer;
+import paulscode.sound.SoundSystemConfig;
+
+/**
+ * Codec which plays the tracks of a Playlist as one continuous stream.
+ * While a track plays, the next one is opened and its beginning decoded on a background thread;
+ * at the boundary its PCM is spliced into the same stream buffer, so the source keeps its AudioTrack and there is no gap.
+ * With a crossfade length, the tail of the ending track is mixed with the head of the next one (equal power).
+ * Every track is converted to the format of the first one (16-bit, little endian) with PcmConverter.
+ * Registered for the ".playlist" extension; the identifier selects the playlist (see Playlist.register()).
+ * @author NullNoname
+ */
+public class PlaylistCodec implements ICodec {
+	/** Class name for the log */
+	private static final String CLASS_NAME = "PlaylistCodec";
+
+	/** Milliseconds of the next track decoded ahead on the background thread */
+	private static volatile int defaultLookAheadMillis = 1000;
+
+	/** Background thread which prepares the next tracks (created on first use) */
+	private static ExecutorService lookAheadExecutor;
+
+	/**
+	 * @return Milliseconds of the next track decoded ahead on the background thread
+	 */
+	public static int getDefaultLookAheadMillis() {
+		return defaultLookAheadMillis;
+	}
+
+	/**
+	 * Set how much of the next track is decoded ahead. It should cover the time the stream thread needs to decode one buffer.
+	 * @param defaultLookAheadMillis Milliseconds of the next track decoded ahead
+	 */
+	public static void setDefaultLookAheadMillis(int defaultLookAheadMillis) {
+		PlaylistCodec.defaultLookAheadMillis = defaultLookAheadMillis;
+	}
+
+	/**
+	 * @return Background thread which prepares the next tracks
+	 */
+	private static synchronized ExecutorService getLookAheadExecutor() {
+		if(lookAheadExecutor == null) {
+			lookAheadExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "PlaylistLookAhead");
+					t.setDaemon(true);
+					t.setPriority(Thread.NORM_PRIORITY - 1);
+					return t;
+				}
+			});
+		}
+		return lookAheadExecutor;
+	}
+
+	/** Playlist being played */
+	private Playlist playlist;
+	/** Output format (the rate and channels of the first track) */
+	private PAudioFormat audioFormat;
+	/** Track being played */
+	private Track current;
+	/** Track being prepared on the look-ahead thread (null if there is none yet) */
+	private Track nextTrack;
+	/** Result of the look-ahead */
+	private Future<Track> nextFuture;
+	/** Output samples of one read() */
+	private short[] samples = new short[0];
+	/** true if initialized */
+	private boolean initialized;
+	/** true when the last track has ended */
+	private boolean endOfStream;
+
+	public void reverseByteOrder(boolean b) {
+		// The tracks are converted to little endian, which is what AudioTrack wants (same as CodecWavN)
+	}
+
+	public boolean initialize(FilenameURL filenameURL) {
+		cleanup();
+
+		if(filenameURL == null) {
+			errorMessage("filenameURL null in method 'initialize'");
+			return false;
+		}
+		playlist = Playlist.get(filenameURL.getFilename());
+		if(playlist == null) {
+			errorMessage("Playlist '" + filenameURL.getFilename() + "' is not registered");
+			return false;
+		}
+		FilenameURL first = playlist.getTrack(0);
+		if(first == null) {
+			errorMessage("Playlist '" + filenameURL.getFilename() + "' is empty");
+			return false;
+		}
+
+		// The first track decides the format of the whole stream
+		current = new Track(0, first);
+		if(!current.open(0, 0)) {
+			current = null;
+			return false;
+		}
+		audioFormat = new PAudioFormat(current.converter.getOutputRate(), 16, current.converter.getOutputChannels(), true, false);
+		scheduleNext();
+		initialized = true;
+		return true;
+	}
+
+	public boolean initialized() {
+		return initialized;
+	}
+
+	public SoundBuffer read() {
+		if(!initialized || endOfStream) return null;
+
+		int channels = audioFormat.getChannels();
+		int want = SoundSystemConfig.getStreamingBufferSize() / (channels * 2) * channels;
+		if(samples.length < want) samples = new short[want];
+		int n = fill(samples, want);
+		if(n <= 0) {
+			endOfStream = true;
+			return null;
+		}
+
+		byte[] data = PcmBufferPool.allocate(n * 2);
+		for(int i = 0; i < n; i++) {
+			data[i * 2] = (byte)samples[i];
+			data[i * 2 + 1] = (byte)(samples[i] >> 8);
+		}
+		return new SoundBuffer(data, audioFormat);
+	}
+
+	public SoundBuffer readAll() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SoundBuffer buffer;
+		while((buffer = read()) != null) {
+			out.write(buffer.audioData, 0, buffer.audioData.length);
+			PcmBufferPool.recycle(buffer.audioData);
+		}
+		return (out.size() > 0) ? new SoundBuffer(out.toByteArray(), audioFormat) : null;
+	}
+
+	public boolean endOfStream() {
+		return endOfStream;
+	}
+
+	public void cleanup() {
+		if(current != null) current.cleanup();
+		if(nextTrack != null) nextTrack.cancel();
+		current = null;
+		nextTrack = null;
+		nextFuture = null;
+		initialized = false;
+		endOfStream = false;
+	}
+
+	public PAudioFormat getAudioFormat() {
+		return audioFormat;
+	}
+
+	/**
+	 * @return Playlist being played (null if not initialized)
+	 */
+	public Playlist getPlaylist() {
+		return playlist;
+	}
+
+	/**
+	 * Fill the output samples from the current track, moving on to the next ones at their boundaries
+	 * @param out Output samples
+	 * @param want Number of samples wanted (whole frames)
+	 * @return Number of samples written (less than want only at the end of the playlist)
+	 */
+	private int fill(short[] out, int want) {
+		int n = 0;
+		while(n < want && current != null) {
+			// The crossfade tail of the current track is held back until the next track is there to mix with
+			int tail = (nextTrack != null) ? getCrossfadeFrames() * audioFormat.getChannels() : 0;
+			if(current.available() <= tail && current.decode()) continue;
+
+			int count = Math.min(want - n, current.available() - Math.min(tail, current.available()));
+			if(count > 0) {
+				System.arraycopy(current.buffer, current.readPos, out, n, count);
+				current.readPos += count;
+				n += count;
+			} else if(nextTrack == null && !scheduleNext()) {
+				// End of the playlist
+				current.cleanup();
+				current = null;
+			} else if(nextTrack != null) {
+				nextTrack();
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * @return Crossfade length of the playlist in frames
+	 */
+	private int getCrossfadeFrames() {
+		return (int)((long)playlist.getCrossfadeMillis() * audioFormat.getSampleRate() / 1000);
+	}
+
+	/**
+	 * Start preparing the track after the current one on the look-ahead thread
+	 * @return true if there is a next track
+	 */
+	private boolean scheduleNext() {
+		int index = current.index + 1;
+		FilenameURL filenameURL = playlist.getTrack(index);
+		if(filenameURL == null) return false;
+
+		final Track track = new Track(index, filenameURL);
+		final int rate = (int)audioFormat.getSampleRate();
+		final int channels = audioFormat.getChannels();
+		final int lookAheadSamples = (int)((long)Math.max(defaultLookAheadMillis, playlist.getCrossfadeMillis()) * rate / 1000) * channels;
+		nextTrack = track;
+		nextFuture = getLookAheadExecutor().submit(new Callable<Track>() {
+			public Track call() {
+				track.prepare(rate, channels, lookAheadSamples);
+				return track;
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Move on to the next track. The remaining samples of the current track (the crossfade tail) are mixed into its head.
+	 */
+	private void nextTrack() {
+		long begin = System.nanoTime();
+		Track track = nextTrack;
+		boolean stalled = !nextFuture.isDone();
+		try {
+			nextFuture.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			track.failed = true;
+		}
+		long ready = System.nanoTime();
+
+		Playlist.Transition transition = new Playlist.Transition(current.filenameURL.getFilename(), track.filenameURL.getFilename());
+		transition.prepareNanos = track.prepareNanos;
+		transition.readyMarginNanos = stalled ? -(ready - begin) : begin - track.readyTime;
+		transition.stallNanos = stalled ? ready - begin : 0;
+		nextTrack = null;
+		nextFuture = null;
+
+		if(track.failed) {
+			// Skip the track; the tail of the current one is kept for the track after it
+			transition.failed = true;
+			track.cleanup();
+			current.index = track.index;
+		} else {
+			int tail = current.available();
+			if(tail > 0) {
+				crossfade(current, track, tail);
+				transition.crossfadeFrames = tail / audioFormat.getChannels();
+			}
+			transition.converted = !track.converter.isIdentity();
+			current.cleanup();
+			current = track;
+		}
+		scheduleNext();
+
+		transition.spliceNanos = System.nanoTime() - begin;
+		playlist.addTransition(transition);
+		SoundSystemConfig.getLogger().message("Playlist transition " + transition, 0);
+	}
+
+	/**
+	 * Mix the remaining samples of a track into the head of the next one, with equal power gains
+	 * @param from Ending track
+	 * @param to Starting track (its head is overwritten with the mix)
+	 * @param count Number of samples to mix (whole frames)
+	 */
+	private void crossfade(Track from, Track to, int count) {
+		to.padTo(count);
+		int channels = audioFormat.getChannels();
+		int frames = count / channels;
+		for(int f = 0; f < frames; f++) {
+			double t = (f + 0.5) / frames * (Math.PI / 2);
+			float gainOut = (float)Math.cos(t), gainIn = (float)Math.sin(t);
+			for(int c = 0; c < channels; c++) {
+				int i = f * channels + c;
+				int v = Math.round(from.buffer[from.readPos + i] * gainOut + to.buffer[to.readPos + i] * gainIn);
+				to.buffer[to.readPos + i] = (short)Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, v));
+			}
+		}
+		from.readPos += count;
+	}
+
+	private void errorMessage(String message) {
+		SoundSystemConfig.getLogger().errorMessage(CLASS_NAME, message, 0);
+	}
+
+	/**
+	 * One track of the playlist: its codec, and its converted samples not played yet
+	 */
+	private static class Track {
+		/** Index in the playlist */
+		int index;
+		/** File */
+		final FilenameURL filenameURL;
+		/** Codec (null if not opened) */
+		ICodec codec;
+		/** Converter to the playlist format */
+		PcmConverter converter;
+		/** Converted samples, valid from readPos to writePos */
+		short[] buffer = new short[0];
+		int readPos, writePos;
+		/** true when the codec has no more data */
+		boolean ended;
+		/** true if the track could not be opened */
+		volatile boolean failed;
+		/** Time taken by prepare() */
+		long prepareNanos;
+		/** System.nanoTime() at the end of prepare() */
+		long readyTime;
+		/** true if the look-ahead result is not wanted anymore */
+		private boolean cancelled;
+		/** true when prepare() has returned */
+		private boolean prepared;
+
+		/**
+		 * Constructor
+		 * @param index Index in the playlist
+		 * @param filenameURL File
+		 */
+		Track(int index, FilenameURL filenameURL) {
+			this.index = index;
+			this.filenameURL = filenameURL;
+		}
+
+		/**
+		 * Open the codec
+		 * @param rate Output sample rate (0 for the rate of the track)
+		 * @param channels Output channels (0 for the channels of the track, at most 2)
+		 * @return true if successful
+		 */
+		boolean open(int rate, int channels) {
+			codec = SoundSystemConfig.getCodec(filenameURL.getFilename());
+			if(codec == null) {
+				SoundSystemConfig.getLogger().errorMessage(CLASS_NAME, "No codec for '" + filenameURL.getFilename() + "'", 0);
+				return false;
+			}
+			// Little endian, as PcmConverter reads it
+			codec.reverseByteOrder(true);
+			if(!codec.initialize(filenameURL) || codec.getAudioFormat() == null) {
+				SoundSystemConfig.getLogger().errorMessage(CLASS_NAME, "Failed to open '" + filenameURL.getFilename() + "'", 0);
+				codec.cleanup();
+				codec = null;
+				return false;
+			}
+			PAudioFormat format = codec.getAudioFormat();
+			if(rate <= 0) rate = (int)format.getSampleRate();
+			if(channels <= 0) channels = Math.min(2, format.getChannels());
+			converter = new PcmConverter(format, rate, channels);
+			return true;
+		}
+
+		/**
+		 * Open the codec and decode the beginning (look-ahead thread)
+		 * @param rate Output sample rate
+		 * @param channels Output channels
+		 * @param lookAheadSamples Number of samples to decode
+		 */
+		void prepare(int rate, int channels, int lookAheadSamples) {
+			long begin = System.nanoTime();
+			try {
+				if(!open(rate, channels)) {
+					failed = true;
+				} else {
+					while(available() < lookAheadSamples && !isCancelled() && decode()) {}
+				}
+			} catch (RuntimeException e) {
+				SoundSystemConfig.getLogger().printStackTrace(e, 1);
+				failed = true;
+			}
+			readyTime = System.nanoTime();
+			prepareNanos = readyTime - begin;
+			synchronized(this) {
+				prepared = true;
+				if(cancelled) cleanup();
+			}
+		}
+
+		/**
+		 * @return true if cancel() has been called
+		 */
+		private synchronized boolean isCancelled() {
+			return cancelled;
+		}
+
+		/**
+		 * Give up the track. If it is still being prepared, it is closed when prepare() returns.
+		 */
+		synchronized void cancel() {
+			cancelled = true;
+			if(prepared) cleanup();
+		}
+
+		/**
+		 * @return Number of decoded samples not played yet
+		 */
+		int available() {
+			return writePos - readPos;
+		}
+
+		/**
+		 * Decode and convert one buffer
+		 * @return false if the track had already ended
+		 */
+		boolean decode() {
+			if(ended || codec == null) return false;
+			SoundBuffer soundBuffer = codec.read();
+			if(soundBuffer != null && soundBuffer.audioData != null && soundBuffer.audioData.length > 0) {
+				makeRoom(converter.getMaxOutputSamples(soundBuffer.audioData.length));
+				writePos += converter.convert(soundBuffer.audioData, soundBuffer.audioData.length, buffer, writePos);
+				// Nothing else references the codec output
+				PcmBufferPool.recycle(soundBuffer.audioData);
+			}
+			if(soundBuffer == null || codec.endOfStream()) ended = true;
+			return true;
+		}
+
+		/**
+		 * Decode until at least count samples are available, and add silence if the track is shorter
+		 * @param count Number of samples
+		 */
+		void padTo(int count) {
+			while(available() < count && decode()) {}
+			if(available() < count) {
+				makeRoom(count - available());
+				while(available() < count) buffer[writePos++] = 0;
+			}
+		}
+
+		/**
+		 * Make room for more samples after writePos
+		 * @param count Number of samples
+		 */
+		private void makeRoom(int count) {
+			if(writePos + count <= buffer.length) return;
+			int available = available();
+			short[] target = (available + count > buffer.length) ? new short[Math.max(buffer.length * 2, available + count)] : buffer;
+			System.arraycopy(buffer, readPos, target, 0, available);
+			buffer = target;
+			readPos = 0;
+			writePos = available;
+		}
+
+		/**
+		 * Close the codec
+		 */
+		void cleanup() {
+			if(codec != null) codec.cleanup();
+			codec = null;
+			buffer = new short[0];
+			readPos = writePos = 0;
+		}
+	}
+}
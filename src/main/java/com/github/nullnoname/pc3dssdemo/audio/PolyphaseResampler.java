@@ -0,0 +1,389 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import paulscode.sound.PAudioFormat;
+
+/**
+ * Converts the PCM of a codec to 16-bit little endian samples of another rate and channel count with a windowed sinc filter.
+ * The input is 8-bit (unsigned) or 16-bit (signed little endian) mono/stereo PCM, like {@link PcmConverter}.
+ * Each output frame is {@link #TAPS} input frames weighted by a Kaiser-windowed sinc, whose coefficients are interpolated between
+ * the two nearest of {@link #PHASES} precomputed filter phases. The cutoff follows the lower of the two rates, so downsampling
+ * filters out what would fold back below the output Nyquist frequency.
+ * <p>
+ * PcmConverter interpolates linearly, which is fine for playlist transitions but leaves images of the treble in the output.
+ * This filter keeps them near the 16-bit noise floor, for the streams ResamplingCodec converts to the native output rate.
+ * The coefficient tables are shared by the converters of the same rates and every buffer is allocated in the constructor,
+ * so converting a stream does not allocate.
+ * <p>
+ * The output frames are at the same times as the input frames (the first output frame is the first input frame), but the filter
+ * needs TAPS / 2 frames after a position to compute it: call {@link #flush(byte[], int)} after the last input buffer to get the tail.
+ * When the rates match, the samples are copied exactly.
+ * @author NullNoname
+ */
+public class PolyphaseResampler {
+	/** Input frames weighted per output frame */
+	public static final int TAPS = 32;
+
+	/** Half of the taps (input frames needed after an output position) */
+	private static final int HALF_TAPS = TAPS / 2;
+
+	/** Bits of the filter phase */
+	private static final int PHASE_BITS = 8;
+
+	/** Number of filter phases between two input frames */
+	public static final int PHASES = 1 << PHASE_BITS;
+
+	/** Kaiser window shape (about 80dB of stopband attenuation) */
+	private static final double KAISER_BETA = 8.0;
+
+	/** Cutoff (-6dB) relative to the lower Nyquist frequency; the transition band of 32 taps ends a little above it */
+	private static final double CUTOFF = 0.91;
+
+	/** 1.0 in 32.32 fixed point */
+	private static final long FIXED_ONE = 1L << 32;
+
+	/** Mask and scale of the position bits below the filter phase */
+	private static final long PHASE_FRACTION_MASK = (1L << (32 - PHASE_BITS)) - 1;
+	private static final float PHASE_FRACTION_SCALE = 1f / (1L << (32 - PHASE_BITS));
+
+	/** Coefficient tables by cutoff */
+	private static final Map<Double, float[]> tables = new HashMap<Double, float[]>();
+
+	/**
+	 * Get the coefficient table of a cutoff. Row p (0 to PHASES) holds the taps for an output position p / PHASES frames after
+	 * the center frame; every row is normalized to a gain of 1, so DC and silence stay exact.
+	 * @param cutoff Cutoff relative to the input Nyquist frequency
+	 * @return Coefficients, (PHASES + 1) * TAPS
+	 */
+	private static float[] getTable(double cutoff) {
+		synchronized(tables) {
+			float[] table = tables.get(cutoff);
+			if(table != null) return table;
+
+			table = new float[(PHASES + 1) * TAPS];
+			double i0Beta = besselI0(KAISER_BETA);
+			double[] row = new double[TAPS];
+			for(int p = 0; p <= PHASES; p++) {
+				double sum = 0;
+				for(int j = 0; j < TAPS; j++) {
+					double x = j - HALF_TAPS + 1 - (double)p / PHASES;
+					double r = x / HALF_TAPS;
+					double window = (r * r < 1) ? besselI0(KAISER_BETA * Math.sqrt(1 - r * r)) / i0Beta : 0;
+					double y = Math.PI * cutoff * x;
+					row[j] = ((y == 0) ? 1 : Math.sin(y) / y) * window;
+					sum += row[j];
+				}
+				for(int j = 0; j < TAPS; j++) {
+					table[p * TAPS + j] = (float)(row[j] / sum);
+				}
+			}
+			tables.put(cutoff, table);
+			return table;
+		}
+	}
+
+	/**
+	 * Modified Bessel function of the first kind, order 0 (for the Kaiser window)
+	 * @param x Argument
+	 * @return I0(x)
+	 */
+	private static double besselI0(double x) {
+		double sum = 1, term = 1;
+		double half = x / 2;
+		for(int k = 1; k < 64 && term > sum * 1e-12; k++) {
+			term *= (half / k) * (half / k);
+			sum += term;
+		}
+		return sum;
+	}
+
+	/** Input format */
+	private final int inRate, inChannels, inBytesPerSample;
+
+	/** Output format */
+	private final int outRate, outChannels;
+
+	/** Input frames per output frame in 32.32 fixed point */
+	private final long step;
+
+	/** Coefficients (null if the rates match) */
+	private final float[] table;
+
+	/** Last TAPS input frames, twice in a row so the filter reads them without wrapping (interleaved if stereo) */
+	private final float[] window;
+
+	/** Oldest frame of the window (also where the next frame is written) */
+	private int head;
+
+	/** Position of the next output frame, relative to the center frame of the window before the next input frame is added */
+	private long position;
+
+	/** Input and output frames since the last reset (for the exact length of the tail) */
+	private long inputFrames, outputFrames;
+
+	/**
+	 * Constructor
+	 * @param in Input format
+	 * @param outRate Output sample rate
+	 * @param outChannels Output channels (1 or 2)
+	 */
+	public PolyphaseResampler(PAudioFormat in, int outRate, int outChannels) {
+		this.inRate = (int)in.getSampleRate();
+		this.inChannels = in.getChannels();
+		this.inBytesPerSample = in.getSampleSizeInBits() / 8;
+		this.outRate = outRate;
+		this.outChannels = outChannels;
+		if(inChannels < 1 || inChannels > 2 || inBytesPerSample < 1 || inBytesPerSample > 2 || inRate <= 0)
+			throw new IllegalArgumentException("Unsupported input format: " + in);
+		if(outChannels < 1 || outChannels > 2 || outRate <= 0)
+			throw new IllegalArgumentException("Unsupported output format: " + outRate + "Hz " + outChannels + "ch");
+		this.step = ((long)inRate << 32) / outRate;
+		this.table = (step == FIXED_ONE) ? null : getTable(CUTOFF * Math.min(1.0, (double)outRate / inRate));
+		this.window = new float[TAPS * 2 * inChannels];
+		reset();
+	}
+
+	/**
+	 * @return true if the sample rate is converted
+	 */
+	public boolean isResampling() {
+		return step != FIXED_ONE;
+	}
+
+	/**
+	 * @return true if the samples are just copied (same rate and channels, 16-bit input)
+	 */
+	public boolean isIdentity() {
+		return step == FIXED_ONE && inChannels == outChannels && inBytesPerSample == 2;
+	}
+
+	/**
+	 * @return Input sample rate
+	 */
+	public int getInputRate() {
+		return inRate;
+	}
+
+	/**
+	 * @return Output sample rate
+	 */
+	public int getOutputRate() {
+		return outRate;
+	}
+
+	/**
+	 * @return Output channels
+	 */
+	public int getOutputChannels() {
+		return outChannels;
+	}
+
+	/**
+	 * Get the maximum number of bytes {@link #convert(byte[], int, byte[], int)} can write for an input length
+	 * @param length Input length in bytes
+	 * @return Maximum number of output bytes
+	 */
+	public int getMaxOutputBytes(int length) {
+		long frames = length / (inChannels * inBytesPerSample);
+		return (int)((frames * outRate / inRate + 2) * outChannels * 2);
+	}
+
+	/**
+	 * @return Maximum number of bytes {@link #flush(byte[], int)} can write
+	 */
+	public int getMaxFlushBytes() {
+		return (int)(((long)HALF_TAPS * outRate / inRate + 2) * outChannels * 2);
+	}
+
+	/**
+	 * Forget the position and the previous frames, before converting an unrelated stream or after a seek
+	 */
+	public void reset() {
+		Arrays.fill(window, 0);
+		head = 0;
+		inputFrames = 0;
+		outputFrames = 0;
+		// The first output frame is computed once the input frame HALF_TAPS after it has been added
+		position = (long)(HALF_TAPS + 1) << 32;
+	}
+
+	/**
+	 * Convert one input buffer
+	 * @param data Input PCM
+	 * @param length Input length in bytes (partial frames at the end are ignored)
+	 * @param out Output PCM (16-bit little endian, interleaved if stereo)
+	 * @param offset First output byte
+	 * @return Number of bytes written
+	 */
+	public int convert(byte[] data, int length, byte[] out, int offset) {
+		int frames = length / (inChannels * inBytesPerSample);
+		int o = offset;
+
+		if(step == FIXED_ONE) {
+			// Same rate: copy (and remix the channels if needed)
+			for(int i = 0; i < frames; i++) {
+				int left = getSample(data, i, 0);
+				int right = (inChannels > 1) ? getSample(data, i, 1) : left;
+				o = put(out, o, left, right);
+			}
+			return o - offset;
+		}
+
+		for(int i = 0; i < frames; i++) {
+			push(getSample(data, i, 0), (inChannels > 1) ? getSample(data, i, 1) : 0);
+			o = emit(out, o);
+		}
+		inputFrames += frames;
+		outputFrames += (o - offset) / (outChannels * 2);
+		return o - offset;
+	}
+
+	/**
+	 * Get the output frames which depend on the input after the last buffer, as if the input continued with silence.
+	 * Call once at the end of the stream; the total output since the last reset is then exactly the input length converted
+	 * to the output rate, rounded up (the frames the fixed point step would add past the end are dropped).
+	 * @param out Output PCM
+	 * @param offset First output byte
+	 * @return Number of bytes written
+	 */
+	public int flush(byte[] out, int offset) {
+		if(step == FIXED_ONE) return 0;
+		int o = offset;
+		for(int i = 0; i < HALF_TAPS; i++) {
+			push(0, 0);
+			o = emit(out, o);
+		}
+		long totalFrames = (inputFrames * outRate + inRate - 1) / inRate;
+		int frames = (int)Math.max(0, Math.min((o - offset) / (outChannels * 2), totalFrames - outputFrames));
+		outputFrames += frames;
+		return frames * outChannels * 2;
+	}
+
+	/**
+	 * Add an input frame to the window
+	 * @param left Left (or mono) sample
+	 * @param right Right sample
+	 */
+	private void push(int left, int right) {
+		if(inChannels == 1) {
+			window[head] = window[head + TAPS] = left;
+		} else {
+			int w = head * 2;
+			window[w] = window[w + TAPS * 2] = left;
+			window[w + 1] = window[w + 1 + TAPS * 2] = right;
+		}
+		head = (head + 1 == TAPS) ? 0 : head + 1;
+	}
+
+	/**
+	 * Write the output frames between the center frame of the window and the next input frame
+	 * @param out Output PCM
+	 * @param o Output index
+	 * @return Next output index
+	 */
+	private int emit(byte[] out, int o) {
+		long pos = position - FIXED_ONE;
+		while(pos < FIXED_ONE) {
+			int row = (int)(pos >>> (32 - PHASE_BITS)) * TAPS;
+			float fraction = (pos & PHASE_FRACTION_MASK) * PHASE_FRACTION_SCALE;
+			if(inChannels == 1) {
+				float s0 = 0, s1 = 0;
+				for(int j = 0, w = head; j < TAPS; j++, w++) {
+					float x = window[w];
+					s0 += x * table[row + j];
+					s1 += x * table[row + TAPS + j];
+				}
+				int mono = round(s0 + (s1 - s0) * fraction);
+				o = put(out, o, mono, mono);
+			} else {
+				float l0 = 0, l1 = 0, r0 = 0, r1 = 0;
+				for(int j = 0, w = head * 2; j < TAPS; j++, w += 2) {
+					float c0 = table[row + j], c1 = table[row + TAPS + j];
+					float left = window[w], right = window[w + 1];
+					l0 += left * c0;
+					l1 += left * c1;
+					r0 += right * c0;
+					r1 += right * c1;
+				}
+				o = put(out, o, round(l0 + (l1 - l0) * fraction), round(r0 + (r1 - r0) * fraction));
+			}
+			pos += step;
+		}
+		position = pos;
+		return o;
+	}
+
+	/**
+	 * Round and clip a filtered sample
+	 * @param sample Sample
+	 * @return 16-bit sample
+	 */
+	private static int round(float sample) {
+		int s = (int)(sample + ((sample >= 0) ? 0.5f : -0.5f));
+		return (s > Short.MAX_VALUE) ? Short.MAX_VALUE : (s < Short.MIN_VALUE) ? Short.MIN_VALUE : s;
+	}
+
+	/**
+	 * Read one input sample
+	 * @param data Input PCM
+	 * @param frame Frame index
+	 * @param channel Channel index
+	 * @return 16-bit sample
+	 */
+	private int getSample(byte[] data, int frame, int channel) {
+		int p = (frame * inChannels + channel) * inBytesPerSample;
+		if(inBytesPerSample == 1) return ((data[p] & 0xFF) - 128) << 8;
+		return (short)((data[p] & 0xFF) | (data[p + 1] << 8));
+	}
+
+	/**
+	 * Write one output frame
+	 * @param out Output PCM
+	 * @param o Output index
+	 * @param left Left (or mono) sample
+	 * @param right Right sample
+	 * @return Next output index
+	 */
+	private int put(byte[] out, int o, int left, int right) {
+		if(outChannels == 1) {
+			int mono = (left + right) >> 1;
+			out[o++] = (byte)mono;
+			out[o++] = (byte)(mono >> 8);
+		} else {
+			out[o++] = (byte)left;
+			out[o++] = (byte)(left >> 8);
+			out[o++] = (byte)right;
+			out[o++] = (byte)(right >> 8);
+		}
+		return o;
+	}
+}
@@ -0,0 +1,266 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import ibxm.FastTracker2;
+import ibxm.IBXM;
+import ibxm.Module;
+import ibxm.ProTracker;
+import ibxm.ScreamTracker3;
+import paulscode.sound.FilenameURL;
+import paulscode.sound.PAudioFormat;
+import paulscode.sound.SoundBuffer;
+import paulscode.sound.SoundSystemConfig;
+import paulscode.sound.codecs.CodecIBXM;
+
+/**
+ * Module (xm/s3m/mod) codec which renders the stream buffers into arrays from {@link PcmBufferPool}.
+ * Works like CodecIBXM, except that read() does not allocate a new array for every buffer.
+ * <p>
+ * {@link #seek(long)} uses IBXM.seek(), which replays the pattern sequence from the beginning without mixing any sample.
+ * That is a small fraction of the rendering cost, and the sequencer state of IBXM is private, so modules need no checkpoint index.
+ * @author NullNoname
+ */
+public class PooledCodecIBXM implements SeekableCodec {
+	/** Class name used in the log */
+	private static final String CLASS_NAME = "PooledCodecIBXM";
+
+	/** Bytes per frame (16-bit stereo) */
+	private static final int FRAME_SIZE = 4;
+
+	/**
+	 * Frames rendered and dropped before a seek target. IBXM.seek() does not set up the volume ramp from the previous tick,
+	 * so the first frames after it can differ from a continuous render.
+	 */
+	private static final int SEEK_PREROLL = 4096;
+
+	/** Sample rate (the native output rate if it is set, so the platform does not resample the module) */
+	private final int sampleRate;
+
+	/** Renderer */
+	private IBXM ibxm;
+
+	/** Audio format (16-bit stereo, big endian as rendered by IBXM) */
+	private PAudioFormat audioFormat;
+
+	/** true if the rendered data should be byte-swapped */
+	private boolean reverseBytes;
+
+	/** Length of the song in frames */
+	private int songDuration;
+
+	/** Frames rendered so far */
+	private int playPosition;
+
+	/** true if initialized */
+	private boolean initialized;
+
+	/** true when the end of the song has been reached */
+	private boolean endOfStream;
+
+	public PooledCodecIBXM() {
+		sampleRate = OutputNegotiator.getRenderRate(CodecIBXM.getDefaultSampleRate());
+	}
+
+	public void reverseByteOrder(boolean b) {
+		reverseBytes = b;
+	}
+
+	public boolean initialize(FilenameURL filenameURL) {
+		initialized = false;
+		cleanup();
+
+		if(filenameURL == null) {
+			errorMessage("filenameURL null in method 'initialize'");
+			return false;
+		}
+		long startMillis = StreamResume.takeStartMillis(filenameURL.getFilename());
+
+		InputStream is = null;
+		try {
+			is = filenameURL.openStream();
+			Module module = loadModule(is);
+			if(ibxm == null) ibxm = new IBXM(sampleRate);
+			if(audioFormat == null) audioFormat = new PAudioFormat(sampleRate, 16, 2, true, true);
+			ibxm.set_module(module);
+			songDuration = ibxm.calculate_song_duration();
+		} catch (Exception e) {
+			errorMessage("Error loading module in method 'initialize'");
+			printStackTrace(e);
+			return false;
+		} finally {
+			if(is != null) {
+				try {is.close();} catch (IOException e2) {}
+			}
+		}
+
+		endOfStream = (songDuration <= 0);
+		initialized = true;
+		OutputNegotiator.reportRendered(filenameURL.getFilename(), sampleRate);
+		if(startMillis > 0) StreamResume.seek(this, filenameURL.getFilename(), startMillis);
+		return true;
+	}
+
+	public boolean initialized() {
+		return initialized;
+	}
+
+	public SoundBuffer read() {
+		if(endOfStream || !initialized) return null;
+
+		int frames = Math.min(songDuration - playPosition, SoundSystemConfig.getStreamingBufferSize() / FRAME_SIZE);
+		if(frames <= 0) {
+			endOfStream = true;
+			return null;
+		}
+
+		byte[] data = PcmBufferPool.allocate(frames * FRAME_SIZE);
+		render(data, frames);
+		return new SoundBuffer(data, audioFormat);
+	}
+
+	public SoundBuffer readAll() {
+		if(!initialized) {
+			errorMessage("Module null in method 'readAll'");
+			return null;
+		}
+
+		long remaining = (long)(songDuration - playPosition) * FRAME_SIZE;
+		int size = (int)Math.min(remaining, SoundSystemConfig.getMaxFileSize() / FRAME_SIZE * FRAME_SIZE);
+		byte[] data = new byte[size];
+		render(data, size / FRAME_SIZE);
+		endOfStream = true;
+		return new SoundBuffer(data, audioFormat);
+	}
+
+	public boolean endOfStream() {
+		return endOfStream;
+	}
+
+	public void cleanup() {
+		playPosition = 0;
+	}
+
+	public PAudioFormat getAudioFormat() {
+		return audioFormat;
+	}
+
+	public long getFramePosition() {
+		return playPosition;
+	}
+
+	public boolean seek(long frame) {
+		if(!initialized) return false;
+		int position = (int)Math.max(0, Math.min(frame, songDuration));
+		int start = Math.max(0, position - SEEK_PREROLL);
+		ibxm.seek(start);
+
+		int chunkFrames = SoundSystemConfig.getStreamingBufferSize() / FRAME_SIZE;
+		byte[] chunk = PcmBufferPool.allocate(chunkFrames * FRAME_SIZE);
+		for(int done = start; done < position; done += chunkFrames) {
+			ibxm.get_audio(chunk, Math.min(chunkFrames, position - done));
+		}
+		PcmBufferPool.recycle(chunk);
+
+		playPosition = position;
+		endOfStream = (playPosition >= songDuration);
+		return true;
+	}
+
+	/**
+	 * Render frames into the beginning of an array
+	 * @param data Array
+	 * @param frames Number of frames
+	 */
+	private void render(byte[] data, int frames) {
+		int chunkFrames = SoundSystemConfig.getStreamingBufferSize() / FRAME_SIZE;
+		if(frames <= chunkFrames) {
+			ibxm.get_audio(data, frames);
+		} else {
+			// Large renders (readAll) go through a stream-sized chunk
+			byte[] chunk = new byte[chunkFrames * FRAME_SIZE];
+			int done = 0;
+			while(done < frames) {
+				int n = Math.min(chunkFrames, frames - done);
+				ibxm.get_audio(chunk, n);
+				System.arraycopy(chunk, 0, data, done * FRAME_SIZE, n * FRAME_SIZE);
+				done += n;
+			}
+		}
+
+		if(reverseBytes) {
+			byte b;
+			int end = frames * FRAME_SIZE;
+			for(int i = 0; i < end; i += 2) {
+				b = data[i];
+				data[i] = data[i + 1];
+				data[i + 1] = b;
+			}
+		}
+
+		playPosition += frames;
+		if(playPosition >= songDuration) endOfStream = true;
+	}
+
+	/**
+	 * Load a module (same detection order as CodecIBXM)
+	 * @param input InputStream of the module file
+	 * @return Module
+	 * @throws IOException If the file cannot be read or is not a module
+	 */
+	private static Module loadModule(InputStream input) throws IOException {
+		DataInputStream in = new DataInputStream(input);
+
+		byte[] xmHeader = new byte[60];
+		in.readFully(xmHeader);
+		if(FastTracker2.is_xm(xmHeader))
+			return FastTracker2.load_xm(xmHeader, in);
+
+		byte[] s3mHeader = new byte[96];
+		System.arraycopy(xmHeader, 0, s3mHeader, 0, 60);
+		in.readFully(s3mHeader, 60, 36);
+		if(ScreamTracker3.is_s3m(s3mHeader))
+			return ScreamTracker3.load_s3m(s3mHeader, in);
+
+		byte[] modHeader = new byte[1084];
+		System.arraycopy(s3mHeader, 0, modHeader, 0, 96);
+		in.readFully(modHeader, 96, 988);
+		return ProTracker.load_mod(modHeader, in);
+	}
+
+	private void errorMessage(String message) {
+		SoundSystemConfig.getLogger().errorMessage(CLASS_NAME, message, 0);
+	}
+
+	private void printStackTrace(Exception e) {
+		SoundSystemConfig.getLogger().printStackTrace(e, 1);
+	}
+}
@@ -0,0 +1,645 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+
+import com.jcraft.jogg.Packet;
+import com.jcraft.jogg.Page;
+import com.jcraft.jogg.StreamState;
+import com.jcraft.jogg.SyncState;
+import com.jcraft.jorbis.Block;
+import com.jcraft.jorbis.Comment;
+import com.jcraft.jorbis.DspState;
+import com.jcraft.jorbis.Info;
+
+import paulscode.sound.FileDescriptorWrapper;
+import paulscode.sound.FilenameURL;
+import paulscode.sound.ICodec;
+import paulscode.sound.PAudioFormat;
+import paulscode.sound.SoundBuffer;
+import paulscode.sound.SoundSystemConfig;
+
+/**
+ * Ogg Vorbis codec which decodes straight into arrays from {@link PcmBufferPool}.
+ * CodecJOrbis converts every packet into its own array and joins them with appendByteArrays(), which allocates several times
+ * per stream buffer. This codec converts the PCM from JOrbis directly into the stream buffer, and leaves whatever does not fit
+ * in JOrbis for the next read(), so the only array per read is the (pooled) stream buffer itself.
+ * The output is the same as CodecJOrbis: 16-bit signed little endian.
+ * <p>
+ * Files with a FileDescriptor (e.g. uncompressed APK assets) are read page by page with an {@link OggPageReader}, so the memory use
+ * does not depend on the length of the file, and {@link #seek(long)} finds the position with a bisection search on the page granule positions.
+ * While decoding, the page offsets where decoding can restart at an exactly known frame are recorded in a {@link SeekIndex}, so seeking
+ * into (or resuming at) a part of the file which has been played before is sample exact and only decodes a little before the target.
+ * Other files are read from an InputStream and cannot seek.
+ * @author NullNoname
+ */
+public class PooledCodecJOrbis implements SeekableCodec {
+	/** Class name used in the log */
+	private static final String CLASS_NAME = "PooledCodecJOrbis";
+
+	/** Bytes read from the InputStream at once */
+	private static final int READ_SIZE = 4096 * 2;
+
+	/**
+	 * Decoding restarts at least this many frames before a seek target, so the first packet (which only primes the decoder)
+	 * and a packet cut at the page boundary are both before the target. Twice the largest Vorbis block size.
+	 */
+	private static final long SEEK_PREROLL = 8192 * 2;
+
+	/** Minimum distance between seek checkpoints in frames */
+	private static final int CHECKPOINT_INTERVAL = 8192 * 4;
+
+	/** Largest distance from a checkpoint to a seek target where decoding restarts at the checkpoint instead of a bisection search */
+	private static final long CHECKPOINT_RANGE = CHECKPOINT_INTERVAL * 2;
+
+	/** Input (null if read with the page reader) */
+	private InputStream inputStream;
+
+	/** File descriptor of the file (null if read from the InputStream) */
+	private FileDescriptorWrapper wrapper;
+
+	/** Page reader of the file (null if read from the InputStream) */
+	private OggPageReader pageReader;
+
+	/** Position of the first audio page (page reader only) */
+	private long audioStart;
+
+	/** Serial number of the Vorbis stream */
+	private int serialno;
+
+	/** Frame position of the next frame returned */
+	private long framePosition;
+
+	/** Frames to drop before returning PCM (after a seek) */
+	private long skipFrames;
+
+	/**
+	 * Granule position minus frame position (JOrbis does not return the same number of frames at the start as the granule positions count),
+	 * or -1 if not measured yet
+	 */
+	private long granuleOffset;
+
+	/** Frames decoded by prime() */
+	private long primedFrames;
+
+	/** Seek checkpoints of the file (page reader only) */
+	private SeekIndex seekIndex;
+
+	/** Checkpoint found in the index (frame position and page offset) */
+	private final long[] checkpoint = new long[2];
+
+	/** true if framePosition is exact (not after a seek by granule position), so checkpoints can be recorded */
+	private boolean exactPosition;
+
+	/** Offset of the current page, or -1 if decoding cannot restart there */
+	private long pageOffset;
+
+	/** Number of packets which start and end in the current page */
+	private int pagePackets;
+
+	/* JOgg and JOrbis objects */
+	private final Packet joggPacket = new Packet();
+	private final Page joggPage = new Page();
+	private StreamState joggStreamState;
+	private SyncState joggSyncState;
+	private DspState jorbisDspState;
+	private Block jorbisBlock;
+	private Comment jorbisComment;
+	private Info jorbisInfo;
+
+	/** PCM output of JOrbis */
+	private float[][][] pcmInfo;
+	private int[] pcmIndex;
+
+	/** Audio format */
+	private PAudioFormat audioFormat;
+
+	/** Bytes per frame */
+	private int frameSize;
+
+	/** true if initialized */
+	private boolean initialized;
+
+	/** true when all PCM has been returned */
+	private boolean endOfStream;
+
+	/** true after the last Ogg page has been read */
+	private boolean lastPage;
+
+	/** true when the InputStream has no more data */
+	private boolean endOfInput;
+
+	public void reverseByteOrder(boolean b) {
+		// The output is always little endian (same as CodecJOrbis)
+	}
+
+	public boolean initialize(FilenameURL filenameURL) {
+		initialized = false;
+		cleanup();
+
+		if(filenameURL == null) {
+			errorMessage("filenameURL null in method 'initialize'");
+			return false;
+		}
+		long startMillis = StreamResume.takeStartMillis(filenameURL.getFilename());
+
+		joggStreamState = new StreamState();
+		joggSyncState = new SyncState();
+		jorbisDspState = new DspState();
+		jorbisBlock = new Block(jorbisDspState);
+		jorbisComment = new Comment();
+		jorbisInfo = new Info();
+		endOfStream = false;
+		lastPage = false;
+		endOfInput = false;
+		framePosition = 0;
+		skipFrames = 0;
+		granuleOffset = -1;
+		exactPosition = true;
+		pageOffset = -1;
+
+		try {
+			wrapper = filenameURL.openFileDescriptorWrapper();
+		} catch (Exception e) {
+			// Compressed asset or not a local file
+			wrapper = null;
+		}
+
+		try {
+			if(wrapper != null) {
+				Closeable closeable = wrapper.getCloseable();
+				FileChannel channel;
+				if(closeable instanceof FileInputStream)
+					channel = ((FileInputStream)closeable).getChannel();
+				else
+					channel = new FileInputStream(wrapper.getFileDescriptor()).getChannel();
+				long start = filenameURL.getContentStartOffset();
+				int length = filenameURL.getContentLength();
+				pageReader = new OggPageReader(channel, start, (length >= 0) ? (start + length) : channel.size());
+				seekIndex = SeekIndex.get(CLASS_NAME + ":" + filenameURL.getFilename(), CHECKPOINT_INTERVAL);
+			} else {
+				inputStream = filenameURL.openStream();
+			}
+		} catch (IOException e) {
+			errorMessage("Unable to acquire inputstream in method 'initialize'.");
+			printStackTrace(e);
+			cleanup();
+			return false;
+		}
+
+		joggSyncState.init();
+		try {
+			if(!readHeader()) {
+				cleanup();
+				return false;
+			}
+		} catch (IOException e) {
+			errorMessage("Error reading the header");
+			printStackTrace(e);
+			cleanup();
+			return false;
+		}
+
+		jorbisDspState.synthesis_init(jorbisInfo);
+		jorbisBlock.init(jorbisDspState);
+
+		audioFormat = new PAudioFormat(jorbisInfo.rate, 16, jorbisInfo.channels, true, false);
+		frameSize = 2 * jorbisInfo.channels;
+		pcmInfo = new float[1][][];
+		pcmIndex = new int[jorbisInfo.channels];
+
+		initialized = true;
+		if(startMillis > 0) StreamResume.seek(this, filenameURL.getFilename(), startMillis);
+		return true;
+	}
+
+	public boolean initialized() {
+		return initialized;
+	}
+
+	public SoundBuffer read() {
+		if(!initialized || endOfStream) return null;
+
+		int size = SoundSystemConfig.getStreamingBufferSize();
+		size -= size % frameSize;
+
+		byte[] data = PcmBufferPool.allocate(size);
+		int length = decode(data, 0, size);
+		if(length <= 0) {
+			PcmBufferPool.recycle(data);
+			return null;
+		}
+		if(length < size) {
+			// Last piece of the stream
+			byte[] trimmed = new byte[length];
+			System.arraycopy(data, 0, trimmed, 0, length);
+			PcmBufferPool.recycle(data);
+			data = trimmed;
+		}
+		return new SoundBuffer(data, audioFormat);
+	}
+
+	public SoundBuffer readAll() {
+		if(!initialized) return null;
+
+		int chunkSize = SoundSystemConfig.getFileChunkSize();
+		chunkSize -= chunkSize % frameSize;
+		byte[] chunk = new byte[chunkSize];
+		ByteArrayOutputStream out = new ByteArrayOutputStream(chunkSize);
+
+		while(!endOfStream && out.size() < SoundSystemConfig.getMaxFileSize()) {
+			int length = decode(chunk, 0, Math.min(chunkSize, SoundSystemConfig.getMaxFileSize() - out.size()));
+			if(length <= 0) break;
+			out.write(chunk, 0, length);
+		}
+
+		if(out.size() == 0) return null;
+		return new SoundBuffer(out.toByteArray(), audioFormat);
+	}
+
+	public boolean endOfStream() {
+		return endOfStream;
+	}
+
+	public void cleanup() {
+		if(joggStreamState != null) joggStreamState.clear();
+		if(jorbisBlock != null) jorbisBlock.clear();
+		if(jorbisDspState != null) jorbisDspState.clear();
+		if(jorbisInfo != null) jorbisInfo.clear();
+		if(joggSyncState != null) joggSyncState.clear();
+		if(inputStream != null) {
+			try {inputStream.close();} catch (IOException e) {}
+		}
+		if(pageReader != null) pageReader.close();
+		if(wrapper != null) wrapper.closeQuietly();
+		joggStreamState = null;
+		jorbisBlock = null;
+		jorbisDspState = null;
+		jorbisInfo = null;
+		joggSyncState = null;
+		inputStream = null;
+		pageReader = null;
+		wrapper = null;
+		seekIndex = null;
+	}
+
+	public PAudioFormat getAudioFormat() {
+		return audioFormat;
+	}
+
+	/**
+	 * @return true if the file is read with the page reader, so seek() works
+	 */
+	public boolean isSeekable() {
+		return initialized && pageReader != null;
+	}
+
+	/**
+	 * @return Frame position of the next frame returned by read()
+	 */
+	public long getFramePosition() {
+		return framePosition;
+	}
+
+	/**
+	 * @return Page reader of the file (null if read from an InputStream)
+	 */
+	public OggPageReader getPageReader() {
+		return pageReader;
+	}
+
+	/**
+	 * Move to a frame position. The next read() returns the same PCM as a decode from the beginning would at that position.
+	 * Decoding restarts at a checkpoint a little before the target if the index has one, otherwise at a page found by bisection,
+	 * then the frames up to the target are dropped. The bisection relies on the granule positions of the file, which some encoders
+	 * write up to one frame off the decoded PCM.
+	 * @param frame Frame position
+	 * @return false if the file cannot seek (read from an InputStream) or cannot be read
+	 */
+	public boolean seek(long frame) {
+		if(!isSeekable()) return false;
+		if(frame < 0) frame = 0;
+
+		try {
+			if(seekIndex.find(frame, checkpoint) && frame - checkpoint[0] <= CHECKPOINT_RANGE) {
+				// The checkpoint is the exact position after its page
+				restart(checkpoint[1]);
+				if(prime() >= 0) {
+					skipFrames = frame - checkpoint[0];
+					framePosition = frame;
+					exactPosition = true;
+					return true;
+				}
+			}
+
+			if(granuleOffset < 0) {
+				// Decode the start to line up the granule positions with the frames returned
+				restart(audioStart);
+				long granule = prime();
+				granuleOffset = (granule >= 0) ? Math.max(0, granule - primedFrames) : 0;
+			}
+
+			for(long preroll = SEEK_PREROLL; ; preroll *= 4) {
+				long target = frame - preroll;
+				long offset = (target <= 0) ? audioStart : pageReader.findPage(target + granuleOffset, serialno, audioStart);
+				restart(offset);
+				if(offset == audioStart) {
+					// From the beginning, the position is known without a granule
+					skipFrames = frame;
+					exactPosition = true;
+					break;
+				}
+				long position = prime() - granuleOffset;
+				if(position >= 0 && position <= frame) {
+					skipFrames = frame - position;
+					exactPosition = false;
+					break;
+				}
+				// The page was not early enough (e.g. a packet spanning many pages), so go further back
+			}
+		} catch (IOException e) {
+			errorMessage("Error seeking to frame " + frame);
+			printStackTrace(e);
+			endOfStream = true;
+			return false;
+		}
+
+		framePosition = frame;
+		return true;
+	}
+
+	/**
+	 * Restart decoding at a page (page reader only)
+	 * @param offset Position of the page
+	 */
+	private void restart(long offset) {
+		joggStreamState.reset();
+		jorbisBlock.clear();
+		jorbisDspState.clear();
+		jorbisDspState = new DspState();
+		jorbisDspState.synthesis_init(jorbisInfo);
+		jorbisBlock = new Block(jorbisDspState);
+		jorbisBlock.init(jorbisDspState);
+		pageReader.seek(offset);
+		lastPage = false;
+		endOfStream = false;
+		skipFrames = 0;
+		pageOffset = -1;
+	}
+
+	/**
+	 * Decode and drop pages after restart() until the position is known, which is the granule position
+	 * of the first page completing a decoded packet. The number of frames dropped is kept in primedFrames.
+	 * @return Granule position of the next decoded frame, or -1 if the end of the stream was reached first
+	 * @throws IOException If the file cannot be read
+	 */
+	private long prime() throws IOException {
+		int packets = 0;
+		primedFrames = 0;
+		while(pageReader.nextPage(joggPage)) {
+			if(joggStreamState.pagein(joggPage) < 0) continue;	// Another logical stream
+			// The last page can have a granule position before the end of its PCM
+			if(joggPage.eos() != 0) return -1;
+
+			int result;
+			while((result = joggStreamState.packetout(joggPacket)) != 0) {
+				if(result == -1) continue;	// Packet cut at the restart page
+				if(jorbisBlock.synthesis(joggPacket) == 0) {
+					jorbisDspState.synthesis_blockin(jorbisBlock);
+					packets++;
+				}
+				int samples;
+				while((samples = jorbisDspState.synthesis_pcmout(pcmInfo, pcmIndex)) > 0) {
+					jorbisDspState.synthesis_read(samples);
+					primedFrames += samples;
+				}
+			}
+			if(packets > 0 && joggPage.granulepos() != -1) return joggPage.granulepos();
+		}
+		return -1;
+	}
+
+	/**
+	 * Decode PCM into an array
+	 * @param out Array
+	 * @param offset Offset in the array
+	 * @param length Maximum number of bytes (multiple of the frame size)
+	 * @return Number of bytes decoded (less than length only at the end of the stream)
+	 */
+	private int decode(byte[] out, int offset, int length) {
+		int pos = offset;
+		int end = offset + length;
+
+		while(pos + frameSize <= end) {
+			// Take the PCM JOrbis already has
+			int samples = jorbisDspState.synthesis_pcmout(pcmInfo, pcmIndex);
+			if(samples > 0 && skipFrames > 0) {
+				// Frames before a seek target
+				int frames = (int)Math.min(samples, skipFrames);
+				jorbisDspState.synthesis_read(frames);
+				skipFrames -= frames;
+				continue;
+			}
+			if(samples > 0) {
+				int frames = Math.min(samples, (end - pos) / frameSize);
+				convert(pcmInfo[0], frames, out, pos);
+				jorbisDspState.synthesis_read(frames);
+				pos += frames * frameSize;
+				framePosition += frames;
+				continue;
+			}
+
+			// Decode the next packet
+			int result = joggStreamState.packetout(joggPacket);
+			if(result == 1) {
+				if(jorbisBlock.synthesis(joggPacket) == 0)
+					jorbisDspState.synthesis_blockin(jorbisBlock);
+				pagePackets++;
+				continue;
+			}
+			if(result == -1) continue;	// Hole in the data
+
+			// The current page is done, and all of its PCM has been taken
+			if(pageOffset >= 0 && pagePackets > 0 && exactPosition) {
+				// Decoding restarted at this page (see prime()) continues with the next frame
+				seekIndex.add(framePosition - skipFrames, pageOffset);
+			}
+
+			// Take the next page
+			if(lastPage) {
+				endOfStream = true;
+				break;
+			}
+			boolean page;
+			try {
+				page = nextPage(joggPage);
+			} catch (IOException e) {
+				printStackTrace(e);
+				page = false;
+			}
+			if(!page) {
+				endOfStream = true;
+				break;
+			}
+			pageOffset = -1;
+			if(joggStreamState.pagein(joggPage) < 0) continue;	// Another logical stream
+			if(joggPage.eos() != 0) {
+				lastPage = true;
+			} else if(pageReader != null && joggPage.granulepos() != -1) {
+				// A packet continued from the previous page is dropped when decoding restarts at this page
+				pageOffset = pageReader.getPageOffset();
+				pagePackets = isContinued(joggPage) ? -1 : 0;
+			}
+		}
+
+		return pos - offset;
+	}
+
+	/**
+	 * Read the next Ogg page from the page reader or the InputStream
+	 * @param page Page to fill
+	 * @return false at the end of the file
+	 * @throws IOException If the file cannot be read
+	 */
+	private boolean nextPage(Page page) throws IOException {
+		if(pageReader != null) return pageReader.nextPage(page);
+
+		while(true) {
+			int result = joggSyncState.pageout(page);
+			if(result == 1) return true;
+			if(result == -1) continue;	// Hole in the data
+			if(endOfInput) return false;
+
+			int index = joggSyncState.buffer(READ_SIZE);
+			int count = inputStream.read(joggSyncState.data, index, READ_SIZE);
+			if(count <= 0)
+				endOfInput = true;
+			else
+				joggSyncState.wrote(count);
+		}
+	}
+
+	/**
+	 * Check the continued packet flag of a page (Page.continued() is not public)
+	 * @param page Page
+	 * @return true if the page starts with the rest of a packet from the previous page
+	 */
+	private static boolean isContinued(Page page) {
+		return (page.header_base[page.header + 5] & 0x01) != 0;
+	}
+
+	/**
+	 * Convert float PCM to 16-bit signed little endian (same conversion as CodecJOrbis)
+	 * @param pcm PCM of each channel
+	 * @param frames Number of frames
+	 * @param out Output array
+	 * @param offset Offset in the output array
+	 */
+	private void convert(float[][] pcm, int frames, byte[] out, int offset) {
+		int channels = jorbisInfo.channels;
+		for(int i = 0; i < channels; i++) {
+			float[] src = pcm[i];
+			int mono = pcmIndex[i];
+			int ptr = offset + i * 2;
+			for(int j = 0; j < frames; j++) {
+				int val = (int)(src[mono + j] * 32767.0);
+				if(val > 32767) val = 32767;
+				if(val < -32768) val = -32768;
+				out[ptr] = (byte)val;
+				out[ptr + 1] = (byte)(val >>> 8);
+				ptr += 2 * channels;
+			}
+		}
+	}
+
+	/**
+	 * Read the three Vorbis header packets
+	 * @return false if the stream is not Vorbis
+	 * @throws IOException If the stream cannot be read
+	 */
+	private boolean readHeader() throws IOException {
+		if(!nextPage(joggPage)) {
+			errorMessage("Ogg header not recognized in method 'readHeader'.");
+			return false;
+		}
+
+		serialno = joggPage.serialno();
+		joggStreamState.init(serialno);
+		jorbisInfo.init();
+		jorbisComment.init();
+		if(joggStreamState.pagein(joggPage) < 0) {
+			errorMessage("Problem with first Ogg header page in method 'readHeader'.");
+			return false;
+		}
+		if(joggStreamState.packetout(joggPacket) != 1) {
+			errorMessage("Problem with first Ogg header packet in method 'readHeader'.");
+			return false;
+		}
+		if(jorbisInfo.synthesis_headerin(jorbisComment, joggPacket) < 0) {
+			errorMessage("File does not contain Vorbis header in method 'readHeader'.");
+			return false;
+		}
+
+		// Comment and codebook headers
+		int i = 0;
+		while(i < 2) {
+			int result = joggStreamState.packetout(joggPacket);
+			if(result == 1) {
+				jorbisInfo.synthesis_headerin(jorbisComment, joggPacket);
+				i++;
+				continue;
+			}
+			if(result == -1) {
+				errorMessage("Secondary Ogg header corrupt in method 'readHeader'.");
+				return false;
+			}
+			if(!nextPage(joggPage)) {
+				errorMessage("End of file reached before finished reading Ogg header in method 'readHeader'");
+				return false;
+			}
+			joggStreamState.pagein(joggPage);
+		}
+
+		// Audio starts on a new page after the headers
+		if(pageReader != null) audioStart = pageReader.getPageEnd();
+		return true;
+	}
+
+	private void errorMessage(String message) {
+		SoundSystemConfig.getLogger().errorMessage(CLASS_NAME, message, 0);
+	}
+
+	private void printStackTrace(Exception e) {
+		SoundSystemConfig.getLogger().printStackTrace(e, 1);
+	}
+}
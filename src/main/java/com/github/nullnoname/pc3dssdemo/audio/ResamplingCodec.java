@@ -0,0 +1,294 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import paulscode.sound.FilenameURL;
+import paulscode.sound.ICodec;
+import paulscode.sound.PAudioFormat;
+import paulscode.sound.SoundBuffer;
+import paulscode.sound.SoundSystemConfig;
+
+/**
+ * Codec wrapper which converts a decoded stream to the native output format (see {@link OutputNegotiator}),
+ * so the AudioTrack gets 16-bit stereo at the rate of the device mixer and the platform does not resample it.
+ * The conversion is done by a PolyphaseResampler, and the converted PCM is handed out in stream-sized arrays from
+ * {@link PcmBufferPool}, so it allocates nothing per buffer except the SoundBuffer. Streams already in the native format are passed through.
+ * The real decoder is chosen by the file extension (see {@link #setDecoder(String, Class)}), like ParallelDecodeCodec.
+ * Frame positions are in output frames; seeking needs a decoder which is a SeekableCodec.
+ * @author NullNoname
+ */
+public class ResamplingCodec implements SeekableCodec {
+	/** Class name for the log */
+	private static final String CLASS_NAME = "ResamplingCodec";
+
+	/** Bytes per output frame (16-bit stereo) */
+	private static final int FRAME_SIZE = OutputNegotiator.CHANNELS * 2;
+
+	/** Real decoders by lower case extension */
+	private static final Map<String, Class<? extends ICodec>> decoders = new HashMap<String, Class<? extends ICodec>>();
+
+	/**
+	 * Set the real decoder of an extension
+	 * @param extension Extension (e.g. "ogg")
+	 * @param codecClass Codec class with a public no-argument constructor
+	 */
+	public static void setDecoder(String extension, Class<? extends ICodec> codecClass) {
+		synchronized(decoders) {
+			decoders.put(extension.toLowerCase(), codecClass);
+		}
+	}
+
+	/**
+	 * Create the real decoder of a file
+	 * @param filename Filename
+	 * @return New codec, or null if no decoder is set for the extension
+	 */
+	public static ICodec createDecoder(String filename) {
+		int dot = filename.lastIndexOf('.');
+		Class<? extends ICodec> codecClass;
+		synchronized(decoders) {
+			codecClass = decoders.get(filename.substring(dot + 1).toLowerCase());
+		}
+		if(codecClass == null) return null;
+		try {
+			return codecClass.getDeclaredConstructor().newInstance();
+		} catch (Exception e) {
+			SoundSystemConfig.getLogger().errorMessage(CLASS_NAME, "Cannot create " + codecClass.getName(), 0);
+			return null;
+		}
+	}
+
+	/** Real decoder */
+	private ICodec decoder;
+	/** Sample rate of the decoder */
+	private int decoderRate;
+	/** Converter (null if the decoder already produces the native format) */
+	private PolyphaseResampler resampler;
+	/** Output format */
+	private PAudioFormat audioFormat;
+	/** Converted PCM not handed out yet */
+	private byte[] pending = new byte[0];
+	/** Bytes in pending */
+	private int pendingLength;
+	/** true when the decoder has returned its last buffer */
+	private boolean decoderEnded;
+	/** true when the tail of the resampler is in pending */
+	private boolean flushed;
+	/** Output frame position of the next read() */
+	private long framePosition;
+	/** true if initialized */
+	private boolean initialized;
+
+	public void reverseByteOrder(boolean b) {
+		// The output is little endian, which is what AudioTrack wants (same as CodecWavN)
+	}
+
+	public boolean initialize(FilenameURL filenameURL) {
+		cleanup();
+
+		if(filenameURL == null) {
+			errorMessage("filenameURL null in method 'initialize'");
+			return false;
+		}
+		String filename = filenameURL.getFilename();
+		ICodec codec = createDecoder(filename);
+		if(codec == null) {
+			errorMessage("No decoder for '" + filename + "'");
+			return false;
+		}
+		// Little endian, as PolyphaseResampler reads it
+		codec.reverseByteOrder(true);
+		if(!codec.initialize(filenameURL) || codec.getAudioFormat() == null) {
+			errorMessage("Failed to open '" + filename + "'");
+			codec.cleanup();
+			return false;
+		}
+
+		PAudioFormat in = codec.getAudioFormat();
+		decoderRate = (int)in.getSampleRate();
+		int rate = OutputNegotiator.getRenderRate(decoderRate);
+		try {
+			resampler = new PolyphaseResampler(in, rate, OutputNegotiator.CHANNELS);
+		} catch (IllegalArgumentException e) {
+			errorMessage(e.getMessage() + " in '" + filename + "'");
+			codec.cleanup();
+			return false;
+		}
+		if(resampler.isIdentity()) {
+			resampler = null;
+		} else {
+			// Room for a stream buffer and a converted decoder buffer of the same size, so pending does not grow while playing
+			ensureCapacity(resampler.getMaxOutputBytes(SoundSystemConfig.getStreamingBufferSize()));
+		}
+
+		decoder = codec;
+		audioFormat = (resampler == null) ? in : new PAudioFormat(rate, 16, OutputNegotiator.CHANNELS, true, false);
+		decoderEnded = codec.endOfStream();
+		// The decoder may have resumed at a position in initialize() (see StreamResume)
+		framePosition = (codec instanceof SeekableCodec) ? toOutputFrames(((SeekableCodec)codec).getFramePosition()) : 0;
+		initialized = true;
+		OutputNegotiator.reportDecoded(filename, in, resampler);
+		return true;
+	}
+
+	public boolean initialized() {
+		return initialized;
+	}
+
+	public SoundBuffer read() {
+		if(!initialized) return null;
+
+		if(resampler == null) {
+			SoundBuffer buffer = decoder.read();
+			if(buffer == null || decoder.endOfStream()) decoderEnded = true;
+			if(buffer != null && buffer.audioData != null) framePosition += buffer.audioData.length / FRAME_SIZE;
+			return buffer;
+		}
+
+		int size = SoundSystemConfig.getStreamingBufferSize() / FRAME_SIZE * FRAME_SIZE;
+		while(pendingLength < size && !flushed) {
+			fill();
+		}
+		int length = Math.min(size, pendingLength);
+		if(length <= 0) return null;
+
+		byte[] data = PcmBufferPool.allocate(length);
+		System.arraycopy(pending, 0, data, 0, length);
+		pendingLength -= length;
+		System.arraycopy(pending, length, pending, 0, pendingLength);
+		framePosition += length / FRAME_SIZE;
+		return new SoundBuffer(data, audioFormat);
+	}
+
+	public SoundBuffer readAll() {
+		if(!initialized) return null;
+
+		SoundBuffer buffer = decoder.readAll();
+		decoderEnded = true;
+		if(resampler == null || buffer == null || buffer.audioData == null) return buffer;
+
+		// Sound effects are loaded once, so this one allocates
+		int length = buffer.audioData.length;
+		byte[] data = new byte[resampler.getMaxOutputBytes(length) + resampler.getMaxFlushBytes()];
+		int n = resampler.convert(buffer.audioData, length, data, 0);
+		n += resampler.flush(data, n);
+		flushed = true;
+		pendingLength = 0;
+		framePosition += n / FRAME_SIZE;
+		byte[] audioData = new byte[n];
+		System.arraycopy(data, 0, audioData, 0, n);
+		return new SoundBuffer(audioData, audioFormat);
+	}
+
+	public boolean endOfStream() {
+		if(!initialized) return true;
+		if(resampler == null) return decoderEnded;
+		return flushed && pendingLength == 0;
+	}
+
+	public void cleanup() {
+		if(decoder != null) decoder.cleanup();
+		decoder = null;
+		resampler = null;
+		pendingLength = 0;
+		decoderEnded = false;
+		flushed = false;
+		framePosition = 0;
+		initialized = false;
+	}
+
+	public PAudioFormat getAudioFormat() {
+		return audioFormat;
+	}
+
+	public long getFramePosition() {
+		return framePosition;
+	}
+
+	public boolean seek(long frame) {
+		if(!initialized || !(decoder instanceof SeekableCodec)) return false;
+		SeekableCodec seekable = (SeekableCodec)decoder;
+		long decoderFrame = (resampler == null) ? frame : frame * decoderRate / resampler.getOutputRate();
+		if(!seekable.seek(decoderFrame)) return false;
+
+		if(resampler != null) resampler.reset();
+		pendingLength = 0;
+		flushed = false;
+		decoderEnded = decoder.endOfStream();
+		framePosition = toOutputFrames(seekable.getFramePosition());
+		return true;
+	}
+
+	/**
+	 * Convert one more decoder buffer into pending, or the tail of the resampler after the last one
+	 */
+	private void fill() {
+		if(decoderEnded) {
+			ensureCapacity(resampler.getMaxFlushBytes());
+			pendingLength += resampler.flush(pending, pendingLength);
+			flushed = true;
+			return;
+		}
+
+		SoundBuffer buffer = decoder.read();
+		if(buffer == null || decoder.endOfStream()) decoderEnded = true;
+		if(buffer != null && buffer.audioData != null) {
+			int length = buffer.audioData.length;
+			ensureCapacity(resampler.getMaxOutputBytes(length));
+			pendingLength += resampler.convert(buffer.audioData, length, pending, pendingLength);
+			PcmBufferPool.recycle(buffer.audioData);
+		}
+	}
+
+	/**
+	 * Make room in pending. It is filled only while it has less than a stream buffer, so it is grown to a stream buffer
+	 * and the bytes to be added, and only grows again if the decoder returns larger buffers.
+	 * @param length Bytes to be added
+	 */
+	private void ensureCapacity(int length) {
+		if(pendingLength + length > pending.length) {
+			byte[] newPending = new byte[Math.max(pendingLength, SoundSystemConfig.getStreamingBufferSize()) + length];
+			System.arraycopy(pending, 0, newPending, 0, pendingLength);
+			pending = newPending;
+		}
+	}
+
+	/**
+	 * @param frames Frames at the decoder rate
+	 * @return Frames at the output rate
+	 */
+	private long toOutputFrames(long frames) {
+		return (resampler == null) ? frames : frames * resampler.getOutputRate() / decoderRate;
+	}
+
+	private void errorMessage(String message) {
+		SoundSystemConfig.getLogger().errorMessage(CLASS_NAME, message, 0);
+	}
+}
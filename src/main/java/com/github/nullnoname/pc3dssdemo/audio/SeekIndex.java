@@ -0,0 +1,167 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sparse index of the seek checkpoints of a file, built while the file is decoded.
+ * A checkpoint is a frame position and a codec-specific position (e.g. the offset of an Ogg page)
+ * from which the codec can restart decoding and know exactly which frame comes next.
+ * The indexes are shared by every codec instance playing the same file, so a later seek or resume
+ * of the file restarts near the target instead of at the beginning.
+ * @author NullNoname
+ */
+public class SeekIndex {
+	/** Maximum number of indexes kept (the least recently used one is dropped) */
+	private static final int MAX_INDEXES = 16;
+
+	/** Indexes by key */
+	private static final Map<String, SeekIndex> indexes = new LinkedHashMap<String, SeekIndex>(MAX_INDEXES, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, SeekIndex> eldest) {
+			return size() > MAX_INDEXES;
+		}
+	};
+
+	/**
+	 * Get the index of a file, or create an empty one
+	 * @param key Key of the file (the codec and the filename, as the codec-specific positions only mean something to the same codec)
+	 * @param interval Minimum distance between checkpoints in frames (used only if a new index is created)
+	 * @return Index
+	 */
+	public static SeekIndex get(String key, int interval) {
+		synchronized(indexes) {
+			SeekIndex index = indexes.get(key);
+			if(index == null) {
+				index = new SeekIndex(interval);
+				indexes.put(key, index);
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * Drop every index
+	 */
+	public static void clear() {
+		synchronized(indexes) {
+			indexes.clear();
+		}
+	}
+
+	/** Minimum distance between checkpoints in frames */
+	private final int interval;
+	/** Frame positions of the checkpoints (sorted) */
+	private long[] frames = new long[16];
+	/** Codec-specific positions of the checkpoints */
+	private long[] positions = new long[16];
+	/** Number of checkpoints */
+	private int size;
+
+	/**
+	 * Constructor
+	 * @param interval Minimum distance between checkpoints in frames
+	 */
+	public SeekIndex(int interval) {
+		this.interval = Math.max(1, interval);
+	}
+
+	/**
+	 * Add a checkpoint, unless there is already one closer than the interval
+	 * @param frame Frame position
+	 * @param position Codec-specific position where decoding restarts to reach the frame position
+	 */
+	public synchronized void add(long frame, long position) {
+		int i = search(frame);
+		if(i >= 0 && frame - frames[i] < interval) return;
+		if(i + 1 < size && frames[i + 1] - frame < interval) return;
+
+		if(size == frames.length) {
+			long[] newFrames = new long[size * 2];
+			long[] newPositions = new long[size * 2];
+			System.arraycopy(frames, 0, newFrames, 0, size);
+			System.arraycopy(positions, 0, newPositions, 0, size);
+			frames = newFrames;
+			positions = newPositions;
+		}
+		System.arraycopy(frames, i + 1, frames, i + 2, size - i - 1);
+		System.arraycopy(positions, i + 1, positions, i + 2, size - i - 1);
+		frames[i + 1] = frame;
+		positions[i + 1] = position;
+		size++;
+	}
+
+	/**
+	 * Find the last checkpoint at or before a frame position
+	 * @param frame Frame position
+	 * @param result Receives the frame position [0] and the codec-specific position [1] of the checkpoint
+	 * @return false if there is no checkpoint at or before the frame position
+	 */
+	public synchronized boolean find(long frame, long[] result) {
+		int i = search(frame);
+		if(i < 0) return false;
+		result[0] = frames[i];
+		result[1] = positions[i];
+		return true;
+	}
+
+	/**
+	 * @return Number of checkpoints
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @return Minimum distance between checkpoints in frames
+	 */
+	public int getInterval() {
+		return interval;
+	}
+
+	/**
+	 * Binary search of the checkpoints
+	 * @param frame Frame position
+	 * @return Index of the last checkpoint at or before the frame position, or -1 if none
+	 */
+	private int search(long frame) {
+		int low = 0;
+		int high = size - 1;
+		while(low <= high) {
+			int mid = (low + high) >>> 1;
+			if(frames[mid] <= frame)
+				low = mid + 1;
+			else
+				high = mid - 1;
+		}
+		return high;
+	}
+}
@@ -0,0 +1,465 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+/**
+ * Mixes many PCM voices into one stereo 16-bit output, so any number of sound effects can share a single output device.
+ * Voices hold 8-bit (unsigned) or 16-bit (signed little endian) mono/stereo PCM, in the byte order the AudioTrack library uses.
+ * Each voice is resampled to the output rate with linear interpolation (which also implements the pitch),
+ * and added to a float accumulator with its gain and pan. The accumulator is clipped to 16 bits once per block.
+ * Gain and pan changes are ramped over one block, so fades do not click.
+ * All methods are thread safe; {@link #mix(short[], int)} is meant to be called from one output thread.
+ * @author NullNoname
+ */
+public class SoftwareMixer {
+	/** Number of output channels */
+	public static final int OUTPUT_CHANNELS = 2;
+
+	/** 1.0 in 32.32 fixed point */
+	private static final long FIXED_ONE = 1L << 32;
+
+	/** Scale from 32.32 fixed point fraction to float */
+	private static final float FRACTION_SCALE = 1f / FIXED_ONE;
+
+	/** Output sample rate */
+	private final int sampleRate;
+
+	/** Playing voices (the first activeCount entries) */
+	private Voice[] active = new Voice[16];
+
+	/** Number of playing voices */
+	private int activeCount;
+
+	/** true if {@link #wake()} was called since the last {@link #awaitActive(long)} */
+	private boolean wakeRequested;
+
+	/** Float accumulator (interleaved stereo) */
+	private float[] accumulator = new float[0];
+
+	/** Statistics */
+	private int peakVoices;
+	private long mixedFrames, mixNanos, clippedSamples;
+
+	/**
+	 * Constructor
+	 * @param sampleRate Output sample rate
+	 */
+	public SoftwareMixer(int sampleRate) {
+		this.sampleRate = sampleRate;
+	}
+
+	/**
+	 * @return Output sample rate
+	 */
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * Create a new voice. It does not use any mixing time until it is played.
+	 * @return New voice
+	 */
+	public Voice createVoice() {
+		return new Voice();
+	}
+
+	/**
+	 * @return Number of playing voices
+	 */
+	public synchronized int getActiveVoices() {
+		return activeCount;
+	}
+
+	/**
+	 * Wait until at least one voice is playing, or {@link #wake()} is called
+	 * @param timeoutMillis Maximum wait time in milliseconds (0 to wait without a timeout)
+	 * @return true if a voice is playing
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	public synchronized boolean awaitActive(long timeoutMillis) throws InterruptedException {
+		if(activeCount == 0 && !wakeRequested) wait(timeoutMillis);
+		wakeRequested = false;
+		return activeCount > 0;
+	}
+
+	/**
+	 * Wake up the thread waiting in {@link #awaitActive(long)}, even if no voice is playing.
+	 * If it is not waiting yet, its next call returns right away, so the wake-up is never lost.
+	 */
+	public synchronized void wake() {
+		wakeRequested = true;
+		notifyAll();
+	}
+
+	/**
+	 * Mix the playing voices into the output
+	 * @param out Output (interleaved stereo, at least frames * 2 samples)
+	 * @param frames Number of frames to mix
+	 * @return Number of voices mixed
+	 */
+	public synchronized int mix(short[] out, int frames) {
+		long begin = System.nanoTime();
+		int samples = frames * OUTPUT_CHANNELS;
+		if(accumulator.length < samples) accumulator = new float[samples];
+		float[] acc = accumulator;
+		for(int i = 0; i < samples; i++) acc[i] = 0f;
+
+		int mixed = activeCount;
+		if(mixed > peakVoices) peakVoices = mixed;
+
+		for(int v = 0; v < activeCount; ) {
+			Voice voice = active[v];
+			if(voice.mixInto(acc, frames)) {
+				v++;
+			} else {
+				// Finished: swap the last voice into this slot
+				voice.playing = false;
+				active[v] = active[--activeCount];
+				active[activeCount] = null;
+			}
+		}
+
+		long clipped = 0;
+		for(int i = 0; i < samples; i++) {
+			float s = acc[i] * 32768f;
+			if(s > 32767f) {
+				s = 32767f;
+				clipped++;
+			} else if(s < -32768f) {
+				s = -32768f;
+				clipped++;
+			}
+			out[i] = (short)s;
+		}
+
+		clippedSamples += clipped;
+		mixedFrames += frames;
+		mixNanos += System.nanoTime() - begin;
+		return mixed;
+	}
+
+	/**
+	 * Get the statistics as a string for the log
+	 * @return Statistics
+	 */
+	public synchronized String getStats() {
+		double seconds = (double)mixedFrames / sampleRate;
+		double load = (mixedFrames == 0) ? 0 : (mixNanos / 1e9) / seconds * 100;
+		return String.format("Mixer: %.1fs mixed, peak %d voices, %.2f%% CPU, %d clipped samples", seconds, peakVoices, load, clippedSamples);
+	}
+
+	/**
+	 * Add a voice to the playing voices (lock held)
+	 * @param voice Voice
+	 */
+	private void activate(Voice voice) {
+		if(voice.playing) return;
+		if(activeCount == active.length) {
+			Voice[] newActive = new Voice[active.length * 2];
+			System.arraycopy(active, 0, newActive, 0, activeCount);
+			active = newActive;
+		}
+		active[activeCount++] = voice;
+		voice.playing = true;
+		notifyAll();
+	}
+
+	/**
+	 * Remove a voice from the playing voices (lock held)
+	 * @param voice Voice
+	 */
+	private void deactivate(Voice voice) {
+		if(!voice.playing) return;
+		for(int i = 0; i < activeCount; i++) {
+			if(active[i] == voice) {
+				active[i] = active[--activeCount];
+				active[activeCount] = null;
+				break;
+			}
+		}
+		voice.playing = false;
+	}
+
+	/**
+	 * One sound played by the mixer
+	 */
+	public class Voice {
+		/** PCM data (null if none) */
+		private byte[] data;
+
+		/** Number of frames in data */
+		private int frames;
+
+		/** Number of channels (1 or 2) */
+		private int channels;
+
+		/** true if 8-bit unsigned, false if 16-bit signed little endian */
+		private boolean eightBit;
+
+		/** Sample rate of the data */
+		private float dataSampleRate;
+
+		/** Pitch multiplier */
+		private float pitch = 1f;
+
+		/** Gain (0 to 1) and pan (-1 to 1) */
+		private float gain = 1f, pan;
+
+		/** Gain of each channel at the end of the last mixed block (for the ramp) */
+		private float lastLeft, lastRight;
+
+		/** true until the first block is mixed (no ramp) */
+		private boolean firstBlock;
+
+		/** true to loop */
+		private boolean looping;
+
+		/** true while in the playing voices */
+		private boolean playing;
+
+		/** Play position in frames (32.32 fixed point) */
+		private long position;
+
+		/**
+		 * Set the PCM data. Stops the voice.
+		 * @param data PCM data
+		 * @param dataSampleRate Sample rate of the data
+		 * @param channels Number of channels (1 or 2)
+		 * @param bits Bits per sample (8 or 16)
+		 */
+		public void setData(byte[] data, float dataSampleRate, int channels, int bits) {
+			synchronized(SoftwareMixer.this) {
+				deactivate(this);
+				this.data = data;
+				this.dataSampleRate = dataSampleRate;
+				this.channels = (channels == 1) ? 1 : 2;
+				this.eightBit = (bits == 8);
+				this.frames = data.length / (this.channels * (eightBit ? 1 : 2));
+				this.position = 0;
+			}
+		}
+
+		/**
+		 * Start or resume playing (from the beginning if it has finished)
+		 */
+		public void play() {
+			synchronized(SoftwareMixer.this) {
+				if(data == null || frames == 0) return;
+				if(!playing) firstBlock = true;
+				// Play again from the beginning after it has finished
+				if((position >>> 32) >= frames) position = 0;
+				activate(this);
+			}
+		}
+
+		/**
+		 * Pause (the position is kept)
+		 */
+		public void pause() {
+			synchronized(SoftwareMixer.this) {
+				deactivate(this);
+			}
+		}
+
+		/**
+		 * Stop and go back to the beginning
+		 */
+		public void stop() {
+			synchronized(SoftwareMixer.this) {
+				deactivate(this);
+				position = 0;
+			}
+		}
+
+		/**
+		 * Go back to the beginning (keeps playing if playing)
+		 */
+		public void rewind() {
+			synchronized(SoftwareMixer.this) {
+				position = 0;
+			}
+		}
+
+		/**
+		 * Stop and forget the data
+		 */
+		public void release() {
+			synchronized(SoftwareMixer.this) {
+				deactivate(this);
+				data = null;
+				frames = 0;
+				position = 0;
+			}
+		}
+
+		/**
+		 * @return true if playing
+		 */
+		public boolean isPlaying() {
+			synchronized(SoftwareMixer.this) {
+				return playing;
+			}
+		}
+
+		/**
+		 * @return Play position in milliseconds
+		 */
+		public float getMillisPlayed() {
+			synchronized(SoftwareMixer.this) {
+				if(dataSampleRate <= 0) return -1;
+				return (position >>> 32) / dataSampleRate * 1000f;
+			}
+		}
+
+		/**
+		 * @param looping true to loop
+		 */
+		public void setLooping(boolean looping) {
+			synchronized(SoftwareMixer.this) {
+				this.looping = looping;
+			}
+		}
+
+		/**
+		 * @param gain Gain (0 to 1)
+		 */
+		public void setGain(float gain) {
+			synchronized(SoftwareMixer.this) {
+				this.gain = Math.max(0f, Math.min(1f, gain));
+			}
+		}
+
+		/**
+		 * @param pan Pan (-1 is left, 1 is right)
+		 */
+		public void setPan(float pan) {
+			synchronized(SoftwareMixer.this) {
+				this.pan = Math.max(-1f, Math.min(1f, pan));
+			}
+		}
+
+		/**
+		 * @param pitch Pitch multiplier (0.5 to 2)
+		 */
+		public void setPitch(float pitch) {
+			synchronized(SoftwareMixer.this) {
+				this.pitch = Math.max(0.5f, Math.min(2f, pitch));
+			}
+		}
+
+		/**
+		 * Get one sample as float
+		 * @param frame Frame index
+		 * @param channel Channel index (0 or 1, mono data returns the same sample for both)
+		 * @return Sample (-1 to 1)
+		 */
+		private float sample(int frame, int channel) {
+			if(eightBit) {
+				int index = frame * channels + ((channels == 1) ? 0 : channel);
+				return ((data[index] & 0xFF) - 128) * (1f / 128f);
+			}
+			int index = (frame * channels + ((channels == 1) ? 0 : channel)) * 2;
+			return (short)((data[index] & 0xFF) | (data[index + 1] << 8)) * (1f / 32768f);
+		}
+
+		/**
+		 * Add this voice to the accumulator (mixer lock held)
+		 * @param acc Accumulator (interleaved stereo)
+		 * @param outFrames Number of frames
+		 * @return false if the voice has finished
+		 */
+		private boolean mixInto(float[] acc, int outFrames) {
+			// Balance pan: the center is full volume on both sides
+			float left = gain * ((pan > 0f) ? 1f - pan : 1f);
+			float right = gain * ((pan < 0f) ? 1f + pan : 1f);
+			if(firstBlock) {
+				lastLeft = left;
+				lastRight = right;
+				firstBlock = false;
+			}
+			float stepLeft = (left - lastLeft) / outFrames;
+			float stepRight = (right - lastRight) / outFrames;
+			float gainLeft = lastLeft;
+			float gainRight = lastRight;
+			lastLeft = left;
+			lastRight = right;
+
+			long step = (long)((double)dataSampleRate * pitch / sampleRate * FIXED_ONE);
+			long pos = position;
+			long end = (long)frames << 32;
+			int last = frames - 1;
+			byte[] d = data;
+			int frameBytes = channels * 2;
+			int rightOffset = (channels == 1) ? 0 : 2;
+
+			for(int i = 0, o = 0; i < outFrames; i++, o += 2) {
+				if(pos >= end) {
+					if(!looping) {
+						position = pos;
+						return false;
+					}
+					pos -= end;
+				}
+
+				int frame = (int)(pos >>> 32);
+				float frac = (pos & 0xFFFFFFFFL) * FRACTION_SCALE;
+				int next = (frame < last) ? frame + 1 : (looping ? 0 : frame);
+
+				float l, r;
+				if(eightBit) {
+					l = sample(frame, 0);
+					r = sample(frame, 1);
+					if(frac != 0f) {
+						l += (sample(next, 0) - l) * frac;
+						r += (sample(next, 1) - r) * frac;
+					}
+				} else {
+					// 16-bit is the common case, read it without the per-sample checks
+					int index = frame * frameBytes;
+					l = (short)((d[index] & 0xFF) | (d[index + 1] << 8));
+					r = (short)((d[index + rightOffset] & 0xFF) | (d[index + rightOffset + 1] << 8));
+					if(frac != 0f) {
+						index = next * frameBytes;
+						l += ((short)((d[index] & 0xFF) | (d[index + 1] << 8)) - l) * frac;
+						r += ((short)((d[index + rightOffset] & 0xFF) | (d[index + rightOffset + 1] << 8)) - r) * frac;
+					}
+					l *= 1f / 32768f;
+					r *= 1f / 32768f;
+				}
+
+				acc[o] += l * gainLeft;
+				acc[o + 1] += r * gainRight;
+				gainLeft += stepLeft;
+				gainRight += stepRight;
+				pos += step;
+			}
+
+			position = pos;
+			return true;
+		}
+	}
+}
@@ -0,0 +1,257 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import paulscode.sound.FilenameURL;
+import paulscode.sound.ICodec;
+import paulscode.sound.SoundBuffer;
+import paulscode.sound.SoundSystem;
+import paulscode.sound.SoundSystemConfig;
+import paulscode.sound.SoundSystemLogger;
+
+/**
+ * Sound effect bank.
+ * Sound effects are decoded once into PCM SoundBuffers and kept in a byte-bounded LRU cache.
+ * Every cached effect is registered to the SoundSystem with loadSound(), so playing it never touches the codec.
+ * @author NullNoname
+ */
+public class SoundEffectBank {
+	/** Class name used in the log */
+	private static final String CLASS_NAME = "SoundEffectBank";
+
+	/** Maximum total size of the cached PCM data in bytes */
+	private final long maxBytes;
+
+	/** true if the decoded data should be in reversed byte order (see Library.reverseByteOrder()) */
+	private final boolean reverseByteOrder;
+
+	/** Cached sound buffers (identifier to PCM), in LRU order */
+	private final LinkedHashMap<String, SoundBuffer> cache;
+
+	/** Total size of the cached PCM data in bytes */
+	private long totalBytes;
+
+	/** Number of plays served from the cache */
+	private int hits;
+
+	/** Number of plays which had to decode the file */
+	private int misses;
+
+	/** SoundSystem the cached sounds are registered to (null if none) */
+	private SoundSystem soundSystem;
+
+	/**
+	 * Constructor
+	 * @param maxBytes Maximum total size of the cached PCM data in bytes
+	 * @param reverseByteOrder true if the decoded data should be in reversed byte order
+	 */
+	public SoundEffectBank(long maxBytes, boolean reverseByteOrder) {
+		this.maxBytes = maxBytes;
+		this.reverseByteOrder = reverseByteOrder;
+		this.cache = new LinkedHashMap<String, SoundBuffer>(16, 0.75f, true);
+	}
+
+	/**
+	 * Decode a sound effect and put it into the cache (does nothing if it is already cached).
+	 * This can be called before a SoundSystem exists.
+	 * @param identifier Identifier (filename) of the sound
+	 * @param url URL of the sound file
+	 * @return true if the sound is in the cache after this call
+	 */
+	public boolean preload(String identifier, URL url) {
+		synchronized(this) {
+			if(cache.containsKey(identifier)) return true;
+		}
+
+		// Decode outside of the lock, this is the slow part
+		SoundBuffer buffer = decode(new FilenameURL(url, identifier));
+		if(buffer == null) return false;
+
+		synchronized(this) {
+			if(cache.containsKey(identifier)) return true;
+			if(buffer.audioData.length > maxBytes) {
+				getLogger().importantMessage("'" + identifier + "' (" + buffer.audioData.length + " bytes) is too large for the sound effect bank", 0);
+				return false;
+			}
+
+			cache.put(identifier, buffer);
+			totalBytes += buffer.audioData.length;
+			if(soundSystem != null) soundSystem.loadSound(buffer.audioData, buffer.audioFormat, identifier);
+			evict();
+			getLogger().message("Sound effect bank: '" + identifier + "' decoded (" + buffer.audioData.length + " bytes, " +
+					totalBytes + "/" + maxBytes + " bytes used)", 0);
+			return cache.containsKey(identifier);
+		}
+	}
+
+	/**
+	 * Play a sound effect with SoundSystem.quickPlay().
+	 * The cached PCM is used when available; otherwise the file is decoded into the cache first.
+	 * @param s SoundSystem (will be attached to this bank if not yet)
+	 * @param identifier Identifier (filename) of the sound
+	 * @param url URL of the sound file
+	 * @return Temporary source name
+	 */
+	public String quickPlay(SoundSystem s, String identifier, URL url) {
+		if(!prepare(s, identifier, url)) {
+			// Could not be cached: let the library load it the usual way
+			return s.quickPlay(false, url, identifier, false, 0, 0, 0, SoundSystemConfig.ATTENUATION_NONE, 0);
+		}
+		return s.quickPlay(false, identifier, false, 0, 0, 0, SoundSystemConfig.ATTENUATION_NONE, 0);
+	}
+
+	/**
+	 * Add a quickPlay of a sound effect to a command batch. Same as {@link #quickPlay(SoundSystem, String, URL)} otherwise.
+	 * @param batch Command batch
+	 * @param identifier Identifier (filename) of the sound
+	 * @param url URL of the sound file
+	 * @return Temporary source name
+	 */
+	public String quickPlay(CommandBatch batch, String identifier, URL url) {
+		if(!prepare(batch.getSoundSystem(), identifier, url)) {
+			return batch.quickPlay(false, url, identifier, false, 0, 0, 0, SoundSystemConfig.ATTENUATION_NONE, 0);
+		}
+		return batch.quickPlay(false, identifier, false, 0, 0, 0, SoundSystemConfig.ATTENUATION_NONE, 0);
+	}
+
+	/**
+	 * Make sure a sound effect is cached and registered before playing it
+	 * @param s SoundSystem (will be attached to this bank if not yet)
+	 * @param identifier Identifier (filename) of the sound
+	 * @param url URL of the sound file
+	 * @return true if the sound is in the cache
+	 */
+	private boolean prepare(SoundSystem s, String identifier, URL url) {
+		attach(s);
+
+		boolean hit;
+		synchronized(this) {
+			hit = (cache.get(identifier) != null);	// get() also updates the LRU order
+			if(hit) hits++;
+			else misses++;
+			getLogger().message("Sound effect bank " + (hit ? "hit" : "miss") + " for '" + identifier + "' (hits:" + hits + " misses:" + misses + ")", 0);
+		}
+
+		return hit || preload(identifier, url);
+	}
+
+	/**
+	 * Register every cached sound to a SoundSystem. Sounds cached later will be registered as well.
+	 * @param s SoundSystem
+	 */
+	public synchronized void attach(SoundSystem s) {
+		if(soundSystem == s) return;
+		soundSystem = s;
+		for(Map.Entry<String, SoundBuffer> e : cache.entrySet()) {
+			SoundBuffer buffer = e.getValue();
+			s.loadSound(buffer.audioData, buffer.audioFormat, e.getKey());
+		}
+	}
+
+	/**
+	 * Forget the current SoundSystem (call this before it is cleaned up)
+	 */
+	public synchronized void detach() {
+		soundSystem = null;
+	}
+
+	/**
+	 * @return Number of plays served from the cache
+	 */
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return Number of plays which had to decode the file
+	 */
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return Total size of the cached PCM data in bytes
+	 */
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * Remove the least recently used sounds until the cache fits in maxBytes
+	 */
+	private void evict() {
+		Iterator<Map.Entry<String, SoundBuffer>> iter = cache.entrySet().iterator();
+		while(totalBytes > maxBytes && iter.hasNext()) {
+			Map.Entry<String, SoundBuffer> e = iter.next();
+			totalBytes -= e.getValue().audioData.length;
+			iter.remove();
+			if(soundSystem != null) soundSystem.unloadSound(e.getKey());
+			getLogger().message("Sound effect bank: '" + e.getKey() + "' evicted", 0);
+		}
+	}
+
+	/**
+	 * Decode a whole file into a SoundBuffer
+	 * @param filenameURL FilenameURL
+	 * @return SoundBuffer, or null if failed
+	 */
+	private SoundBuffer decode(FilenameURL filenameURL) {
+		ICodec codec = SoundSystemConfig.getCodec(filenameURL.getFilename());
+		if(codec == null) {
+			getLogger().errorMessage(CLASS_NAME, "No codec found for '" + filenameURL.getFilename() + "'", 0);
+			return null;
+		}
+
+		try {
+			codec.reverseByteOrder(reverseByteOrder);
+			if(!codec.initialize(filenameURL)) {
+				getLogger().errorMessage(CLASS_NAME, "Failed to initialize the codec for '" + filenameURL.getFilename() + "'", 0);
+				return null;
+			}
+			SoundBuffer buffer = codec.readAll();
+			if(buffer == null || buffer.audioData == null || buffer.audioFormat == null) {
+				getLogger().errorMessage(CLASS_NAME, "Failed to decode '" + filenameURL.getFilename() + "'", 0);
+				return null;
+			}
+			return buffer;
+		} finally {
+			codec.cleanup();
+		}
+	}
+
+	/**
+	 * @return Logger
+	 */
+	private static SoundSystemLogger getLogger() {
+		return SoundSystemConfig.getLogger();
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free queue for exactly one producer thread and one consumer thread.
+ * The producer only writes the tail and the consumer only writes the head, so neither needs a lock or a CAS;
+ * ordered stores publish the element before the index that makes it visible.
+ * @author NullNoname
+ * @param <E> Element type
+ */
+public class SpscQueue<E> {
+	/** Ring of elements (length is a power of two) */
+	private final Object[] items;
+	/** items.length - 1 */
+	private final int mask;
+	/** Capacity requested in the constructor */
+	private final int capacity;
+	/** Index of the next element to poll (written by the consumer only) */
+	private final AtomicLong head = new AtomicLong();
+	/** Index of the next element to offer (written by the producer only) */
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * Constructor
+	 * @param capacity Maximum number of elements
+	 */
+	public SpscQueue(int capacity) {
+		if(capacity < 1) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+		int size = Integer.highestOneBit(capacity);
+		if(size < capacity) size <<= 1;
+		this.items = new Object[size];
+		this.mask = size - 1;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @return Maximum number of elements
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Add an element at the tail (producer thread only)
+	 * @param e Element (not null)
+	 * @return false if the queue is full
+	 */
+	public boolean offer(E e) {
+		if(e == null) throw new NullPointerException();
+		long t = tail.get();
+		if(t - head.get() >= capacity) return false;
+		items[(int)t & mask] = e;
+		tail.lazySet(t + 1);
+		return true;
+	}
+
+	/**
+	 * Remove the element at the head (consumer thread only)
+	 * @return Element, or null if the queue is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public E poll() {
+		long h = head.get();
+		if(h >= tail.get()) return null;
+		int i = (int)h & mask;
+		E e = (E)items[i];
+		items[i] = null;
+		head.lazySet(h + 1);
+		return e;
+	}
+
+	/**
+	 * @return Number of elements (exact from the producer or the consumer thread, a snapshot from any other)
+	 */
+	public int size() {
+		long h = head.get();
+		return (int)(tail.get() - h);
+	}
+
+	/**
+	 * @return true if there is no element
+	 */
+	public boolean isEmpty() {
+		return size() <= 0;
+	}
+}
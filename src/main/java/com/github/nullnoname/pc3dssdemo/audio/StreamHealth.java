@@ -0,0 +1,83 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+/**
+ * Playback health of one stream, measured by the output channel.
+ * It is reported when the stream is flushed, closed or replaced by another stream.
+ * @author NullNoname
+ */
+public class StreamHealth {
+	/** Output buffer size in bytes */
+	public final int bufferSize;
+
+	/** Buffer size multiplier used to create the output buffer (0 if the buffer size was given directly) */
+	public final int bufferSizeMultiplier;
+
+	/** Length of the output buffer in milliseconds */
+	public final int bufferMillis;
+
+	/** Milliseconds of audio played */
+	public final long playedMillis;
+
+	/** Number of times the output ran dry while playing */
+	public final int underruns;
+
+	/** Smallest amount of queued audio seen before a write, in milliseconds */
+	public final int minHeadroomMillis;
+
+	/** Longest gap between two writes from the stream thread, in milliseconds */
+	public final int maxFeedIntervalMillis;
+
+	/**
+	 * Constructor
+	 * @param bufferSize Output buffer size in bytes
+	 * @param bufferSizeMultiplier Buffer size multiplier (0 if the buffer size was given directly)
+	 * @param bufferMillis Length of the output buffer in milliseconds
+	 * @param playedMillis Milliseconds of audio played
+	 * @param underruns Number of times the output ran dry
+	 * @param minHeadroomMillis Smallest amount of queued audio seen before a write
+	 * @param maxFeedIntervalMillis Longest gap between two writes
+	 */
+	public StreamHealth(int bufferSize, int bufferSizeMultiplier, int bufferMillis, long playedMillis, int underruns,
+			int minHeadroomMillis, int maxFeedIntervalMillis)
+	{
+		this.bufferSize = bufferSize;
+		this.bufferSizeMultiplier = bufferSizeMultiplier;
+		this.bufferMillis = bufferMillis;
+		this.playedMillis = playedMillis;
+		this.underruns = underruns;
+		this.minHeadroomMillis = minHeadroomMillis;
+		this.maxFeedIntervalMillis = maxFeedIntervalMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "buffer " + bufferSize + " bytes (" + bufferMillis + "ms, x" + bufferSizeMultiplier + "), played " + playedMillis +
+				"ms, underruns " + underruns + ", min headroom " + minHeadroomMillis + "ms, max feed interval " + maxFeedIntervalMillis + "ms";
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import paulscode.sound.PAudioFormat;
+import paulscode.sound.SoundSystemConfig;
+
+/**
+ * Start positions of the streams, and the seek latency of each format.
+ * Set the start position of a file before playing it (e.g. where it was stopped); the codec which opens the file
+ * takes the position in initialize() and seeks there with {@link #seek(SeekableCodec, String, long)}, so the stream resumes
+ * instead of starting from the beginning. Wrapper codecs take the position before they initialize the codec inside,
+ * so the outermost codec which can seek is the one which does it.
+ * @author NullNoname
+ */
+public class StreamResume {
+	/** Start positions in milliseconds by filename */
+	private static final Map<String, Long> startMillis = new HashMap<String, Long>();
+
+	/** Seek latency in nanoseconds by format (extension) */
+	private static final Map<String, LatencyHistogram> latencies = new TreeMap<String, LatencyHistogram>();
+
+	/**
+	 * Set the start position of the next stream of a file
+	 * @param filename Filename
+	 * @param millis Start position in milliseconds (0 to start from the beginning)
+	 */
+	public static void setStartMillis(String filename, long millis) {
+		synchronized(startMillis) {
+			if(millis > 0)
+				startMillis.put(filename, millis);
+			else
+				startMillis.remove(filename);
+		}
+	}
+
+	/**
+	 * Take the start position of a file. The position is removed, so it applies to one stream only.
+	 * @param filename Filename
+	 * @return Start position in milliseconds (0 if not set)
+	 */
+	public static long takeStartMillis(String filename) {
+		if(filename == null) return 0;
+		synchronized(startMillis) {
+			Long millis = startMillis.remove(filename);
+			return (millis != null) ? millis : 0;
+		}
+	}
+
+	/**
+	 * Seek to a start position and record the time taken for the format of the file
+	 * @param codec Initialized codec
+	 * @param filename Filename
+	 * @param millis Start position in milliseconds
+	 * @return false if the codec could not seek
+	 */
+	public static boolean seek(SeekableCodec codec, String filename, long millis) {
+		PAudioFormat format = codec.getAudioFormat();
+		if(format == null) return false;
+
+		long begin = System.nanoTime();
+		boolean result = codec.seek((long)(millis * (double)format.getSampleRate() / 1000));
+		long nanos = System.nanoTime() - begin;
+		recordLatency(getFormat(filename), nanos);
+
+		if(result) {
+			SoundSystemConfig.getLogger().message("Resumed '" + filename + "' at " + (millis / 100) / 10f + "s (seek " + LatencyHistogram.toMillis(nanos) + "ms)", 0);
+		} else {
+			SoundSystemConfig.getLogger().errorMessage("StreamResume", "Could not seek '" + filename + "' to " + millis + "ms", 0);
+		}
+		return result;
+	}
+
+	/**
+	 * Record a seek latency
+	 * @param format Format (extension)
+	 * @param nanos Latency in nanoseconds
+	 */
+	public static void recordLatency(String format, long nanos) {
+		synchronized(latencies) {
+			LatencyHistogram histogram = latencies.get(format);
+			if(histogram == null) {
+				histogram = new LatencyHistogram();
+				latencies.put(format, histogram);
+			}
+			histogram.record(nanos);
+		}
+	}
+
+	/**
+	 * Build a report of the seek latency of each format (count, p50, p99, max and mean in milliseconds)
+	 * @return Report
+	 */
+	public static String getStats() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("***** Seek Latency (ms) *****\n");
+		synchronized(latencies) {
+			for(Map.Entry<String, LatencyHistogram> entry : latencies.entrySet()) {
+				entry.getValue().appendSummary(sb, entry.getKey()).append('\n');
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Clear the recorded seek latencies
+	 */
+	public static void resetStats() {
+		synchronized(latencies) {
+			latencies.clear();
+		}
+	}
+
+	/**
+	 * Get the format of a file
+	 * @param filename Filename
+	 * @return Extension in lower case (empty if none)
+	 */
+	public static String getFormat(String filename) {
+		int dot = filename.lastIndexOf('.');
+		return (dot >= 0) ? filename.substring(dot + 1).toLowerCase(Locale.US) : "";
+	}
+}
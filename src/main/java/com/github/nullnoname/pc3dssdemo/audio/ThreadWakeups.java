@@ -0,0 +1,200 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.github.nullnoname.pc3dssdemo.audio;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counts the wakeups of the threads of this process, from the voluntary context switches in /proc/self/task/&lt;tid&gt;/status (Linux and Android).
+ * A thread switches out voluntarily each time it sleeps or waits, so the count is the number of times it has woken up (plus once if it is asleep now).
+ * @author NullNoname
+ */
+public class ThreadWakeups {
+	/** Thread directory of this process */
+	private static final File TASK_DIR = new File("/proc/self/task");
+
+	/** Line of the status file with the count */
+	private static final String VOLUNTARY_PREFIX = "voluntary_ctxt_switches:";
+
+	/** Line of the status file with the thread name */
+	private static final String NAME_PREFIX = "Name:";
+
+	/** Length of the thread names kept by the kernel */
+	private static final int MAX_NAME_LENGTH = 15;
+
+	/**
+	 * @return true if the counts can be read on this system
+	 */
+	public static boolean isSupported() {
+		return TASK_DIR.isDirectory();
+	}
+
+	/**
+	 * Get the total number of wakeups of all threads of this process.
+	 * Threads which have ended are no longer counted, so take the difference of two reads over a period without thread exits.
+	 * @return Wakeups, or -1 if the counts cannot be read
+	 */
+	public static long read() {
+		Map<Integer, Long> counts = readByThread();
+		if(counts == null) return -1;
+		long total = 0;
+		for(Long count : counts.values()) {
+			total += count;
+		}
+		return total;
+	}
+
+	/**
+	 * Get the total number of wakeups of some threads of this process, found by name.
+	 * Threads which have ended are no longer counted, so take the difference of two reads over a period without thread exits.
+	 * @param names Thread names (only the first 15 characters are compared, as the kernel keeps no more)
+	 * @return Wakeups, or -1 if the counts cannot be read
+	 */
+	public static long read(String... names) {
+		String[] tids = TASK_DIR.list();
+		if(tids == null) return -1;
+		long total = 0;
+		for(String tid : tids) {
+			long count = readNamed(tid, names);
+			if(count >= 0) total += count;
+		}
+		return total;
+	}
+
+	/**
+	 * Get the number of wakeups of each thread of this process
+	 * @return Wakeups by thread id, or null if the counts cannot be read
+	 */
+	public static Map<Integer, Long> readByThread() {
+		String[] tids = TASK_DIR.list();
+		if(tids == null) return null;
+		Map<Integer, Long> counts = new LinkedHashMap<Integer, Long>();
+		for(String tid : tids) {
+			long count = readField(tid, VOLUNTARY_PREFIX);
+			// A thread which ended after the list was read has no status any more
+			if(count >= 0) counts.put(Integer.valueOf(tid), count);
+		}
+		return counts;
+	}
+
+	/**
+	 * Get the name of a thread as the kernel knows it (the Java thread name when it started or renamed itself, cut to 15 characters)
+	 * @param tid Thread id
+	 * @return Name, or null if the thread does not exist
+	 */
+	public static String getName(int tid) {
+		BufferedReader in = null;
+		try {
+			in = new BufferedReader(new FileReader(new File(new File(TASK_DIR, String.valueOf(tid)), "status")));
+			String line;
+			while((line = in.readLine()) != null) {
+				if(line.startsWith(NAME_PREFIX)) return line.substring(NAME_PREFIX.length()).trim();
+			}
+		} catch (IOException e) {
+			// Ended
+		} finally {
+			close(in);
+		}
+		return null;
+	}
+
+	/**
+	 * Read the wakeups of a thread if it has one of the names
+	 * @param tid Thread id
+	 * @param names Thread names
+	 * @return Wakeups, or -1 if the thread has another name or the count cannot be read
+	 */
+	private static long readNamed(String tid, String[] names) {
+		BufferedReader in = null;
+		try {
+			in = new BufferedReader(new FileReader(new File(new File(TASK_DIR, tid), "status")));
+			String line;
+			boolean named = false;
+			while((line = in.readLine()) != null) {
+				if(line.startsWith(NAME_PREFIX)) {
+					String name = line.substring(NAME_PREFIX.length()).trim();
+					for(String n : names) {
+						if(n.length() > MAX_NAME_LENGTH) n = n.substring(0, MAX_NAME_LENGTH);
+						if(n.equals(name)) named = true;
+					}
+					if(!named) return -1;
+				} else if(named && line.startsWith(VOLUNTARY_PREFIX)) {
+					return Long.parseLong(line.substring(VOLUNTARY_PREFIX.length()).trim());
+				}
+			}
+		} catch (IOException e) {
+			// Ended
+		} catch (NumberFormatException e) {
+			// Unexpected format
+		} finally {
+			close(in);
+		}
+		return -1;
+	}
+
+	/**
+	 * Read a number from the status file of a thread
+	 * @param tid Thread id
+	 * @param prefix Start of the line
+	 * @return Number, or -1 if it cannot be read
+	 */
+	private static long readField(String tid, String prefix) {
+		BufferedReader in = null;
+		try {
+			in = new BufferedReader(new FileReader(new File(new File(TASK_DIR, tid), "status")));
+			String line;
+			while((line = in.readLine()) != null) {
+				if(line.startsWith(prefix)) return Long.parseLong(line.substring(prefix.length()).trim());
+			}
+		} catch (IOException e) {
+			// Ended
+		} catch (NumberFormatException e) {
+			// Unexpected format
+		} finally {
+			close(in);
+		}
+		return -1;
+	}
+
+	/**
+	 * Close a reader, ignoring errors
+	 * @param in Reader (can be null)
+	 */
+	private static void close(BufferedReader in) {
+		if(in == null) return;
+		try {
+			in.close();
+		} catch (IOException e) {
+			// Ignored
+		}
+	}
+}